@@ -0,0 +1,103 @@
+package jp.unaguna.mappedftp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-process HTTP server which serves fixed contents, as the source of url-files in benchmarks.
+ */
+public class BenchmarkHttpServer implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    private volatile int latencyChunkSize = 0;
+    private volatile long latencyMillis = 0;
+
+    public BenchmarkHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "benchmark-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    public BenchmarkHttpServer put(String path, byte[] content) {
+        contents.put(path, content);
+        return this;
+    }
+
+    /**
+     * Set the time to wait before sending each chunk of a content, to simulate a slow upstream.
+     *
+     * @param chunkSize     the size of a chunk in bytes
+     * @param latencyMillis the time to wait in milliseconds, or 0 to send the content at once
+     * @return this
+     */
+    public BenchmarkHttpServer setLatency(int chunkSize, long latencyMillis) {
+        this.latencyChunkSize = chunkSize;
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    public URL url(String path) throws MalformedURLException {
+        return new URL("http://" + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + server.getAddress().getPort() + path);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final byte[] content = contents.get(exchange.getRequestURI().getPath());
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                if (latencyMillis <= 0) {
+                    outputStream.write(content);
+                    return;
+                }
+                for (int offset = 0; offset < content.length; offset += latencyChunkSize) {
+                    sleep(latencyMillis);
+                    outputStream.write(content, offset, Math.min(latencyChunkSize, content.length - offset));
+                    outputStream.flush();
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package jp.unaguna.mappedftp;
+
+import jp.unaguna.mappedftp.command.MappedCommands;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromClasspath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemMappedFile;
+import jp.unaguna.mappedftp.filesystem.tree.cache.UrlContentCache;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.Listener;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures the end-to-end throughput of RETR for each kind of file, through an in-process FTP server.
+ *
+ * <p>
+ * The client keeps its control connection and downloads the same file repeatedly in binary passive mode.
+ * The source of url-files is an in-process HTTP server, and the source of classpath-files is an entry of a JAR
+ * as resources are usually packaged.
+ * </p>
+ *
+ * <p>
+ * Each RETR costs a constant latency of about 40ms on Linux regardless of the file:
+ * the server writes the replies "150" and "226" to the control connection without TCP_NODELAY,
+ * so "226" waits for the delayed ACK of the client.
+ * Compare the types with the larger file size, where the transfer itself dominates.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrBenchmark {
+    @Param({"local-file", "memory-file", "mmap-file", "classpath-file", "url-file", "url-file-cached"})
+    public String type;
+
+    @Param({"65536", "67108864"})
+    public int fileSize;
+
+    private Path workDirectory;
+    private BenchmarkHttpServer httpServer;
+    private UrlContentCache cache;
+    private FtpServer ftpServer;
+    private FTPClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, FtpException, FileSystemDefinitionException {
+        final byte[] content = new byte[fileSize];
+        new Random(0).nextBytes(content);
+        workDirectory = Files.createTempDirectory("mappedftp-benchmark");
+
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/file", createItem(content));
+
+        final FtpServerFactory serverFactory = new FtpServerFactory();
+        final ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress(InetAddress.getLoopbackAddress().getHostAddress());
+        listenerFactory.setPort(0);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.setUserManager(createUserManager());
+        serverFactory.setFileSystem(new MappingFileSystemFactory(files));
+        serverFactory.setCommandFactory(MappedCommands.createCommandFactory());
+        ftpServer = serverFactory.createServer();
+        ftpServer.start();
+        final Listener listener = serverFactory.getListener("default");
+
+        client = new FTPClient();
+        client.connect(InetAddress.getLoopbackAddress(), listener.getPort());
+        // without it, each command waits for a delayed ACK
+        client.setTcpNoDelay(true);
+        client.login("anonymous", "benchmark@example.com");
+        client.setFileType(FTP.BINARY_FILE_TYPE);
+        client.enterLocalPassiveMode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.logout();
+        client.disconnect();
+        ftpServer.stop();
+        if (httpServer != null) {
+            httpServer.close();
+        }
+        if (cache != null) {
+            cache.clear();
+        }
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long retr() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        if (!client.retrieveFile("/file", outputStream)) {
+            throw new IOException("RETR failed: " + client.getReplyString());
+        }
+        return outputStream.count;
+    }
+
+    private FileTreeItem createItem(byte[] content) throws IOException {
+        switch (type) {
+            case "local-file": {
+                final Path file = workDirectory.resolve("file.bin");
+                Files.write(file, content);
+                return new FileTreeItemFromLocalFile(file);
+            }
+            case "memory-file": {
+                return new FileTreeItemInMemory(content);
+            }
+            case "mmap-file": {
+                final Path file = workDirectory.resolve("file.bin");
+                Files.write(file, content);
+                return new FileTreeItemMappedFile(file);
+            }
+            case "classpath-file": {
+                final Path jar = workDirectory.resolve("resources.jar");
+                try (JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(jar))) {
+                    outputStream.putNextEntry(new JarEntry("file.bin"));
+                    outputStream.write(content);
+                    outputStream.closeEntry();
+                }
+                final URL url = new URL("jar:" + jar.toUri() + "!/file.bin");
+                return new FileTreeItemFromClasspath("/file.bin") {
+                    @Override
+                    public URL getSourceUrl() throws FileNotFoundException {
+                        return url;
+                    }
+                };
+            }
+            case "url-file":
+            case "url-file-cached": {
+                httpServer = new BenchmarkHttpServer().put("/file.bin", content);
+                final FileTreeItemFromURL item = new FileTreeItemFromURL(httpServer.url("/file.bin"));
+                if ("url-file-cached".equals(type)) {
+                    cache = UrlContentCache.getInstance(workDirectory.resolve("cache"), UrlContentCache.DEFAULT_MAX_SIZE);
+                    item.setCache(cache);
+                }
+                return item;
+            }
+            default:
+                throw new IllegalArgumentException("unknown type: " + type);
+        }
+    }
+
+    private static UserManager createUserManager() throws FtpException {
+        final UserManager userManager = new PropertiesUserManagerFactory().createUserManager();
+        final BaseUser user = new BaseUser();
+        user.setName("anonymous");
+        user.setHomeDirectory("/");
+        user.setAuthorities(Collections.<Authority>singletonList(new ConcurrentLoginPermission(0, 0)));
+        userManager.save(user);
+        return userManager;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package jp.unaguna.mappedftp.checksum;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing the checksum of a local file from the top to the end,
+ * against computing it in parallel chunks, and getting it from the cache.
+ *
+ * <p>
+ * Only CRC32 is split into chunks; the chunked computation of the other algorithms is the same as the sequential one.
+ * The file is in the page cache after the first iteration, so the computation is bound by the CPU,
+ * and the chunks are faster only with as many free cores as {@code threads}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"CRC32", "MD5", "SHA_256"})
+    public ChecksumAlgorithm algorithm;
+
+    @Param({"67108864"})
+    public int fileSize;
+
+    @Param({"4"})
+    public int threads;
+
+    private Path file;
+    private ChecksumService sequential;
+    private ChecksumService chunked;
+    private FileTreeItemFromLocalFile uncachedItem;
+    private FileTreeItemFromLocalFile cachedItem;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = Files.createTempFile("mappedftp-benchmark", ".bin");
+        final byte[] content = new byte[fileSize];
+        new Random(0).nextBytes(content);
+        Files.write(file, content);
+
+        sequential = new ChecksumService(threads);
+        sequential.setChunkSize(Long.MAX_VALUE);
+        chunked = new ChecksumService(threads);
+        chunked.setChunkSize(4 * 1024 * 1024);
+
+        // without the identity, the checksum is computed each time
+        uncachedItem = new FileTreeItemFromLocalFile(file) {
+            @Override
+            public String getContentIdentity() {
+                return null;
+            }
+        };
+        cachedItem = new FileTreeItemFromLocalFile(file);
+        sequential.compute(cachedItem, algorithm).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sequential.close();
+        chunked.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String computeSequential() throws Exception {
+        return sequential.compute(uncachedItem, algorithm).get();
+    }
+
+    @Benchmark
+    public String computeChunked() throws Exception {
+        return chunked.compute(uncachedItem, algorithm).get();
+    }
+
+    @Benchmark
+    public String cached() throws Exception {
+        return sequential.compute(cachedItem, algorithm).get();
+    }
+}
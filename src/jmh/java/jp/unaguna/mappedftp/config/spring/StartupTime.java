@@ -0,0 +1,145 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the time to load a configuration with a large mapping, as the server does at startup.
+ *
+ * <p>
+ * It is not a JMH benchmark, since the startup is run only once in a process; run it with:
+ * </p>
+ * <pre>
+ * java -cp target/mappedftp-0.2.0-benchmarks.jar jp.unaguna.mappedftp.config.spring.StartupTime [mappings...]
+ * </pre>
+ * <p>
+ * Each mapping is a {@code <local-file>} with an owner, a group and a last modified time,
+ * spread as {@link jp.unaguna.mappedftp.filesystem.MappingFileSystemFactoryBenchmark}.
+ * The same mapping is loaded from the elements in the XML ("xml"), from a mapping file ("mapping-file")
+ * and from an index compiled by {@link MappingIndexCompiler} in advance ("index").
+ * The first load in the process is reported separately, since it includes loading the classes.
+ * </p>
+ */
+public class StartupTime {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException, FileSystemDefinitionException {
+        final int[] sizes = args.length == 0 ? new int[]{10_000, 100_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        final Path directory = Files.createTempDirectory("mappedftp-startup");
+        System.out.printf("%-10s %-14s %12s %12s%n", "mappings", "source", "first ms", "best ms");
+        for (int size : sizes) {
+            measure(size, "xml", writeXmlConfig(directory, size));
+            measure(size, "mapping-file", writeMappingFileConfig(directory, size));
+            measure(size, "index", writeIndexConfig(directory, size));
+        }
+    }
+
+    private static void measure(int mappings, String source, Path config) {
+        long first = -1;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            try (FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(config.toUri().toString())) {
+                final DefaultFtpServer server = (DefaultFtpServer) ctx.getBean("server");
+                final MappingFileSystemFactory factory = (MappingFileSystemFactory) server.getFileSystem();
+                if (factory.getIndex() != null) {
+                    // the index is not read until a path is resolved
+                    factory.createFileSystemView(new BaseUser()).getFile(path(mappings - 1));
+                } else if (factory.getFiles().size() != mappings) {
+                    throw new IllegalStateException("unexpected mappings: " + factory.getFiles().size());
+                }
+            } catch (FtpException e) {
+                throw new IllegalStateException(e);
+            }
+            final long millis = (System.nanoTime() - start) / 1_000_000L;
+            if (first < 0) {
+                first = millis;
+            }
+            best = Math.min(best, millis);
+        }
+        System.out.printf("%-10d %-14s %12d %12d%n", mappings, source, first, best);
+    }
+
+    private static Path writeXmlConfig(Path directory, int mappings) throws IOException {
+        final Path config = directory.resolve("xml-" + mappings + ".xml");
+        try (Writer writer = Files.newBufferedWriter(config, StandardCharsets.UTF_8)) {
+            writeHeader(writer);
+            for (int i = 0; i < mappings; i++) {
+                writer.write("        <local-file path=\"" + path(i) + "\" src=\"./file" + i + ".txt\""
+                        + " owner=\"ftp\" group=\"ftp\" last-modified=\"" + (1_600_000_000_000L + i) + "\"/>\n");
+            }
+            writeFooter(writer);
+        }
+        return config;
+    }
+
+    private static Path writeMappingFileConfig(Path directory, int mappings) throws IOException {
+        final Path mappingFile = directory.resolve("mapping-" + mappings + ".csv");
+        try (Writer writer = Files.newBufferedWriter(mappingFile, StandardCharsets.UTF_8)) {
+            writer.write("type,path,src,owner,group,last-modified\n");
+            for (int i = 0; i < mappings; i++) {
+                writer.write("local-file," + path(i) + ",./file" + i + ".txt,ftp,ftp," + (1_600_000_000_000L + i) + "\n");
+            }
+        }
+
+        final Path config = directory.resolve("mapping-file-" + mappings + ".xml");
+        try (Writer writer = Files.newBufferedWriter(config, StandardCharsets.UTF_8)) {
+            writeHeader(writer);
+            writer.write("        <mapping-file src=\"" + mappingFile + "\"/>\n");
+            writeFooter(writer);
+        }
+        return config;
+    }
+
+    private static Path writeIndexConfig(Path directory, int mappings)
+            throws IOException, FileSystemDefinitionException {
+        final Path indexFile = directory.resolve("mapping-" + mappings + ".idx");
+        new MappingIndexCompiler().compile(directory.resolve("mapping-" + mappings + ".csv"), indexFile);
+
+        final Path config = directory.resolve("index-" + mappings + ".xml");
+        try (Writer writer = Files.newBufferedWriter(config, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+                    + "<server xmlns=\"http://mappedftp.unaguna.jp/mapped-ftpserver\"\n"
+                    + "        xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                    + "        xsi:schemaLocation=\"http://mappedftp.unaguna.jp/mapped-ftpserver"
+                    + " http://mappedftp.unaguna.jp/mapped-ftpserver-0.2.xsd\"\n"
+                    + "        id=\"server\">\n"
+                    + "    <mapped-filesystem index=\"" + indexFile + "\"/>\n"
+                    + "</server>\n");
+        }
+        return config;
+    }
+
+    private static String path(int i) {
+        return "/dir" + (i % 100) + "/sub" + (i / 100 % 100) + "/file" + i + ".txt";
+    }
+
+    private static void writeHeader(Writer writer) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+                + "<server xmlns=\"http://mappedftp.unaguna.jp/mapped-ftpserver\"\n"
+                + "        xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                + "        xsi:schemaLocation=\"http://mappedftp.unaguna.jp/mapped-ftpserver"
+                + " http://mappedftp.unaguna.jp/mapped-ftpserver-0.2.xsd\"\n"
+                + "        id=\"server\">\n"
+                + "    <mapped-filesystem>\n");
+    }
+
+    private static void writeFooter(Writer writer) throws IOException {
+        writer.write("    </mapped-filesystem>\n"
+                + "</server>\n");
+    }
+}
@@ -0,0 +1,44 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of the tree from mappings.
+ *
+ * <p>
+ * The files are spread over two levels of 100 directories each, like a typical mirror of many artifacts.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingFileSystemFactoryBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int mappings;
+
+    private Map<String, FileTreeItem> files;
+
+    @Setup
+    public void setUp() {
+        files = new LinkedHashMap<>();
+        for (int i = 0; i < mappings; i++) {
+            files.put("/dir" + (i % 100) + "/sub" + (i / 100 % 100) + "/file" + i + ".txt",
+                    new FileTreeItemEmptyFile());
+        }
+    }
+
+    @Benchmark
+    public LinkedFileNode buildRoot() throws FileSystemDefinitionException {
+        // the tree is built at the first call of each factory
+        return new MappingFileSystemFactory(files).buildRoot(null);
+    }
+}
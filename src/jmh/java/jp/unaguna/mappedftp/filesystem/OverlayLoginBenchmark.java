@@ -0,0 +1,72 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the login of a user who has an overlay, that is, creating the view and resolving a file of the overlay.
+ *
+ * <p>
+ * {@code overlay} lays a {@link MappingOverlay} over the shared tree;
+ * {@code mergedTree} builds a tree from the shared mapping and the files of the user, as before overlays.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OverlayLoginBenchmark {
+    @Param({"1000", "100000"})
+    public int mappings;
+
+    @Param({"10", "1000"})
+    public int overlayFiles;
+
+    private Map<String, FileTreeItem> files;
+    private Map<String, FileTreeItem> userFiles;
+    private MappingFileSystemFactory factory;
+    private BaseUser user;
+
+    @Setup
+    public void setUp() throws FileSystemDefinitionException {
+        files = new LinkedHashMap<>();
+        for (int i = 0; i < mappings; i++) {
+            files.put("/dir" + (i % 100) + "/sub" + (i / 100 % 100) + "/file" + i + ".txt",
+                    new FileTreeItemEmptyFile());
+        }
+        userFiles = new LinkedHashMap<>();
+        for (int i = 0; i < overlayFiles; i++) {
+            userFiles.put("/dir" + (i % 100) + "/user/file" + i + ".txt", new FileTreeItemEmptyFile());
+        }
+
+        user = new BaseUser();
+        user.setName("user");
+        factory = new MappingFileSystemFactory(files);
+        factory.setUserOverlays(Collections.singletonMap("user", new MappingOverlay(userFiles)));
+        // build the shared tree before the measurement
+        factory.buildRoot(new BaseUser());
+    }
+
+    @Benchmark
+    public FtpFile overlay() throws FtpException {
+        return factory.createFileSystemView(user).getFile("/dir0/user/file0.txt");
+    }
+
+    @Benchmark
+    public FtpFile mergedTree() throws FtpException {
+        final Map<String, FileTreeItem> merged = new LinkedHashMap<>(files);
+        merged.putAll(userFiles);
+        return new LinkedFileSystemView(MappingFileSystemFactory.buildTree(merged)).getFile("/dir0/user/file0.txt");
+    }
+}
@@ -0,0 +1,74 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the resolution of a path to a node at several depths,
+ * both from a parsed {@link TreePath} and from a path string as {@link LinkedFileSystemView} receives it,
+ * and the inverse; the absolute path of a node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathResolutionBenchmark {
+    @Param({"2", "10", "50"})
+    public int depth;
+
+    private LinkedFileSystemView view;
+    private FileTreeNode root;
+    private String absolutePath;
+    private TreePath relativePath;
+    private FileTreeNode leaf;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder pathBuilder = new StringBuilder();
+        for (int i = 1; i < depth; i++) {
+            pathBuilder.append("/directory").append(i);
+        }
+        pathBuilder.append("/file.txt");
+        absolutePath = pathBuilder.toString();
+        relativePath = TreePath.get(absolutePath).toRelative();
+
+        root = new FileTreeNode(new FileTreeItemDirectory(), null);
+        root.appendSubFile(new FileTreeItemEmptyFile(), relativePath);
+        view = new LinkedFileSystemView(root);
+        try {
+            leaf = root.getNodeByRelativePath(relativePath);
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public TreePath parse() {
+        return TreePath.get(absolutePath);
+    }
+
+    @Benchmark
+    public FileTreeNode resolve() throws NotDirectoryException, NoSuchFileException {
+        return root.getNodeByRelativePath(relativePath);
+    }
+
+    @Benchmark
+    public FtpFile getFile() throws FtpException {
+        return view.getFile(absolutePath);
+    }
+
+    @Benchmark
+    public String getAbsolutePath() {
+        return leaf.getAbsolutePath();
+    }
+}
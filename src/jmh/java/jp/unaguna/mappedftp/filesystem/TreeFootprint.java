@@ -0,0 +1,81 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.compact.CompactTree;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures the retained heap of the trees built from mappings with <a href="https://github.com/openjdk/jol">JOL</a>.
+ *
+ * <p>
+ * It is not a JMH benchmark; run it with:
+ * </p>
+ * <pre>
+ * java -cp target/mappedftp-0.2.0-benchmarks.jar jp.unaguna.mappedftp.filesystem.TreeFootprint [mappings...]
+ * </pre>
+ * <p>
+ * The files are spread as {@link MappingFileSystemFactoryBenchmark},
+ * and each has an owner, a group and a constant last modified time as if they were read from XML,
+ * where every attribute value is a distinct string.
+ * </p>
+ */
+public class TreeFootprint {
+    public static void main(String[] args) {
+        final int[] sizes = args.length == 0 ? new int[]{10_000, 100_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%-10s %-32s %14s %10s %14s %10s%n",
+                "mappings", "tree", "total bytes", "per file", "tree bytes", "per file");
+        for (int size : sizes) {
+            measure(size);
+        }
+    }
+
+    private static void measure(int mappings) {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        final CompactTree.Builder bareBuilder = new CompactTree.Builder();
+        final FileTreeItem[] bareItems = new FileTreeItem[mappings];
+        for (int i = 0; i < mappings; i++) {
+            final String path = "/dir" + (i % 100) + "/sub" + (i / 100 % 100) + "/file" + i + ".txt";
+            final long lastModified = 1_600_000_000_000L + i;
+
+            final FileTreeItemEmptyFile item = new FileTreeItemEmptyFile();
+            item.setOwnerName(new String("ftp"));
+            item.setGroupName(new String("ftp"));
+            item.setLastModifiedFactory(DateFactory.constance(lastModified));
+            files.put(path, item);
+
+            // the metadata is given to the tree instead of the item
+            bareItems[i] = new FileTreeItemEmptyFile();
+            bareBuilder.add(path, bareItems[i], "ftp", "ftp", lastModified);
+        }
+        final long itemBytes = sizeOfElements(files.values().toArray());
+        final long bareItemBytes = sizeOfElements(bareItems);
+
+        report(mappings, "FileTreeNode", MappingFileSystemFactory.buildTree(files), itemBytes);
+        report(mappings, "CompactTree", CompactTree.build(files), itemBytes);
+        report(mappings, "CompactTree (metadata in tree)", bareBuilder.build(), bareItemBytes);
+    }
+
+    /**
+     * Returns the retained size of the elements, excluding the array itself.
+     */
+    private static long sizeOfElements(Object[] array) {
+        return GraphLayout.parseInstance((Object) array).totalSize() - VM.current().sizeOf(array);
+    }
+
+    private static void report(int mappings, String name, Object tree, long itemBytes) {
+        final long total = GraphLayout.parseInstance(tree).totalSize();
+        final long treeOnly = total - itemBytes;
+        System.out.printf("%-10d %-32s %14d %10d %14d %10d%n",
+                mappings, name, total, total / mappings, treeOnly, treeOnly / mappings);
+    }
+}
@@ -0,0 +1,40 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing and normalizing of paths as FTP clients send them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreePathBenchmark {
+    @Param({
+            "file.txt",
+            "/pub/releases/1.0/artifact.tar.gz",
+            "../../pub/./releases/1.0/../2.0/artifact.tar.gz",
+    })
+    public String path;
+
+    private TreePath treePath;
+
+    @Setup
+    public void setUp() {
+        treePath = TreePath.get(path);
+    }
+
+    @Benchmark
+    public TreePath get() {
+        return TreePath.get(path);
+    }
+
+    @Benchmark
+    public TreePath normalize() {
+        return treePath.normalize();
+    }
+}
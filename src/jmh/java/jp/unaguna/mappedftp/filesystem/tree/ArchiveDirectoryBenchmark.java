@@ -0,0 +1,143 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.tree.archive.ZipIndex;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures reading the index of an archive with many entries, and reading a small entry of it.
+ *
+ * <p>
+ * {@code readIndex} is compared with opening the archive by {@link ZipFile} and enumerating its entries,
+ * and {@code readEntry} with reading the same content from a local file.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveDirectoryBenchmark {
+    private static final int ENTRY_SIZE = 4096;
+
+    @Param({"1000", "100000"})
+    public int entries;
+
+    private Path zip;
+    private Path localFile;
+    private SharedFileChannel sharedFile;
+    private FileTreeItem storedEntry;
+    private FileTreeItem deflatedEntry;
+    private FileTreeItem localEntry;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] content = new byte[ENTRY_SIZE];
+        new Random(0).nextBytes(content);
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+
+        zip = Files.createTempFile("mappedftp-benchmark", ".zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (int i = 0; i < entries; i++) {
+                final ZipEntry entry = new ZipEntry("dir" + (i % 100) + "/file" + i);
+                if ((i / 100) % 2 == 0) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCompressedSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        localFile = Files.createTempFile("mappedftp-benchmark", ".bin");
+        Files.write(localFile, content);
+
+        sharedFile = new SharedFileChannel(zip);
+        final ZipIndex index = ZipIndex.read(sharedFile);
+        final FileTreeItemFromArchive archive = new FileTreeItemFromArchive(zip);
+        final int dir = index.getChild(ZipIndex.ROOT, 0);
+        // the children are sorted by name: file0, file100, ...
+        storedEntry = new FileTreeItemArchiveEntry(archive, index, index.getChild(dir, 0));
+        deflatedEntry = new FileTreeItemArchiveEntry(archive, index, findDeflated(index, dir));
+        localEntry = new FileTreeItemFromLocalFile(localFile);
+    }
+
+    private static int findDeflated(ZipIndex index, int dir) {
+        for (int i = 0; i < index.getChildCount(dir); i++) {
+            if (!index.isStored(index.getChild(dir, i))) {
+                return index.getChild(dir, i);
+            }
+        }
+        throw new IllegalStateException("no deflated entry");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sharedFile.close();
+        Files.deleteIfExists(zip);
+        Files.deleteIfExists(localFile);
+    }
+
+    @Benchmark
+    public int readIndex() throws IOException {
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            return ZipIndex.read(file).size();
+        }
+    }
+
+    @Benchmark
+    public int readIndexByZipFile() throws IOException {
+        int count = 0;
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            final Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+            while (enumeration.hasMoreElements()) {
+                enumeration.nextElement();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long readStoredEntry() throws IOException {
+        return read(storedEntry);
+    }
+
+    @Benchmark
+    public long readDeflatedEntry() throws IOException {
+        return read(deflatedEntry);
+    }
+
+    @Benchmark
+    public long readLocalFile() throws IOException {
+        return read(localEntry);
+    }
+
+    private long read(FileTreeItem item) throws IOException {
+        long size = 0;
+        try (InputStream inputStream = item.createInputStream(0)) {
+            int count;
+            while ((count = inputStream.read(buffer)) >= 0) {
+                size += count;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,84 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures opening and reading a whole small file, as each RETR does,
+ * with several threads reading the same file like concurrent sessions.
+ *
+ * <p>
+ * local-file opens the file for each read, while memory-file and mmap-file serve the content
+ * loaded once. Run it with {@code -prof gc} to see the allocation per read.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class HotFileReadBenchmark {
+    @Param({"local-file", "memory-file", "memory-file-direct", "mmap-file"})
+    public String type;
+
+    @Param({"4096", "65536"})
+    public int fileSize;
+
+    private Path file;
+    private FileTreeItem item;
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        private final byte[] bytes = new byte[8192];
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] content = new byte[fileSize];
+        new Random(0).nextBytes(content);
+        file = Files.createTempFile("mappedftp-benchmark", ".bin");
+        Files.write(file, content);
+
+        switch (type) {
+            case "local-file":
+                item = new FileTreeItemFromLocalFile(file);
+                break;
+            case "memory-file":
+                item = new FileTreeItemInMemory(file.toUri().toURL(), false);
+                break;
+            case "memory-file-direct":
+                item = new FileTreeItemInMemory(file.toUri().toURL(), true);
+                break;
+            case "mmap-file":
+                item = new FileTreeItemMappedFile(file);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown type: " + type);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long read(Buffer buffer) throws IOException {
+        long size = 0;
+        try (InputStream inputStream = item.createInputStream(0)) {
+            int count;
+            while ((count = inputStream.read(buffer.bytes)) >= 0) {
+                size += count;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,65 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import org.apache.ftpserver.command.impl.listing.LISTFileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FileTreeNode#listFiles()} and reading the LIST output of
+ * {@link FileTreeNode#openChildrenListing(String, org.apache.ftpserver.command.impl.listing.FileFilter, org.apache.ftpserver.command.impl.listing.FileFormater)}
+ * on directories of several widths.
+ * Run it with {@code -prof gc} to see the allocation per listing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListingBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int width;
+
+    private static final LISTFileFormater LIST_FILE_FORMATER = new LISTFileFormater();
+
+    private FileTreeNode directory;
+    private final byte[] buffer = new byte[4096];
+
+    @Setup
+    public void setUp() {
+        final FileTreeNode root = new FileTreeNode(new FileTreeItemDirectory(), null);
+        for (int i = 0; i < width; i++) {
+            root.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir", "file" + i + ".txt"));
+        }
+        try {
+            directory = root.getNodeByRelativePath(TreePath.get("dir"));
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public List<? extends FtpFile> listFiles() {
+        return directory.listFiles();
+    }
+
+    @Benchmark
+    public long readListing() throws IOException {
+        long size = 0;
+        try (InputStream inputStream = directory.openChildrenListing("LIST", null, LIST_FILE_FORMATER)) {
+            int count;
+            while ((count = inputStream.read(buffer)) >= 0) {
+                size += count;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,103 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of sending a local file to a socket
+ * through {@link FileTreeNode#createInputStream(long)} and through {@link FileTreeNode#transferTo(long, java.nio.channels.WritableByteChannel)}.
+ *
+ * <p>
+ * The stream path copies the content in the same way as the data connection of Apache FtpServer
+ * (buffered streams with a 4KiB array).
+ * The socket is connected over the loopback interface and drained by another thread.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalFileTransferBenchmark {
+    @Param({"1048576", "67108864"})
+    public int fileSize;
+
+    private Path file;
+    private FileTreeNode node;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private Thread drain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] content = new byte[fileSize];
+        new Random(0).nextBytes(content);
+        file = Files.createTempFile("mappedftp-benchmark", ".bin");
+        Files.write(file, content);
+        node = new FileTreeNode(new FileTreeItemFromLocalFile(file), "file");
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        final SocketChannel accepted = server.accept();
+
+        drain = new Thread(() -> {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            try {
+                while (accepted.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }, "benchmark-drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        client.close();
+        drain.join(10_000);
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        final OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(client));
+        final byte[] buffer = new byte[4096];
+        long transferred = 0;
+
+        try (InputStream inputStream = new BufferedInputStream(node.createInputStream(0))) {
+            int length;
+            while ((length = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, length);
+                transferred += length;
+            }
+        }
+        outputStream.flush();
+        return transferred;
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        return node.transferTo(0, client);
+    }
+}
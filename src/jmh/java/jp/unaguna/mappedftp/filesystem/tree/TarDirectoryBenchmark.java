@@ -0,0 +1,107 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.tree.archive.TarIndex;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating the index of a tar archive by scanning its headers,
+ * against reading the index persisted by a former scan, as a restart does.
+ *
+ * <p>
+ * The members have {@code memberSize} bytes each, so the scan skips their contents;
+ * the scan reads one header per member, and the cost of the persisted index does not depend on the contents.
+ * The archive is in the page cache after the first iteration, so a cold scan of an archive on disk is slower.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TarDirectoryBenchmark {
+    @Param({"1000", "100000"})
+    public int members;
+
+    @Param({"4096"})
+    public int memberSize;
+
+    private Path directory;
+    private Path tar;
+    private Path indexFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mappedftp-benchmark");
+        tar = directory.resolve("bundle.tar");
+        indexFile = directory.resolve("bundle.tar.index");
+
+        final byte[] content = new byte[memberSize];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tar), 1 << 20)) {
+            for (int i = 0; i < members; i++) {
+                out.write(header("dir" + (i % 100) + "/file" + i, content.length));
+                out.write(content);
+                out.write(new byte[(512 - content.length % 512) % 512]);
+            }
+            out.write(new byte[1024]);
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            TarIndex.read(file).write(indexFile);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(tar);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public int scan() throws IOException {
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            return TarIndex.read(file).size();
+        }
+    }
+
+    @Benchmark
+    public int readPersisted() throws IOException {
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            return TarIndex.read(file, indexFile).size();
+        }
+    }
+
+    private static byte[] header(String name, long size) {
+        final byte[] header = new byte[512];
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, 1_600_000_000L);
+        header[156] = '0';
+        System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, sum);
+        return header;
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        final byte[] octal = String.format("%0" + (length - 1) + "o", value).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(octal, 0, header, offset, length - 1);
+    }
+}
@@ -0,0 +1,81 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import jp.unaguna.mappedftp.BenchmarkHttpServer;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a transfer of a url-file from a slow upstream to a slow client.
+ *
+ * <p>
+ * The upstream waits {@code latency} ms before each 64 KiB, and the client waits {@code latency * clientBurst} ms
+ * after each {@code clientBurst} x 64 KiB it reads, like a data connection waiting for the socket.
+ * {@code readAhead = 0} reads the upstream as the client reads.
+ * Note that on the loopback interface the socket buffers of the kernel already overlap the waits,
+ * so read-ahead is not expected to be faster here; it shows the overhead of the pipeline.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadAheadBenchmark {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int FILE_SIZE = 64 * CHUNK_SIZE;
+
+    @Param({"0", "4"})
+    public int readAhead;
+
+    @Param({"2"})
+    public long latency;
+
+    @Param({"1", "16"})
+    public int clientBurst;
+
+    private BenchmarkHttpServer server;
+    private FileTreeItemFromURL item;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] content = new byte[FILE_SIZE];
+        new Random(0).nextBytes(content);
+        server = new BenchmarkHttpServer().put("/file", content).setLatency(CHUNK_SIZE, latency);
+
+        item = new FileTreeItemFromURL(server.url("/file"));
+        item.setFetcher(new UpstreamFetcher());
+        if (readAhead > 0) {
+            item.setReadAhead(new ReadAhead(readAhead, CHUNK_SIZE, ReadAhead.Backpressure.BLOCK));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public long transfer() throws IOException, InterruptedException {
+        long size = 0;
+        long sinceWait = 0;
+        try (InputStream inputStream = item.createInputStream(0)) {
+            int count;
+            while ((count = inputStream.read(buffer)) >= 0) {
+                size += count;
+                sinceWait += count;
+                if (sinceWait >= (long) CHUNK_SIZE * clientBurst) {
+                    sinceWait -= (long) CHUNK_SIZE * clientBurst;
+                    Thread.sleep(latency * clientBurst);
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -1,12 +1,22 @@
 package jp.unaguna.mappedftp;
 
+import jp.unaguna.mappedftp.config.spring.MappingReloader;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
 import jp.unaguna.mappedftp.utils.ClasspathUtils;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.apache.ftpserver.main.CommandLine;
 
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
-public class MappedFtpServer {
+public class MappedFtpServer extends CommandLine {
 
     public static void main(String[] args) {
         final List<String> command = new ArrayList<>();
@@ -22,6 +32,56 @@ public class MappedFtpServer {
             command.add(args[0]);
         }
 
-        org.apache.ftpserver.main.CommandLine.main(command.toArray(new String[0]));
+        // same as org.apache.ftpserver.main.CommandLine#main, and watches the configuration file
+        final MappedFtpServer cli = new MappedFtpServer();
+        try {
+            final FtpServer server = cli.getConfiguration(command.toArray(new String[0]));
+            if (server == null) {
+                return;
+            }
+
+            server.start();
+            System.out.println("FtpServer started");
+
+            if (args.length > 0) {
+                cli.startReloader(server, args[0]);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Stopping server...");
+                server.stop();
+            }));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts reloading the mapping when the configuration file is changed.
+     *
+     * @param server     the started server
+     * @param configPath the path of the configuration file
+     * @throws IOException if the configuration file cannot be watched
+     */
+    private void startReloader(FtpServer server, String configPath) throws IOException {
+        if (!(server instanceof DefaultFtpServer)
+                || !(((DefaultFtpServer) server).getFileSystem() instanceof MappingFileSystemFactory)) {
+            return;
+        }
+
+        final Path path;
+        try {
+            path = Paths.get(configPath);
+        } catch (InvalidPathException e) {
+            // e.g. a URL
+            return;
+        }
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+
+        final MappingFileSystemFactory factory = (MappingFileSystemFactory) ((DefaultFtpServer) server).getFileSystem();
+        new MappingReloader(path, factory).start();
+        System.out.println("Watching " + path + " to reload the mapping");
     }
 }
@@ -0,0 +1,125 @@
+package jp.unaguna.mappedftp.checksum;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * The algorithms of checksums served by {@link ChecksumService}.
+ */
+public enum ChecksumAlgorithm {
+    CRC32("CRC32"),
+    MD5("MD5"),
+    SHA_1("SHA-1"),
+    SHA_256("SHA-256");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String name;
+
+    ChecksumAlgorithm(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of this algorithm, such as "SHA-256", used in the FTP commands.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether the checksums of consecutive ranges can be combined into the checksum of the whole content,
+     * so that the ranges can be computed in parallel.
+     *
+     * @return true if it is combinable
+     */
+    public boolean isCombinable() {
+        return this == CRC32;
+    }
+
+    /**
+     * Returns the algorithm of the name, ignoring the case.
+     *
+     * @param name the name such as "SHA-256"
+     * @return the algorithm, or null if it is unknown
+     */
+    public static ChecksumAlgorithm forName(String name) {
+        final String upperName = name.toUpperCase(Locale.ROOT);
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(upperName)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    Hasher newHasher() {
+        if (this == CRC32) {
+            final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            return new Hasher() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    crc.update(buffer);
+                }
+
+                @Override
+                public String finish() {
+                    return formatCrc(crc.getValue());
+                }
+            };
+        }
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException e) {
+            // every implementation of the Java platform supports MD5, SHA-1 and SHA-256
+            throw new IllegalStateException(e);
+        }
+        return new Hasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+
+            @Override
+            public String finish() {
+                return toHex(digest.digest());
+            }
+        };
+    }
+
+    static String formatCrc(long crc) {
+        final char[] chars = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            chars[i] = HEX[(int) (crc & 0xF)];
+            crc >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The computation of a checksum.
+     */
+    interface Hasher {
+        void update(ByteBuffer buffer);
+
+        /**
+         * Returns the checksum as lowercase hexadecimal digits.
+         */
+        String finish();
+    }
+}
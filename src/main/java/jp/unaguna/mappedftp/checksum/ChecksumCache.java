@@ -0,0 +1,248 @@
+package jp.unaguna.mappedftp.checksum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cache of checksums keyed by the identity of the content and the algorithm.
+ *
+ * <p>
+ * The least recently used checksums are forgotten when the number of them exceeds the limit.
+ * If the file is given, the checksums are appended to it as they are computed and loaded when the cache is created,
+ * so they survive restarts. The file is rewritten with only the remembered checksums
+ * when it holds twice as many records as the limit.
+ * A record partially written by a crash is discarded when the file is loaded.
+ * </p>
+ */
+public class ChecksumCache implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ChecksumCache.class.getName());
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    static final byte[] MAGIC = "MFTPCSUM".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+
+    private final Path file;
+    private final int maxEntries;
+    private final Map<String, String> entries;
+    private DataOutputStream output = null;
+    private int records = 0;
+
+    /**
+     * Create the cache in memory.
+     *
+     * @param maxEntries the maximum number of checksums to remember
+     */
+    public ChecksumCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.file = null;
+        this.maxEntries = maxEntries;
+        this.entries = createEntries(maxEntries);
+    }
+
+    /**
+     * Create the cache persisted to the file, loading the checksums in it.
+     *
+     * <p>
+     * If the file is broken, it is logged and the cache starts empty.
+     * </p>
+     *
+     * @param file       the file; it is created if it does not exist
+     * @param maxEntries the maximum number of checksums to remember
+     * @throws IOException if the file cannot be read or written
+     */
+    public ChecksumCache(Path file, int maxEntries) throws IOException {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.entries = createEntries(maxEntries);
+        load();
+    }
+
+    private static Map<String, String> createEntries(int maxEntries) {
+        return new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the cached checksum.
+     *
+     * @param algorithm the algorithm
+     * @param identity  the identity of the content, as {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeItem#getContentIdentity()}
+     * @return the checksum, or null if it is not cached
+     */
+    public synchronized String get(ChecksumAlgorithm algorithm, String identity) {
+        return entries.get(key(algorithm.getName(), identity));
+    }
+
+    /**
+     * Cache the checksum, and append it to the file.
+     *
+     * @param algorithm the algorithm
+     * @param identity  the identity of the content
+     * @param checksum  the checksum
+     * @throws IOException if the file cannot be written; the checksum is cached in memory anyway
+     */
+    public synchronized void put(ChecksumAlgorithm algorithm, String identity, String checksum) throws IOException {
+        entries.put(key(algorithm.getName(), identity), checksum);
+        if (file == null) {
+            return;
+        }
+
+        if (records >= maxEntries * 2) {
+            rewrite();
+            return;
+        }
+        if (output == null) {
+            output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+        }
+        writeRecord(output, algorithm.getName(), identity, checksum);
+        output.flush();
+        records++;
+    }
+
+    /**
+     * Returns the number of the remembered checksums.
+     *
+     * @return the number of the checksums
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    private static String key(String algorithmName, String identity) {
+        return algorithmName + " " + identity;
+    }
+
+    private void load() throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            rewrite();
+            return;
+        }
+
+        if (bytes.length < HEADER_SIZE || !Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)) {
+            LOG.warn("ignored the broken checksum cache: " + file);
+            rewrite();
+            return;
+        }
+        final ByteArrayInputStream buffer = new ByteArrayInputStream(bytes, MAGIC.length, bytes.length - MAGIC.length);
+        final DataInputStream in = new DataInputStream(buffer);
+        final int version = in.readInt();
+        if (version != VERSION) {
+            LOG.warn("ignored the checksum cache of unsupported version " + version + ": " + file);
+            rewrite();
+            return;
+        }
+
+        long validLength = HEADER_SIZE;
+        while (buffer.available() > 0) {
+            try {
+                final String algorithmName = in.readUTF();
+                final String identity = in.readUTF();
+                final String checksum = in.readUTF();
+                entries.put(key(algorithmName, identity), checksum);
+                records++;
+                validLength = bytes.length - buffer.available();
+            } catch (EOFException | UTFDataFormatException e) {
+                break;
+            }
+        }
+
+        if (validLength < bytes.length) {
+            LOG.warn("discarded the broken tail of the checksum cache: " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        if (records >= maxEntries * 2) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Write the remembered checksums to a temporary file and move it to the file.
+     */
+    private void rewrite() throws IOException {
+        close();
+
+        final Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    final String key = entry.getKey();
+                    final int separator = key.indexOf(' ');
+                    writeRecord(out, key.substring(0, separator), key.substring(separator + 1), entry.getValue());
+                }
+            }
+
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        records = entries.size();
+    }
+
+    private static void writeRecord(DataOutputStream out, String algorithmName, String identity, String checksum)
+            throws IOException {
+        out.writeUTF(algorithmName);
+        out.writeUTF(identity);
+        out.writeUTF(checksum);
+    }
+}
@@ -0,0 +1,454 @@
+package jp.unaguna.mappedftp.checksum;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the checksums of files in the background and caches them.
+ *
+ * <p>
+ * The checksums are computed by a bounded pool of threads, and the requests more than
+ * {@link #getQueueSize() the queue size} are rejected, so that the requests of clients do not pile up.
+ * The concurrent requests for the same file and algorithm share one computation.
+ * </p>
+ *
+ * <p>
+ * The checksums are cached with the {@link FileTreeItem#getContentIdentity() identity of the content},
+ * such as the path, the size and the last modified time of a local file, or the URL and the ETag,
+ * and persisted to {@link #setCacheFile(Path) the cache file} if it is set.
+ * The content without an identity is computed each time.
+ * </p>
+ *
+ * <p>
+ * The algorithms whose checksums can be combined, i.e. CRC32, are computed in parallel chunks of
+ * {@link #getChunkSize() the chunk size} for large random-accessible files if there are two or more threads.
+ * MD5, SHA-1 and SHA-256 are computed from the top to the end, since they cannot be split.
+ * Since CRC32 is as fast as reading a local file in the page cache, the chunks pay off only with free cores
+ * or with sources which are slower to read than to compute.
+ * </p>
+ */
+public class ChecksumService implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ChecksumService.class.getName());
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    public static final long DEFAULT_CHUNK_SIZE = 16L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ChecksumService DEFAULT = new ChecksumService();
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final ConcurrentHashMap<Request, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private volatile Semaphore queue;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private Path cacheFile = null;
+    private int maxCacheEntries = ChecksumCache.DEFAULT_MAX_ENTRIES;
+    private ChecksumCache cache = null;
+
+    public ChecksumService() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * @param threads the number of the threads to compute checksums
+     */
+    public ChecksumService(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads, p -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("checksum-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.queue = new Semaphore(queueSize);
+    }
+
+    /**
+     * Returns the service shared by the commands which are not given a service.
+     *
+     * <p>
+     * It caches the checksums only in memory.
+     * </p>
+     *
+     * @return the default service
+     */
+    public static ChecksumService getDefault() {
+        return DEFAULT;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the maximum number of the files whose checksums are being computed or waiting to be computed.
+     *
+     * @param queueSize the maximum number
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("queueSize must be positive: " + queueSize);
+        }
+        this.queueSize = queueSize;
+        this.queue = new Semaphore(queueSize);
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the size of the chunks computed in parallel.
+     *
+     * @param chunkSize the size in bytes; a file larger than it is split
+     */
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public synchronized Path getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Set the file to persist the checksums.
+     *
+     * <p>
+     * The file is loaded at the first request.
+     * </p>
+     *
+     * @param cacheFile the file, or null to cache the checksums only in memory
+     */
+    public synchronized void setCacheFile(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        resetCache();
+    }
+
+    public synchronized int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    /**
+     * Set the maximum number of the checksums to cache.
+     *
+     * @param maxCacheEntries the maximum number
+     */
+    public synchronized void setMaxCacheEntries(int maxCacheEntries) {
+        if (maxCacheEntries <= 0) {
+            throw new IllegalArgumentException("maxCacheEntries must be positive: " + maxCacheEntries);
+        }
+        this.maxCacheEntries = maxCacheEntries;
+        resetCache();
+    }
+
+    private void resetCache() {
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close the checksum cache: " + cache.getFile(), e);
+            }
+            cache = null;
+        }
+    }
+
+    /**
+     * Returns the cache, loading it at the first call.
+     *
+     * <p>
+     * If the cache file cannot be loaded, it is logged and the checksums are cached only in memory.
+     * </p>
+     *
+     * @return the cache
+     */
+    public synchronized ChecksumCache getCache() {
+        if (cache == null) {
+            if (cacheFile != null) {
+                try {
+                    cache = new ChecksumCache(cacheFile, maxCacheEntries);
+                    return cache;
+                } catch (IOException e) {
+                    LOG.warn("failed to load the checksum cache, so checksums are cached only in memory: "
+                            + cacheFile, e);
+                }
+            }
+            cache = new ChecksumCache(maxCacheEntries);
+        }
+        return cache;
+    }
+
+    /**
+     * Request the checksum of the file.
+     *
+     * <p>
+     * If the same checksum of the same file is being computed, the same future is returned.
+     * If {@link #getQueueSize() too many} checksums are requested, the returned future fails with
+     * {@link RejectedExecutionException}.
+     * </p>
+     *
+     * @param file      the file
+     * @param algorithm the algorithm
+     * @return the future of the checksum as lowercase hexadecimal digits
+     */
+    public CompletableFuture<String> compute(FileTreeItem file, ChecksumAlgorithm algorithm) {
+        final Request request = new Request(file, algorithm);
+        final CompletableFuture<String> running = inFlight.get(request);
+        if (running != null) {
+            return running;
+        }
+
+        final Semaphore queue = this.queue;
+        if (!queue.tryAcquire()) {
+            final MetricRegistry metrics = MetricRegistry.getDefault();
+            if (metrics.isEnabled()) {
+                metrics.counter("checksum.rejected").increment();
+            }
+            final CompletableFuture<String> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RejectedExecutionException("too many checksums are requested"));
+            return rejected;
+        }
+
+        final CompletableFuture<String> created = new CompletableFuture<>();
+        final CompletableFuture<String> previous = inFlight.putIfAbsent(request, created);
+        if (previous != null) {
+            queue.release();
+            return previous;
+        }
+        try {
+            pool.execute(() -> {
+                String checksum = null;
+                Throwable error = null;
+                try {
+                    checksum = computeNow(file, algorithm);
+                } catch (Throwable e) {
+                    error = e;
+                } finally {
+                    // released before completion, so that a request after the completion starts a new computation
+                    inFlight.remove(request, created);
+                    queue.release();
+                }
+                if (error == null) {
+                    created.complete(checksum);
+                } else {
+                    created.completeExceptionally(error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(request, created);
+            queue.release();
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Returns the checksum of the file from the cache, or computes it in the calling thread.
+     *
+     * @param file      the file
+     * @param algorithm the algorithm
+     * @return the checksum as lowercase hexadecimal digits
+     * @throws IOException if the file cannot be read
+     */
+    String computeNow(FileTreeItem file, ChecksumAlgorithm algorithm) throws IOException {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        final boolean measured = metrics.isEnabled();
+        final ChecksumCache cache = getCache();
+
+        final String identity = file.getContentIdentity();
+        if (identity != null) {
+            final String cached = cache.get(algorithm, identity);
+            if (cached != null) {
+                if (measured) {
+                    metrics.counter("checksum.cache.hits", "algorithm", algorithm.getName()).increment();
+                }
+                return cached;
+            }
+        }
+
+        final long start = measured ? System.nanoTime() : 0L;
+        final Long size = file.getSize();
+        String checksum = null;
+        if (algorithm.isCombinable() && threads > 1
+                && file.isRandomAccessible() && size != null && size > chunkSize) {
+            final long crc = computeChunks(file, size);
+            // the size may be older than the content
+            if (isEnd(file, size)) {
+                checksum = ChecksumAlgorithm.formatCrc(crc);
+            } else {
+                LOG.debug("the content of " + file + " is longer than its size, so it is computed again");
+            }
+        }
+        if (checksum == null) {
+            final ChecksumAlgorithm.Hasher hasher = algorithm.newHasher();
+            try (ReadableByteChannel channel = file.createChannel(0)) {
+                update(hasher::update, channel, Long.MAX_VALUE);
+            }
+            checksum = hasher.finish();
+        }
+        if (measured) {
+            metrics.counter("checksum.computed", "algorithm", algorithm.getName()).increment();
+            metrics.histogram("checksum.micros", "algorithm", algorithm.getName()).recordSince(start);
+        }
+
+        // the content may have been changed while it was read
+        if (identity != null && identity.equals(file.getContentIdentity())) {
+            try {
+                cache.put(algorithm, identity, checksum);
+            } catch (IOException e) {
+                LOG.warn("failed to persist the checksum of " + file + ": " + cache.getFile(), e);
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Compute CRC32 of the chunks in parallel and combine them.
+     */
+    private long computeChunks(FileTreeItem file, long size) throws IOException {
+        final List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += chunkSize) {
+            final long chunkOffset = offset;
+            final long length = Math.min(chunkSize, size - offset);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    return computeChunk(file, chunkOffset, length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        long crc = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            final long length = Math.min(chunkSize, size - i * chunkSize);
+            crc = Crc32Combiner.combine(crc, tasks.get(i).join(), length);
+        }
+        return crc;
+    }
+
+    private long computeChunk(FileTreeItem file, long offset, long length) throws IOException {
+        final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        try (ReadableByteChannel channel = file.createChannel(offset)) {
+            final long read = update(crc::update, channel, length);
+            if (read < length) {
+                throw new EOFException("the content of " + file + " is shorter than its size");
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Pass the content of the channel to the consumer, up to the limit.
+     *
+     * @return the number of bytes read
+     */
+    private static long update(BufferConsumer consumer, ReadableByteChannel channel, long limit) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long total = 0;
+        while (total < limit) {
+            buffer.clear();
+            if (limit - total < buffer.capacity()) {
+                buffer.limit((int) (limit - total));
+            }
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            consumer.update(buffer);
+            total += read;
+        }
+        return total;
+    }
+
+    private static boolean isEnd(FileTreeItem file, long offset) throws IOException {
+        try (ReadableByteChannel channel = file.createChannel(offset)) {
+            return channel.read(ByteBuffer.allocate(1)) < 0;
+        }
+    }
+
+    /**
+     * Stop the threads. The checksums being computed are abandoned.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        final ChecksumCache cache;
+        synchronized (this) {
+            cache = this.cache;
+        }
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private interface BufferConsumer {
+        void update(ByteBuffer buffer);
+    }
+
+    /**
+     * The key of the computations in flight; the files are compared by identity.
+     */
+    private static final class Request {
+        private final FileTreeItem file;
+        private final ChecksumAlgorithm algorithm;
+
+        private Request(FileTreeItem file, ChecksumAlgorithm algorithm) {
+            this.file = file;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Request)) {
+                return false;
+            }
+            final Request other = (Request) o;
+            return file == other.file && algorithm == other.algorithm;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(file) * 31 + algorithm.hashCode();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package jp.unaguna.mappedftp.checksum;
+
+/**
+ * Combines the CRC-32 of consecutive ranges into the CRC-32 of the whole content.
+ *
+ * <p>
+ * It is the algorithm of crc32_combine() of zlib: appending the bytes of the second range to the first one is
+ * a linear operation on the CRC over GF(2), so the CRC of the first range is advanced over as many zero bits
+ * as the length of the second range by squaring the operator matrix, and then the CRC of the second range is
+ * added. It takes O(log n) time for a length of n bytes.
+ * </p>
+ */
+final class Crc32Combiner {
+    private static final long POLYNOMIAL = 0xEDB88320L;
+    private static final int BITS = 32;
+
+    private Crc32Combiner() {
+    }
+
+    /**
+     * Returns the CRC-32 of the concatenation of two ranges.
+     *
+     * @param crc1   the CRC-32 of the first range
+     * @param crc2   the CRC-32 of the second range
+     * @param length the length of the second range in bytes
+     * @return the CRC-32 of the concatenation
+     */
+    static long combine(long crc1, long crc2, long length) {
+        if (length <= 0) {
+            return crc1;
+        }
+
+        final long[] even = new long[BITS];
+        final long[] odd = new long[BITS];
+
+        // the operator for one zero bit
+        odd[0] = POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < BITS; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // the operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        // apply the operators for one zero byte, two, four and so on, for the bits of the length
+        do {
+            square(even, odd);
+            if ((length & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length >>= 1;
+            if (length == 0) {
+                break;
+            }
+
+            square(odd, even);
+            if ((length & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length >>= 1;
+        } while (length != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < BITS; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
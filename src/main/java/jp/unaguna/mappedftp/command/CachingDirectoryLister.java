@@ -0,0 +1,109 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
+import jp.unaguna.mappedftp.utils.CharSequenceInputStream;
+import org.apache.ftpserver.command.impl.listing.DirectoryLister;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.command.impl.listing.ListArgument;
+import org.apache.ftpserver.command.impl.listing.VisibleFileFilter;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * A {@link DirectoryLister} which lets {@link LinkedFileNode} format and reuse the listing of a directory.
+ *
+ * <p>
+ * Only the listing of a whole directory is reused.
+ * A listing with a file pattern, of a single file, or of a directory in another file system
+ * is formatted by {@link DirectoryLister} each time.
+ * </p>
+ *
+ * <p>
+ * {@link #openListing(ListArgument, FileSystemView, FileFormater, String)} returns the listing as a stream,
+ * so that the listing of a wide directory is formatted while it is sent
+ * instead of being held in memory as a whole.
+ * </p>
+ */
+public class CachingDirectoryLister extends DirectoryLister {
+    private static final FileFilter VISIBLE_FILE_FILTER = new VisibleFileFilter();
+
+    /**
+     * Format the listing specified by the argument.
+     *
+     * @param argument       the argument of the command
+     * @param fileSystemView the file system of the session
+     * @param formatter      the formatter of each file
+     * @param formatKey      the key which identifies the formatter and its settings
+     * @return the formatted listing
+     * @throws IOException when some IO error occurred
+     */
+    public String listFiles(final ListArgument argument, final FileSystemView fileSystemView,
+                            final FileFormater formatter, final String formatKey) throws IOException {
+        final FtpFile file = getDirectoryToList(argument, fileSystemView);
+        if (file == null) {
+            return listFiles(argument, fileSystemView, formatter);
+        }
+
+        if (argument.hasOption('a')) {
+            return ((LinkedFileNode) file).formatChildren(formatKey + ":a", null, formatter);
+        } else {
+            return ((LinkedFileNode) file).formatChildren(formatKey, VISIBLE_FILE_FILTER, formatter);
+        }
+    }
+
+    /**
+     * Open the listing specified by the argument as a stream of UTF-8 bytes.
+     *
+     * @param argument       the argument of the command
+     * @param fileSystemView the file system of the session
+     * @param formatter      the formatter of each file
+     * @param formatKey      the key which identifies the formatter and its settings
+     * @return the stream of the formatted listing
+     * @throws IOException when some IO error occurred
+     */
+    public InputStream openListing(final ListArgument argument, final FileSystemView fileSystemView,
+                                   final FileFormater formatter, final String formatKey) throws IOException {
+        final FtpFile file = getDirectoryToList(argument, fileSystemView);
+        if (file == null) {
+            return toStream(listFiles(argument, fileSystemView, formatter));
+        }
+
+        if (argument.hasOption('a')) {
+            return ((LinkedFileNode) file).openChildrenListing(formatKey + ":a", null, formatter);
+        } else {
+            return ((LinkedFileNode) file).openChildrenListing(formatKey, VISIBLE_FILE_FILTER, formatter);
+        }
+    }
+
+    /**
+     * Returns the directory whose children are listed by {@link LinkedFileNode},
+     * or null if the listing should be formatted by {@link DirectoryLister}.
+     */
+    private static FtpFile getDirectoryToList(final ListArgument argument, final FileSystemView fileSystemView) {
+        if (argument.getPattern() != null) {
+            return null;
+        }
+
+        final FtpFile file;
+        try {
+            file = fileSystemView.getFile(argument.getFile());
+        } catch (FtpException e) {
+            return null;
+        }
+        if (!(file instanceof LinkedFileNode) || !file.isDirectory()) {
+            return null;
+        }
+        return file;
+    }
+
+    private static InputStream toStream(final String listing) {
+        return new CharSequenceInputStream(Collections.singletonList(listing).iterator(), StandardCharsets.UTF_8);
+    }
+}
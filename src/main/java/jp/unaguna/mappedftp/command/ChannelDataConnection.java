@@ -0,0 +1,130 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
+import org.apache.ftpserver.ftplet.DataType;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.IODataConnection;
+import org.apache.ftpserver.impl.ServerDataConnectionFactory;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSessionConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A data connection opened by {@link ChannelDataConnectionFactory}.
+ *
+ * <p>
+ * In addition to the streams of {@link IODataConnection}, it can write a {@link LinkedFileNode} to the channel
+ * of the socket with {@link LinkedFileNode#transferTo(long, java.nio.channels.WritableByteChannel)},
+ * so that a local file or an entry stored in an archive is sent without copying it into the Java heap, e.g. by sendfile.
+ * </p>
+ */
+public class ChannelDataConnection extends IODataConnection {
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelDataConnection.class);
+
+    private final Socket socket;
+    private final FtpIoSession session;
+    private final ServerDataConnectionFactory factory;
+
+    /**
+     * Constructor.
+     *
+     * @param socket  the data socket, or null if it could not be opened
+     * @param session the session
+     * @param factory the factory which opened the socket
+     */
+    public ChannelDataConnection(final Socket socket, final FtpIoSession session,
+                                 final ServerDataConnectionFactory factory) {
+        super(socket, session, factory);
+        this.socket = socket;
+        this.session = session;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns whether a file can be sent by {@link #transferToClient(FtpSession, LinkedFileNode, long)}.
+     *
+     * <p>
+     * The bytes of the file must be sent as they are,
+     * so it is false for the ASCII type, the zip mode, a secured connection and a limited download rate.
+     * </p>
+     *
+     * @param session the session
+     * @return true if the file can be written to the channel of the socket
+     */
+    public boolean isChannelTransferable(final FtpSession session) {
+        if (socket == null || socket.getChannel() == null) {
+            return false;
+        }
+        if (factory.isZipMode() || factory.isSecure() || session.getDataType() == DataType.ASCII) {
+            return false;
+        }
+        return getMaxDownloadRate(session) == 0;
+    }
+
+    /**
+     * Send the file to the client through the channel of the socket, and close the socket.
+     *
+     * <p>
+     * The control connection is not regarded as idle while the file is sent,
+     * as with the streams of {@link IODataConnection}, which count the bytes as they are sent.
+     * </p>
+     *
+     * @param session the session
+     * @param file    the file to send
+     * @param offset  the number of bytes of where to start reading
+     * @return the number of bytes sent
+     * @throws IOException when some IO error occurred
+     * @see #isChannelTransferable(FtpSession)
+     */
+    public long transferToClient(final FtpSession session, final LinkedFileNode file, final long offset)
+            throws IOException {
+        if (socket == null || socket.getChannel() == null) {
+            throw new IOException("Cannot open data connection.");
+        }
+
+        final IoSessionConfig config = this.session.getConfig();
+        final int idleTime = config.getIdleTime(IdleStatus.BOTH_IDLE);
+        config.setIdleTime(IdleStatus.BOTH_IDLE, 0);
+        try {
+            final SocketChannel channel = socket.getChannel();
+            final long transferred = file.transferTo(offset, channel);
+            increaseWrittenDataBytes(transferred);
+
+            // the client reads the end of the file before the reply of the command
+            channel.close();
+            return transferred;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Exception during data transfer, closing data connection socket", e);
+            factory.closeDataConnection();
+            throw e;
+        } finally {
+            config.setIdleTime(IdleStatus.BOTH_IDLE, idleTime);
+        }
+    }
+
+    private void increaseWrittenDataBytes(long transferred) {
+        long remaining = transferred;
+        while (remaining > 0) {
+            final int increment = (int) Math.min(remaining, Integer.MAX_VALUE);
+            session.increaseWrittenDataBytes(increment);
+            remaining -= increment;
+        }
+    }
+
+    private static int getMaxDownloadRate(final FtpSession session) {
+        final User user = session.getUser();
+        if (user == null) {
+            return 0;
+        }
+        final TransferRateRequest transferRateRequest = (TransferRateRequest) user.authorize(new TransferRateRequest());
+        return transferRateRequest == null ? 0 : transferRateRequest.getMaxDownloadRate();
+    }
+}
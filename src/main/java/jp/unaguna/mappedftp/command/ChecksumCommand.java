@@ -0,0 +1,189 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.checksum.ChecksumAlgorithm;
+import jp.unaguna.mappedftp.checksum.ChecksumService;
+import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The base of the commands which reply the checksum of a file, computed by {@link ChecksumService}.
+ *
+ * <p>
+ * <code>&lt;command&gt; &lt;SP&gt; &lt;pathname&gt; &lt;CRLF&gt;</code><br>
+ * The pathname may be enclosed in double quotes. Ranges of the file are not supported.
+ * </p>
+ *
+ * <p>
+ * The command waits for the checksum up to {@link #getWait() the wait time}.
+ * If it is not computed by then, "450" is replied and the computation continues in the background,
+ * so that the client can request it again later without blocking the session.
+ * "450" is also replied when the service rejects the request because too many checksums are requested.
+ * </p>
+ */
+public abstract class ChecksumCommand extends AbstractCommand {
+    private static final Logger LOG = LoggerFactory.getLogger(ChecksumCommand.class);
+
+    /**
+     * The default time to wait for a checksum in milliseconds.
+     */
+    public static final long DEFAULT_WAIT = 10_000L;
+
+    private ChecksumService service = ChecksumService.getDefault();
+    private long wait = DEFAULT_WAIT;
+
+    public ChecksumService getService() {
+        return service;
+    }
+
+    /**
+     * Set the service which computes the checksums.
+     *
+     * @param service the service, or null to use {@link ChecksumService#getDefault() the default one}
+     */
+    public void setService(ChecksumService service) {
+        this.service = service != null ? service : ChecksumService.getDefault();
+    }
+
+    public long getWait() {
+        return wait;
+    }
+
+    /**
+     * Set the time to wait for a checksum before replying that it is being computed.
+     *
+     * @param wait the time in milliseconds; if it is zero or negative, only a computed checksum is replied
+     */
+    public void setWait(long wait) {
+        this.wait = wait;
+    }
+
+    /**
+     * Returns the algorithm of the checksum.
+     *
+     * @param session the session
+     * @return the algorithm
+     */
+    protected abstract ChecksumAlgorithm getAlgorithm(FtpIoSession session);
+
+    /**
+     * Create the reply of the checksum.
+     *
+     * <p>
+     * By default, it is "250" followed by the checksum.
+     * </p>
+     *
+     * @param fileName  the pathname given by the client
+     * @param file      the file
+     * @param algorithm the algorithm
+     * @param checksum  the checksum as lowercase hexadecimal digits
+     * @return the reply
+     */
+    protected FtpReply createReply(String fileName, FtpFile file, ChecksumAlgorithm algorithm, String checksum) {
+        return new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY, checksum);
+    }
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute(final FtpIoSession session,
+            final FtpServerContext context, final FtpRequest request)
+            throws IOException, FtpException {
+
+        // reset state
+        session.resetState();
+
+        final String argument = request.getArgument();
+        if (argument == null || argument.trim().isEmpty()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+                    "Syntax error in parameters or arguments."));
+            return;
+        }
+        final String fileName = parseFileName(argument.trim());
+        if (fileName == null) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_504_COMMAND_NOT_IMPLEMENTED_FOR_THAT_PARAMETER,
+                    "Ranges are not supported."));
+            return;
+        }
+
+        FtpFile file = null;
+        try {
+            file = session.getFileSystemView().getFile(fileName);
+        } catch (Exception e) {
+            LOG.debug("Exception getting the file object: " + fileName, e);
+        }
+        if (!(file instanceof LinkedFileNode) || ((LinkedFileNode) file).getFile() == null
+                || !file.isFile() || !file.isReadable()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    fileName + ": not a readable file."));
+            return;
+        }
+
+        final ChecksumAlgorithm algorithm = getAlgorithm(session);
+        final CompletableFuture<String> future = service.compute(((LinkedFileNode) file).getFile(), algorithm);
+        final String checksum;
+        try {
+            checksum = wait > 0 ? future.get(wait, TimeUnit.MILLISECONDS) : future.getNow(null);
+        } catch (TimeoutException e) {
+            session.write(createComputingReply(fileName));
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            session.write(createComputingReply(fileName));
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                session.write(new DefaultFtpReply(FtpReply.REPLY_450_REQUESTED_FILE_ACTION_NOT_TAKEN,
+                        "Too many checksums are requested; try again later."));
+            } else {
+                LOG.warn("failed to compute the checksum of " + fileName, e.getCause());
+                session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                        fileName + ": failed to compute the checksum."));
+            }
+            return;
+        }
+        if (checksum == null) {
+            session.write(createComputingReply(fileName));
+            return;
+        }
+
+        session.write(createReply(fileName, file, algorithm, checksum));
+    }
+
+    private static FtpReply createComputingReply(String fileName) {
+        return new DefaultFtpReply(FtpReply.REPLY_450_REQUESTED_FILE_ACTION_NOT_TAKEN,
+                fileName + ": the checksum is being computed; try again later.");
+    }
+
+    /**
+     * Returns the pathname in the argument.
+     *
+     * @param argument the trimmed argument
+     * @return the pathname, or null if a range follows the quoted pathname
+     */
+    static String parseFileName(String argument) {
+        if (argument.length() > 1 && argument.charAt(0) == '"') {
+            final int end = argument.indexOf('"', 1);
+            if (end > 0) {
+                return argument.substring(end + 1).trim().isEmpty() ? argument.substring(1, end) : null;
+            }
+        }
+        return argument;
+    }
+}
@@ -0,0 +1,46 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.checksum.ChecksumAlgorithm;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.impl.FtpIoSession;
+
+/**
+ * <code>HASH &lt;SP&gt; &lt;pathname&gt; &lt;CRLF&gt;</code><br>
+ *
+ * Replies the checksum of the whole file, as {@link ChecksumCommand}, in the form of the HASH command
+ * of the IETF draft "File Transfer Protocol HASH Command for Cryptographic Hashes":
+ * <code>213 &lt;algorithm&gt; 0-&lt;size&gt; &lt;checksum&gt; &lt;pathname&gt;</code>.
+ * The algorithm is selected by {@link OPTS "OPTS HASH"}, and {@link #DEFAULT_ALGORITHM} is used by default.
+ */
+public class HASH extends ChecksumCommand {
+    /**
+     * The name of the session attribute of the algorithm selected by "OPTS HASH".
+     */
+    public static final String ALGORITHM_ATTRIBUTE = "HASH.algorithm";
+
+    public static final ChecksumAlgorithm DEFAULT_ALGORITHM = ChecksumAlgorithm.SHA_256;
+
+    /**
+     * Returns the algorithm selected in the session.
+     *
+     * @param session the session
+     * @return the algorithm
+     */
+    static ChecksumAlgorithm getSelectedAlgorithm(FtpIoSession session) {
+        final Object algorithm = session.getAttribute(ALGORITHM_ATTRIBUTE);
+        return algorithm instanceof ChecksumAlgorithm ? (ChecksumAlgorithm) algorithm : DEFAULT_ALGORITHM;
+    }
+
+    @Override
+    protected ChecksumAlgorithm getAlgorithm(FtpIoSession session) {
+        return getSelectedAlgorithm(session);
+    }
+
+    @Override
+    protected FtpReply createReply(String fileName, FtpFile file, ChecksumAlgorithm algorithm, String checksum) {
+        return new DefaultFtpReply(FtpReply.REPLY_213_FILE_STATUS,
+                algorithm.getName() + " 0-" + file.getSize() + " " + checksum + " " + fileName);
+    }
+}
@@ -0,0 +1,68 @@
+package jp.unaguna.mappedftp.command;
+
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.CommandFactory;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The commands which replace the default commands of Apache FtpServer for mapped file systems.
+ */
+public class MappedCommands {
+    /**
+     * Create the map from the command name to the command which replaces the default one.
+     *
+     * @return the new map
+     */
+    public static Map<String, Command> createCommandMap() {
+        final Map<String, Command> commands = new LinkedHashMap<>();
+        commands.put("LIST", new LIST());
+        commands.put("NLST", new NLST());
+        commands.put("MLSD", new MLSD());
+        commands.put("PORT", new PORT());
+        commands.put("EPRT", new EPRT());
+        commands.put("PASV", new PASV());
+        commands.put("EPSV", new EPSV());
+        commands.put("RETR", new RETR());
+        return commands;
+    }
+
+    /**
+     * Returns the classes of the commands which serve checksums, registered by the "checksums" element.
+     *
+     * <p>
+     * It includes {@link OPTS} to select the algorithm of {@link HASH}.
+     * "XSHA" is SHA-1 as in the other servers which support it.
+     * Since Apache FtpServer removes the leading "X" of the command names in requests, such as "XMKD",
+     * the commands are registered without it: "XCRC" as "CRC" and so on.
+     * {@link XMD5} is registered as "MD5", and handles "MD5" requests with the original command.
+     * </p>
+     *
+     * @return the unmodifiable map from the command name to the class
+     */
+    public static Map<String, Class<? extends Command>> getChecksumCommandClasses() {
+        final Map<String, Class<? extends Command>> classes = new LinkedHashMap<>();
+        classes.put("HASH", HASH.class);
+        classes.put("OPTS", OPTS.class);
+        classes.put("CRC", XCRC.class);
+        classes.put("MD5", XMD5.class);
+        classes.put("SHA", XSHA1.class);
+        classes.put("SHA1", XSHA1.class);
+        classes.put("SHA256", XSHA256.class);
+        return Collections.unmodifiableMap(classes);
+    }
+
+    /**
+     * Create the command factory with the default commands of Apache FtpServer and the replacements.
+     *
+     * @return the new command factory
+     */
+    public static CommandFactory createCommandFactory() {
+        final CommandFactoryFactory factoryFactory = new CommandFactoryFactory();
+        factoryFactory.setCommandMap(createCommandMap());
+        return factoryFactory.createCommandFactory();
+    }
+}
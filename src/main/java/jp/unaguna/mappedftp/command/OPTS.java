@@ -0,0 +1,63 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.checksum.ChecksumAlgorithm;
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+
+import java.io.IOException;
+
+/**
+ * The same as {@link org.apache.ftpserver.command.impl.OPTS} except that "OPTS HASH" is supported.
+ *
+ * <p>
+ * <code>OPTS &lt;SP&gt; HASH [&lt;SP&gt; &lt;algorithm&gt;] &lt;CRLF&gt;</code><br>
+ * Selects the algorithm of {@link HASH} in the session, such as "MD5",
+ * and replies "200" followed by the selected algorithm.
+ * Without an algorithm, it replies the current one.
+ * The other options are handled by the original command.
+ * </p>
+ */
+public class OPTS extends AbstractCommand {
+    private final Command delegate = new org.apache.ftpserver.command.impl.OPTS();
+
+    /**
+     * Execute command.
+     */
+    @Override
+    public void execute(final FtpIoSession session,
+            final FtpServerContext context, final FtpRequest request)
+            throws IOException, FtpException {
+
+        final String argument = request.getArgument();
+        if (argument == null) {
+            delegate.execute(session, context, request);
+            return;
+        }
+        final String[] options = argument.trim().split("\\s+", 2);
+        if (!"HASH".equalsIgnoreCase(options[0])) {
+            delegate.execute(session, context, request);
+            return;
+        }
+
+        // reset state
+        session.resetState();
+
+        if (options.length > 1) {
+            final ChecksumAlgorithm algorithm = ChecksumAlgorithm.forName(options[1]);
+            if (algorithm == null) {
+                session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+                        "Unknown algorithm: " + options[1]));
+                return;
+            }
+            session.setAttribute(HASH.ALGORITHM_ATTRIBUTE, algorithm);
+        }
+        session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY,
+                HASH.getSelectedAlgorithm(session).getName()));
+    }
+}
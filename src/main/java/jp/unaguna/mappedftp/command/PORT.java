@@ -0,0 +1,20 @@
+package jp.unaguna.mappedftp.command;
+
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+
+import java.io.IOException;
+
+/**
+ * The same as {@link org.apache.ftpserver.command.impl.PORT} except that the data connection
+ * is opened by {@link ChannelDataConnectionFactory}.
+ */
+public class PORT extends org.apache.ftpserver.command.impl.PORT {
+    @Override
+    public void execute(final FtpIoSession session, final FtpServerContext context, final FtpRequest request)
+            throws IOException {
+        ChannelDataConnectionFactory.install(session, context);
+        super.execute(session, context, request);
+    }
+}
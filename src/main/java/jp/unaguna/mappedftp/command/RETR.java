@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jp.unaguna.mappedftp.command;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.SocketException;
+
+import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DataConnectionFactory;
+import org.apache.ftpserver.ftplet.DataType;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.IODataConnectionFactory;
+import org.apache.ftpserver.impl.LocalizedDataTransferFtpReply;
+import org.apache.ftpserver.impl.LocalizedFtpReply;
+import org.apache.ftpserver.impl.ServerFtpStatistics;
+import org.apache.ftpserver.util.IoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The same as {@link org.apache.ftpserver.command.impl.RETR} except that a {@link LinkedFileNode}
+ * is written to the channel of the data connection by {@link ChannelDataConnection}
+ * instead of being copied from its stream, when the bytes of the file are sent as they are.
+ * 
+ * <code>RETR &lt;SP&gt; &lt;pathname&gt; &lt;CRLF&gt;</code><br>
+ * 
+ * This command causes the server-DTP to transfer a copy of the file, specified
+ * in the pathname, to the server- or user-DTP at the other end of the data
+ * connection. The status and contents of the file at the server site shall be
+ * unaffected.
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class RETR extends AbstractCommand {
+
+    private final Logger LOG = LoggerFactory.getLogger(RETR.class);
+
+    /**
+     * Execute command.
+     */
+    public void execute(final FtpIoSession session,
+            final FtpServerContext context, final FtpRequest request)
+            throws IOException, FtpException {
+
+        try {
+
+            // get state variable
+            long skipLen = session.getFileOffset();
+
+            // argument check
+            String fileName = request.getArgument();
+            if (fileName == null) {
+                session.write(LocalizedDataTransferFtpReply.translate(
+                                        session,
+                                        request,
+                                        context,
+                                        FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+                                        "RETR", null, null));
+                return;
+            }
+
+            // get file object
+            FtpFile file = null;
+            try {
+                file = session.getFileSystemView().getFile(fileName);
+            } catch (Exception ex) {
+                LOG.debug("Exception getting file object", ex);
+            }
+            if (file == null) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                        "RETR.missing", fileName, file));
+                return;
+            }
+            fileName = file.getAbsolutePath();
+
+            // check file existance
+            if (!file.doesExist()) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                        "RETR.missing", fileName, file));
+                return;
+            }
+
+            // check valid file
+            if (!file.isFile()) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                        "RETR.invalid", fileName, file));
+                return;
+            }
+
+            // check permission
+            if (!file.isReadable()) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                        "RETR.permission", fileName, file));
+                return;
+            }
+
+            // 24-10-2007 - added check if PORT or PASV is issued, see
+            // https://issues.apache.org/jira/browse/FTPSERVER-110
+            //TODO move this block of code into the super class. Also, it makes 
+            //sense to have this as the first check before checking everything 
+            //else such as the file and its permissions.  
+            DataConnectionFactory connFactory = session.getDataConnection();
+            if (connFactory instanceof IODataConnectionFactory) {
+                InetAddress address = ((IODataConnectionFactory) connFactory)
+                        .getInetAddress();
+                if (address == null) {
+                    session.write(new DefaultFtpReply(
+                            FtpReply.REPLY_503_BAD_SEQUENCE_OF_COMMANDS,
+                            "PORT or PASV must be issued first"));
+                    return;
+                }
+            }
+
+            // get data connection
+            session.write(LocalizedFtpReply.translate(session, request, context,
+                    FtpReply.REPLY_150_FILE_STATUS_OKAY, "RETR", null));
+
+            // send file data to client
+            boolean failure = false;
+            InputStream is = null;
+
+            DataConnection dataConnection;
+            try {
+                dataConnection = session.getDataConnection().openConnection();
+            } catch (Exception e) {
+                LOG.debug("Exception getting the output data stream", e);
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_425_CANT_OPEN_DATA_CONNECTION, "RETR",
+                        null, file));
+                return;
+            }
+
+            long transSz = 0L;
+            try {
+
+                if (file instanceof LinkedFileNode && dataConnection instanceof ChannelDataConnection
+                        && ((ChannelDataConnection) dataConnection).isChannelTransferable(session.getFtpletSession())) {
+                    // transfer data from the file to the channel of the socket
+                    transSz = ((ChannelDataConnection) dataConnection).transferToClient(
+                            session.getFtpletSession(), (LinkedFileNode) file, skipLen);
+                } else {
+                    // open streams
+                    is = openInputStream(session, file, skipLen);
+
+                    // transfer data
+                    transSz = dataConnection.transferToClient(session.getFtpletSession(), is);
+                    // attempt to close the input stream so that errors in 
+                    // closing it will return an error to the client (FTPSERVER-119) 
+                    if(is != null) {
+                        is.close();
+                    }
+                }
+
+                LOG.info("File downloaded {}", fileName);
+
+                // notify the statistics component
+                ServerFtpStatistics ftpStat = (ServerFtpStatistics) context
+                        .getFtpStatistics();
+                if (ftpStat != null) {
+                    ftpStat.setDownload(session, file, transSz);
+                }
+                
+            } catch (SocketException ex) {
+                LOG.debug("Socket exception during data transfer", ex);
+                failure = true;
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED,
+                        "RETR", fileName, file, transSz));
+            } catch (IOException ex) {
+                LOG.debug("IOException during data transfer", ex);
+                failure = true;
+                session
+                        .write(LocalizedDataTransferFtpReply
+                                .translate(
+                                        session,
+                                        request,
+                                        context,
+                                        FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN,
+                                        "RETR", fileName, file, transSz));
+            } finally {
+                // make sure we really close the input stream
+                IoUtils.close(is);
+            }
+
+            // if data transfer ok - send transfer complete message
+            if (!failure) {
+                session.write(LocalizedDataTransferFtpReply.translate(session, request, context,
+                        FtpReply.REPLY_226_CLOSING_DATA_CONNECTION, "RETR",
+                        fileName, file, transSz));
+
+            }
+        } finally {
+            session.resetState();
+            session.getDataConnection().closeDataConnection();
+        }
+    }
+
+    /**
+     * Skip length and open input stream.
+     */
+    public InputStream openInputStream(FtpIoSession session, FtpFile file,
+            long skipLen) throws IOException {
+        InputStream in;
+        if (session.getDataType() == DataType.ASCII) {
+            int c;
+            long offset = 0L;
+            in = new BufferedInputStream(file.createInputStream(0L));
+            while (offset++ < skipLen) {
+                if ((c = in.read()) == -1) {
+                    throw new IOException("Cannot skip");
+                }
+                if (c == '\n') {
+                    offset++;
+                }
+            }
+        } else {
+            in = file.createInputStream(skipLen);
+        }
+        return in;
+    }
+
+}
@@ -0,0 +1,41 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.checksum.ChecksumAlgorithm;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * <code>XMD5 &lt;SP&gt; &lt;pathname&gt; &lt;CRLF&gt;</code><br>
+ *
+ * Replies "250" followed by the MD5 digest of the file, as {@link ChecksumCommand}.
+ *
+ * <p>
+ * Since Apache FtpServer removes the leading "X" of the command name, it is registered as "MD5".
+ * The requests of "MD5" itself are handled by {@link org.apache.ftpserver.command.impl.MD5}.
+ * </p>
+ */
+public class XMD5 extends ChecksumCommand {
+    private final Command md5 = new org.apache.ftpserver.command.impl.MD5();
+
+    @Override
+    protected ChecksumAlgorithm getAlgorithm(FtpIoSession session) {
+        return ChecksumAlgorithm.MD5;
+    }
+
+    @Override
+    public void execute(final FtpIoSession session,
+            final FtpServerContext context, final FtpRequest request)
+            throws IOException, FtpException {
+        if (!request.getRequestLine().trim().toUpperCase(Locale.ROOT).startsWith("XMD5")) {
+            md5.execute(session, context, request);
+            return;
+        }
+        super.execute(session, context, request);
+    }
+}
@@ -0,0 +1,16 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.checksum.ChecksumAlgorithm;
+import org.apache.ftpserver.impl.FtpIoSession;
+
+/**
+ * <code>XSHA256 &lt;SP&gt; &lt;pathname&gt; &lt;CRLF&gt;</code><br>
+ *
+ * Replies "250" followed by the SHA-256 digest of the file, as {@link ChecksumCommand}.
+ */
+public class XSHA256 extends ChecksumCommand {
+    @Override
+    protected ChecksumAlgorithm getAlgorithm(FtpIoSession session) {
+        return ChecksumAlgorithm.SHA_256;
+    }
+}
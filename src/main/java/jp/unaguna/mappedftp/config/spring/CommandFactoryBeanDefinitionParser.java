@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.checksum.ChecksumService;
+import jp.unaguna.mappedftp.command.ChecksumCommand;
+import jp.unaguna.mappedftp.command.MappedCommands;
+import org.apache.ftpserver.command.CommandFactory;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.config.spring.SpringUtil;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
+import org.springframework.beans.factory.support.ManagedMap;
+import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
+import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.util.StringUtils;
+import org.w3c.dom.Element;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Parses the FtpServer "commands" element into a Spring bean graph
+ *
+ * <p>
+ * Unlike the original parser, the commands of {@link MappedCommands} are added
+ * unless they are configured or "use-default" is false.
+ * If the "checksums" element is specified, the commands of {@link MappedCommands#getChecksumCommandClasses()}
+ * are added unless they are configured, with a {@link ChecksumService} shared by them.
+ * </p>
+ *
+ * @author <a href="http://mina.apache.org">Apache MINA Project</a>
+ */
+public class CommandFactoryBeanDefinitionParser extends
+        AbstractSingleBeanDefinitionParser {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<? extends CommandFactory> getBeanClass(final Element element) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doParse(final Element element,
+            final ParserContext parserContext,
+            final BeanDefinitionBuilder builder) {
+        
+        BeanDefinitionBuilder factoryBuilder = BeanDefinitionBuilder.genericBeanDefinition(CommandFactoryFactory.class);
+        
+        ManagedMap<String, Object> commands = new ManagedMap<>();
+
+        List<Element> childs = SpringUtil.getChildElements(element);
+
+        Element checksumsElm = null;
+        for (Element commandElm : childs) {
+            if ("checksums".equals(commandElm.getLocalName())) {
+                checksumsElm = commandElm;
+                continue;
+            }
+            String name = commandElm.getAttribute("name");
+            Object bean = SpringUtil.parseSpringChildElement(commandElm,
+                    parserContext, builder);
+            commands.put(name, bean);
+        }
+
+        if (checksumsElm != null) {
+            parseChecksums(checksumsElm, parserContext).forEach(commands::putIfAbsent);
+        }
+
+        boolean useDefault = true;
+        if (StringUtils.hasText(element.getAttribute("use-default"))) {
+            useDefault = Boolean.parseBoolean(element.getAttribute("use-default"));
+            factoryBuilder.addPropertyValue("useDefaultCommands", useDefault);
+        }
+
+        if (useDefault) {
+            MappedCommands.createCommandMap().forEach(commands::putIfAbsent);
+        }
+
+        factoryBuilder.addPropertyValue("commandMap", commands);
+        
+        BeanDefinition factoryDefinition = factoryBuilder.getBeanDefinition();
+        String factoryId = parserContext.getReaderContext().generateBeanName(factoryDefinition);
+        
+        BeanDefinitionHolder factoryHolder = new BeanDefinitionHolder(factoryDefinition, factoryId);
+        registerBeanDefinition(factoryHolder, parserContext.getRegistry());
+
+        // set the factory on the listener bean
+        builder.getRawBeanDefinition().setFactoryBeanName(factoryId);
+        builder.getRawBeanDefinition().setFactoryMethodName("createCommandFactory");
+
+    }
+
+    /**
+     * Parse the "checksums" element, register the {@link ChecksumService} as a bean
+     * and create the definitions of the commands which use it
+     */
+    private ManagedMap<String, BeanDefinition> parseChecksums(final Element checksumsElm,
+            final ParserContext parserContext) {
+        final BeanDefinitionBuilder serviceBuilder = BeanDefinitionBuilder.genericBeanDefinition(ChecksumService.class);
+        serviceBuilder.setDestroyMethodName("close");
+
+        if (StringUtils.hasText(checksumsElm.getAttribute("threads"))) {
+            serviceBuilder.addConstructorArgValue(SpringUtil.parseInt(checksumsElm, "threads"));
+        }
+        if (StringUtils.hasText(checksumsElm.getAttribute("queue-size"))) {
+            serviceBuilder.addPropertyValue("queueSize", SpringUtil.parseInt(checksumsElm, "queue-size"));
+        }
+        if (StringUtils.hasText(checksumsElm.getAttribute("chunk-size"))) {
+            serviceBuilder.addPropertyValue("chunkSize", Long.parseLong(checksumsElm.getAttribute("chunk-size")));
+        }
+        if (StringUtils.hasText(checksumsElm.getAttribute("cache-file"))) {
+            serviceBuilder.addPropertyValue("cacheFile", Paths.get(checksumsElm.getAttribute("cache-file")));
+        }
+        if (StringUtils.hasText(checksumsElm.getAttribute("max-cache-entries"))) {
+            serviceBuilder.addPropertyValue("maxCacheEntries",
+                    SpringUtil.parseInt(checksumsElm, "max-cache-entries"));
+        }
+        final String serviceId = BeanDefinitionReaderUtils.registerWithGeneratedName(
+                serviceBuilder.getBeanDefinition(), parserContext.getRegistry());
+
+        final ManagedMap<String, BeanDefinition> commands = new ManagedMap<>();
+        MappedCommands.getChecksumCommandClasses().forEach((name, commandClass) -> {
+            final BeanDefinitionBuilder commandBuilder = BeanDefinitionBuilder.genericBeanDefinition(commandClass);
+            if (ChecksumCommand.class.isAssignableFrom(commandClass)) {
+                commandBuilder.addPropertyReference("service", serviceId);
+                if (StringUtils.hasText(checksumsElm.getAttribute("wait"))) {
+                    commandBuilder.addPropertyValue("wait", Long.parseLong(checksumsElm.getAttribute("wait")));
+                }
+            }
+            commands.put(name, commandBuilder.getBeanDefinition());
+        });
+        return commands;
+    }
+}
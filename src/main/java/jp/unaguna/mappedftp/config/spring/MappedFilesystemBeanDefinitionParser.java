@@ -1,7 +1,12 @@
 package jp.unaguna.mappedftp.config.spring;
 
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
 import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.MappingOverlay;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndex;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamFetcher;
 import jp.unaguna.mappedftp.utils.ClasspathUtils;
 import org.apache.ftpserver.config.spring.SpringUtil;
 import org.springframework.beans.factory.BeanCreationException;
@@ -12,7 +17,13 @@ import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.w3c.dom.Element;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public class MappedFilesystemBeanDefinitionParser extends AbstractSingleBeanDefinitionParser {
@@ -28,8 +39,99 @@ public class MappedFilesystemBeanDefinitionParser extends AbstractSingleBeanDefi
                            final BeanDefinitionBuilder builder) {
         final ManagedMap<String, Object> files = new ManagedMap<>();
         final List<Element> children = SpringUtil.getChildElements(element);
+        final UpstreamFetcher fetcher = parseUpstreamFetcher(element);
+        final MappingEntryParser entryParser = new MappingEntryParser(fetcher);
 
+        final List<Element> fileElements = new ArrayList<>();
+        final ManagedMap<String, Object> userOverlays = new ManagedMap<>();
+        final ManagedMap<String, Object> groupOverlays = new ManagedMap<>();
+        final Map<String, List<String>> groupMembers = new LinkedHashMap<>();
         for (Element childElm : children) {
+            final String type = childElm.getLocalName();
+            if (!Objects.equals(childElm.getNamespaceURI(), element.getNamespaceURI())) {
+                fileElements.add(childElm);
+            } else if ("user-overlay".equals(type)) {
+                final String user = childElm.getAttribute("user");
+                if (userOverlays.containsKey(user)) {
+                    parserContext.getReaderContext().error("duplicate overlay of the user: " + user, childElm);
+                }
+                userOverlays.put(user, parseOverlay(childElm, parserContext, builder, entryParser, fetcher));
+            } else if ("group-overlay".equals(type)) {
+                final String group = childElm.getAttribute("group");
+                if (groupOverlays.containsKey(group)) {
+                    parserContext.getReaderContext().error("duplicate overlay of the group: " + group, childElm);
+                }
+                groupOverlays.put(group, parseOverlay(childElm, parserContext, builder, entryParser, fetcher));
+                groupMembers.put(group, parseUsers(childElm.getAttribute("users")));
+            } else {
+                fileElements.add(childElm);
+            }
+        }
+
+        if (element.hasAttribute("index")) {
+            if (!fileElements.isEmpty()) {
+                parserContext.getReaderContext().error("mapped-filesystem with an index cannot have files", element);
+            }
+            builder.addPropertyValue("index", parseIndex(element, entryParser, parserContext));
+        }
+
+        parseFiles(fileElements, element.getNamespaceURI(), parserContext, builder, entryParser, fetcher, files);
+        builder.addConstructorArgValue(files);
+
+        if (element.hasAttribute("compact")) {
+            builder.addPropertyValue("compact", Boolean.parseBoolean(element.getAttribute("compact")));
+        }
+        if (element.hasAttribute("prefetch-threads")) {
+            builder.addPropertyValue("prefetchThreads", Integer.parseInt(element.getAttribute("prefetch-threads")));
+        }
+        if (element.hasAttribute("prefetch-timeout")) {
+            builder.addPropertyValue("prefetchTimeout", Long.parseLong(element.getAttribute("prefetch-timeout")));
+        }
+
+        if (!userOverlays.isEmpty()) {
+            builder.addPropertyValue("userOverlays", userOverlays);
+        }
+        if (!groupOverlays.isEmpty()) {
+            builder.addPropertyValue("groupOverlays", groupOverlays);
+            builder.addPropertyValue("groupMembers", groupMembers);
+        }
+
+        // the sources marked with "prefetch" are prefetched when the server is configured
+        builder.setInitMethodName("prefetch");
+
+    }
+
+    /**
+     * Adds the files defined by the elements.
+     */
+    private static void parseFiles(List<Element> elements,
+                                   String namespace,
+                                   ParserContext parserContext,
+                                   BeanDefinitionBuilder builder,
+                                   MappingEntryParser entryParser,
+                                   UpstreamFetcher fetcher,
+                                   Map<String, Object> files) {
+        for (Element childElm : elements) {
+            final String type = childElm.getLocalName();
+
+            // the elements of this namespace are created directly, since a bean definition for each entry
+            // is the most of the startup time with a large mapping
+            if (Objects.equals(childElm.getNamespaceURI(), namespace)) {
+                if ("mapping-file".equals(type)) {
+                    parseMappingFile(childElm, entryParser, parserContext, files);
+                    continue;
+                }
+                if (MappingEntryParser.getTypes().contains(type)) {
+                    try {
+                        files.put(childElm.getAttribute("path"), entryParser.parse(type, name ->
+                                childElm.hasAttribute(name) ? childElm.getAttribute(name) : null));
+                    } catch (RuntimeException e) {
+                        parserContext.getReaderContext().error(e.getMessage(), childElm, e);
+                    }
+                    continue;
+                }
+            }
+
             final String path = childElm.getAttribute("path");
             final BeanDefinition item = parserContext.getDelegate()
                     .parseCustomElement(childElm, builder.getBeanDefinition());
@@ -44,10 +146,98 @@ public class MappedFilesystemBeanDefinitionParser extends AbstractSingleBeanDefi
                 throw new BeanCreationException(e.getMessage(), e);
             }
 
+            if (fetcher != null && FileTreeItemFromURL.class.getName().equals(item.getBeanClassName())) {
+                item.getPropertyValues().add("fetcher", fetcher);
+            }
+
             files.put(path, item);
         }
-        builder.addConstructorArgValue(files);
+    }
+
+    /**
+     * Creates the overlay defined by the element of {@code <user-overlay>} or {@code <group-overlay>}.
+     */
+    private static BeanDefinition parseOverlay(Element element,
+                                               ParserContext parserContext,
+                                               BeanDefinitionBuilder builder,
+                                               MappingEntryParser entryParser,
+                                               UpstreamFetcher fetcher) {
+        final ManagedMap<String, Object> files = new ManagedMap<>();
+        parseFiles(SpringUtil.getChildElements(element), element.getNamespaceURI(), parserContext, builder, entryParser, fetcher, files);
+        return BeanDefinitionBuilder.genericBeanDefinition(MappingOverlay.class)
+                .addConstructorArgValue(files)
+                .getBeanDefinition();
+    }
 
+    /**
+     * Splits the names of the users separated by spaces or commas.
+     */
+    private static List<String> parseUsers(String users) {
+        final List<String> names = new ArrayList<>();
+        for (String name : users.split("[\\s,]+")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Opens the index file specified by the element.
+     */
+    private static MappingIndex parseIndex(Element element,
+                                           MappingEntryParser entryParser,
+                                           ParserContext parserContext) {
+        final Path src = Paths.get(element.getAttribute("index"));
+        try {
+            return MappingIndex.open(src, entryParser::parse);
+        } catch (IOException e) {
+            parserContext.getReaderContext().error("cannot open the mapping index: " + src, element, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the mapping file specified by the element and adds its entries.
+     */
+    private static void parseMappingFile(Element element,
+                                         MappingEntryParser entryParser,
+                                         ParserContext parserContext,
+                                         Map<String, Object> files) {
+        final Path src = Paths.get(element.getAttribute("src"));
+        try {
+            files.putAll(new MappingFileReader(entryParser).read(src));
+        } catch (FileSystemDefinitionException e) {
+            parserContext.getReaderContext().error(e.getMessage(), element, e);
+        }
+    }
+
+    /**
+     * Creates the fetcher shared by the url-files in the element, if any of its attributes is specified.
+     *
+     * @return the fetcher, or null if the default fetcher is used
+     */
+    private static UpstreamFetcher parseUpstreamFetcher(Element element) {
+        if (!element.hasAttribute("upstream-max-connections")
+                && !element.hasAttribute("upstream-acquire-timeout")
+                && !element.hasAttribute("upstream-connect-timeout")
+                && !element.hasAttribute("upstream-read-timeout")) {
+            return null;
+        }
+
+        final UpstreamFetcher fetcher = element.hasAttribute("upstream-max-connections")
+                ? new UpstreamFetcher(Integer.parseInt(element.getAttribute("upstream-max-connections")))
+                : new UpstreamFetcher();
+        if (element.hasAttribute("upstream-acquire-timeout")) {
+            fetcher.setAcquireTimeout(Integer.parseInt(element.getAttribute("upstream-acquire-timeout")));
+        }
+        if (element.hasAttribute("upstream-connect-timeout")) {
+            fetcher.setConnectTimeout(Integer.parseInt(element.getAttribute("upstream-connect-timeout")));
+        }
+        if (element.hasAttribute("upstream-read-timeout")) {
+            fetcher.setReadTimeout(Integer.parseInt(element.getAttribute("upstream-read-timeout")));
+        }
+        return fetcher;
     }
 
 }
@@ -0,0 +1,265 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromArchive;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromClasspath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromTar;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemMappedFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import jp.unaguna.mappedftp.filesystem.tree.cache.UrlContentCache;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.ReadAhead;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamFetcher;
+import jp.unaguna.mappedftp.utils.ClasspathUtils;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.propertyeditors.URLEditor;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Creates the items of a mapping directly from their attributes, without bean definitions.
+ *
+ * <p>
+ * The types and the attributes are the same as the elements in {@code <mapped-filesystem>},
+ * such as {@code local-file} with {@code src}, {@code owner} and {@code last-modified}.
+ * It is the only parser of those elements, inside {@code <mapped-filesystem>} and the overlays,
+ * and of the entries of {@link MappingFileReader mapping files},
+ * so that a large mapping is loaded without creating and instantiating a bean definition for each entry.
+ * </p>
+ */
+public class MappingEntryParser {
+    private static final Set<String> TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "local-file", "local-directory", "url-file", "classpath-file", "memory-file", "mmap-file",
+            "archive-directory", "tar-directory")));
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private final LastModifiedParser lastModifiedParser = new LastModifiedParser();
+    private final UpstreamFetcher fetcher;
+
+    public MappingEntryParser() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fetcher the fetcher given to the url-files, or null to use the default one
+     */
+    public MappingEntryParser(UpstreamFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Returns the types which this parser can create, such as "local-file".
+     *
+     * @return the names of the types
+     */
+    public static Set<String> getTypes() {
+        return TYPES;
+    }
+
+    /**
+     * Create the item of the type with the attributes.
+     *
+     * @param type       the type, which is the name of the element such as "local-file"
+     * @param attributes the function which returns the value of an attribute, or null if it is not specified
+     * @return the item
+     * @throws IllegalArgumentException if the type is unknown or an attribute is invalid
+     */
+    public FileTreeItem parse(String type, Function<String, String> attributes) {
+        final String src = attributes.apply("src");
+        if (src == null) {
+            throw new IllegalArgumentException("src of " + type + " is required");
+        }
+
+        switch (type) {
+            case "local-file":
+                return withFileAttributes(new FileTreeItemFromLocalFile(Paths.get(src)), attributes, false);
+            case "local-directory":
+                return parseLocalDirectory(src, attributes);
+            case "url-file":
+                return parseUrlFile(src, attributes);
+            case "classpath-file":
+                return withFileAttributes(new FileTreeItemFromClasspath(src), attributes, true);
+            case "memory-file":
+                final FileTreeItemInMemory memoryFile = new FileTreeItemInMemory(
+                        parseMemorySource(src),
+                        Boolean.parseBoolean(attributes.apply("direct")));
+                return withFileAttributes(memoryFile, attributes, true);
+            case "mmap-file":
+                return withFileAttributes(new FileTreeItemMappedFile(Paths.get(src)), attributes, true);
+            case "archive-directory":
+                return withArchiveAttributes(new FileTreeItemFromArchive(Paths.get(src)), attributes);
+            case "tar-directory":
+                final FileTreeItemFromTar tar = new FileTreeItemFromTar(Paths.get(src));
+                final String indexDirectory = attributes.apply("index-directory");
+                if (indexDirectory != null) {
+                    tar.setIndexDirectory(Paths.get(indexDirectory));
+                }
+                return withArchiveAttributes(tar, attributes);
+            default:
+                throw new IllegalArgumentException("unknown type of file: " + type);
+        }
+    }
+
+    /**
+     * Parses the source of a memory-file, which is a URL or a resource path in the class loader prefixed with "classpath:".
+     */
+    private static URL parseMemorySource(String src) {
+        if (src.startsWith(CLASSPATH_PREFIX)) {
+            final URL url = ClasspathUtils.getResource(src.substring(CLASSPATH_PREFIX.length()));
+            if (url == null) {
+                throw new BeanCreationException("no such resource: " + src);
+            }
+            return url;
+        }
+
+        try {
+            return new URL(src);
+        } catch (MalformedURLException e) {
+            throw new BeanCreationException("invalid src of memory-file: " + src, e);
+        }
+    }
+
+    private FileTreeItemFromURL parseUrlFile(String src, Function<String, String> attributes) {
+        final URLEditor urlEditor = new URLEditor();
+        urlEditor.setAsText(src);
+        final FileTreeItemFromURL item = new FileTreeItemFromURL((URL) urlEditor.getValue());
+        withFileAttributes(item, attributes, true);
+
+        if (fetcher != null) {
+            item.setFetcher(fetcher);
+        }
+        if (Boolean.parseBoolean(attributes.apply("cache"))) {
+            final String cacheDirectory = attributes.apply("cache-directory");
+            final String cacheMaxSize = attributes.apply("cache-max-size");
+            item.setCache(UrlContentCache.getInstance(
+                    cacheDirectory != null ? Paths.get(cacheDirectory) : null,
+                    cacheMaxSize != null ? Long.parseLong(cacheMaxSize) : UrlContentCache.DEFAULT_MAX_SIZE));
+
+            final String cacheTtl = attributes.apply("cache-ttl");
+            if (cacheTtl != null) {
+                item.setCacheTtl(Long.parseLong(cacheTtl));
+            }
+        }
+        item.setReadAhead(parseReadAhead(attributes));
+        return item;
+    }
+
+    private <T extends FileTreeItemFromArchive> T withArchiveAttributes(T item,
+                                                                        Function<String, String> attributes) {
+        final String owner = attributes.apply("owner");
+        if (owner != null) {
+            item.setOwnerName(owner);
+        }
+        final String group = attributes.apply("group");
+        if (group != null) {
+            item.setGroupName(group);
+        }
+        final String lastModified = attributes.apply("last-modified");
+        if (lastModified != null) {
+            item.setLastModifiedFactory(lastModifiedParser.parse(lastModified));
+        }
+        final String cacheTtl = attributes.apply("cache-ttl");
+        if (cacheTtl != null) {
+            item.setCacheTtl(Long.parseLong(cacheTtl));
+        }
+        final String cacheMaxEntries = attributes.apply("cache-max-entries");
+        if (cacheMaxEntries != null) {
+            item.setCacheMaxEntries(Long.parseLong(cacheMaxEntries));
+        }
+        return item;
+    }
+
+    /**
+     * Create the read-ahead of a url-file from its attributes
+     * "read-ahead", "read-ahead-buffer-size" and "read-ahead-backpressure".
+     *
+     * @param attributes the function which returns the value of an attribute, or null if it is not specified
+     * @return the read-ahead, or null if "read-ahead" is not specified or 0
+     * @throws IllegalArgumentException if an attribute is invalid
+     */
+    public static ReadAhead parseReadAhead(Function<String, String> attributes) {
+        final String depth = attributes.apply("read-ahead");
+        if (depth == null || Integer.parseInt(depth) == 0) {
+            return null;
+        }
+
+        final String bufferSize = attributes.apply("read-ahead-buffer-size");
+        final String backpressure = attributes.apply("read-ahead-backpressure");
+        return new ReadAhead(
+                Integer.parseInt(depth),
+                bufferSize != null ? Integer.parseInt(bufferSize) : ReadAhead.DEFAULT_BUFFER_SIZE,
+                backpressure != null ? ReadAhead.Backpressure.parse(backpressure) : ReadAhead.Backpressure.BLOCK);
+    }
+
+    private FileTreeItemFromLocalDirectory parseLocalDirectory(String src, Function<String, String> attributes) {
+        final FileTreeItemFromLocalDirectory item = new FileTreeItemFromLocalDirectory(Paths.get(src));
+
+        final String owner = attributes.apply("owner");
+        if (owner != null) {
+            item.setOwnerName(owner);
+        }
+        final String group = attributes.apply("group");
+        if (group != null) {
+            item.setGroupName(group);
+        }
+        final String lastModified = attributes.apply("last-modified");
+        if (lastModified != null) {
+            item.setLastModifiedFactory(lastModifiedParser.parse(lastModified));
+        }
+        final String metadataTtl = attributes.apply("metadata-ttl");
+        if (metadataTtl != null) {
+            item.setMetadataTtl(Long.parseLong(metadataTtl));
+        }
+        final String cacheTtl = attributes.apply("cache-ttl");
+        if (cacheTtl != null) {
+            item.setCacheTtl(Long.parseLong(cacheTtl));
+        }
+        final String cacheMaxEntries = attributes.apply("cache-max-entries");
+        if (cacheMaxEntries != null) {
+            item.setCacheMaxEntries(Long.parseLong(cacheMaxEntries));
+        }
+        return item;
+    }
+
+    /**
+     * Set the attributes common to the files.
+     *
+     * @param prefetchable whether the type accepts the attribute "prefetch"
+     */
+    private <T extends FileTreeItemReadOnlyFile> T withFileAttributes(T item, Function<String, String> attributes,
+                                                                     boolean prefetchable) {
+        final String owner = attributes.apply("owner");
+        if (owner != null) {
+            item.setOwnerName(owner);
+        }
+        final String group = attributes.apply("group");
+        if (group != null) {
+            item.setGroupName(group);
+        }
+        final String lastModified = attributes.apply("last-modified");
+        if (lastModified != null) {
+            item.setLastModifiedFactory(lastModifiedParser.parse(lastModified));
+        }
+        final String metadataTtl = attributes.apply("metadata-ttl");
+        if (metadataTtl != null) {
+            item.setMetadataTtl(Long.parseLong(metadataTtl));
+        }
+        final String prefetch = attributes.apply("prefetch");
+        if (prefetchable && prefetch != null) {
+            item.setPrefetch(Boolean.parseBoolean(prefetch));
+        }
+        return item;
+    }
+}
@@ -0,0 +1,205 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a mapping file, which lists the mapping as CSV instead of the elements in {@code <mapped-filesystem>}.
+ *
+ * <p>
+ * The first row is the header, which names the column of each attribute.
+ * The columns "type" and "path" are required; the others are the attributes of the elements,
+ * such as "src", "owner" and "last-modified". An empty cell means that the attribute is not specified.
+ * </p>
+ * <pre>
+ * type,path,src,owner,last-modified
+ * local-file,/dir1/file1,./data/file1.txt,ftp,
+ * url-file,/file2,"https://example.com/a,b.txt",,1700000000000
+ * </pre>
+ * <p>
+ * A cell may be quoted with '"' to contain ',' or '"', which is escaped as '""'.
+ * Blank lines and lines starting with '#' are ignored.
+ * </p>
+ */
+public class MappingFileReader {
+    private final MappingEntryParser entryParser;
+
+    public MappingFileReader() {
+        this(new MappingEntryParser());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param entryParser the parser which creates the item of each row
+     */
+    public MappingFileReader(MappingEntryParser entryParser) {
+        this.entryParser = entryParser;
+    }
+
+    /**
+     * Reads the mapping file.
+     *
+     * @param mappingFile the mapping file
+     * @return the items keyed by their paths, in the order of the rows
+     * @throws FileSystemDefinitionException if the file cannot be read or has an invalid row
+     */
+    public Map<String, FileTreeItem> read(Path mappingFile) throws FileSystemDefinitionException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        read(mappingFile, (path, type, attributes) -> files.put(path, entryParser.parse(type, attributes::get)));
+        return files;
+    }
+
+    /**
+     * Reads the mapping file and passes each row to the handler instead of creating the items.
+     *
+     * @param mappingFile the mapping file
+     * @param handler     the handler of the rows; a {@link RuntimeException} thrown by it is reported with the row
+     * @throws FileSystemDefinitionException if the file cannot be read or has an invalid row
+     */
+    public void read(Path mappingFile, EntryHandler handler) throws FileSystemDefinitionException {
+        try (BufferedReader reader = Files.newBufferedReader(mappingFile, StandardCharsets.UTF_8)) {
+            List<String> header = null;
+            int typeColumn = -1;
+            int pathColumn = -1;
+
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                final List<String> cells;
+                try {
+                    cells = splitRow(line);
+                } catch (IllegalArgumentException e) {
+                    throw error(mappingFile, lineNumber, e.getMessage(), e);
+                }
+
+                if (header == null) {
+                    header = new ArrayList<>();
+                    for (String cell : cells) {
+                        header.add(cell.trim());
+                    }
+                    typeColumn = header.indexOf("type");
+                    pathColumn = header.indexOf("path");
+                    if (typeColumn < 0 || pathColumn < 0) {
+                        throw error(mappingFile, lineNumber, "the header must have the columns \"type\" and \"path\"", null);
+                    }
+                    continue;
+                }
+
+                final String type = cell(cells, typeColumn);
+                final String path = cell(cells, pathColumn);
+                if (type == null || path == null) {
+                    throw error(mappingFile, lineNumber, "type and path are required", null);
+                }
+                if (!MappingEntryParser.getTypes().contains(type)) {
+                    throw error(mappingFile, lineNumber, "unknown type of file: " + type, null);
+                }
+
+                final Map<String, String> attributes = new HashMap<>();
+                for (int i = 0; i < header.size(); i++) {
+                    final String value = cell(cells, i);
+                    if (value != null && i != typeColumn && i != pathColumn) {
+                        attributes.put(header.get(i), value);
+                    }
+                }
+                try {
+                    handler.handle(path, type, attributes);
+                } catch (RuntimeException e) {
+                    throw error(mappingFile, lineNumber, e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            throw new FileSystemDefinitionException("cannot read the mapping file: " + mappingFile, e);
+        }
+    }
+
+    private static FileSystemDefinitionException error(Path mappingFile, int lineNumber, String message, Throwable cause) {
+        return new FileSystemDefinitionException(mappingFile + ":" + lineNumber + ": " + message, cause);
+    }
+
+    /**
+     * Returns the cell in the column, or null if it is empty.
+     */
+    private static String cell(List<String> cells, int column) {
+        if (column >= cells.size() || cells.get(column).isEmpty()) {
+            return null;
+        }
+        return cells.get(column);
+    }
+
+    /**
+     * Splits a row into the cells.
+     *
+     * @throws IllegalArgumentException if a quoted cell is not closed
+     */
+    static List<String> splitRow(String line) {
+        final List<String> cells = new ArrayList<>();
+        final StringBuilder cell = new StringBuilder();
+        int i = 0;
+        while (true) {
+            cell.setLength(0);
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("unclosed quote");
+                    }
+                    final char c = line.charAt(i++);
+                    if (c != '"') {
+                        cell.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        cell.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("unexpected character after a quoted cell: " + line.charAt(i));
+                }
+            } else {
+                final int end = line.indexOf(',', i);
+                cell.append(line, i, end < 0 ? line.length() : end);
+                i = end < 0 ? line.length() : end;
+            }
+            cells.add(cell.toString());
+
+            if (i >= line.length()) {
+                return cells;
+            }
+            // skip ','
+            i++;
+        }
+    }
+
+    /**
+     * Handles a row of a mapping file.
+     */
+    @FunctionalInterface
+    public interface EntryHandler {
+        /**
+         * Handle the row.
+         *
+         * @param path       the path of the file
+         * @param type       the type of the file, such as "local-file"
+         * @param attributes the other attributes which are not empty
+         */
+        void handle(String path, String type, Map<String, String> attributes);
+    }
+}
@@ -0,0 +1,148 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndex;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndexWriter;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles a mapping into an index file which is opened by {@link MappingIndex}
+ * and served by {@code <mapped-filesystem index="...">}.
+ *
+ * <p>
+ * The source is a configuration file whose {@code <mapped-filesystem>} has the elements of the files
+ * and {@code <mapping-file>}, or a mapping file itself if its name ends with ".csv".
+ * The overlays in the configuration file are not compiled, since they are served with the index.
+ * Each entry is checked as {@link MappingEntryParser} does when the server is started, so an invalid entry is
+ * reported by the compiler instead of the server. Run it with:
+ * </p>
+ * <pre>
+ * java -cp 'lib/*' jp.unaguna.mappedftp.config.spring.MappingIndexCompiler &lt;config.xml|mapping.csv&gt; &lt;index file&gt;
+ * </pre>
+ */
+public class MappingIndexCompiler {
+    static final String NAMESPACE = "http://mappedftp.unaguna.jp/mapped-ftpserver";
+
+    private final MappingEntryParser entryParser = new MappingEntryParser();
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: MappingIndexCompiler <config.xml|mapping.csv> <index file>");
+            System.exit(2);
+        }
+
+        final Path source = Paths.get(args[0]);
+        final Path indexFile = Paths.get(args[1]);
+        try {
+            final int count = new MappingIndexCompiler().compile(source, indexFile);
+            System.out.println("wrote " + count + " files to " + indexFile);
+        } catch (FileSystemDefinitionException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compiles the mapping into the index file.
+     *
+     * @param source    the configuration file or the mapping file
+     * @param indexFile the index file to write
+     * @return the number of the entries
+     * @throws FileSystemDefinitionException if the source has an invalid entry
+     * @throws IOException                   if the index file cannot be written
+     */
+    public int compile(Path source, Path indexFile) throws FileSystemDefinitionException, IOException {
+        final MappingIndexWriter writer = new MappingIndexWriter();
+        final int[] count = {0};
+        final MappingFileReader.EntryHandler handler = (path, type, attributes) -> {
+            writer.add(path, entryParser.parse(type, attributes::get), type, attributes);
+            count[0]++;
+        };
+
+        if (source.getFileName().toString().endsWith(".csv")) {
+            new MappingFileReader(entryParser).read(source, handler);
+        } else {
+            readConfiguration(source, handler);
+        }
+
+        try {
+            writer.write(indexFile);
+        } catch (IllegalArgumentException e) {
+            throw new FileSystemDefinitionException(e.getMessage(), e);
+        }
+        return count[0];
+    }
+
+    /**
+     * Reads the entries in the first {@code <mapped-filesystem>} of the configuration file.
+     */
+    private void readConfiguration(Path configuration, MappingFileReader.EntryHandler handler)
+            throws FileSystemDefinitionException {
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(configuration.toFile());
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new FileSystemDefinitionException("cannot read the configuration: " + configuration, e);
+        }
+
+        final NodeList filesystems = document.getElementsByTagNameNS(NAMESPACE, "mapped-filesystem");
+        if (filesystems.getLength() == 0) {
+            throw new FileSystemDefinitionException("no mapped-filesystem is defined in the configuration: " + configuration);
+        }
+        final Element filesystem = (Element) filesystems.item(0);
+        if (filesystem.hasAttribute("index")) {
+            throw new FileSystemDefinitionException("the mapped-filesystem already uses an index: " + configuration);
+        }
+
+        for (Node child = filesystem.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!(child instanceof Element) || !NAMESPACE.equals(child.getNamespaceURI())) {
+                continue;
+            }
+            final Element element = (Element) child;
+            final String type = element.getLocalName();
+
+            if ("user-overlay".equals(type) || "group-overlay".equals(type)) {
+                // the overlays are served with the index, not compiled into it
+                continue;
+            }
+            if ("mapping-file".equals(type)) {
+                new MappingFileReader(entryParser).read(Paths.get(element.getAttribute("src")), handler);
+                continue;
+            }
+            if (!MappingEntryParser.getTypes().contains(type)) {
+                throw new FileSystemDefinitionException("unknown type of file: " + type);
+            }
+
+            final Map<String, String> attributes = new HashMap<>();
+            final NamedNodeMap attributeNodes = element.getAttributes();
+            for (int i = 0; i < attributeNodes.getLength(); i++) {
+                final Attr attribute = (Attr) attributeNodes.item(i);
+                if (!"path".equals(attribute.getName())) {
+                    attributes.put(attribute.getName(), attribute.getValue());
+                }
+            }
+            final String path = element.getAttribute("path");
+            try {
+                handler.handle(path, type, attributes);
+            } catch (RuntimeException e) {
+                throw new FileSystemDefinitionException(path + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
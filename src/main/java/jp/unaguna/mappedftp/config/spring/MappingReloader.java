@@ -0,0 +1,207 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.MappingOverlay;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndex;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the mapping of {@link MappingFileSystemFactory} from the XML configuration file.
+ *
+ * <p>
+ * {@link #reload()} reads the configuration file in a new Spring context
+ * and replaces the mapping and the overlays with the ones of the server defined in it.
+ * Only the mapping is replaced; the other settings such as listeners are not changed.
+ * In the new context, only the server and the beans it refers to are created,
+ * so the other beans such as the metrics service are not started again.
+ * {@link #start()} watches the configuration file and reloads it on each change.
+ * </p>
+ */
+public class MappingReloader implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappingReloader.class.getName());
+
+    /**
+     * The time in milliseconds to wait for the file to be written completely after a change is detected.
+     */
+    private static final long QUIET_PERIOD = 500L;
+
+    private final Path configPath;
+    private final MappingFileSystemFactory factory;
+    private WatchService watchService = null;
+    private Thread thread = null;
+
+    /**
+     * Constructor.
+     *
+     * @param configPath the path of the configuration file
+     * @param factory    the factory whose mapping is replaced
+     */
+    public MappingReloader(Path configPath, MappingFileSystemFactory factory) {
+        this.configPath = configPath.toAbsolutePath();
+        this.factory = factory;
+    }
+
+    /**
+     * Reads the configuration file and replaces the mapping.
+     *
+     * @throws FileSystemDefinitionException if the configuration file cannot be read or has no valid mapping;
+     *                                       the current mapping is kept
+     */
+    public synchronized void reload() throws FileSystemDefinitionException {
+        final FileSystemXmlApplicationContext ctx;
+        try {
+            ctx = new FileSystemXmlApplicationContext(new String[]{configPath.toUri().toString()}, false);
+            ctx.addBeanFactoryPostProcessor(MappingReloader::setLazyInit);
+            ctx.refresh();
+        } catch (BeansException e) {
+            throw new FileSystemDefinitionException("cannot read the configuration: " + configPath, e);
+        }
+
+        try {
+            // the same server as org.apache.ftpserver.main.CommandLine uses
+            final String beanName;
+            if (ctx.containsBean("server")) {
+                beanName = "server";
+            } else {
+                final String[] beanNames = ctx.getBeanNamesForType(FtpServer.class);
+                if (beanNames.length == 0) {
+                    throw new FileSystemDefinitionException("no server is defined in the configuration: " + configPath);
+                }
+                beanName = beanNames[0];
+            }
+
+            final FileSystemFactory newFactory = ((DefaultFtpServer) ctx.getBean(beanName)).getFileSystem();
+            if (!(newFactory instanceof MappingFileSystemFactory)) {
+                throw new FileSystemDefinitionException("no mapped-filesystem is defined in the configuration: " + configPath);
+            }
+
+            // the overlays are replaced first, so that the views switching to the reloaded tree see the new ones
+            final MappingFileSystemFactory source = (MappingFileSystemFactory) newFactory;
+            final Map<String, MappingOverlay> formerUserOverlays = factory.getUserOverlays();
+            final Map<String, MappingOverlay> formerGroupOverlays = factory.getGroupOverlays();
+            final Map<String, List<String>> formerGroupMembers = factory.getGroupMembers();
+            factory.setUserOverlays(source.getUserOverlays());
+            factory.setGroupOverlays(source.getGroupOverlays());
+            factory.setGroupMembers(source.getGroupMembers());
+
+            final MappingIndex newIndex = source.getIndex();
+            try {
+                if (newIndex != null) {
+                    factory.reload(newIndex);
+                } else {
+                    factory.reload(source.getFiles());
+                }
+            } catch (FileSystemDefinitionException | RuntimeException e) {
+                factory.setUserOverlays(formerUserOverlays);
+                factory.setGroupOverlays(formerGroupOverlays);
+                factory.setGroupMembers(formerGroupMembers);
+                throw e;
+            }
+            LOG.info("reloaded the mapping from " + configPath);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Make all beans lazy, so that only the beans needed for the server are created.
+     */
+    private static void setLazyInit(ConfigurableListableBeanFactory beanFactory) {
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            beanFactory.getBeanDefinition(beanName).setLazyInit(true);
+        }
+    }
+
+    /**
+     * Starts watching the configuration file in a background thread.
+     *
+     * @throws IOException if the directory of the configuration file cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("already started");
+        }
+
+        watchService = configPath.getFileSystem().newWatchService();
+        configPath.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::watch, "mapping-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the configuration file.
+     *
+     * @throws IOException when some IO error occurred
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!consumeEvents(watchService.take())) {
+                    continue;
+                }
+
+                // wait until the editor finishes writing, absorbing the following events
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null) {
+                    consumeEvents(key);
+                }
+
+                try {
+                    reload();
+                } catch (FileSystemDefinitionException | RuntimeException e) {
+                    LOG.error("failed to reload the mapping; the current mapping is kept", e);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed by close()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Consumes the events of the key.
+     *
+     * @return true if the configuration file has been changed
+     */
+    private boolean consumeEvents(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (configPath.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
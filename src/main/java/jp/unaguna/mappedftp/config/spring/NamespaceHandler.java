@@ -22,7 +22,6 @@
  */
 package jp.unaguna.mappedftp.config.spring;
 
-import org.apache.ftpserver.config.spring.CommandFactoryBeanDefinitionParser;
 import org.apache.ftpserver.config.spring.FileSystemBeanDefinitionParser;
 import org.apache.ftpserver.config.spring.ListenerBeanDefinitionParser;
 import org.apache.ftpserver.config.spring.UserManagerBeanDefinitionParser;
@@ -33,17 +32,14 @@ public class NamespaceHandler extends NamespaceHandlerSupport {
     @Override
     public void init() {
         registerBeanDefinitionParser("server", new ServerBeanDefinitionParser());
+        registerBeanDefinitionParser("commands", new CommandFactoryBeanDefinitionParser());
 
         // same as org.apache.ftpserver.config.spring.FtpServerNamespaceHandler
         registerBeanDefinitionParser("nio-listener", new ListenerBeanDefinitionParser());
         registerBeanDefinitionParser("file-user-manager", new UserManagerBeanDefinitionParser());
         registerBeanDefinitionParser("db-user-manager", new UserManagerBeanDefinitionParser());
         registerBeanDefinitionParser("native-filesystem", new FileSystemBeanDefinitionParser());
-        registerBeanDefinitionParser("commands", new CommandFactoryBeanDefinitionParser());
 
         registerBeanDefinitionParser("mapped-filesystem", new MappedFilesystemBeanDefinitionParser());
-        registerBeanDefinitionParser("local-file", new LocalFileBeanDefinitionParser());
-        registerBeanDefinitionParser("url-file", new UrlFileBeanDefinitionParser());
-        registerBeanDefinitionParser("classpath-file", new ClasspathFileBeanDefinitionParser());
     }
 }
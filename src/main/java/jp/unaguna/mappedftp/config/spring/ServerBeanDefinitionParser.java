@@ -19,6 +19,11 @@
 
 package jp.unaguna.mappedftp.config.spring;
 
+import jp.unaguna.mappedftp.command.MappedCommands;
+import jp.unaguna.mappedftp.metrics.HttpMetricsReporter;
+import jp.unaguna.mappedftp.metrics.LogMetricsReporter;
+import jp.unaguna.mappedftp.metrics.MetricsFtplet;
+import jp.unaguna.mappedftp.metrics.MetricsService;
 import org.apache.ftpserver.ConnectionConfigFactory;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerConfigurationException;
@@ -29,6 +34,8 @@ import org.apache.ftpserver.message.MessageResourceFactory;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinitionHolder;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
+import org.springframework.beans.factory.support.ManagedList;
 import org.springframework.beans.factory.support.ManagedMap;
 import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
@@ -49,6 +56,11 @@ import java.util.Map;
 public class ServerBeanDefinitionParser extends
         AbstractSingleBeanDefinitionParser {
 
+    /**
+     * The name of the ftplet added by the "metrics" element.
+     */
+    public static final String METRICS_FTPLET_NAME = "mappedftp-metrics";
+
     /**
      * {@inheritDoc}
      */
@@ -67,6 +79,9 @@ public class ServerBeanDefinitionParser extends
 
         BeanDefinitionBuilder factoryBuilder = BeanDefinitionBuilder.genericBeanDefinition(FtpServerFactory.class);
 
+        boolean commandsDefined = false;
+        boolean metricsDefined = false;
+        Map<Object, Object> ftplets = null;
         List<Element> childs = SpringUtil.getChildElements(element);
         for (Element childElm : childs) {
             String childName = childElm.getLocalName();
@@ -78,8 +93,7 @@ public class ServerBeanDefinitionParser extends
                     factoryBuilder.addPropertyValue("listeners", listeners);
                 }
             } else if ("ftplets".equals(childName)) {
-                Map<?, ?> ftplets = parseFtplets(childElm, parserContext, builder);
-                factoryBuilder.addPropertyValue("ftplets", ftplets);
+                ftplets = parseFtplets(childElm, parserContext, builder);
             } else if ("file-user-manager".equals(childName)
                     || "db-user-manager".equals(childName)) {
                 Object userManager = parserContext.getDelegate()
@@ -109,17 +123,35 @@ public class ServerBeanDefinitionParser extends
                         .parseCustomElement(childElm,
                                 builder.getBeanDefinition());
                 factoryBuilder.addPropertyValue("commandFactory", commandFactory);
+                commandsDefined = true;
             } else if ("messages".equals(childName)) {
                 MessageResource mr = parseMessageResource(childElm,
                         parserContext, builder);
                 factoryBuilder.addPropertyValue("messageResource", mr);
 
+            } else if ("metrics".equals(childName)) {
+                parseMetrics(childElm, parserContext, builder);
+                metricsDefined = true;
             } else {
                 throw new FtpServerConfigurationException(
                         "Unknown configuration name: " + childName);
             }
         }
 
+        if (metricsDefined) {
+            if (ftplets == null) {
+                ftplets = new ManagedMap<>();
+            }
+            ftplets.put(METRICS_FTPLET_NAME, new MetricsFtplet());
+        }
+        if (ftplets != null) {
+            factoryBuilder.addPropertyValue("ftplets", ftplets);
+        }
+
+        if (!commandsDefined) {
+            factoryBuilder.addPropertyValue("commandFactory", MappedCommands.createCommandFactory());
+        }
+
         // Configure login limits
         ConnectionConfigFactory connectionConfig = new ConnectionConfigFactory();
         if (StringUtils.hasText(element.getAttribute("max-logins"))) {
@@ -189,10 +221,53 @@ public class ServerBeanDefinitionParser extends
         return mr.createMessageResource();
     }
 
+    /**
+     * Parse the "metrics" element and register the {@link MetricsService} as a bean
+     */
+    private void parseMetrics(final Element metricsElm,
+                              final ParserContext parserContext,
+                              final BeanDefinitionBuilder builder) {
+        final BeanDefinitionBuilder serviceBuilder = BeanDefinitionBuilder.genericBeanDefinition(MetricsService.class);
+        serviceBuilder.setInitMethodName("start");
+        serviceBuilder.setDestroyMethodName("stop");
+
+        if (StringUtils.hasText(metricsElm.getAttribute("jmx"))) {
+            serviceBuilder.addPropertyValue("jmx", SpringUtil.parseBoolean(metricsElm, "jmx", true));
+        }
+        if (StringUtils.hasText(metricsElm.getAttribute("report-interval"))) {
+            serviceBuilder.addPropertyValue("reportInterval", Long.parseLong(metricsElm.getAttribute("report-interval")));
+        }
+
+        final ManagedList<Object> reporters = new ManagedList<>();
+        if (SpringUtil.parseBoolean(metricsElm, "log", false)) {
+            reporters.add(new LogMetricsReporter());
+        }
+        if (StringUtils.hasText(metricsElm.getAttribute("http-port"))) {
+            final BeanDefinitionBuilder httpBuilder = BeanDefinitionBuilder.genericBeanDefinition(HttpMetricsReporter.class);
+            httpBuilder.addConstructorArgValue(StringUtils.hasText(metricsElm.getAttribute("http-address"))
+                    ? metricsElm.getAttribute("http-address")
+                    : HttpMetricsReporter.DEFAULT_ADDRESS);
+            httpBuilder.addConstructorArgValue(SpringUtil.parseInt(metricsElm, "http-port"));
+            reporters.add(httpBuilder.getBeanDefinition());
+        }
+        for (Element reporterElm : SpringUtil.getChildElements(metricsElm)) {
+            if (!"reporter".equals(reporterElm.getLocalName())) {
+                throw new FtpServerConfigurationException(
+                        "Unknown metrics element " + reporterElm.getLocalName());
+            }
+            reporters.add(SpringUtil.parseSpringChildElement(reporterElm, parserContext, builder));
+        }
+        serviceBuilder.addPropertyValue("reporters", reporters);
+
+        BeanDefinitionReaderUtils.registerWithGeneratedName(serviceBuilder.getBeanDefinition(),
+                parserContext.getRegistry());
+    }
+
     /**
      * Parse the "ftplets" element
      */
-    private Map<?, ?> parseFtplets(final Element childElm,
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> parseFtplets(final Element childElm,
                                    final ParserContext parserContext,
                                    final BeanDefinitionBuilder builder) {
 
@@ -4,4 +4,8 @@ public class FileSystemDefinitionException extends Exception {
     public FileSystemDefinitionException(String message) {
         super(message);
     }
+
+    public FileSystemDefinitionException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
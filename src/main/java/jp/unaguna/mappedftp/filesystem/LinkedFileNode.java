@@ -1,7 +1,13 @@
 package jp.unaguna.mappedftp.filesystem;
 
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
 import org.apache.ftpserver.ftplet.FtpFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 
@@ -18,4 +24,73 @@ public interface LinkedFileNode extends FtpFile {
      * @throws NoSuchFileException   If the file indicated by the path does not exist
      */
     LinkedFileNode getNodeByRelativePath(TreePath relativePath) throws NotDirectoryException, NoSuchFileException;
+
+    /**
+     * Returns the item mapped to this node.
+     *
+     * @return the item, or null if this is a directory which is not mapped but only contains mapped files
+     */
+    FileTreeItem getFile();
+
+    /**
+     * Returns whether this file can be read from any offset.
+     *
+     * <p>
+     * For a directory, it returns whether all files under the directory can be read from any offset.
+     * </p>
+     *
+     * @return true if this file (or all files under this directory) can be read from any offset
+     */
+    boolean isRandomAccessible();
+
+    /**
+     * Write the content of this file to the channel.
+     *
+     * <p>
+     * Unlike copying from {@link #createInputStream(long)}, the content may be transferred
+     * without copying it into the Java heap, e.g. by sendfile for local files.
+     * The RETR command uses it when the bytes of the file are sent to the data connection as they are.
+     * </p>
+     *
+     * @param offset The number of bytes of where to start reading.
+     *               If the file is not random accessible,
+     *               any offset other than zero will throw an exception.
+     * @param target the channel to write to
+     * @return the number of bytes written
+     * @throws IOException when some IO error occurred
+     */
+    long transferTo(long offset, WritableByteChannel target) throws IOException;
+
+    /**
+     * Format the children of this directory for a listing.
+     *
+     * <p>
+     * The children are formatted in the same order as {@link org.apache.ftpserver.command.impl.listing.DirectoryLister}:
+     * directories first, then files, each in the order of {@link #listFiles()}.
+     * The result may be reused for the same key while the metadata of the children stays valid,
+     * so the key must identify the filter and the formatter.
+     * </p>
+     *
+     * @param key       the key which identifies the filter and the formatter
+     * @param filter    the filter of the children, or null to format all children
+     * @param formatter the formatter of each child
+     * @return the formatted listing
+     */
+    String formatChildren(String key, FileFilter filter, FileFormater formatter);
+
+    /**
+     * Open the listing of the children of this directory as a stream of UTF-8 bytes.
+     *
+     * <p>
+     * The content is the same as {@link #formatChildren(String, FileFilter, FileFormater)},
+     * but the children may be formatted while the stream is read,
+     * so that the memory for a listing does not grow with the number of children.
+     * </p>
+     *
+     * @param key       the key which identifies the filter and the formatter
+     * @param filter    the filter of the children, or null to format all children
+     * @param formatter the formatter of each child
+     * @return the stream of the formatted listing
+     */
+    InputStream openChildrenListing(String key, FileFilter filter, FileFormater formatter);
 }
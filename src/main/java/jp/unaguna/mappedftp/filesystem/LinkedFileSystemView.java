@@ -1,18 +1,57 @@
 package jp.unaguna.mappedftp.filesystem;
 
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
 import org.apache.ftpserver.ftplet.FileSystemView;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.User;
 
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 
+/**
+ * A {@link FileSystemView} on a tree of {@link LinkedFileNode}.
+ *
+ * <p>
+ * The tree may be shared with other views, so this class never modifies it.
+ * Only the working directory is held for each view.
+ * </p>
+ *
+ * <p>
+ * A view created by {@link MappingFileSystemFactory} switches to the latest tree
+ * when the working directory is changed after the mapping has been reloaded.
+ * Until then, it keeps the tree at its creation, so running transfers are not affected.
+ * </p>
+ *
+ * <p>
+ * The paths resolved by {@link #getFile(String)} and {@link #changeWorkingDirectory(String)} are recorded
+ * as {@code fs.resolve.micros} and {@code fs.resolve.misses} if {@link MetricRegistry#getDefault()} is enabled.
+ * </p>
+ */
 public class LinkedFileSystemView implements FileSystemView {
-    private final LinkedFileNode root;
+    private final MappingFileSystemFactory factory;
+    private final User user;
+    private LinkedFileNode root;
+    private long generation;
     private LinkedFileNode workingDirectory;
 
     public LinkedFileSystemView(LinkedFileNode root) {
+        this(root, null, null, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param root       the root of the tree
+     * @param factory    the factory from which the latest tree is taken, or null if the tree is never switched
+     * @param user       the user of this view
+     * @param generation the generation of the mapping of the tree
+     */
+    public LinkedFileSystemView(LinkedFileNode root, MappingFileSystemFactory factory, User user, long generation) {
+        this.factory = factory;
+        this.user = user;
         this.root = root;
+        this.generation = generation;
         this.workingDirectory = root;
     }
 
@@ -28,29 +67,20 @@ public class LinkedFileSystemView implements FileSystemView {
 
     @Override
     public boolean changeWorkingDirectory(String dir) throws FtpException {
-        final LinkedFileNode node;
-        try {
-            node = pathToNode(dir);
-        } catch (NotDirectoryException | NoSuchFileException e) {
-            throw new FtpException(e);
-        }
+        switchToLatestTree();
 
-        this.workingDirectory = node;
+        this.workingDirectory = resolve(dir);
         return true;
     }
 
     @Override
     public FtpFile getFile(String file) throws FtpException {
-        try {
-            return pathToNode(file);
-        } catch (NotDirectoryException | NoSuchFileException e) {
-            throw new FtpException(e);
-        }
+        return resolve(file);
     }
 
     @Override
     public boolean isRandomAccessible() throws FtpException {
-        return false;
+        return root.isRandomAccessible();
     }
 
     @Override
@@ -58,11 +88,61 @@ public class LinkedFileSystemView implements FileSystemView {
 
     }
 
+    /**
+     * Switch to the latest tree if the mapping has been reloaded.
+     * The working directory moves to the same path in the new tree, or to the root if it no longer exists.
+     */
+    private void switchToLatestTree() {
+        if (factory == null) {
+            return;
+        }
+        final long latestGeneration = factory.getGeneration();
+        if (latestGeneration == generation) {
+            return;
+        }
+
+        final String workingPath = workingDirectory.getAbsolutePath();
+        root = factory.buildRoot(user);
+        generation = latestGeneration;
+        try {
+            workingDirectory = pathToNode(workingPath);
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            workingDirectory = root;
+        }
+        if (!workingDirectory.isDirectory()) {
+            workingDirectory = root;
+        }
+    }
+
+    /**
+     * Returns the node at the path requested by the client, recording the time.
+     */
+    private LinkedFileNode resolve(String path) throws FtpException {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        if (!metrics.isEnabled()) {
+            try {
+                return pathToNode(path);
+            } catch (NotDirectoryException | NoSuchFileException e) {
+                throw new FtpException(e);
+            }
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return pathToNode(path);
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            metrics.counter("fs.resolve.misses").increment();
+            throw new FtpException(e);
+        } finally {
+            metrics.histogram("fs.resolve.micros").recordSince(start);
+        }
+    }
+
     private LinkedFileNode pathToNode(String path) throws NotDirectoryException, NoSuchFileException {
         if ("/".equals(path)) {
             return root;
         } else if (path.startsWith("/")) {
-            return root.getNodeByRelativePath(TreePath.get(path.substring(1)));
+            return root.getNodeByRelativePath(TreePath.get(path).toRelative());
         } else {
             return workingDirectory.getNodeByRelativePath(TreePath.get(path));
         }
@@ -1,49 +1,478 @@
 package jp.unaguna.mappedftp.filesystem;
 
+import jp.unaguna.mappedftp.filesystem.compact.CompactTree;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndex;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
 import org.apache.ftpserver.ftplet.FileSystemFactory;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.User;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MappingFileSystemFactory implements FileSystemFactory {
-    protected final Map<String, FileTreeItem> files;
+    protected volatile Map<String, FileTreeItem> files;
+
+    /**
+     * The tree shared by all users, over which the overlays of each user are laid.
+     * It is built once by {@link #prefetch()} or at the first request, and must not be modified after that.
+     * It is replaced by {@link #reload(Map)}.
+     */
+    private volatile LinkedFileNode sharedRoot = null;
+
+    /**
+     * The number of times {@link #files} has been replaced.
+     */
+    private volatile long generation = 0;
+
+    private final Object reloadLock = new Object();
+
+    /**
+     * Whether the trees are built as {@link CompactTree} instead of {@link FileTreeNode}.
+     */
+    private volatile boolean compact = false;
+
+    /**
+     * The index from which the shared tree is read instead of {@link #files}, or null.
+     */
+    private volatile MappingIndex index = null;
+
+    /**
+     * The overlays by the name of the user.
+     */
+    private volatile Map<String, MappingOverlay> userOverlays = Collections.emptyMap();
+
+    /**
+     * The overlays by the name of the group.
+     */
+    private volatile Map<String, MappingOverlay> groupOverlays = Collections.emptyMap();
+
+    /**
+     * The names of the groups by the name of the user, in the order of {@link #setGroupMembers(Map)}.
+     */
+    private volatile Map<String, List<String>> userGroups = Collections.emptyMap();
+
+    private int prefetchThreads = SourcePrefetcher.DEFAULT_THREADS;
+    private long prefetchTimeout = SourcePrefetcher.DEFAULT_TIMEOUT;
 
     public MappingFileSystemFactory() {
         this.files = new LinkedHashMap<>();
     }
 
     public MappingFileSystemFactory(Map<String, FileTreeItem> files) throws FileSystemDefinitionException {
+        validate(files);
         this.files = files;
+    }
 
-        for (String path : files.keySet()) {
-            if ("/".equals(path)) {
+    private static void validate(Map<String, FileTreeItem> files) throws FileSystemDefinitionException {
+        for (Map.Entry<String, FileTreeItem> entry : files.entrySet()) {
+            if ("/".equals(entry.getKey()) && !entry.getValue().isDirectory()) {
                 throw new FileSystemDefinitionException("cannot append a non-directory file on the root \"/\"");
             }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The time is recorded as {@code fs.view.create.micros} if {@link MetricRegistry#getDefault()} is enabled.
+     * </p>
+     */
     @Override
     public LinkedFileSystemView createFileSystemView(User user) throws FtpException {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        final boolean measured = metrics.isEnabled();
+        final long start = measured ? System.nanoTime() : 0L;
+
+        final long currentGeneration = generation;
         final LinkedFileNode root = buildRoot(user);
-        return new LinkedFileSystemView(root);
+        final LinkedFileSystemView view = new LinkedFileSystemView(root, this, user, currentGeneration);
+
+        if (measured) {
+            metrics.histogram("fs.view.create.micros").recordSince(start);
+        }
+        return view;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Set whether the trees are built as {@link CompactTree}, which needs much less memory for a large mapping.
+     *
+     * <p>
+     * A compact tree cannot contain {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeItemLazyDirectory}
+     * and does not reuse formatted listings.
+     * It takes effect on the trees built after this call.
+     * </p>
+     *
+     * @param compact true to build compact trees
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public MappingIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Set the index from which the tree shared by all users is read instead of the mapping.
+     *
+     * <p>
+     * The tree is read from the mapped index file, so no tree is built for the files in the index.
+     * While an index is set, {@link #prefetch()} prefetches nothing.
+     * </p>
+     *
+     * @param index the index, or null to build the tree from the mapping
+     */
+    public void setIndex(MappingIndex index) {
+        synchronized (reloadLock) {
+            this.index = index;
+            this.sharedRoot = null;
+        }
+    }
+
+    public Map<String, MappingOverlay> getUserOverlays() {
+        return userOverlays;
+    }
+
+    /**
+     * Set the overlays served to the users in addition to the shared tree.
+     *
+     * <p>
+     * The overlay of a user is laid over the overlays of the groups of the user.
+     * It takes effect on the views created after this call,
+     * and on the former views when they switch to the tree reloaded after this call.
+     * </p>
+     *
+     * @param userOverlays the overlays by the name of the user
+     * @see MappingOverlay
+     */
+    public void setUserOverlays(Map<String, MappingOverlay> userOverlays) {
+        this.userOverlays = new LinkedHashMap<>(userOverlays);
+    }
+
+    public Map<String, MappingOverlay> getGroupOverlays() {
+        return groupOverlays;
+    }
+
+    /**
+     * Set the overlays served to the members of the groups in addition to the shared tree.
+     *
+     * <p>
+     * The members are given by {@link #getGroups(User)}.
+     * As {@link #setUserOverlays(Map)}, it takes effect on the views created after this call.
+     * </p>
+     *
+     * @param groupOverlays the overlays by the name of the group
+     * @see #setGroupMembers(Map)
+     */
+    public void setGroupOverlays(Map<String, MappingOverlay> groupOverlays) {
+        this.groupOverlays = new LinkedHashMap<>(groupOverlays);
+    }
+
+    /**
+     * Returns the members of the groups.
+     *
+     * @return the names of the users by the name of the group
+     */
+    public Map<String, List<String>> getGroupMembers() {
+        final Map<String, List<String>> members = new LinkedHashMap<>();
+        userGroups.forEach((user, groups) -> groups.forEach(group ->
+                members.computeIfAbsent(group, g -> new ArrayList<>()).add(user)));
+        return members;
+    }
+
+    /**
+     * Set the members of the groups, which are returned by {@link #getGroups(User)}.
+     *
+     * <p>
+     * If a user is a member of some groups, their overlays are laid in the order of the groups in this map,
+     * so the later group wins.
+     * </p>
+     *
+     * @param groupMembers the names of the users by the name of the group
+     */
+    public void setGroupMembers(Map<String, ? extends Collection<String>> groupMembers) {
+        final Map<String, List<String>> newUserGroups = new LinkedHashMap<>();
+        groupMembers.forEach((group, users) -> users.forEach(user ->
+                newUserGroups.computeIfAbsent(user, u -> new ArrayList<>()).add(group)));
+        this.userGroups = newUserGroups;
+    }
+
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    /**
+     * Set the maximum number of sources prefetched at the same time by {@link #prefetch()}.
+     *
+     * @param prefetchThreads the number of threads
+     */
+    public void setPrefetchThreads(int prefetchThreads) {
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    public long getPrefetchTimeout() {
+        return prefetchTimeout;
     }
 
     /**
-     * Construct root node with {@link #files}
+     * Set the time for which {@link #prefetch()} waits for the sources.
+     *
+     * @param prefetchTimeout the time in milliseconds
+     */
+    public void setPrefetchTimeout(long prefetchTimeout) {
+        this.prefetchTimeout = prefetchTimeout;
+    }
+
+    /**
+     * Build the tree shared by all users, and prefetch the sources of the files marked by
+     * {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile#setPrefetch(boolean)} in parallel.
+     *
+     * <p>
+     * It is called when the server is configured by XML, so that the first login does not pay for building the tree
+     * and an invalid mapping is reported at startup.
+     * Broken sources are logged and returned, but the files are still served.
+     * {@link #reload(Map)} does not call it on the new mapping by itself;
+     * {@link jp.unaguna.mappedftp.config.spring.MappingReloader} reads the new mapping as a new server,
+     * so the new files are prefetched before they replace the current ones.
+     * </p>
+     *
+     * @return the errors of the broken sources by path
+     * @throws FileSystemDefinitionException if the tree cannot be built with the mapping
+     * @throws InterruptedException if interrupted while waiting for the sources
+     * @see SourcePrefetcher
+     */
+    public Map<String, IOException> prefetch() throws FileSystemDefinitionException, InterruptedException {
+        try {
+            getSharedRoot();
+        } catch (IllegalArgumentException e) {
+            throw new FileSystemDefinitionException(e.getMessage(), e);
+        }
+        return new SourcePrefetcher(prefetchThreads, prefetchTimeout).prefetch(files);
+    }
+
+    /**
+     * Returns the mapping from the path to the file currently served.
+     *
+     * @return the unmodifiable mapping
+     */
+    public Map<String, FileTreeItem> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns the number of times the mapping has been replaced by {@link #reload(Map)}.
+     *
+     * @return the generation of the mapping
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Replace the mapping with the specified files.
+     *
+     * <p>
+     * The new tree is built before it replaces the current one,
+     * so logins and transfers are not blocked while building.
+     * The views created before keep the former tree until they change the working directory.
+     * </p>
+     *
+     * @param newFiles the mapping from the path to the file
+     * @throws FileSystemDefinitionException if the mapping is invalid; the current mapping is kept
+     */
+    public void reload(Map<String, FileTreeItem> newFiles) throws FileSystemDefinitionException {
+        validate(newFiles);
+
+        synchronized (reloadLock) {
+            final LinkedFileNode newRoot;
+            try {
+                newRoot = buildRootNode(newFiles);
+            } catch (IllegalArgumentException e) {
+                throw new FileSystemDefinitionException(e.getMessage(), e);
+            }
+            this.files = newFiles;
+            this.index = null;
+            this.sharedRoot = newRoot;
+            this.generation++;
+        }
+    }
+
+    /**
+     * Replace the mapping with the files in the index.
+     *
+     * <p>
+     * As {@link #reload(Map)}, the views created before keep the former tree
+     * until they change the working directory.
+     * </p>
+     *
+     * @param newIndex the index
+     * @see #setIndex(MappingIndex)
+     */
+    public void reload(MappingIndex newIndex) {
+        synchronized (reloadLock) {
+            this.files = new LinkedHashMap<>();
+            this.index = newIndex;
+            this.sharedRoot = newIndex.getRoot();
+            this.generation++;
+        }
+    }
+
+    /**
+     * Returns the root node for the user.
+     *
+     * <p>
+     * The tree shared by all users is returned with the overlays of the user laid over it:
+     * the overlays of {@link #getGroups(User) the groups}, the overlay of the user,
+     * and the files of {@link #getUserSpecificFiles(User)}.
+     * The shared tree is not copied, so a login costs no more than the files specific to the user.
+     * If the user has no overlay, the shared tree itself is returned.
+     * </p>
      *
      * @param user The user for which the file system should be created
      * @return The root node which {@link LinkedFileSystemView} uses
+     * @throws IllegalArgumentException if the user-specific files cannot be constructed
      */
     public LinkedFileNode buildRoot(User user) {
-        final FileTreeNode root = new FileTreeNode(new FileTreeItemDirectory(), null);
+        LinkedFileNode root = getSharedRoot();
+
+        final Map<String, MappingOverlay> currentGroupOverlays = groupOverlays;
+        if (!currentGroupOverlays.isEmpty()) {
+            for (String group : getGroups(user)) {
+                final MappingOverlay overlay = currentGroupOverlays.get(group);
+                if (overlay != null) {
+                    root = overlay.apply(root);
+                }
+            }
+        }
+
+        final Map<String, MappingOverlay> currentUserOverlays = userOverlays;
+        final MappingOverlay userOverlay = currentUserOverlays.isEmpty() ? null : currentUserOverlays.get(user.getName());
+        if (userOverlay != null) {
+            root = userOverlay.apply(root);
+        }
 
-        files.forEach((path, fileTreeItem) -> root.appendSubFile(fileTreeItem, TreePath.get(path).toRelative()));
+        final Map<String, FileTreeItem> userFiles = getUserSpecificFiles(user);
+        if (userFiles != null && !userFiles.isEmpty()) {
+            try {
+                root = new MappingOverlay(userFiles).apply(root);
+            } catch (FileSystemDefinitionException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Returns the names of the groups of the user, whose overlays are served to the user.
+     *
+     * <p>
+     * By default, they are the groups of which the user is a member by {@link #setGroupMembers(Map)}.
+     * Override it to take the groups from another source, such as a property of the user.
+     * </p>
+     *
+     * @param user the user logging in
+     * @return the names of the groups; the overlay of the later group wins
+     */
+    protected List<String> getGroups(User user) {
+        final List<String> groups = userGroups.get(user.getName());
+        return groups != null ? groups : Collections.emptyList();
+    }
+
+    /**
+     * Returns the files which are served only to the specified user in addition to {@link #files}.
+     *
+     * <p>
+     * By default, there are no user-specific files.
+     * They are laid over the other overlays as a {@link MappingOverlay} built at each login;
+     * use {@link #setUserOverlays(Map)} for the files which do not change at each login.
+     * </p>
+     *
+     * @param user the user logging in
+     * @return the mapping from the path to the file, or null if the user has no specific files
+     */
+    protected Map<String, FileTreeItem> getUserSpecificFiles(User user) {
+        return null;
+    }
+
+    /**
+     * Returns the tree shared by all users.
+     *
+     * <p>
+     * The tree is constructed with {@link #files} by {@link #prefetch()}, or at the first call if it is not called.
+     * Changes to {@link #files} after that are not reflected.
+     * If {@link #getIndex()} is set, the tree of the index is returned instead.
+     * </p>
+     *
+     * @return the root node of the shared tree
+     */
+    protected LinkedFileNode getSharedRoot() {
+        LinkedFileNode root = sharedRoot;
+        if (root == null) {
+            // the same lock as the reloads, so that a tree built from the former files does not replace the new one
+            synchronized (reloadLock) {
+                root = sharedRoot;
+                if (root == null) {
+                    final MappingIndex currentIndex = index;
+                    root = currentIndex != null ? currentIndex.getRoot() : buildRootNode(files);
+                    sharedRoot = root;
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Construct root node with the specified files, as {@link CompactTree} if {@link #isCompact()}.
+     *
+     * @param files the mapping from the path to the file
+     * @return the root node of the constructed tree
+     * @throws IllegalArgumentException if the mapping cannot be constructed
+     */
+    protected LinkedFileNode buildRootNode(Map<String, FileTreeItem> files) {
+        if (compact) {
+            return CompactTree.build(files).getRoot();
+        } else {
+            return buildTree(files);
+        }
+    }
+
+    /**
+     * Construct root node with the specified files
+     *
+     * <p>
+     * A directory mapped to the root "/", such as {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalDirectory},
+     * becomes the root itself.
+     * </p>
+     *
+     * @param files the mapping from the path to the file
+     * @return the root node of the constructed tree
+     */
+    protected static FileTreeNode buildTree(Map<String, FileTreeItem> files) {
+        final FileTreeItem rootItem = files.get("/");
+        final FileTreeNode root = new FileTreeNode(rootItem != null ? rootItem : new FileTreeItemDirectory(), null);
+
+        files.forEach((path, fileTreeItem) -> {
+            if (!"/".equals(path)) {
+                root.appendSubFile(fileTreeItem, TreePath.get(path).toRelative());
+            }
+        });
 
+        // computed here once, as CompactTree does, instead of at the first session
+        root.isRandomAccessible();
         return root;
     }
 }
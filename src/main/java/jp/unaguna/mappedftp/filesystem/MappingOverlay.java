@@ -0,0 +1,188 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small mapping laid over a shared tree, such as the files served only to a user or to a group.
+ *
+ * <p>
+ * The overlay is built once and shared by all views which use it.
+ * {@link #apply(LinkedFileNode)} does not copy the base tree: the returned root looks up the overlay and the base
+ * at each step, so it is created in constant time and the base tree is shared with the other users.
+ * </p>
+ * <p>
+ * A file of the overlay replaces the file at the same path of the base, with the files under it.
+ * A directory of the overlay ({@link FileTreeItemDirectory}, or a directory made for the path of a file)
+ * is merged with the directory of the base: the children of both are listed and the child of the overlay wins.
+ * The metadata of a merged directory is the one of the overlay if it is mapped explicitly,
+ * and the one of the base otherwise.
+ * </p>
+ */
+public class MappingOverlay {
+    private final Map<String, FileTreeItem> files;
+    private final Entry root;
+
+    /**
+     * Constructor.
+     *
+     * @param files the mapping from the path to the file
+     * @throws FileSystemDefinitionException if the mapping is invalid
+     */
+    public MappingOverlay(Map<String, FileTreeItem> files) throws FileSystemDefinitionException {
+        this.files = files;
+        try {
+            this.root = build(files);
+        } catch (IllegalArgumentException e) {
+            throw new FileSystemDefinitionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the mapping of this overlay.
+     *
+     * @return the unmodifiable mapping
+     */
+    public Map<String, FileTreeItem> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns the root of the tree which shows this overlay on the base tree.
+     *
+     * <p>
+     * Neither the base tree nor this overlay is modified, so both can be shared with other views.
+     * </p>
+     *
+     * @param base the root of the base tree
+     * @return the root of the combined tree
+     */
+    public LinkedFileNode apply(LinkedFileNode base) {
+        if (root.replaces) {
+            return new OverlayNode(null, null, root.node, null);
+        }
+        return new OverlayNode(null, null, base, root);
+    }
+
+    private static Entry build(Map<String, FileTreeItem> files) {
+        // the parents are placed before their descendants
+        final List<Map.Entry<TreePath, FileTreeItem>> entries = new ArrayList<>(files.size());
+        files.forEach((path, item) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                TreePath.get(path).toRelative().normalize(), item)));
+        entries.sort(Comparator.comparingInt(entry -> entry.getKey().getNameCount()));
+
+        Entry root = new Entry(null, null);
+        for (Map.Entry<TreePath, FileTreeItem> entry : entries) {
+            final TreePath path = entry.getKey();
+            final FileTreeItem item = entry.getValue();
+            if (path.getNameCount() > 0 && "..".equals(path.getNameString(0))) {
+                throw new IllegalArgumentException("cannot append on out of the root: " + path);
+            }
+
+            if (path.getNameCount() == 0) {
+                if (!item.isDirectory()) {
+                    throw new IllegalArgumentException("cannot append a non-directory file on the root \"/\"");
+                }
+                root = new Entry(null, item);
+                continue;
+            }
+
+            Entry current = root;
+            for (int i = 0; i < path.getNameCount(); i++) {
+                if (current.replaces) {
+                    if (!current.node.isDirectory()) {
+                        throw new IllegalArgumentException("cannot append a file under a non-directory file: /" + path);
+                    }
+                    current.node.appendSubFile(item, path.subpath(i));
+                    break;
+                }
+
+                final String name = path.getNameString(i);
+                if (i == path.getNameCount() - 1) {
+                    current.children.put(name, new Entry(name, item));
+                } else {
+                    current = current.children.computeIfAbsent(name, n -> new Entry(n, null));
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * A file of the overlay.
+     */
+    static class Entry {
+        /**
+         * Whether the file is mapped explicitly, not made for the path of another file.
+         */
+        private final boolean mapped;
+
+        /**
+         * Whether the file replaces the file of the base instead of being merged with it.
+         */
+        private final boolean replaces;
+
+        /**
+         * The node of the file. If {@link #replaces}, it also holds the files under it.
+         */
+        private final FileTreeNode node;
+
+        /**
+         * The children to be merged with the base, or null if {@link #replaces}.
+         */
+        private final Map<String, Entry> children;
+
+        private Entry(String name, FileTreeItem item) {
+            this.mapped = item != null;
+            this.replaces = item != null && !(item instanceof FileTreeItemDirectory);
+            this.node = new FileTreeNode(item != null ? item : new FileTreeItemDirectory(), name);
+            this.children = replaces ? null : new HashMap<>();
+        }
+
+        boolean isMapped() {
+            return mapped;
+        }
+
+        boolean replaces() {
+            return replaces;
+        }
+
+        FileTreeNode getNode() {
+            return node;
+        }
+
+        Entry getChild(String name) {
+            return children.get(name);
+        }
+
+        boolean hasChild(String name) {
+            return children.containsKey(name);
+        }
+
+        Collection<String> getChildNames() {
+            return children.keySet();
+        }
+
+        boolean isRandomAccessible() {
+            if (replaces) {
+                return node.isRandomAccessible();
+            }
+            for (Entry child : children.values()) {
+                if (!child.isRandomAccessible()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.utils.CharSequenceInputStream;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A file of the tree which shows a {@link MappingOverlay} on a base tree.
+ *
+ * <p>
+ * It holds the file of the base and the file of the overlay at the same path, and is created each time a file
+ * is looked up, so the base tree is neither copied nor modified.
+ * Outside of the directories of the overlay, it only delegates to the file of the base, keeping the link to its
+ * parent so that ".." goes back through the overlay.
+ * </p>
+ */
+public class OverlayNode implements LinkedFileNode {
+    private final OverlayNode parent;
+    private final String name;
+
+    /**
+     * The file of the base, or null if the file is only in the overlay.
+     */
+    private final LinkedFileNode base;
+
+    /**
+     * The directory of the overlay merged with {@link #base}, or null outside of the overlay.
+     */
+    private final MappingOverlay.Entry entry;
+
+    private volatile String absolutePath = null;
+
+    OverlayNode(OverlayNode parent, String name, LinkedFileNode base, MappingOverlay.Entry entry) {
+        this.parent = parent;
+        this.name = name;
+        this.base = base;
+        this.entry = entry;
+    }
+
+    /**
+     * Returns the node which has the metadata of this file.
+     */
+    private LinkedFileNode metadata() {
+        if (entry != null && (entry.isMapped() || base == null)) {
+            return entry.getNode();
+        }
+        return base;
+    }
+
+    /**
+     * Returns the child of the name, or null if there is no such child.
+     */
+    private OverlayNode getChild(String childName) {
+        final MappingOverlay.Entry childEntry = entry != null ? entry.getChild(childName) : null;
+        if (childEntry != null && childEntry.replaces()) {
+            return new OverlayNode(this, childName, childEntry.getNode(), null);
+        }
+
+        LinkedFileNode baseChild = null;
+        if (base != null && base.isDirectory()) {
+            try {
+                baseChild = base.getNodeByRelativePath(new TreePath(false, new String[]{childName}));
+            } catch (NotDirectoryException | NoSuchFileException e) {
+                baseChild = null;
+            }
+        }
+
+        if (childEntry != null) {
+            // a non-directory file of the base is hidden by the directory of the overlay
+            final LinkedFileNode merged = baseChild != null && baseChild.isDirectory() ? baseChild : null;
+            return new OverlayNode(this, childName, merged, childEntry);
+        }
+        return baseChild != null ? new OverlayNode(this, childName, baseChild, null) : null;
+    }
+
+    @Override
+    public FileTreeItem getFile() {
+        return metadata().getFile();
+    }
+
+    @Override
+    public OverlayNode getNodeByRelativePath(TreePath relativePath) throws NotDirectoryException, NoSuchFileException {
+        if (relativePath.isAbsolute()) {
+            throw new IllegalArgumentException("relativePath must not be absolute: " + relativePath);
+        }
+
+        OverlayNode current = this;
+        final int nameCount = relativePath.getNameCount();
+        for (int i = 0; i < nameCount; i++) {
+            final String childName = relativePath.getNameString(i);
+
+            if (".".equals(childName)) {
+                continue;
+            }
+            if ("..".equals(childName)) {
+                if (current.parent != null) {
+                    current = current.parent;
+                }
+                continue;
+            }
+            if (!current.isDirectory()) {
+                throw new NotDirectoryException(current.getAbsolutePath());
+            }
+
+            final OverlayNode child = current.getChild(childName);
+            if (child == null) {
+                throw new NoSuchFileException(relativePath.toString());
+            }
+            current = child;
+        }
+
+        return current;
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        String path = absolutePath;
+        if (path == null) {
+            if (parent == null) {
+                path = "/";
+            } else if (parent.parent == null) {
+                path = "/" + name;
+            } else {
+                path = parent.getAbsolutePath() + "/" + name;
+            }
+            absolutePath = path;
+        }
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isHidden() {
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return entry != null || base.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() {
+        return entry == null && base.isFile();
+    }
+
+    @Override
+    public boolean doesExist() {
+        return true;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return metadata().isReadable();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public boolean isRemovable() {
+        return false;
+    }
+
+    @Override
+    public String getOwnerName() {
+        return metadata().getOwnerName();
+    }
+
+    @Override
+    public String getGroupName() {
+        return metadata().getGroupName();
+    }
+
+    @Override
+    public int getLinkCount() {
+        return metadata().getLinkCount();
+    }
+
+    @Override
+    public long getLastModified() {
+        return metadata().getLastModified();
+    }
+
+    @Override
+    public boolean setLastModified(long time) {
+        return false;
+    }
+
+    @Override
+    public long getSize() {
+        return metadata().getSize();
+    }
+
+    @Override
+    public Object getPhysicalFile() {
+        return metadata().getPhysicalFile();
+    }
+
+    @Override
+    public boolean mkdir() {
+        return false;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public boolean move(FtpFile destination) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The children are sorted by name.
+     * Outside of the overlay, the returned list is an unmodifiable view which creates the node of a child
+     * when it is got.
+     * </p>
+     */
+    @Override
+    public List<OverlayNode> listFiles() {
+        if (!isDirectory()) return null;
+
+        if (entry == null) {
+            final List<? extends FtpFile> baseChildren = base.listFiles();
+            return new AbstractList<OverlayNode>() {
+                @Override
+                public OverlayNode get(int i) {
+                    final LinkedFileNode child = (LinkedFileNode) baseChildren.get(i);
+                    return new OverlayNode(OverlayNode.this, child.getName(), child, null);
+                }
+
+                @Override
+                public int size() {
+                    return baseChildren.size();
+                }
+            };
+        }
+
+        final List<OverlayNode> children = new ArrayList<>();
+        if (base != null) {
+            for (FtpFile child : base.listFiles()) {
+                if (!entry.hasChild(child.getName())) {
+                    children.add(new OverlayNode(this, child.getName(), (LinkedFileNode) child, null));
+                }
+            }
+        }
+        for (String childName : entry.getChildNames()) {
+            children.add(getChild(childName));
+        }
+        children.sort(Comparator.comparing(OverlayNode::getName));
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Outside of the overlay, the listing of the base is returned, which may be reused for the key.
+     * The listing of a directory of the overlay is not reused.
+     * </p>
+     */
+    @Override
+    public String formatChildren(String key, FileFilter filter, FileFormater formatter) {
+        if (entry == null) {
+            return base.formatChildren(key, filter, formatter);
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        final Iterator<String> entries = formatListing(filter, formatter);
+        while (entries.hasNext()) {
+            builder.append(entries.next());
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public InputStream openChildrenListing(String key, FileFilter filter, FileFormater formatter) {
+        if (entry == null) {
+            return base.openChildrenListing(key, filter, formatter);
+        }
+        return new CharSequenceInputStream(formatListing(filter, formatter), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Formats the children of this directory of the overlay in the order of listings: directories first, then files.
+     */
+    private Iterator<String> formatListing(FileFilter filter, FileFormater formatter) {
+        final List<OverlayNode> children = listFiles();
+        final List<OverlayNode> ordered = new ArrayList<>(children.size());
+        for (boolean directories : new boolean[]{true, false}) {
+            for (OverlayNode child : children) {
+                if (child.isDirectory() == directories && (filter == null || filter.accept(child))) {
+                    ordered.add(child);
+                }
+            }
+        }
+        return ordered.stream().map(formatter::format).iterator();
+    }
+
+    @Override
+    public OutputStream createOutputStream(long offset) throws IOException {
+        return metadata().createOutputStream(offset);
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        return metadata().createInputStream(offset);
+    }
+
+    @Override
+    public long transferTo(long offset, WritableByteChannel target) throws IOException {
+        return metadata().transferTo(offset, target);
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        if (entry == null) {
+            return base.isRandomAccessible();
+        }
+        return entry.isRandomAccessible() && (base == null || base.isRandomAccessible());
+    }
+
+    @Override
+    public String toString() {
+        return getAbsolutePath();
+    }
+}
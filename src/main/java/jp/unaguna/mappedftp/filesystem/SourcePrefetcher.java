@@ -0,0 +1,123 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Prefetches the sources of the files which are {@link FileTreeItemReadOnlyFile#isPrefetch() marked} in parallel.
+ *
+ * <p>
+ * The sources are prefetched by a bounded number of threads, so the time does not grow
+ * with the number of sources as long as the threads are busy with waiting for the sources.
+ * A broken source is logged as an error, but it does not stop the others or the server.
+ * The sources still being prefetched when the timeout passes are left to the background threads.
+ * </p>
+ */
+public class SourcePrefetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SourcePrefetcher.class.getName());
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final long DEFAULT_TIMEOUT = 60_000L;
+
+    private static final AtomicInteger THREAD_SEQUENCE = new AtomicInteger();
+    private static final ThreadFactory PREFETCH_THREADS = runnable -> {
+        final Thread thread = new Thread(runnable, "source-prefetcher-" + THREAD_SEQUENCE.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final int threads;
+    private final long timeout;
+
+    /**
+     * Constructor.
+     *
+     * @param threads the maximum number of sources prefetched at the same time
+     * @param timeout the time in milliseconds to wait for the sources to be prefetched
+     */
+    public SourcePrefetcher(int threads, long timeout) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Prefetches the sources of the marked files and waits for them until the timeout.
+     *
+     * @param files the mapping from the path to the file
+     * @return the errors of the broken sources by path, in the order of the mapping;
+     * the sources not prefetched until the timeout are not included
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, IOException> prefetch(Map<String, ? extends FileTreeItem> files) throws InterruptedException {
+        final List<Map.Entry<String, FileTreeItemReadOnlyFile>> targets = new ArrayList<>();
+        files.forEach((path, item) -> {
+            if (item instanceof FileTreeItemReadOnlyFile && ((FileTreeItemReadOnlyFile) item).isPrefetch()) {
+                targets.add(new AbstractMap.SimpleImmutableEntry<>(path, (FileTreeItemReadOnlyFile) item));
+            }
+        });
+        if (targets.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final long start = System.currentTimeMillis();
+        final AtomicReferenceArray<IOException> errors = new AtomicReferenceArray<>(targets.size());
+        final AtomicInteger done = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, targets.size()), PREFETCH_THREADS);
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                final int index = i;
+                final Map.Entry<String, FileTreeItemReadOnlyFile> target = targets.get(i);
+                executor.execute(() -> {
+                    try {
+                        target.getValue().prefetch();
+                    } catch (IOException e) {
+                        errors.set(index, e);
+                        LOG.error("failed to prefetch " + target.getKey() + " from " + target.getValue() + ": " + e);
+                    } catch (RuntimeException e) {
+                        errors.set(index, new IOException(e));
+                        LOG.error("failed to prefetch " + target.getKey() + " from " + target.getValue(), e);
+                    } finally {
+                        done.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            LOG.warn((targets.size() - done.get()) + " of " + targets.size()
+                    + " sources are still being prefetched after " + timeout + " ms; continuing in the background");
+        }
+
+        final Map<String, IOException> failures = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            if (errors.get(i) != null) {
+                failures.put(targets.get(i).getKey(), errors.get(i));
+            }
+        }
+        LOG.info("prefetched " + done.get() + " of " + targets.size() + " sources in "
+                + (System.currentTimeMillis() - start) + " ms (" + failures.size() + " broken)");
+        return failures;
+    }
+}
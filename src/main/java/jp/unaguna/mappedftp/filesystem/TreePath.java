@@ -1,7 +1,6 @@
 package jp.unaguna.mappedftp.filesystem;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class TreePath {
     private static final String SEPARATOR = "/";
@@ -44,6 +43,20 @@ public class TreePath {
         return this.names.length;
     }
 
+    /**
+     * Returns the name at the specified index as a string.
+     *
+     * <p>
+     * Unlike {@link #getName(int)}, it allocates nothing.
+     * </p>
+     *
+     * @param index the index of the name
+     * @return the name
+     */
+    public String getNameString(int index) {
+        return this.names[index];
+    }
+
     public TreePath getName(int index) {
         String[] newNames = new String[1];
         newNames[0] = this.names[index];
@@ -117,17 +130,46 @@ public class TreePath {
 
     public static TreePath get(String... names) {
         final boolean absolute = names.length > 0 && names[0].startsWith(SEPARATOR);
-        final List<String> nameList = new ArrayList<>();
 
+        if (names.length == 1) {
+            return new TreePath(absolute, split(names[0]));
+        }
+
+        final List<String> nameList = new ArrayList<>();
         for (String name : names) {
-            List<String> nameParts = Arrays.stream(name.split(SEPARATOR))
-                    .filter(s -> s.length() > 0)
-                    .collect(Collectors.toList());
-            nameList.addAll(nameParts);
+            nameList.addAll(Arrays.asList(split(name)));
         }
 
-        final String[] newNames = nameList.toArray(new String[0]);
+        return new TreePath(absolute, nameList.toArray(new String[0]));
+    }
+
+    /**
+     * Split the path string by the separator, ignoring empty names.
+     */
+    private static String[] split(String path) {
+        final int length = path.length();
+
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (path.charAt(i) != '/' && (i == 0 || path.charAt(i - 1) == '/')) {
+                count++;
+            }
+        }
+
+        final String[] names = new String[count];
+        int index = 0;
+        int begin = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || path.charAt(i) == '/') {
+                if (begin >= 0) {
+                    names[index++] = path.substring(begin, i);
+                    begin = -1;
+                }
+            } else if (begin < 0) {
+                begin = i;
+            }
+        }
 
-        return new TreePath(absolute, newNames);
+        return names;
     }
 }
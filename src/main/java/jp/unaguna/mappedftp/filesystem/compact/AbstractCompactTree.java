@@ -0,0 +1,64 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+
+/**
+ * The storage of a tree which {@link CompactTreeNode} reads.
+ *
+ * <p>
+ * Each file is identified by an index; the root is 0.
+ * The nodes are numbered in breadth-first order and the children of a directory are sorted by name,
+ * so the children are a range of indices.
+ * </p>
+ *
+ * @see CompactTree
+ * @see MappingIndex
+ */
+abstract class AbstractCompactTree {
+    /**
+     * The value of {@link #getLastModified(int)} which means that the item is asked for the last modified time.
+     */
+    static final long DYNAMIC_LAST_MODIFIED = Long.MIN_VALUE;
+
+    static final String DEFAULT_USER_NAME = "anonymous";
+
+    abstract String getName(int index);
+
+    /**
+     * Returns the parent of the file, or -1 for the root.
+     */
+    abstract int getParent(int index);
+
+    abstract boolean isDirectory(int index);
+
+    /**
+     * Returns the index of the first child of the directory.
+     */
+    abstract int getFirstChild(int index);
+
+    abstract int getChildCount(int index);
+
+    /**
+     * Returns the item of the file, or null for a directory which is not mapped but only contains mapped files.
+     */
+    abstract FileTreeItem getItem(int index);
+
+    /**
+     * Returns the last modified time, or {@link #DYNAMIC_LAST_MODIFIED} to ask the item for it.
+     */
+    abstract long getLastModified(int index);
+
+    abstract String getOwnerName(int index);
+
+    abstract String getGroupName(int index);
+
+    /**
+     * Returns whether the file, or all files under the directory, can be read from any offset.
+     */
+    abstract boolean isRandomAccessible(int index);
+
+    /**
+     * Returns the child of the directory with the name, or -1 if there is no such child.
+     */
+    abstract int findChild(int index, String name);
+}
@@ -0,0 +1,403 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemLazyDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import jp.unaguna.mappedftp.filesystem.tree.date.ConstanceDateFactory;
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable tree of mapped files which is held in arrays instead of a node object per file.
+ *
+ * <p>
+ * It is an alternative to {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeNode} for mappings of millions of files.
+ * Each file is identified by an index, and its parent, name, children and metadata are held in arrays:
+ * </p>
+ * <ul>
+ *     <li>the nodes are numbered in breadth-first order and the children of a directory are sorted by name,
+ *     so the children are a range of indices and are searched by binary search instead of a map</li>
+ *     <li>equal names, owners and groups share one string</li>
+ *     <li>a constant last modified time is packed into a {@code long} instead of a {@link DateFactory}</li>
+ * </ul>
+ * <p>
+ * The nodes returned by {@link #getRoot()} and its methods are lightweight views created on each call.
+ * {@link FileTreeItemLazyDirectory} is not supported.
+ * </p>
+ */
+public class CompactTree extends AbstractCompactTree {
+    private static final Logger LOG = LoggerFactory.getLogger(CompactTree.class.getName());
+
+    private final String[] names;
+    private final int[] parents;
+
+    /**
+     * The index of the first child of each directory, or -1 for a non-directory file.
+     */
+    private final int[] firstChildren;
+    private final int[] childCounts;
+
+    /**
+     * The item of each file, or null for a directory which is not mapped but only contains mapped files.
+     */
+    private final FileTreeItem[] items;
+    private final long[] lastModified;
+
+    /**
+     * The owner and group names of each file, as indices of {@link #userNames}.
+     */
+    private final int[] owners;
+    private final int[] groups;
+    private final String[] userNames;
+
+    /**
+     * Whether the file, or all files under the directory, can be read from any offset.
+     */
+    private final BitSet randomAccessible;
+
+    private CompactTree(int size, String[] userNames) {
+        this.names = new String[size];
+        this.parents = new int[size];
+        this.firstChildren = new int[size];
+        this.childCounts = new int[size];
+        this.items = new FileTreeItem[size];
+        this.lastModified = new long[size];
+        this.owners = new int[size];
+        this.groups = new int[size];
+        this.userNames = userNames;
+        this.randomAccessible = new BitSet(size);
+    }
+
+    /**
+     * Construct a tree with the specified files.
+     *
+     * <p>
+     * A directory mapped to the root "/" becomes the root itself.
+     * </p>
+     *
+     * @param files the mapping from the path to the file
+     * @return the constructed tree
+     * @throws IllegalArgumentException if the mapping cannot be constructed as a compact tree
+     */
+    public static CompactTree build(Map<String, ? extends FileTreeItem> files) {
+        final Builder builder = new Builder();
+        files.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Returns the root directory of this tree.
+     *
+     * @return the root node
+     */
+    public CompactTreeNode getRoot() {
+        return new CompactTreeNode(this, 0);
+    }
+
+    /**
+     * Returns the number of files in this tree, including the root and directories which are not mapped.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    String getName(int index) {
+        return names[index];
+    }
+
+    @Override
+    int getParent(int index) {
+        return parents[index];
+    }
+
+    @Override
+    boolean isDirectory(int index) {
+        return firstChildren[index] >= 0;
+    }
+
+    @Override
+    int getFirstChild(int index) {
+        return firstChildren[index];
+    }
+
+    @Override
+    int getChildCount(int index) {
+        return childCounts[index];
+    }
+
+    @Override
+    FileTreeItem getItem(int index) {
+        return items[index];
+    }
+
+    @Override
+    long getLastModified(int index) {
+        return lastModified[index];
+    }
+
+    @Override
+    String getOwnerName(int index) {
+        return userNames[owners[index]];
+    }
+
+    @Override
+    String getGroupName(int index) {
+        return userNames[groups[index]];
+    }
+
+    @Override
+    boolean isRandomAccessible(int index) {
+        return randomAccessible.get(index);
+    }
+
+    @Override
+    int findChild(int index, String name) {
+        int low = firstChildren[index];
+        int high = low + childCounts[index] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int comparison = names[mid].compareTo(name);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Collects files to construct a {@link CompactTree}.
+     *
+     * <p>
+     * The files are held in temporary nodes until {@link #build()},
+     * so the memory of the builder is released once the tree is built.
+     * As {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeNode#appendSubFile(FileTreeItem, TreePath)},
+     * a file added to the same path again replaces the former one.
+     * </p>
+     */
+    public static class Builder {
+        private final BuildNode root = new BuildNode(null, null, 0, 0, DYNAMIC_LAST_MODIFIED);
+        private final Map<String, String> namePool = new HashMap<>();
+        private final Map<String, Integer> userNameIndices = new HashMap<>();
+        private final List<String> userNames = new ArrayList<>();
+
+        public Builder() {
+            userName(DEFAULT_USER_NAME, null);
+        }
+
+        /**
+         * Add the file with the metadata of the item.
+         *
+         * <p>
+         * The last modified time of {@link FileTreeItemReadOnlyFile} is packed if it is a constant;
+         * otherwise, the item is asked for it each time.
+         * </p>
+         *
+         * @param path the absolute path of the file
+         * @param item the file
+         * @return this builder
+         * @throws IllegalArgumentException if the file cannot be added to the path
+         */
+        public Builder add(String path, FileTreeItem item) {
+            long packedLastModified = DYNAMIC_LAST_MODIFIED;
+            if (item instanceof FileTreeItemReadOnlyFile) {
+                final DateFactory factory = ((FileTreeItemReadOnlyFile) item).getLastModifiedFactory();
+                if (factory instanceof ConstanceDateFactory) {
+                    packedLastModified = factory.getLong();
+                }
+            }
+            return add(path, item, item.getOwnerName(), item.getGroupName(), packedLastModified);
+        }
+
+        /**
+         * Add the file with the specified metadata instead of the metadata of the item.
+         *
+         * <p>
+         * Since the metadata is held only by the tree, the item need not hold it,
+         * which saves the memory for a large mapping.
+         * </p>
+         *
+         * @param path         the absolute path of the file
+         * @param item         the file
+         * @param ownerName    the owner name, or null for the default
+         * @param groupName    the group name, or null for the default
+         * @param lastModified the last modified time in milliseconds,
+         *                     or {@link Long#MIN_VALUE} to ask the item for it each time
+         * @return this builder
+         * @throws IllegalArgumentException if the file cannot be added to the path
+         */
+        public Builder add(String path, FileTreeItem item, String ownerName, String groupName, long lastModified) {
+            if (item instanceof FileTreeItemLazyDirectory) {
+                throw new IllegalArgumentException("a compact tree cannot contain a lazy directory: " + path);
+            }
+
+            final TreePath treePath = TreePath.get(path);
+            if (!treePath.isAbsolute()) {
+                throw new IllegalArgumentException("path must be absolute: " + path);
+            }
+            final TreePath normalized = treePath.toRelative().normalize();
+
+            final int owner = userName(ownerName, path);
+            final int group = userName(groupName, path);
+
+            if (normalized.getNameCount() == 0) {
+                if (!item.isDirectory()) {
+                    throw new IllegalArgumentException("cannot append a non-directory file on the root \"/\"");
+                }
+                root.set(item, owner, group, lastModified);
+                return this;
+            }
+
+            BuildNode current = root;
+            final int nameCount = normalized.getNameCount();
+            for (int i = 0; i < nameCount - 1; i++) {
+                final String name = normalized.getNameString(i);
+                checkName(name, path);
+                if (current.children == null) {
+                    throw new IllegalArgumentException("cannot append a file under a non-directory file: " + path);
+                }
+
+                BuildNode child = current.children.get(name);
+                if (child == null) {
+                    child = new BuildNode(pooledName(name), null, 0, 0, DYNAMIC_LAST_MODIFIED);
+                    current.children.put(child.name, child);
+                }
+                current = child;
+            }
+
+            final String name = normalized.getNameString(nameCount - 1);
+            checkName(name, path);
+            if (current.children == null) {
+                throw new IllegalArgumentException("cannot append a file under a non-directory file: " + path);
+            }
+            final BuildNode node = new BuildNode(pooledName(name), item, owner, group, lastModified);
+            current.children.put(node.name, node);
+            return this;
+        }
+
+        /**
+         * Construct the tree with the added files.
+         *
+         * @return the constructed tree
+         */
+        public CompactTree build() {
+            // number the nodes in breadth-first order, so that the children of a directory are contiguous
+            final List<BuildNode> order = new ArrayList<>();
+            order.add(root);
+            for (int i = 0; i < order.size(); i++) {
+                final BuildNode node = order.get(i);
+                if (node.children != null) {
+                    order.addAll(node.children.values());
+                }
+            }
+
+            final CompactTree tree = new CompactTree(order.size(), userNames.toArray(new String[0]));
+            tree.parents[0] = -1;
+            int next = 1;
+            for (int i = 0; i < order.size(); i++) {
+                final BuildNode node = order.get(i);
+                tree.names[i] = node.name;
+                tree.items[i] = node.item;
+                tree.owners[i] = node.owner;
+                tree.groups[i] = node.group;
+                tree.lastModified[i] = node.lastModified;
+
+                if (node.children == null) {
+                    tree.firstChildren[i] = -1;
+                } else {
+                    tree.firstChildren[i] = next;
+                    tree.childCounts[i] = node.children.size();
+                    for (int child = next; child < next + node.children.size(); child++) {
+                        tree.parents[child] = i;
+                    }
+                    next += node.children.size();
+                }
+            }
+
+            // the children have larger indices than the parent
+            for (int i = order.size() - 1; i >= 0; i--) {
+                final FileTreeItem item = tree.items[i];
+                boolean accessible = item == null || item.isDirectory() || item.isRandomAccessible();
+                if (tree.firstChildren[i] >= 0) {
+                    final int end = tree.firstChildren[i] + tree.childCounts[i];
+                    for (int child = tree.firstChildren[i]; child < end && accessible; child++) {
+                        accessible = tree.randomAccessible.get(child);
+                    }
+                }
+                tree.randomAccessible.set(i, accessible);
+            }
+
+            return tree;
+        }
+
+        private String pooledName(String name) {
+            final String pooled = namePool.putIfAbsent(name, name);
+            return pooled != null ? pooled : name;
+        }
+
+        /**
+         * Returns the index of the owner or group name, registering it if it is new.
+         */
+        private int userName(String name, String path) {
+            if (name == null) {
+                name = DEFAULT_USER_NAME;
+            } else if (name.isEmpty() || name.contains(" ")) {
+                LOG.warn("An owner or group of files cannot be empty string or contain space. " +
+                        "Instead, use a default value \"" + DEFAULT_USER_NAME + "\"");
+                LOG.warn("    file: " + path);
+                name = DEFAULT_USER_NAME;
+            }
+
+            final Integer index = userNameIndices.get(name);
+            if (index != null) {
+                return index;
+            }
+            userNames.add(name);
+            userNameIndices.put(name, userNames.size() - 1);
+            return userNames.size() - 1;
+        }
+
+        private static void checkName(String name, String path) {
+            if ("..".equals(name)) {
+                throw new IllegalArgumentException("cannot append on out of the root: " + path);
+            }
+        }
+    }
+
+    private static class BuildNode {
+        private final String name;
+        private FileTreeItem item;
+        private int owner;
+        private int group;
+        private long lastModified;
+        private final TreeMap<String, BuildNode> children;
+
+        private BuildNode(String name, FileTreeItem item, int owner, int group, long lastModified) {
+            this.name = name;
+            this.children = item == null || item.isDirectory() ? new TreeMap<>() : null;
+            set(item, owner, group, lastModified);
+        }
+
+        private void set(FileTreeItem item, int owner, int group, long lastModified) {
+            this.item = item;
+            this.owner = owner;
+            this.group = group;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.utils.ChannelUtils;
+import jp.unaguna.mappedftp.utils.CharSequenceInputStream;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A file of {@link CompactTree} or {@link MappingIndex}.
+ *
+ * <p>
+ * It holds only the tree and the index of the file, and is created each time a file is looked up,
+ * so the tree needs no object per file.
+ * Two nodes are equal if they are the same file of the same tree.
+ * Unlike {@link jp.unaguna.mappedftp.filesystem.tree.FileTreeNode}, formatted listings are not reused,
+ * and the listing is always formatted while it is sent.
+ * </p>
+ */
+public class CompactTreeNode implements LinkedFileNode {
+    private final AbstractCompactTree tree;
+    private final int index;
+
+    CompactTreeNode(AbstractCompactTree tree, int index) {
+        this.tree = tree;
+        this.index = index;
+    }
+
+    /**
+     * Returns the item of this file.
+     *
+     * @return the item, or null if this is a directory which is not mapped but only contains mapped files
+     */
+    public FileTreeItem getFile() {
+        return tree.getItem(index);
+    }
+
+    @Override
+    public CompactTreeNode getNodeByRelativePath(TreePath relativePath) throws NotDirectoryException, NoSuchFileException {
+        if (relativePath.isAbsolute()) {
+            throw new IllegalArgumentException("relativePath must not be absolute: " + relativePath);
+        }
+
+        int current = index;
+        final int nameCount = relativePath.getNameCount();
+        for (int i = 0; i < nameCount; i++) {
+            final String name = relativePath.getNameString(i);
+
+            if (".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (tree.getParent(current) >= 0) {
+                    current = tree.getParent(current);
+                }
+                continue;
+            }
+            if (!tree.isDirectory(current)) {
+                throw new NotDirectoryException(new CompactTreeNode(tree, current).getAbsolutePath());
+            }
+
+            final int child = tree.findChild(current, name);
+            if (child < 0) {
+                throw new NoSuchFileException(relativePath.toString());
+            }
+            current = child;
+        }
+
+        return current == index ? this : new CompactTreeNode(tree, current);
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        if (tree.getParent(index) < 0) {
+            return "/";
+        }
+
+        int length = 0;
+        for (int i = index; tree.getParent(i) >= 0; i = tree.getParent(i)) {
+            length += tree.getName(i).length() + 1;
+        }
+
+        // fill the names from the end, since the ancestors are found from this node
+        final char[] path = new char[length];
+        int end = length;
+        for (int i = index; tree.getParent(i) >= 0; i = tree.getParent(i)) {
+            final String name = tree.getName(i);
+            end -= name.length();
+            name.getChars(0, name.length(), path, end);
+            path[--end] = '/';
+        }
+        return new String(path);
+    }
+
+    @Override
+    public String getName() {
+        return tree.getName(index);
+    }
+
+    @Override
+    public boolean isHidden() {
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return tree.isDirectory(index);
+    }
+
+    @Override
+    public boolean isFile() {
+        final FileTreeItem item = tree.getItem(index);
+        return item != null && item.isRegularFile();
+    }
+
+    @Override
+    public boolean doesExist() {
+        return true;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return true;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public boolean isRemovable() {
+        return false;
+    }
+
+    @Override
+    public String getOwnerName() {
+        return tree.getOwnerName(index);
+    }
+
+    @Override
+    public String getGroupName() {
+        return tree.getGroupName(index);
+    }
+
+    @Override
+    public int getLinkCount() {
+        return 0;
+    }
+
+    @Override
+    public long getLastModified() {
+        final long packed = tree.getLastModified(index);
+        if (packed != AbstractCompactTree.DYNAMIC_LAST_MODIFIED) {
+            return packed;
+        }
+
+        final FileTreeItem item = tree.getItem(index);
+        final Long lastModified = item != null ? item.getLastModified() : null;
+        if (lastModified != null) {
+            return lastModified;
+        } else {
+            return new Date().getTime();
+        }
+    }
+
+    @Override
+    public boolean setLastModified(long time) {
+        return false;
+    }
+
+    @Override
+    public long getSize() {
+        final FileTreeItem item = tree.getItem(index);
+        final Long size = item != null ? item.getSize() : null;
+        if (size != null) {
+            return size;
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public Object getPhysicalFile() {
+        return null;
+    }
+
+    @Override
+    public boolean mkdir() {
+        return false;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public boolean move(FtpFile destination) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The children are sorted by name.
+     * The returned list is an unmodifiable view which creates the node of a child when it is got.
+     * </p>
+     */
+    @Override
+    public List<CompactTreeNode> listFiles() {
+        if (!tree.isDirectory(index)) return null;
+
+        final int first = tree.getFirstChild(index);
+        final int count = tree.getChildCount(index);
+        return new AbstractList<CompactTreeNode>() {
+            @Override
+            public CompactTreeNode get(int i) {
+                if (i < 0 || i >= count) {
+                    throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+                }
+                return new CompactTreeNode(tree, first + i);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The result is not reused; the key is ignored.
+     * </p>
+     */
+    @Override
+    public String formatChildren(String key, FileFilter filter, FileFormater formatter) {
+        if (!tree.isDirectory(index)) {
+            throw new IllegalStateException("not a directory: " + this.getAbsolutePath());
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        final Iterator<String> entries = new FormattingIterator(filter, formatter);
+        while (entries.hasNext()) {
+            builder.append(entries.next());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Each child is formatted when the stream reaches it; the key is ignored.
+     * </p>
+     */
+    @Override
+    public InputStream openChildrenListing(String key, FileFilter filter, FileFormater formatter) {
+        if (!tree.isDirectory(index)) {
+            throw new IllegalStateException("not a directory: " + this.getAbsolutePath());
+        }
+        return new CharSequenceInputStream(new FormattingIterator(filter, formatter), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public OutputStream createOutputStream(long offset) throws IOException {
+        final FileTreeItem item = tree.getItem(index);
+        return item != null ? item.createOutputStream(offset) : null;
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        final FileTreeItem item = tree.getItem(index);
+        if (item == null) {
+            return null;
+        }
+        if (offset != 0 && !item.isRandomAccessible()) {
+            throw new IOException("cannot read from the offset " + offset + ": " + this.getAbsolutePath());
+        }
+        return item.createInputStream(offset);
+    }
+
+    @Override
+    public long transferTo(long offset, WritableByteChannel target) throws IOException {
+        final FileTreeItem item = tree.getItem(index);
+        if (item == null || item.isDirectory()) {
+            throw new IOException("not a file: " + this.getAbsolutePath());
+        }
+        if (offset != 0 && !item.isRandomAccessible()) {
+            throw new IOException("cannot read from the offset " + offset + ": " + this.getAbsolutePath());
+        }
+        try (ReadableByteChannel source = item.createChannel(offset)) {
+            return ChannelUtils.transfer(source, target);
+        }
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return tree.isRandomAccessible(index);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactTreeNode)) return false;
+        final CompactTreeNode that = (CompactTreeNode) o;
+        return tree == that.tree && index == that.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(tree) + index;
+    }
+
+    @Override
+    public String toString() {
+        return getAbsolutePath();
+    }
+
+    /**
+     * Formats the children in the order of listings: directories first, then files.
+     */
+    private class FormattingIterator implements Iterator<String> {
+        private final FileFilter filter;
+        private final FileFormater formatter;
+        private final int first = tree.getFirstChild(index);
+        private final int end = first + tree.getChildCount(index);
+        private boolean directories = true;
+        private int current = first;
+        private CompactTreeNode next = null;
+
+        private FormattingIterator(FileFilter filter, FileFormater formatter) {
+            this.filter = filter;
+            this.formatter = formatter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (current >= end) {
+                    if (!directories) {
+                        return false;
+                    }
+                    directories = false;
+                    current = first;
+                    continue;
+                }
+
+                final int child = current++;
+                if (tree.isDirectory(child) == directories) {
+                    final CompactTreeNode node = new CompactTreeNode(tree, child);
+                    if (filter == null || filter.accept(node)) {
+                        next = node;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final CompactTreeNode child = next;
+            next = null;
+            return formatter.format(child);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.tree.ExpiringCache;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+/**
+ * A compact tree which is read directly from an index file written by {@link MappingIndexWriter}.
+ *
+ * <p>
+ * The index file is mapped into memory and the paths are resolved on the mapped bytes,
+ * so opening it takes the same time for any number of files,
+ * and the pages of the index are shared through the page cache of the OS.
+ * The item of a file is created by the {@link ItemFactory} when the file is used,
+ * from the type and the attributes stored in the index,
+ * and the recently used items are held so that their metadata such as the size is reused.
+ * </p>
+ *
+ * <p>
+ * The index file must not be changed while it is opened; write a new file and replace it instead,
+ * as {@link MappingIndexWriter#write(Path)} does.
+ * The index file must be smaller than 2 GiB.
+ * </p>
+ *
+ * <h2>Format</h2>
+ * <p>
+ * All numbers are big-endian. The file consists of:
+ * </p>
+ * <ol>
+ *     <li>the header: the magic {@code "MFTPINDX"}, then the version, the number of nodes,
+ *     the number of attributes, the number of strings and the length of the string data as {@code int}</li>
+ *     <li>the nodes, in the order of {@link CompactTree}: the name, the parent, the first child, the number of children,
+ *     the owner, the group, the type, the first attribute, the number of attributes and the flags as {@code int},
+ *     then the last modified time as {@code long}; names, owners, groups and types are indices of the strings,
+ *     and -1 means none</li>
+ *     <li>the attributes: the pairs of the key and the value as indices of the strings</li>
+ *     <li>the offsets of the strings in the string data as {@code int}, followed by the length of the string data</li>
+ *     <li>the string data in UTF-8</li>
+ * </ol>
+ */
+public class MappingIndex extends AbstractCompactTree {
+    static final byte[] MAGIC = "MFTPINDX".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int NODE_SIZE = 48;
+    static final int ATTRIBUTE_SIZE = 8;
+
+    static final int FLAG_RANDOM_ACCESSIBLE = 1;
+
+    private static final int NAME = 0;
+    private static final int PARENT = 4;
+    private static final int FIRST_CHILD = 8;
+    private static final int CHILD_COUNT = 12;
+    private static final int OWNER = 16;
+    private static final int GROUP = 20;
+    private static final int TYPE = 24;
+    private static final int FIRST_ATTRIBUTE = 28;
+    private static final int ATTRIBUTE_COUNT = 32;
+    private static final int FLAGS = 36;
+    private static final int LAST_MODIFIED = 40;
+
+    public static final int DEFAULT_ITEM_CACHE_SIZE = 10_000;
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+    private final int attributesOffset;
+    private final int stringOffsetsOffset;
+    private final int stringDataOffset;
+    private final ItemFactory itemFactory;
+    private final ExpiringCache<Integer, FileTreeItem> items;
+
+    private MappingIndex(ByteBuffer buffer, ItemFactory itemFactory, int itemCacheSize) throws IOException {
+        this.buffer = buffer;
+        this.itemFactory = itemFactory;
+        this.items = new ExpiringCache<>(-1, itemCacheSize, item -> 1);
+
+        final byte[] magic = new byte[MAGIC.length];
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("not a mapping index");
+        }
+        final ByteBuffer header = buffer.duplicate();
+        header.position(0);
+        header.get(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("not a mapping index");
+            }
+        }
+        final int version = buffer.getInt(8);
+        if (version != VERSION) {
+            throw new IOException("unsupported version of mapping index: " + version);
+        }
+
+        this.nodeCount = buffer.getInt(12);
+        final int attributeCount = buffer.getInt(16);
+        final int stringCount = buffer.getInt(20);
+        final int stringDataLength = buffer.getInt(24);
+        this.attributesOffset = HEADER_SIZE + nodeCount * NODE_SIZE;
+        this.stringOffsetsOffset = attributesOffset + attributeCount * ATTRIBUTE_SIZE;
+        this.stringDataOffset = stringOffsetsOffset + (stringCount + 1) * 4;
+        if (nodeCount < 1 || (long) stringDataOffset + stringDataLength != buffer.capacity()) {
+            throw new IOException("broken mapping index");
+        }
+    }
+
+    /**
+     * Open the index file.
+     *
+     * @param indexFile   the index file
+     * @param itemFactory the factory which creates the item of a file from its type and attributes
+     * @return the opened index
+     * @throws IOException if the file cannot be read or is not a mapping index
+     */
+    public static MappingIndex open(Path indexFile, ItemFactory itemFactory) throws IOException {
+        return open(indexFile, itemFactory, DEFAULT_ITEM_CACHE_SIZE);
+    }
+
+    /**
+     * Open the index file.
+     *
+     * @param indexFile     the index file
+     * @param itemFactory   the factory which creates the item of a file from its type and attributes
+     * @param itemCacheSize the maximum number of the items held after they are created
+     * @return the opened index
+     * @throws IOException if the file cannot be read or is not a mapping index
+     */
+    public static MappingIndex open(Path indexFile, ItemFactory itemFactory, int itemCacheSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("too large mapping index: " + indexFile);
+            }
+            // the mapping stays valid after the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappingIndex(buffer, itemFactory, itemCacheSize);
+        }
+    }
+
+    /**
+     * Returns the root directory of this index.
+     *
+     * @return the root node
+     */
+    public CompactTreeNode getRoot() {
+        return new CompactTreeNode(this, 0);
+    }
+
+    /**
+     * Returns the number of files in this index, including the root and directories which are not mapped.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    private int node(int index, int field) {
+        return buffer.getInt(HEADER_SIZE + index * NODE_SIZE + field);
+    }
+
+    @Override
+    String getName(int index) {
+        final int name = node(index, NAME);
+        return name < 0 ? null : getString(name);
+    }
+
+    @Override
+    int getParent(int index) {
+        return node(index, PARENT);
+    }
+
+    @Override
+    boolean isDirectory(int index) {
+        return node(index, FIRST_CHILD) >= 0;
+    }
+
+    @Override
+    int getFirstChild(int index) {
+        return node(index, FIRST_CHILD);
+    }
+
+    @Override
+    int getChildCount(int index) {
+        return node(index, CHILD_COUNT);
+    }
+
+    @Override
+    FileTreeItem getItem(int index) {
+        final int type = node(index, TYPE);
+        if (type < 0) {
+            return null;
+        }
+
+        try {
+            return items.get(index, () -> itemFactory.create(getString(type), key -> getAttribute(index, key)));
+        } catch (IOException e) {
+            // the loader throws no IOException
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    long getLastModified(int index) {
+        return buffer.getLong(HEADER_SIZE + index * NODE_SIZE + LAST_MODIFIED);
+    }
+
+    @Override
+    String getOwnerName(int index) {
+        return getString(node(index, OWNER));
+    }
+
+    @Override
+    String getGroupName(int index) {
+        return getString(node(index, GROUP));
+    }
+
+    @Override
+    boolean isRandomAccessible(int index) {
+        return (node(index, FLAGS) & FLAG_RANDOM_ACCESSIBLE) != 0;
+    }
+
+    @Override
+    int findChild(int index, String name) {
+        int low = node(index, FIRST_CHILD);
+        int high = low + node(index, CHILD_COUNT) - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int comparison = compareString(node(mid, NAME), name);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of the attribute of the file, or null if it is not stored.
+     */
+    private String getAttribute(int index, String key) {
+        final int first = node(index, FIRST_ATTRIBUTE);
+        final int end = first + node(index, ATTRIBUTE_COUNT);
+        for (int i = first; i < end; i++) {
+            final int position = attributesOffset + i * ATTRIBUTE_SIZE;
+            if (compareString(buffer.getInt(position), key) == 0) {
+                return getString(buffer.getInt(position + 4));
+            }
+        }
+        return null;
+    }
+
+    private String getString(int string) {
+        final int start = stringDataOffset + buffer.getInt(stringOffsetsOffset + string * 4);
+        final int end = stringDataOffset + buffer.getInt(stringOffsetsOffset + string * 4 + 4);
+        final byte[] bytes = new byte[end - start];
+        final ByteBuffer data = buffer.duplicate();
+        data.position(start);
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the string in the index with the other as {@link String#compareTo(String)},
+     * decoding the UTF-8 bytes in place so that no string is created.
+     */
+    private int compareString(int string, String other) {
+        int position = stringDataOffset + buffer.getInt(stringOffsetsOffset + string * 4);
+        final int end = stringDataOffset + buffer.getInt(stringOffsetsOffset + string * 4 + 4);
+        int i = 0;
+        while (position < end) {
+            final int b = buffer.get(position) & 0xff;
+            final int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+                position += 1;
+            } else if (b < 0xe0) {
+                codePoint = (b & 0x1f) << 6 | buffer.get(position + 1) & 0x3f;
+                position += 2;
+            } else if (b < 0xf0) {
+                codePoint = (b & 0x0f) << 12 | (buffer.get(position + 1) & 0x3f) << 6 | buffer.get(position + 2) & 0x3f;
+                position += 3;
+            } else {
+                codePoint = (b & 0x07) << 18 | (buffer.get(position + 1) & 0x3f) << 12
+                        | (buffer.get(position + 2) & 0x3f) << 6 | buffer.get(position + 3) & 0x3f;
+                position += 4;
+            }
+
+            if (Character.isBmpCodePoint(codePoint)) {
+                if (i >= other.length()) {
+                    return 1;
+                }
+                final int comparison = (char) codePoint - other.charAt(i++);
+                if (comparison != 0) {
+                    return comparison;
+                }
+            } else {
+                for (char c : Character.toChars(codePoint)) {
+                    if (i >= other.length()) {
+                        return 1;
+                    }
+                    final int comparison = c - other.charAt(i++);
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+            }
+        }
+        return i < other.length() ? -1 : 0;
+    }
+
+    /**
+     * Creates the item of a file in the index.
+     */
+    @FunctionalInterface
+    public interface ItemFactory {
+        /**
+         * Create the item of the type with the attributes.
+         *
+         * @param type       the type of the file written to the index, such as "local-file"
+         * @param attributes the function which returns the value of an attribute, or null if it is not stored
+         * @return the item
+         */
+        FileTreeItem create(String type, Function<String, String> attributes);
+    }
+}
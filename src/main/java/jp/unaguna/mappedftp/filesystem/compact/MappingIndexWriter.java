@@ -0,0 +1,203 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a mapping to an index file which is opened by {@link MappingIndex}.
+ *
+ * <p>
+ * Each file is added with its item and with the type and the attributes from which the item is created again
+ * by {@link MappingIndex.ItemFactory}. The tree is built as {@link CompactTree.Builder} does,
+ * so the same mapping is rejected, and the owner, the group and a constant last modified time
+ * are stored in the tree instead of the attributes.
+ * </p>
+ */
+public class MappingIndexWriter {
+    /**
+     * The attributes which are not stored, since the tree holds them.
+     */
+    private static final Set<String> TREE_ATTRIBUTES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "path", "type", "owner", "group")));
+
+    private final CompactTree.Builder builder = new CompactTree.Builder();
+    private final Map<FileTreeItem, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * Add the file.
+     *
+     * @param path       the absolute path of the file
+     * @param item       the file, which is used for its metadata
+     * @param type       the type of the file passed to {@link MappingIndex.ItemFactory}
+     * @param attributes the attributes passed to {@link MappingIndex.ItemFactory}
+     * @return this writer
+     * @throws IllegalArgumentException if the file cannot be added to the path
+     */
+    public MappingIndexWriter add(String path, FileTreeItem item, String type, Map<String, String> attributes) {
+        builder.add(path, item);
+        entries.put(item, new Entry(type, new LinkedHashMap<>(attributes)));
+        return this;
+    }
+
+    /**
+     * Write the added files to the index file.
+     *
+     * <p>
+     * The index is written to a temporary file next to the index file and then moved to it,
+     * so a server which has opened the former index file keeps reading it.
+     * </p>
+     *
+     * @param indexFile the index file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path indexFile) throws IOException {
+        final CompactTree tree = builder.build();
+        final int size = tree.size();
+
+        final StringTable strings = new StringTable();
+        final int[] names = new int[size];
+        final int[] owners = new int[size];
+        final int[] groups = new int[size];
+        final int[] types = new int[size];
+        final int[] firstAttributes = new int[size];
+        final int[] attributeCounts = new int[size];
+        final List<int[]> attributes = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            names[i] = i == 0 ? -1 : strings.index(tree.getName(i));
+            owners[i] = strings.index(tree.getOwnerName(i));
+            groups[i] = strings.index(tree.getGroupName(i));
+            firstAttributes[i] = attributes.size();
+
+            final FileTreeItem item = tree.getItem(i);
+            final Entry entry = item != null ? entries.get(item) : null;
+            if (entry == null) {
+                types[i] = -1;
+                continue;
+            }
+            types[i] = strings.index(entry.type);
+            for (Map.Entry<String, String> attribute : entry.attributes.entrySet()) {
+                if (attribute.getValue() == null || TREE_ATTRIBUTES.contains(attribute.getKey())) {
+                    continue;
+                }
+                if ("last-modified".equals(attribute.getKey())
+                        && tree.getLastModified(i) != AbstractCompactTree.DYNAMIC_LAST_MODIFIED) {
+                    continue;
+                }
+                attributes.add(new int[]{strings.index(attribute.getKey()), strings.index(attribute.getValue())});
+            }
+            attributeCounts[i] = attributes.size() - firstAttributes[i];
+        }
+
+        final long indexSize = MappingIndex.HEADER_SIZE + (long) size * MappingIndex.NODE_SIZE
+                + (long) attributes.size() * MappingIndex.ATTRIBUTE_SIZE
+                + (strings.size() + 1) * 4L + strings.dataLength;
+        if (indexSize > Integer.MAX_VALUE) {
+            throw new IOException("too large mapping to index: " + indexSize + " bytes");
+        }
+
+        final Path parent = indexFile.toAbsolutePath().getParent();
+        final Path temporary = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.write(MappingIndex.MAGIC);
+                out.writeInt(MappingIndex.VERSION);
+                out.writeInt(size);
+                out.writeInt(attributes.size());
+                out.writeInt(strings.size());
+                out.writeInt((int) strings.dataLength);
+                out.writeInt(0);
+
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(names[i]);
+                    out.writeInt(tree.getParent(i));
+                    out.writeInt(tree.getFirstChild(i));
+                    out.writeInt(tree.getChildCount(i));
+                    out.writeInt(owners[i]);
+                    out.writeInt(groups[i]);
+                    out.writeInt(types[i]);
+                    out.writeInt(firstAttributes[i]);
+                    out.writeInt(attributeCounts[i]);
+                    out.writeInt(tree.isRandomAccessible(i) ? MappingIndex.FLAG_RANDOM_ACCESSIBLE : 0);
+                    out.writeLong(tree.getLastModified(i));
+                }
+
+                for (int[] attribute : attributes) {
+                    out.writeInt(attribute[0]);
+                    out.writeInt(attribute[1]);
+                }
+
+                int offset = 0;
+                for (byte[] string : strings.values) {
+                    out.writeInt(offset);
+                    offset += string.length;
+                }
+                out.writeInt(offset);
+                for (byte[] string : strings.values) {
+                    out.write(string);
+                }
+            }
+
+            try {
+                Files.move(temporary, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static class Entry {
+        private final String type;
+        private final Map<String, String> attributes;
+
+        private Entry(String type, Map<String, String> attributes) {
+            this.type = type;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * The strings of the index; equal strings are stored once.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<byte[]> values = new ArrayList<>();
+        private long dataLength = 0;
+
+        private int index(String value) {
+            final Integer index = indices.get(value);
+            if (index != null) {
+                return index;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            values.add(bytes);
+            dataLength += bytes.length;
+            indices.put(value, values.size() - 1);
+            return values.size() - 1;
+        }
+
+        private int size() {
+            return values.size();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache of values which are loaded from a source and reused until their time to live passes.
+ *
+ * <p>
+ * Each value has a weight, and the least recently used values are discarded
+ * when the total weight exceeds the maximum.
+ * This class is thread-safe.
+ * As {@link ExpiringValue}, concurrent callers may load the same value more than once.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class ExpiringCache<K, V> {
+    private final long ttl;
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param ttl       the time to live of a loaded value in milliseconds.
+     *                  If it is zero, values are loaded each time.
+     *                  If it is negative, values never expire.
+     * @param maxWeight the maximum total weight of the held values
+     * @param weigher   the function which returns the weight of a value
+     */
+    public ExpiringCache(long ttl, long maxWeight, ToLongFunction<? super V> weigher) {
+        this.ttl = ttl;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value held for the key, or loads it if it has not been loaded, has expired or has been discarded.
+     *
+     * @param key    the key of the value
+     * @param loader the loader used when the value should be loaded
+     * @return the value
+     * @throws IOException when the loader throws it
+     */
+    public V get(K key, ExpiringValue.Loader<? extends V> loader) throws IOException {
+        final long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            final Entry<V> current = entries.get(key);
+            if (current != null && now < current.expiresAt) {
+                return current.value;
+            }
+        }
+
+        final V value = loader.load();
+        if (ttl != 0) {
+            put(key, new Entry<>(value, ttl < 0 ? Long.MAX_VALUE : now + ttl, weigher.applyAsLong(value)));
+        }
+        return value;
+    }
+
+    /**
+     * Discards the value held for the key so that it is loaded at the next call of {@link #get(Object, ExpiringValue.Loader)}.
+     *
+     * @param key the key of the value
+     */
+    public synchronized void invalidate(K key) {
+        final Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+    }
+
+    /**
+     * Returns the number of the held values, including expired ones which have not been discarded yet.
+     *
+     * @return the number of the values
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(K key, Entry<V> entry) {
+        final Entry<V> replaced = entries.put(key, entry);
+        if (replaced != null) {
+            totalWeight -= replaced.weight;
+        }
+        totalWeight += entry.weight;
+
+        // the value just loaded is kept even if it alone exceeds the maximum
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (totalWeight > maxWeight && entries.size() > 1) {
+            final Entry<V> eldest = iterator.next().getValue();
+            iterator.remove();
+            totalWeight -= eldest.weight;
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private final long weight;
+
+        private Entry(V value, long expiresAt, long weight) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import java.io.IOException;
+
+/**
+ * A holder of a value which is loaded from a source and reused until its time to live passes.
+ *
+ * <p>
+ * This class is thread-safe.
+ * When the value has expired, concurrent callers may load it more than once, but each of them gets a valid value.
+ * </p>
+ *
+ * @param <T> the type of the value
+ */
+public class ExpiringValue<T> {
+    private volatile Entry<T> entry = null;
+
+    /**
+     * Returns the held value, or loads it if it has not been loaded or has expired.
+     *
+     * @param ttl    the time to live of a loaded value in milliseconds.
+     *               If it is zero, the value is loaded each time.
+     *               If it is negative, the value never expires.
+     * @param loader the loader used when the value should be loaded
+     * @return the value
+     * @throws IOException when the loader throws it
+     */
+    public T get(long ttl, Loader<? extends T> loader) throws IOException {
+        final long now = System.currentTimeMillis();
+
+        final Entry<T> current = this.entry;
+        if (current != null && (ttl < 0 || now < current.expiresAt)) {
+            return current.value;
+        }
+
+        final T value = loader.load();
+        if (ttl != 0) {
+            this.entry = new Entry<>(value, ttl < 0 ? Long.MAX_VALUE : now + ttl);
+        }
+        return value;
+    }
+
+    /**
+     * Holds the value as if it were loaded now by {@link #get(long, Loader)}.
+     *
+     * @param ttl   the time to live of the value in milliseconds, as {@link #get(long, Loader)}
+     * @param value the value
+     */
+    public void set(long ttl, T value) {
+        if (ttl != 0) {
+            this.entry = new Entry<>(value, ttl < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttl);
+        }
+    }
+
+    /**
+     * Discards the held value so that it is loaded at the next call of {@link #get(long, Loader)}.
+     */
+    public void invalidate() {
+        this.entry = null;
+    }
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long expiresAt;
+
+        private Entry(T value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -5,6 +5,9 @@ import org.apache.ftpserver.ftplet.FtpFile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 public interface FileTreeItem {
     boolean isDirectory();
@@ -13,6 +16,15 @@ public interface FileTreeItem {
         return !isDirectory();
     }
 
+    /**
+     * Returns whether streams of this file can be created from any offset.
+     *
+     * @return true if {@link #createInputStream(long)} accepts an offset other than zero
+     */
+    default boolean isRandomAccessible() {
+        return false;
+    }
+
     /**
      * Create output stream for writing.
      *
@@ -35,6 +47,26 @@ public interface FileTreeItem {
      */
     InputStream createInputStream(long offset) throws IOException;
 
+    /**
+     * Create channel for reading.
+     *
+     * <p>
+     * By default, it wraps {@link #createInputStream(long)}.
+     * An implementation which can read the content without streams should override it and return,
+     * for example, a {@link FileChannel} so that the content can be transferred with
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+     * </p>
+     *
+     * @param offset The number of bytes of where to start reading.
+     *               If the file is not random accessible,
+     *               any offset other than zero will throw an exception.
+     * @return A {@link ReadableByteChannel} used to read the file
+     * @throws IOException when some IO error occurred
+     */
+    default ReadableByteChannel createChannel(long offset) throws IOException {
+        return Channels.newChannel(createInputStream(offset));
+    }
+
     /**
      * Returns the owner name
      *
@@ -61,4 +93,42 @@ public interface FileTreeItem {
     default Long getLastModified() {
         return null;
     }
+
+    /**
+     * Returns the size of the content
+     *
+     * @return The size of this file in bytes, or null if it is unknown.
+     */
+    default Long getSize() {
+        return null;
+    }
+
+    /**
+     * Returns the identity of the content of the source, which changes when the content changes.
+     *
+     * <p>
+     * It is used as the key of data derived from the content and persisted across restarts, such as checksums.
+     * It may access the source, for example to get the ETag of a URL.
+     * </p>
+     *
+     * @return the identity, or null if the content cannot be identified without reading it
+     * @throws IOException when some IO error occurred
+     */
+    default String getContentIdentity() throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the time for which metadata returned by this item, such as the size, stays valid.
+     *
+     * <p>
+     * It is used to decide how long a formatted directory listing can be reused.
+     * </p>
+     *
+     * @return the time in milliseconds; zero if metadata may change at any time,
+     * or a negative value if metadata never changes.
+     */
+    default long getMetadataTtl() {
+        return -1;
+    }
 }
@@ -0,0 +1,104 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.tree.archive.ArchiveIndex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A file in an archive served by {@link FileTreeItemFromArchive}.
+ *
+ * <p>
+ * The content is read from the archive shared by the entries, without extraction.
+ * An entry stored without compression, such as any member of a tar archive, is read as a range of the archive,
+ * so it is transferred without copying when the connection allows;
+ * for a compressed entry, the bytes before the offset are inflated and skipped.
+ * </p>
+ */
+public class FileTreeItemArchiveEntry implements FileTreeItem {
+    private final FileTreeItemFromArchive archive;
+    private final ArchiveIndex index;
+    private final int entry;
+
+    FileTreeItemArchiveEntry(FileTreeItemFromArchive archive, ArchiveIndex index, int entry) {
+        this.archive = archive;
+        this.index = index;
+        this.entry = entry;
+    }
+
+    /**
+     * Returns the path of this entry in the archive, such as "dir/file.txt".
+     *
+     * @return the path
+     */
+    public String getEntryPath() {
+        return index.getPath(entry);
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    @Override
+    public OutputStream createOutputStream(long offset) {
+        return null;
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        return index.openStream(entry, offset);
+    }
+
+    @Override
+    public ReadableByteChannel createChannel(long offset) throws IOException {
+        return index.openChannel(entry, offset);
+    }
+
+    @Override
+    public String getOwnerName() {
+        return archive.getOwnerName();
+    }
+
+    @Override
+    public String getGroupName() {
+        return archive.getGroupName();
+    }
+
+    @Override
+    public Long getLastModified() {
+        if (archive.getLastModifiedFactory() != null) {
+            return archive.getLastModifiedFactory().getLong();
+        }
+        return index.getLastModified(entry);
+    }
+
+    @Override
+    public Long getSize() {
+        return index.getSize(entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * It is the identity of the archive as a local file followed by the path of this entry.
+     * </p>
+     */
+    @Override
+    public String getContentIdentity() throws IOException {
+        return FileTreeItemFromLocalFile.getContentIdentity(archive.getSource()) + "!/" + getEntryPath();
+    }
+
+    @Override
+    public String toString() {
+        return "archive-entry(" + archive.getSource() + "!/" + getEntryPath() + ")";
+    }
+}
@@ -1,5 +1,7 @@
 package jp.unaguna.mappedftp.filesystem.tree;
 
+import jp.unaguna.mappedftp.utils.StreamUtils;
+
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -9,13 +11,24 @@ public class FileTreeItemEmptyFile extends FileTreeItemReadOnlyFile {
         return true;
     }
 
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    @Override
+    public long getMetadataTtl() {
+        // nothing is fetched
+        return -1;
+    }
+
     @Override
     public InputStream createInputStream(long offset) throws IOException {
-        return new InputStream() {
-            @Override
-            public int read() {
-                return -1;
-            }
-        };
+        return StreamUtils.emptyInputStream();
+    }
+
+    @Override
+    protected Long fetchSize() {
+        return 0L;
     }
 }
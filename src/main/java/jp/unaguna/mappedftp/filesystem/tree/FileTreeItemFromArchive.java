@@ -0,0 +1,271 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.tree.archive.ArchiveIndex;
+import jp.unaguna.mappedftp.filesystem.tree.archive.ZipIndex;
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A zip archive (such as a jar) in the local filesystem whose entries are served as a directory.
+ *
+ * <p>
+ * The central directory of the archive is read into a {@link ZipIndex} at the first access,
+ * and the archive is kept open and shared by all downloads of its entries, which are read without extraction.
+ * Directories in the archive become this class and files become {@link FileTreeItemArchiveEntry},
+ * both with the owner and group of this directory,
+ * and with the last modified time of this directory if it is specified, or of the entry otherwise.
+ * The loaded children of the directories in the same archive share one cache,
+ * whose time to live and maximum number of entries are set to the top directory.
+ * </p>
+ *
+ * <p>
+ * The archive is regarded as unchanged after its index is read; replace it by restarting or reloading the mapping.
+ * Other formats are served by the subclasses which override {@link #readIndex(SharedFileChannel)}.
+ * </p>
+ */
+public class FileTreeItemFromArchive implements FileTreeItemLazyDirectory {
+    /**
+     * The default time to live of the loaded children, in milliseconds; they never expire by default,
+     * since the index does not change.
+     */
+    public static final long DEFAULT_CACHE_TTL = -1L;
+
+    /**
+     * The default maximum number of the loaded children kept in the cache.
+     */
+    public static final long DEFAULT_CACHE_MAX_ENTRIES = 100_000L;
+
+    private final Path source;
+
+    /**
+     * The top directory which holds the settings, the index and the cache; this itself for the top directory.
+     */
+    private final FileTreeItemFromArchive top;
+
+    /**
+     * The entry number of this directory in the index.
+     */
+    private final int entry;
+
+    private String ownerName = null;
+    private String groupName = null;
+    private DateFactory lastModified = null;
+    private long cacheTtl = DEFAULT_CACHE_TTL;
+    private long cacheMaxEntries = DEFAULT_CACHE_MAX_ENTRIES;
+    private volatile ExpiringCache<FileTreeNode, List<FileTreeNode>> childrenCache = null;
+    private volatile ArchiveIndex index = null;
+
+    public FileTreeItemFromArchive(Path source) {
+        this.source = source;
+        this.top = this;
+        this.entry = ArchiveIndex.ROOT;
+    }
+
+    private FileTreeItemFromArchive(FileTreeItemFromArchive top, int entry) {
+        this.source = top.source;
+        this.top = top;
+        this.entry = entry;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the index of the archive, reading it at the first call.
+     *
+     * @return the index
+     * @throws IOException when the archive cannot be read
+     */
+    public ArchiveIndex getIndex() throws IOException {
+        if (top != this) {
+            return top.getIndex();
+        }
+
+        ArchiveIndex current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    final SharedFileChannel file = new SharedFileChannel(source);
+                    try {
+                        current = readIndex(file);
+                    } catch (IOException | RuntimeException e) {
+                        file.close();
+                        throw e;
+                    }
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Read the index of the archive.
+     *
+     * @param file the archive
+     * @return the index
+     * @throws IOException when the archive cannot be read
+     */
+    protected ArchiveIndex readIndex(SharedFileChannel file) throws IOException {
+        return ZipIndex.read(file);
+    }
+
+    /**
+     * Returns the name of this type in the string representation.
+     *
+     * @return the name
+     */
+    protected String getTypeName() {
+        return "archive-directory";
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    @Override
+    public String getOwnerName() {
+        return top.ownerName;
+    }
+
+    public void setOwnerName(String ownerName) {
+        this.ownerName = ownerName;
+    }
+
+    @Override
+    public String getGroupName() {
+        return top.groupName;
+    }
+
+    public void setGroupName(String groupName) {
+        this.groupName = groupName;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * If it is not specified, it is the time of the entry in the archive,
+     * and the time of the archive for the top directory.
+     * </p>
+     */
+    @Override
+    public Long getLastModified() {
+        if (top.lastModified != null) {
+            return top.lastModified.getLong();
+        }
+        final ArchiveIndex loaded = top.index;
+        if (loaded != null) {
+            return loaded.getLastModified(entry);
+        }
+        try {
+            return Files.getLastModifiedTime(source).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public DateFactory getLastModifiedFactory() {
+        return top.lastModified;
+    }
+
+    public void setLastModifiedFactory(DateFactory lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * For this directory, it is the time to live of the loaded children.
+     * </p>
+     */
+    @Override
+    public long getMetadataTtl() {
+        return top.cacheTtl;
+    }
+
+    public long getCacheTtl() {
+        return top.cacheTtl;
+    }
+
+    /**
+     * Set the time to live of the loaded children.
+     *
+     * @param cacheTtl the time to live in milliseconds.
+     *                 If it is zero, the children are created from the index each time.
+     *                 If it is negative, they are created only once unless they are discarded from the cache.
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public long getCacheMaxEntries() {
+        return top.cacheMaxEntries;
+    }
+
+    /**
+     * Set the maximum number of the loaded children kept in the cache.
+     *
+     * @param cacheMaxEntries the maximum number of the children of all directories in the archive
+     */
+    public void setCacheMaxEntries(long cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    @Override
+    public Map<String, FileTreeItem> loadChildren() throws IOException {
+        final ArchiveIndex archiveIndex = getIndex();
+        final int childCount = archiveIndex.getChildCount(entry);
+        final Map<String, FileTreeItem> children = new HashMap<>(childCount * 4 / 3 + 1);
+
+        for (int i = 0; i < childCount; i++) {
+            final int child = archiveIndex.getChild(entry, i);
+            if (archiveIndex.isDirectory(child)) {
+                children.put(archiveIndex.getName(child), new FileTreeItemFromArchive(top, child));
+            } else {
+                children.put(archiveIndex.getName(child), new FileTreeItemArchiveEntry(top, archiveIndex, child));
+            }
+        }
+
+        return children;
+    }
+
+    @Override
+    public ExpiringCache<FileTreeNode, List<FileTreeNode>> getChildrenCache() {
+        if (top != this) {
+            return top.getChildrenCache();
+        }
+
+        ExpiringCache<FileTreeNode, List<FileTreeNode>> cache = childrenCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = childrenCache;
+                if (cache == null) {
+                    cache = new ExpiringCache<>(cacheTtl, cacheMaxEntries, List::size);
+                    childrenCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        final ArchiveIndex loaded = top.index;
+        if (entry == ArchiveIndex.ROOT || loaded == null) {
+            return top.getTypeName() + "(" + source + ")";
+        }
+        return top.getTypeName() + "(" + source + "!/" + loaded.getPath(entry) + ")";
+    }
+}
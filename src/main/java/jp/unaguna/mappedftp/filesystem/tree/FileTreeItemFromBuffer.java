@@ -0,0 +1,86 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.utils.ByteBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A file whose whole content is held in a {@link ByteBuffer}.
+ *
+ * <p>
+ * The content is loaded by {@link #loadContent()} once at the first request (or at {@link #prefetch()}),
+ * and shared by all of the following requests.
+ * Each stream reads its own view of the buffer, so serving the content costs neither a system call
+ * nor a copy of the whole content however many sessions download it at the same time.
+ * </p>
+ */
+public abstract class FileTreeItemFromBuffer extends FileTreeItemReadOnlyFile {
+    private volatile ByteBuffer content;
+
+    /**
+     * Constructor for the content loaded by {@link #loadContent()}.
+     */
+    protected FileTreeItemFromBuffer() {
+        this.content = null;
+    }
+
+    /**
+     * Constructor for the content given in advance.
+     *
+     * @param content the buffer whose remaining bytes are the content; it must not be modified after this
+     */
+    protected FileTreeItemFromBuffer(ByteBuffer content) {
+        this.content = content.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Load the content.
+     *
+     * <p>
+     * It is called at most once unless it fails.
+     * </p>
+     *
+     * @return the buffer whose remaining bytes are the content
+     * @throws IOException when some IO error occurred
+     */
+    protected abstract ByteBuffer loadContent() throws IOException;
+
+    /**
+     * Returns a read-only view of the content, loading it if not yet.
+     *
+     * @return a new view whose remaining bytes are the content
+     * @throws IOException if the content cannot be loaded
+     */
+    public ByteBuffer getContent() throws IOException {
+        ByteBuffer loaded = content;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = content;
+                if (loaded == null) {
+                    loaded = loadContent().slice().asReadOnlyBuffer();
+                    content = loaded;
+                }
+            }
+        }
+        return loaded.duplicate();
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        final ByteBuffer view = getContent();
+        view.position((int) Math.min(offset, view.limit()));
+        return new ByteBufferInputStream(view);
+    }
+
+    @Override
+    protected Long fetchSize() throws IOException {
+        return (long) getContent().remaining();
+    }
+}
@@ -1,19 +1,39 @@
 package jp.unaguna.mappedftp.filesystem.tree;
 
 import jp.unaguna.mappedftp.utils.ClasspathUtils;
+import jp.unaguna.mappedftp.utils.StreamUtils;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.JarEntry;
 
+/**
+ * A file whose content is a resource in the classpath.
+ *
+ * <p>
+ * The resource is resolved when the item is constructed, since the classpath does not change while running
+ * and the item is shared by the sessions.
+ * Its length and last modified time are read once at the first request and reused,
+ * so that repeated requests do not open the resource again.
+ * </p>
+ */
 public class FileTreeItemFromClasspath extends FileTreeItemReadOnlyFile {
     private final String source;
-    private URL sourceUrl = null;
+    private final URL sourceUrl;
+    private volatile ResourceStat resourceStat = null;
 
     public FileTreeItemFromClasspath(String source) {
         this.source = source;
+        this.sourceUrl = ClasspathUtils.getResource(source);
     }
 
     public String getSource() {
@@ -22,17 +42,134 @@ public class FileTreeItemFromClasspath extends FileTreeItemReadOnlyFile {
 
     public URL getSourceUrl() throws FileNotFoundException {
         if (sourceUrl == null) {
-            sourceUrl = ClasspathUtils.getResource(source);
-            if (sourceUrl == null) {
-                throw new FileNotFoundException("no such resource: " + source);
-            }
+            throw new FileNotFoundException("no such resource: " + source);
         }
         return sourceUrl;
     }
 
+    /**
+     * Returns the last modified time of the resource itself, such as the time of the JAR entry.
+     *
+     * <p>
+     * It is not the time served by the FTP server, which is specified by
+     * {@link #setLastModifiedFactory(jp.unaguna.mappedftp.filesystem.tree.date.DateFactory)}.
+     * </p>
+     *
+     * @return the last modified time in milliseconds, or null if it is unknown
+     * @throws IOException if the resource cannot be read
+     */
+    public Long getSourceLastModified() throws IOException {
+        final long lastModified = getResourceStat().lastModified;
+        return lastModified > 0 ? lastModified : null;
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * If the resource is a plain file in a directory of the classpath, it is read from the offset directly.
+     * Otherwise (e.g. an entry of a JAR), the bytes before the offset are skipped.
+     * </p>
+     */
     @Override
     public InputStream createInputStream(long offset) throws IOException {
-        URLConnection connection = getSourceUrl().openConnection();
-        return connection.getInputStream();
+        final URL url = getSourceUrl();
+
+        if (offset > 0 && "file".equals(url.getProtocol())) {
+            final FileChannel channel;
+            try {
+                channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ);
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            try {
+                channel.position(offset);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return Channels.newInputStream(channel);
+        }
+
+        URLConnection connection = url.openConnection();
+        final InputStream inputStream = connection.getInputStream();
+        try {
+            StreamUtils.skip(inputStream, offset);
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            throw e;
+        }
+        return inputStream;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The length is read once from the resource, and reused regardless of the time to live of metadata.
+     * </p>
+     */
+    @Override
+    protected Long fetchSize() throws IOException {
+        final long contentLength = getResourceStat().length;
+        return contentLength >= 0 ? contentLength : null;
+    }
+
+    private ResourceStat getResourceStat() throws IOException {
+        ResourceStat stat = resourceStat;
+        if (stat == null) {
+            // racing threads read the same values, so any of them may be kept
+            stat = ResourceStat.read(getSourceUrl());
+            resourceStat = stat;
+        }
+        return stat;
+    }
+
+    /**
+     * The length and the last modified time of a resource.
+     */
+    private static class ResourceStat {
+        private final long length;
+        private final long lastModified;
+
+        private ResourceStat(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Reads the stat of the resource.
+         *
+         * <p>
+         * An entry of a JAR is looked up in the JAR without opening the entry.
+         * The other resources are opened without reading, so that a missing one is reported.
+         * </p>
+         */
+        private static ResourceStat read(URL url) throws IOException {
+            final URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                final JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                if (entry == null) {
+                    throw new FileNotFoundException("no such resource: " + url);
+                }
+                if (!connection.getUseCaches()) {
+                    ((JarURLConnection) connection).getJarFile().close();
+                }
+                return new ResourceStat(entry.getSize(), entry.getTime());
+            }
+
+            connection.getInputStream().close();
+            return new ResourceStat(connection.getContentLengthLong(), connection.getLastModified());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "classpath-file(" + source + ")";
     }
 }
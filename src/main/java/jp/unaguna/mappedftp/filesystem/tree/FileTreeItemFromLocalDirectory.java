@@ -0,0 +1,213 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory in the local filesystem whose whole tree is served.
+ *
+ * <p>
+ * The children are read from the local filesystem when they are accessed.
+ * Regular files become {@link FileTreeItemFromLocalFile} and directories become this class,
+ * both with the owner, group, last modified time and metadata TTL of this directory.
+ * Symbolic links are not served, so that no file outside the tree is served.
+ * The loaded children of the directories under the same source share one cache,
+ * whose time to live and maximum number of entries are set to the top directory.
+ * </p>
+ */
+public class FileTreeItemFromLocalDirectory implements FileTreeItemLazyDirectory {
+    /**
+     * The default time to live of the loaded children, in milliseconds.
+     */
+    public static final long DEFAULT_CACHE_TTL = 60_000L;
+
+    /**
+     * The default maximum number of the loaded children kept in the cache.
+     */
+    public static final long DEFAULT_CACHE_MAX_ENTRIES = 100_000L;
+
+    private final Path source;
+
+    /**
+     * The top directory which holds the settings and the cache; this itself for the top directory.
+     */
+    private final FileTreeItemFromLocalDirectory top;
+
+    private String ownerName = null;
+    private String groupName = null;
+    private DateFactory lastModified = null;
+    private long metadataTtl = FileTreeItemReadOnlyFile.DEFAULT_METADATA_TTL;
+    private long cacheTtl = DEFAULT_CACHE_TTL;
+    private long cacheMaxEntries = DEFAULT_CACHE_MAX_ENTRIES;
+    private volatile ExpiringCache<FileTreeNode, List<FileTreeNode>> childrenCache = null;
+
+    public FileTreeItemFromLocalDirectory(Path source) {
+        this.source = source;
+        this.top = this;
+    }
+
+    private FileTreeItemFromLocalDirectory(Path source, FileTreeItemFromLocalDirectory top) {
+        this.source = source;
+        this.top = top;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    @Override
+    public String getOwnerName() {
+        return top.ownerName;
+    }
+
+    public void setOwnerName(String ownerName) {
+        this.ownerName = ownerName;
+    }
+
+    @Override
+    public String getGroupName() {
+        return top.groupName;
+    }
+
+    public void setGroupName(String groupName) {
+        this.groupName = groupName;
+    }
+
+    @Override
+    public Long getLastModified() {
+        if (top.lastModified == null) {
+            return null;
+        } else {
+            return top.lastModified.getLong();
+        }
+    }
+
+    public void setLastModifiedFactory(DateFactory lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * For this directory, it is the time to live of the loaded children.
+     * </p>
+     */
+    @Override
+    public long getMetadataTtl() {
+        return top.cacheTtl;
+    }
+
+    /**
+     * Set the time to live of metadata of the files under this directory, such as the size.
+     *
+     * @param metadataTtl the time to live in milliseconds.
+     *                    If it is zero, metadata is fetched each time.
+     *                    If it is negative, metadata is fetched only once.
+     */
+    public void setMetadataTtl(long metadataTtl) {
+        this.metadataTtl = metadataTtl;
+    }
+
+    public long getCacheTtl() {
+        return top.cacheTtl;
+    }
+
+    /**
+     * Set the time to live of the loaded children.
+     *
+     * @param cacheTtl the time to live in milliseconds.
+     *                 If it is zero, the children are read each time.
+     *                 If it is negative, the children are read only once unless they are discarded from the cache.
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public long getCacheMaxEntries() {
+        return top.cacheMaxEntries;
+    }
+
+    /**
+     * Set the maximum number of the loaded children kept in the cache.
+     *
+     * @param cacheMaxEntries the maximum number of the children of all directories under this directory
+     */
+    public void setCacheMaxEntries(long cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    @Override
+    public Map<String, FileTreeItem> loadChildren() throws IOException {
+        final Map<String, FileTreeItem> children = new HashMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+            for (Path child : stream) {
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    // deleted after listed
+                    continue;
+                }
+
+                final String name = child.getFileName().toString();
+                if (attributes.isDirectory()) {
+                    children.put(name, new FileTreeItemFromLocalDirectory(child, top));
+                } else if (attributes.isRegularFile()) {
+                    children.put(name, createFile(child));
+                }
+            }
+        }
+
+        return children;
+    }
+
+    private FileTreeItemFromLocalFile createFile(Path path) {
+        final FileTreeItemFromLocalFile file = new FileTreeItemFromLocalFile(path);
+        file.setOwnerName(top.ownerName);
+        file.setGroupName(top.groupName);
+        file.setLastModifiedFactory(top.lastModified);
+        file.setMetadataTtl(top.metadataTtl);
+        return file;
+    }
+
+    @Override
+    public ExpiringCache<FileTreeNode, List<FileTreeNode>> getChildrenCache() {
+        if (top != this) {
+            return top.getChildrenCache();
+        }
+
+        ExpiringCache<FileTreeNode, List<FileTreeNode>> cache = childrenCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = childrenCache;
+                if (cache == null) {
+                    cache = new ExpiringCache<>(cacheTtl, cacheMaxEntries, List::size);
+                    childrenCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "local-directory(" + source + ")";
+    }
+}
@@ -2,8 +2,12 @@ package jp.unaguna.mappedftp.filesystem.tree;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public class FileTreeItemFromLocalFile extends FileTreeItemReadOnlyFile {
     private final Path source;
@@ -16,8 +20,60 @@ public class FileTreeItemFromLocalFile extends FileTreeItemReadOnlyFile {
         return source;
     }
 
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
     @Override
     public InputStream createInputStream(long offset) throws IOException {
-        return Files.newInputStream(source);
+        return Channels.newInputStream(createChannel(offset));
+    }
+
+    @Override
+    public FileChannel createChannel(long offset) throws IOException {
+        final FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    @Override
+    protected Long fetchSize() throws IOException {
+        return Files.size(source);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * It is the absolute path, the size and the last modified time of the file.
+     * </p>
+     */
+    @Override
+    public String getContentIdentity() throws IOException {
+        return getContentIdentity(source);
+    }
+
+    /**
+     * Returns the identity of the content of the local file, with its absolute path, size and last modified time.
+     *
+     * @param source the local file
+     * @return the identity
+     * @throws IOException if the attributes of the file cannot be read
+     */
+    static String getContentIdentity(Path source) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        return "file:" + source.toAbsolutePath().normalize()
+                + "?size=" + attributes.size() + "&mtime=" + attributes.lastModifiedTime().toMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "local-file(" + source + ")";
     }
 }
@@ -0,0 +1,75 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.filesystem.tree.archive.ArchiveIndex;
+import jp.unaguna.mappedftp.filesystem.tree.archive.TarIndex;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A tar archive in the local filesystem whose members are served as a directory.
+ *
+ * <p>
+ * The headers of the archive are scanned at the first access into a {@link TarIndex},
+ * which is persisted to {@link #getIndexFile() the index file} and reused after restarts
+ * while the archive is unchanged. The members are served as {@link FileTreeItemFromArchive} serves zip entries,
+ * and their contents are read as ranges of the archive.
+ * </p>
+ */
+public class FileTreeItemFromTar extends FileTreeItemFromArchive {
+    /**
+     * The suffix added to the file name of the archive for its index file.
+     */
+    public static final String INDEX_SUFFIX = ".index";
+
+    private Path indexDirectory = null;
+
+    public FileTreeItemFromTar(Path source) {
+        super(source);
+    }
+
+    public Path getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    /**
+     * Set the directory to store the index file in.
+     *
+     * @param indexDirectory the directory, or null to store the index file next to the archive
+     */
+    public void setIndexDirectory(Path indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
+    /**
+     * Returns the persisted index file of the archive.
+     *
+     * <p>
+     * It is the file name of the archive followed by {@link #INDEX_SUFFIX} next to the archive.
+     * In {@link #setIndexDirectory(Path) the index directory}, the hash of the absolute path of the archive
+     * is added to the name, so the archives of the same name in different directories do not share a file.
+     * </p>
+     *
+     * @return the index file
+     */
+    public Path getIndexFile() {
+        final Path source = getSource().toAbsolutePath().normalize();
+        final String fileName = source.getFileName().toString();
+        if (indexDirectory == null) {
+            return source.resolveSibling(fileName + INDEX_SUFFIX);
+        }
+        return indexDirectory.resolve(fileName + "-" + Integer.toHexString(source.toString().hashCode())
+                + INDEX_SUFFIX);
+    }
+
+    @Override
+    protected ArchiveIndex readIndex(SharedFileChannel file) throws IOException {
+        return TarIndex.read(file, getIndexFile());
+    }
+
+    @Override
+    protected String getTypeName() {
+        return "tar-directory";
+    }
+}
@@ -1,13 +1,24 @@
 package jp.unaguna.mappedftp.filesystem.tree;
 
+import jp.unaguna.mappedftp.filesystem.tree.cache.UrlContentCache;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.ReadAhead;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamFetcher;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 
 public class FileTreeItemFromURL extends FileTreeItemReadOnlyFile {
+    /**
+     * The default time to live of the cached content, in milliseconds.
+     */
+    public static final long DEFAULT_CACHE_TTL = 60_000L;
+
     private final URL source;
+    private UrlContentCache cache = null;
+    private long cacheTtl = DEFAULT_CACHE_TTL;
+    private UpstreamFetcher fetcher = UpstreamFetcher.getDefault();
+    private ReadAhead readAhead = null;
 
     public FileTreeItemFromURL(URL source) {
         this.source = source;
@@ -17,9 +28,144 @@ public class FileTreeItemFromURL extends FileTreeItemReadOnlyFile {
         return source;
     }
 
+    public UrlContentCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set the cache of the content.
+     *
+     * @param cache the cache, or null if the content should be got from the source each time
+     */
+    public void setCache(UrlContentCache cache) {
+        this.cache = cache;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Set the time to live of the cached content.
+     *
+     * <p>
+     * After the time passes, the cached content is revalidated when it is requested next.
+     * </p>
+     *
+     * @param cacheTtl the time to live in milliseconds. If it is negative, the cached content never expires.
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public UpstreamFetcher getFetcher() {
+        return fetcher;
+    }
+
+    /**
+     * Set the fetcher which limits the connections to the source and collapses concurrent requests.
+     *
+     * @param fetcher the fetcher, or null to use {@link UpstreamFetcher#getDefault() the default one}
+     */
+    public void setFetcher(UpstreamFetcher fetcher) {
+        this.fetcher = fetcher != null ? fetcher : UpstreamFetcher.getDefault();
+    }
+
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Set the read-ahead of the content, which reads the source in a background thread while the client
+     * receives the content.
+     *
+     * <p>
+     * It is not used if {@link #setCache(UrlContentCache) the cache} is set.
+     * </p>
+     *
+     * @param readAhead the read-ahead, or null if the content should be read from the source as the client reads
+     */
+    public void setReadAhead(ReadAhead readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    @Override
+    public boolean isRandomAccessible() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The content is got through {@link #setFetcher(UpstreamFetcher) the fetcher}.
+     * If the source is HTTP(S), the offset is requested by the "Range" header.
+     * If the server ignores it or the source is not HTTP(S), the bytes before the offset are skipped.
+     * </p>
+     *
+     * <p>
+     * If {@link #setCache(UrlContentCache) the cache} is set, the content is read from the cache.
+     * Otherwise, if {@link #setReadAhead(ReadAhead) the read-ahead} is set, the source is read ahead.
+     * </p>
+     */
     @Override
     public InputStream createInputStream(long offset) throws IOException {
-        URLConnection connection = source.openConnection();
-        return connection.getInputStream();
+        if (cache != null) {
+            return cache.open(source, fetcher, cacheTtl, offset);
+        }
+        if (readAhead != null) {
+            return readAhead.open(fetcher, source, offset);
+        }
+        return fetcher.open(source, offset);
+    }
+
+    @Override
+    protected Long fetchSize() throws IOException {
+        if (cache != null) {
+            final Long cachedLength = cache.getCachedLength(source);
+            if (cachedLength != null) {
+                return cachedLength;
+            }
+        }
+
+        final long contentLength = fetcher.getContentLength(source);
+        return contentLength >= 0 ? contentLength : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * If {@link #setCache(UrlContentCache) the cache} is set, the content is downloaded into it.
+     * Otherwise, only the header is requested if the source is HTTP(S).
+     * </p>
+     */
+    @Override
+    protected Long prefetchSource() throws IOException {
+        if (cache != null) {
+            return cache.prefetch(source, fetcher, cacheTtl);
+        }
+
+        final long contentLength = fetcher.checkContent(source);
+        return contentLength >= 0 ? contentLength : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * It is the URL and the validator of the content, such as the ETag,
+     * requested through {@link #setFetcher(UpstreamFetcher) the fetcher}.
+     * </p>
+     */
+    @Override
+    public String getContentIdentity() throws IOException {
+        final String validator = fetcher.getValidator(source);
+        return validator != null ? "url:" + source + " " + validator : null;
+    }
+
+    @Override
+    public String toString() {
+        return "url-file(" + source + ")";
     }
 }
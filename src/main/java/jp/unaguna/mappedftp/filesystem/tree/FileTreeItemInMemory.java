@@ -0,0 +1,86 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * A file whose content is held in memory.
+ *
+ * <p>
+ * It is for small files which are downloaded frequently:
+ * the content is read from the source only once and then served from memory.
+ * </p>
+ */
+public class FileTreeItemInMemory extends FileTreeItemFromBuffer {
+    private final URL source;
+    private final boolean direct;
+
+    /**
+     * Constructor for the content given in advance.
+     *
+     * @param content the content; it is not copied, so it must not be modified after this
+     */
+    public FileTreeItemInMemory(byte[] content) {
+        this(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Constructor for the content given in advance.
+     *
+     * @param content the buffer whose remaining bytes are the content; it must not be modified after this
+     */
+    public FileTreeItemInMemory(ByteBuffer content) {
+        super(content);
+        this.source = null;
+        this.direct = content.isDirect();
+    }
+
+    /**
+     * Constructor for the content read from the URL at the first request.
+     *
+     * @param source the URL of the content
+     * @param direct true if the content is held in a direct buffer outside the heap
+     */
+    public FileTreeItemInMemory(URL source, boolean direct) {
+        this.source = source;
+        this.direct = direct;
+    }
+
+    public URL getSource() {
+        return source;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    protected ByteBuffer loadContent() throws IOException {
+        final byte[] bytes;
+        try (InputStream inputStream = source.openStream()) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            bytes = outputStream.toByteArray();
+        }
+
+        if (!direct) {
+            return ByteBuffer.wrap(bytes);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return "memory-file(" + (source != null ? source : "") + ")";
+    }
+}
@@ -0,0 +1,56 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory whose children are read from its source when they are accessed,
+ * instead of being appended to the tree in advance.
+ *
+ * <p>
+ * {@link FileTreeNode} of this item loads the children with {@link #loadChildren()}
+ * and keeps them in {@link #getChildrenCache()}.
+ * Files appended to the node with {@link FileTreeNode#appendSubFile(FileTreeItem, jp.unaguna.mappedftp.filesystem.TreePath)}
+ * take precedence over the loaded children of the same name.
+ * </p>
+ */
+public interface FileTreeItemLazyDirectory extends FileTreeItem {
+    @Override
+    default boolean isDirectory() {
+        return true;
+    }
+
+    @Override
+    default OutputStream createOutputStream(long offset) {
+        return null;
+    }
+
+    @Override
+    default InputStream createInputStream(long offset) {
+        return null;
+    }
+
+    /**
+     * Read the children of this directory from the source.
+     *
+     * @return the mapping from the name to the child
+     * @throws IOException when some IO error occurred
+     */
+    Map<String, FileTreeItem> loadChildren() throws IOException;
+
+    /**
+     * Returns the cache where the nodes keep the loaded children sorted by name.
+     *
+     * <p>
+     * The cache may be shared by the directories under the same source,
+     * so that the memory for the loaded children is bounded in total.
+     * Its time to live should be the same as {@link #getMetadataTtl()}.
+     * </p>
+     *
+     * @return the cache
+     */
+    ExpiringCache<FileTreeNode, List<FileTreeNode>> getChildrenCache();
+}
@@ -0,0 +1,52 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A local file which is mapped into memory.
+ *
+ * <p>
+ * The file is mapped read-only at the first request, and the mapping is shared by all of the following requests,
+ * so the content is read through the page cache without opening the file again.
+ * The file is regarded as unchanged after it is mapped;
+ * do not truncate it while the server is running, since reading the lost pages fails.
+ * A file larger than 2GB cannot be mapped.
+ * </p>
+ */
+public class FileTreeItemMappedFile extends FileTreeItemFromBuffer {
+    private final Path source;
+
+    public FileTreeItemMappedFile(Path source) {
+        this.source = source;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    @Override
+    protected ByteBuffer loadContent() throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("too large to map: " + source + " (" + size + " bytes)");
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    @Override
+    public String getContentIdentity() throws IOException {
+        return FileTreeItemFromLocalFile.getContentIdentity(source);
+    }
+
+    @Override
+    public String toString() {
+        return "mmap-file(" + source + ")";
+    }
+}
@@ -1,15 +1,27 @@
 package jp.unaguna.mappedftp.filesystem.tree;
 
 import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 public abstract class FileTreeItemReadOnlyFile implements FileTreeItem {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTreeItemReadOnlyFile.class.getName());
+
+    /**
+     * The default time to live of metadata such as the size, in milliseconds.
+     */
+    public static final long DEFAULT_METADATA_TTL = 60_000L;
+
     private String ownerName = null;
     private String groupName = null;
     private DateFactory lastModified = null;
+    private long metadataTtl = DEFAULT_METADATA_TTL;
+    private boolean prefetch = false;
+    private final ExpiringValue<Long> size = new ExpiringValue<>();
 
     @Override
     public String getOwnerName() {
@@ -38,10 +50,108 @@ public abstract class FileTreeItemReadOnlyFile implements FileTreeItem {
         }
     }
 
+    public DateFactory getLastModifiedFactory() {
+        return lastModified;
+    }
+
     public void setLastModifiedFactory(DateFactory lastModified) {
         this.lastModified = lastModified;
     }
 
+    @Override
+    public long getMetadataTtl() {
+        return metadataTtl;
+    }
+
+    /**
+     * Set the time to live of metadata fetched from the source, such as the size.
+     *
+     * @param metadataTtl the time to live in milliseconds.
+     *                    If it is zero, metadata is fetched each time.
+     *                    If it is negative, metadata is fetched only once.
+     */
+    public void setMetadataTtl(long metadataTtl) {
+        this.metadataTtl = metadataTtl;
+        this.size.invalidate();
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Set whether the source is prefetched when the server starts.
+     *
+     * @param prefetch true if {@link #prefetch()} should be called at startup
+     * @see jp.unaguna.mappedftp.filesystem.SourcePrefetcher
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Resolve and validate the source in advance, so that the first download does not wait for it
+     * and a broken source is found before it is requested.
+     *
+     * <p>
+     * The size fetched by {@link #prefetchSource()} is reused as if it were fetched by {@link #getSize()}.
+     * </p>
+     *
+     * @throws IOException if the source is broken
+     */
+    public void prefetch() throws IOException {
+        size.set(metadataTtl, prefetchSource());
+    }
+
+    /**
+     * Resolve and validate the source, and fetch the size of the content.
+     *
+     * <p>
+     * By default, it is {@link #fetchSize()}.
+     * </p>
+     *
+     * @return the size in bytes, or null if it is unknown
+     * @throws IOException if the source is broken
+     */
+    protected Long prefetchSource() throws IOException {
+        return fetchSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The size is fetched by {@link #fetchSize()} and reused until the time to live passes.
+     * If fetching fails, the size is regarded as unknown until the time to live passes.
+     * </p>
+     */
+    @Override
+    public Long getSize() {
+        try {
+            return size.get(metadataTtl, () -> {
+                try {
+                    return fetchSize();
+                } catch (IOException e) {
+                    LOG.debug("failed to fetch the size of " + this, e);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            // the loader above never throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fetch the size of the content from the source.
+     *
+     * @return the size in bytes, or null if it is unknown
+     * @throws IOException when some IO error occurred
+     */
+    protected Long fetchSize() throws IOException {
+        return null;
+    }
+
     @Override
     public boolean isDirectory() {
         return false;
@@ -3,6 +3,10 @@ package jp.unaguna.mappedftp.filesystem.tree;
 import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
 import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
 import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.utils.ChannelUtils;
+import jp.unaguna.mappedftp.utils.CharSequenceInputStream;
+import org.apache.ftpserver.command.impl.listing.FileFilter;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
 import org.apache.ftpserver.ftplet.FtpFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,9 +14,13 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Concrete implementation of {@link LinkedFileNode}.
@@ -22,19 +30,49 @@ import java.util.*;
 public class FileTreeNode implements LinkedFileNode {
     private static final Logger LOG = LoggerFactory.getLogger(FileTreeNode.class.getName());
 
+    /**
+     * The maximum number of children of a directory whose formatted listing is reused.
+     * A wider listing is formatted while it is sent, to bound the memory for it.
+     */
+    static final int MAX_CACHED_LISTING_ENTRIES = 10000;
+
     private FileTreeNode parent = null;
     private final String name;
     private final Map<String, FileTreeNode> children;
     private final FileTreeItem file;
 
+    /**
+     * The absolute path of this node; computed at the first call of {@link #getAbsolutePath()}
+     * and reset when this node is added to another directory.
+     */
+    private volatile String absolutePath = null;
+
+    /**
+     * The children sorted by name; built at the first listing and reset when a child is added.
+     */
+    private volatile List<FileTreeNode> sortedChildren = null;
+
+    /**
+     * Whether the files under this node are random accessible;
+     * computed at the first call of {@link #isRandomAccessible()} and reset when a node is added under this node.
+     */
+    private volatile Boolean randomAccessible = null;
+
+    /**
+     * The listings formatted by {@link #formatChildren(String, FileFilter, FileFormater)}, by key.
+     */
+    private final Map<String, FormattedListing> formattedListings;
+
     public FileTreeNode(FileTreeItem file, String name) {
         this.file = file;
         this.name = name;
 
         if (file.isDirectory()) {
             children = new HashMap<>();
+            formattedListings = new ConcurrentHashMap<>();
         } else {
             children = null;
+            formattedListings = null;
         }
     }
 
@@ -89,6 +127,16 @@ public class FileTreeNode implements LinkedFileNode {
     public void addChild(FileTreeNode childNode, String childName) {
         this.children.put(childName, childNode);
         childNode.parent = this;
+        childNode.resetAbsolutePath();
+
+        this.sortedChildren = null;
+        this.formattedListings.clear();
+        for (FileTreeNode node = this; node != null && node.randomAccessible != null; node = node.parent) {
+            node.randomAccessible = null;
+        }
+        if (file instanceof FileTreeItemLazyDirectory) {
+            ((FileTreeItemLazyDirectory) file).getChildrenCache().invalidate(this);
+        }
     }
 
     @Override
@@ -101,49 +149,130 @@ public class FileTreeNode implements LinkedFileNode {
         if (relativePath.isAbsolute()) {
             throw new IllegalArgumentException("relativePath must not be absolute: " + relativePath);
         }
-        if (relativePath.getNameCount() == 0) {
-            return this;
+
+        FileTreeNode current = this;
+        final int nameCount = relativePath.getNameCount();
+        for (int i = 0; i < nameCount; i++) {
+            final String name = relativePath.getNameString(i);
+
+            if (".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (current.parent != null) {
+                    current = current.parent;
+                }
+                continue;
+            }
+            if (current.children == null) {
+                throw new NotDirectoryException(current.getAbsolutePath());
+            }
+
+            final FileTreeNode childNode = current.getChild(name);
+            if (childNode == null) {
+                throw new NoSuchFileException(originalRelativePath.toString());
+            }
+            current = childNode;
         }
-        if (relativePath.getName(0).toString().equals(".")) {
-            return this.getNodeByRelativePath(relativePath.subpath(1), originalRelativePath);
+
+        return current;
+    }
+
+    /**
+     * Returns the child of the name, or null if there is no such child.
+     */
+    private FileTreeNode getChild(String name) {
+        final FileTreeNode child = children.get(name);
+        if (child != null || !(file instanceof FileTreeItemLazyDirectory)) {
+            return child;
         }
-        if (relativePath.getName(0).toString().equals("..")) {
-            if (parent != null) {
-                return parent.getNodeByRelativePath(relativePath.subpath(1), originalRelativePath);
+
+        // binary search on the loaded children sorted by name
+        final List<FileTreeNode> loaded = loadChildren();
+        int low = 0;
+        int high = loaded.size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int comparison = loaded.get(mid).getName().compareTo(name);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
             } else {
-                return this.getNodeByRelativePath(relativePath.subpath(1), originalRelativePath);
+                return loaded.get(mid);
             }
         }
-        if (this.children == null) {
-            throw new NotDirectoryException(this.getAbsolutePath());
-        }
-
-        final String childName = relativePath.getName(0).toString();
-        final FileTreeNode childNode = this.children.get(childName);
+        return null;
+    }
 
-        if (childNode == null) {
-            throw new NoSuchFileException(originalRelativePath.toString());
+    /**
+     * Returns the children of this lazy directory sorted by name:
+     * the children read from the source and the children appended to this node.
+     *
+     * <p>
+     * They are kept in the cache of {@link FileTreeItemLazyDirectory}.
+     * If reading fails, only the appended children are returned and reading is retried at the next call.
+     * </p>
+     */
+    private List<FileTreeNode> loadChildren() {
+        final FileTreeItemLazyDirectory directory = (FileTreeItemLazyDirectory) file;
+        try {
+            return directory.getChildrenCache().get(this, () -> readChildren(directory));
+        } catch (IOException e) {
+            LOG.warn("failed to read the children of " + this.getAbsolutePath() + " from " + file, e);
+            return sortByName(children.values());
         }
+    }
 
-        return childNode.getNodeByRelativePath(relativePath.subpath(1), originalRelativePath);
+    private List<FileTreeNode> readChildren(FileTreeItemLazyDirectory directory) throws IOException {
+        final Map<String, FileTreeItem> items = directory.loadChildren();
+
+        final List<FileTreeNode> nodes = new ArrayList<>(items.size() + children.size());
+        nodes.addAll(children.values());
+        items.forEach((childName, item) -> {
+            // the appended children take precedence
+            if (!children.containsKey(childName)) {
+                final FileTreeNode childNode = new FileTreeNode(item, childName);
+                childNode.parent = this;
+                nodes.add(childNode);
+            }
+        });
+        return sortByName(nodes);
+    }
+
+    private static List<FileTreeNode> sortByName(Collection<FileTreeNode> nodes) {
+        final FileTreeNode[] array = nodes.toArray(new FileTreeNode[0]);
+        Arrays.sort(array, Comparator.comparing(FileTreeNode::getName));
+        return Collections.unmodifiableList(Arrays.asList(array));
     }
 
     @Override
     public String getAbsolutePath() {
-        if (parent == null) {
-            return "/";
-        } else {
-            final StringBuilder pathBuilder = new StringBuilder();
-            this.getAbsolutePath(pathBuilder);
-            return pathBuilder.toString();
+        String path = absolutePath;
+        if (path == null) {
+            if (parent == null) {
+                path = "/";
+            } else {
+                // built on the parent's cached path, so each node costs one concatenation
+                final String parentPath = parent.getAbsolutePath();
+                path = parent.parent == null ? "/" + name : parentPath + "/" + name;
+            }
+            absolutePath = path;
         }
+        return path;
     }
 
-    private void getAbsolutePath(StringBuilder pathBuilder) {
-        if (parent != null) {
-            parent.getAbsolutePath(pathBuilder);
-            pathBuilder.append("/");
-            pathBuilder.append(name);
+    private void resetAbsolutePath() {
+        if (absolutePath == null) {
+            // the paths of the descendants have not been computed either, since they require this path
+            return;
+        }
+        absolutePath = null;
+
+        if (children != null) {
+            for (FileTreeNode child : children.values()) {
+                child.resetAbsolutePath();
+            }
         }
     }
 
@@ -219,7 +348,12 @@ public class FileTreeNode implements LinkedFileNode {
 
     @Override
     public long getSize() {
-        return 0;
+        final Long size = file.getSize();
+        if (size != null) {
+            return size;
+        } else {
+            return 0;
+        }
     }
 
     @Override
@@ -242,11 +376,105 @@ public class FileTreeNode implements LinkedFileNode {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The children are sorted by name, and the returned list is shared and unmodifiable.
+     * The children of {@link FileTreeItemLazyDirectory} are read from its source if they are not cached.
+     * </p>
+     */
     @Override
-    public List<? extends FtpFile> listFiles() {
+    public List<FileTreeNode> listFiles() {
         if (this.children == null) return null;
+        if (file instanceof FileTreeItemLazyDirectory) {
+            return loadChildren();
+        }
 
-        return new ArrayList<>(this.children.values());
+        List<FileTreeNode> list = sortedChildren;
+        if (list == null) {
+            list = sortByName(this.children.values());
+            sortedChildren = list;
+        }
+        return list;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The result is reused until the shortest {@link FileTreeItem#getMetadataTtl() metadata TTL}
+     * of this directory and the children passes, or until a child is added.
+     * The listing of a directory with more than {@value #MAX_CACHED_LISTING_ENTRIES} children is not reused.
+     * </p>
+     */
+    @Override
+    public String formatChildren(String key, FileFilter filter, FileFormater formatter) {
+        if (this.children == null) {
+            throw new IllegalStateException("not a directory: " + this.getAbsolutePath());
+        }
+
+        final long now = System.currentTimeMillis();
+        final FormattedListing cached = formattedListings.get(key);
+        if (cached != null && now < cached.expiresAt) {
+            return cached.text;
+        }
+
+        final List<FileTreeNode> list = listFiles();
+        final StringBuilder builder = new StringBuilder();
+        final Iterator<String> entries = new FormattingIterator(list, filter, formatter);
+        while (entries.hasNext()) {
+            builder.append(entries.next());
+        }
+        final String text = builder.toString();
+
+        if (list.size() <= MAX_CACHED_LISTING_ENTRIES) {
+            long ttl = file.getMetadataTtl();
+            for (FileTreeNode child : list) {
+                ttl = minTtl(ttl, child.file.getMetadataTtl());
+            }
+            if (ttl != 0) {
+                formattedListings.put(key, new FormattedListing(text, ttl < 0 ? Long.MAX_VALUE : now + ttl));
+            }
+        }
+        return text;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The listing of a directory with at most {@value #MAX_CACHED_LISTING_ENTRIES} children
+     * is formatted (or reused) by {@link #formatChildren(String, FileFilter, FileFormater)}.
+     * For a wider directory, each child is formatted when the stream reaches it.
+     * </p>
+     */
+    @Override
+    public InputStream openChildrenListing(String key, FileFilter filter, FileFormater formatter) {
+        if (this.children == null) {
+            throw new IllegalStateException("not a directory: " + this.getAbsolutePath());
+        }
+
+        final List<FileTreeNode> list = listFiles();
+        if (list.size() <= MAX_CACHED_LISTING_ENTRIES) {
+            final String text = formatChildren(key, filter, formatter);
+            return new CharSequenceInputStream(Collections.singletonList(text).iterator(), StandardCharsets.UTF_8);
+        } else {
+            return new CharSequenceInputStream(new FormattingIterator(list, filter, formatter), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns the shorter of two time to live, where a negative value means infinity.
+     */
+    private static long minTtl(long ttl1, long ttl2) {
+        if (ttl1 < 0) {
+            return ttl2;
+        } else if (ttl2 < 0) {
+            return ttl1;
+        } else {
+            return Math.min(ttl1, ttl2);
+        }
     }
 
     @Override
@@ -256,9 +484,58 @@ public class FileTreeNode implements LinkedFileNode {
 
     @Override
     public InputStream createInputStream(long offset) throws IOException {
+        if (offset != 0 && !file.isRandomAccessible()) {
+            throw new IOException("cannot read from the offset " + offset + ": " + this.getAbsolutePath());
+        }
         return file.createInputStream(offset);
     }
 
+    @Override
+    public long transferTo(long offset, WritableByteChannel target) throws IOException {
+        if (offset != 0 && !file.isRandomAccessible()) {
+            throw new IOException("cannot read from the offset " + offset + ": " + this.getAbsolutePath());
+        }
+        try (ReadableByteChannel source = file.createChannel(offset)) {
+            return ChannelUtils.transfer(source, target);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The result is computed once, by visiting the nodes under this node, and is reused until a node is added.
+     * A {@link FileTreeItemLazyDirectory} is answered by its item, which tells whether all files under it are
+     * random accessible, and by the children appended to it; the children read from its source are not visited,
+     * so the result does not change as they are read.
+     * </p>
+     */
+    @Override
+    public boolean isRandomAccessible() {
+        Boolean result = randomAccessible;
+        if (result == null) {
+            result = computeRandomAccessible();
+            randomAccessible = result;
+        }
+        return result;
+    }
+
+    private boolean computeRandomAccessible() {
+        if (this.children == null) {
+            return file.isRandomAccessible();
+        }
+
+        if (file instanceof FileTreeItemLazyDirectory && !file.isRandomAccessible()) {
+            return false;
+        }
+        for (FileTreeNode child : this.children.values()) {
+            if (!child.isRandomAccessible()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String validateNameOrDefault(String value) {
         if (value == null) {
             return "anonymous";
@@ -274,4 +551,62 @@ public class FileTreeNode implements LinkedFileNode {
             return value;
         }
     }
+
+    /**
+     * Formats the children in the order of listings: directories first, then files.
+     */
+    private static class FormattingIterator implements Iterator<String> {
+        private final List<FileTreeNode> children;
+        private final FileFilter filter;
+        private final FileFormater formatter;
+        private boolean directories = true;
+        private int index = 0;
+        private FileTreeNode next = null;
+
+        private FormattingIterator(List<FileTreeNode> children, FileFilter filter, FileFormater formatter) {
+            this.children = children;
+            this.filter = filter;
+            this.formatter = formatter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (index >= children.size()) {
+                    if (!directories) {
+                        return false;
+                    }
+                    directories = false;
+                    index = 0;
+                    continue;
+                }
+
+                final FileTreeNode child = children.get(index++);
+                if (child.isDirectory() == directories && (filter == null || filter.accept(child))) {
+                    next = child;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final FileTreeNode child = next;
+            next = null;
+            return formatter.format(child);
+        }
+    }
+
+    private static class FormattedListing {
+        private final String text;
+        private final long expiresAt;
+
+        private FormattedListing(String text, long expiresAt) {
+            this.text = text;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
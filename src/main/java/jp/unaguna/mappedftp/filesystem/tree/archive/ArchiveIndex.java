@@ -0,0 +1,163 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The index of the entries of an archive.
+ *
+ * <p>
+ * The entries are kept in arrays indexed by an entry number,
+ * with the directories implied by the paths of the entries.
+ * The children of a directory have consecutive numbers in the order of their names,
+ * and the root directory is {@link #ROOT}.
+ * The contents are read from the archive through a {@link SharedFileChannel} without being extracted.
+ * </p>
+ *
+ * <p>
+ * The entries whose paths are absolute or contain empty segments, "." or ".." are ignored,
+ * and of the entries of the same path, the first one in the archive is used.
+ * </p>
+ */
+public abstract class ArchiveIndex {
+    /**
+     * The entry number of the root directory.
+     */
+    public static final int ROOT = 0;
+
+    private final SharedFileChannel file;
+    private final String[] names;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    private final long[] sizes;
+    private final long[] lastModifieds;
+
+    ArchiveIndex(SharedFileChannel file, ArchiveTree tree) {
+        this.file = file;
+        this.names = tree.names;
+        this.parents = tree.parents;
+        this.firstChildren = tree.firstChildren;
+        this.childCounts = tree.childCounts;
+        this.sizes = tree.sizes;
+        this.lastModifieds = tree.lastModifieds;
+    }
+
+    /**
+     * Returns the number of the entries, including the directories implied by the paths and the root.
+     *
+     * @return the number of the entries
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public SharedFileChannel getFile() {
+        return file;
+    }
+
+    public String getName(int entry) {
+        return names[entry];
+    }
+
+    /**
+     * Returns the path of the entry in the archive, such as "dir/file.txt".
+     *
+     * @param entry the entry number
+     * @return the path, which is empty for the root
+     */
+    public String getPath(int entry) {
+        if (entry == ROOT) {
+            return "";
+        }
+        final String parentPath = getPath(parents[entry]);
+        return parentPath.isEmpty() ? names[entry] : parentPath + "/" + names[entry];
+    }
+
+    public boolean isDirectory(int entry) {
+        return firstChildren[entry] >= 0;
+    }
+
+    public int getChildCount(int entry) {
+        return childCounts[entry];
+    }
+
+    /**
+     * Returns the child of the directory in the order of their names.
+     *
+     * @param entry the entry number of the directory
+     * @param i     the index of the child, less than {@link #getChildCount(int)}
+     * @return the entry number of the child
+     */
+    public int getChild(int entry, int i) {
+        if (i < 0 || i >= childCounts[entry]) {
+            throw new IndexOutOfBoundsException("index " + i + " of " + childCounts[entry] + " children");
+        }
+        return firstChildren[entry] + i;
+    }
+
+    /**
+     * Returns the size of the content of the entry.
+     *
+     * @param entry the entry number
+     * @return the size in bytes, which is 0 for directories
+     */
+    public long getSize(int entry) {
+        return sizes[entry];
+    }
+
+    /**
+     * Returns the last modified time of the entry.
+     *
+     * <p>
+     * The directories implied by the paths have the last modified time of the archive.
+     * </p>
+     *
+     * @param entry the entry number
+     * @return the time in milliseconds
+     */
+    public long getLastModified(int entry) {
+        return lastModifieds[entry];
+    }
+
+    /**
+     * Open the content of the file entry as a channel.
+     *
+     * @param entry  the entry number of a file
+     * @param offset the number of bytes of where to start reading
+     * @return the channel of the content
+     * @throws IOException when the entry cannot be read
+     */
+    public abstract ReadableByteChannel openChannel(int entry, long offset) throws IOException;
+
+    /**
+     * Open the content of the file entry as a stream.
+     *
+     * @param entry  the entry number of a file
+     * @param offset the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when the entry cannot be read
+     */
+    public abstract InputStream openStream(int entry, long offset) throws IOException;
+
+    /**
+     * Throws if the entry is not a file.
+     *
+     * @param entry the entry number
+     */
+    void checkFile(int entry) {
+        if (isDirectory(entry)) {
+            throw new IllegalArgumentException("not a file: " + getPath(entry));
+        }
+    }
+
+    /**
+     * Returns the arrays of the tree, to be written to a persisted index.
+     */
+    ArchiveTree toTree() {
+        return new ArchiveTree(names, parents, firstChildren, childCounts, sizes, lastModifieds, null);
+    }
+}
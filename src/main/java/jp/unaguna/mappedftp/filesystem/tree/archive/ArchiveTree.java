@@ -0,0 +1,436 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The entries of an archive arranged as a tree, in the arrays held by {@link ArchiveIndex}.
+ *
+ * <p>
+ * The entries are numbered in breadth-first order from the root {@link ArchiveIndex#ROOT},
+ * so that the children of each directory have consecutive numbers in the order of their names.
+ * Each entry keeps the number of the record given to the {@link Builder},
+ * by which the index of each format looks up its own data of the entry.
+ * </p>
+ */
+final class ArchiveTree {
+    final String[] names;
+    final int[] parents;
+
+    /**
+     * The number of the first child of each directory, and -1 for files.
+     */
+    final int[] firstChildren;
+    final int[] childCounts;
+    final long[] sizes;
+    final long[] lastModifieds;
+
+    /**
+     * The record of each entry, or -1 for the root and the directories only implied by the paths.
+     */
+    final int[] records;
+
+    ArchiveTree(String[] names, int[] parents, int[] firstChildren, int[] childCounts,
+                long[] sizes, long[] lastModifieds, int[] records) {
+        this.names = names;
+        this.parents = parents;
+        this.firstChildren = firstChildren;
+        this.childCounts = childCounts;
+        this.sizes = sizes;
+        this.lastModifieds = lastModifieds;
+        this.records = records;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the values of the records of the entries.
+     *
+     * @param recordValues the values indexed by the record numbers
+     * @param defaultValue the value of the entries without records
+     * @return the values indexed by the entry numbers
+     */
+    long[] mapRecords(long[] recordValues, long defaultValue) {
+        final long[] values = new long[records.length];
+        for (int i = 0; i < records.length; i++) {
+            values[i] = records[i] >= 0 ? recordValues[records[i]] : defaultValue;
+        }
+        return values;
+    }
+
+    /**
+     * Returns the values of the records of the entries, as {@link #mapRecords(long[], long)}.
+     */
+    short[] mapRecords(int[] recordValues, short defaultValue) {
+        final short[] values = new short[records.length];
+        for (int i = 0; i < records.length; i++) {
+            values[i] = records[i] >= 0 ? (short) recordValues[records[i]] : defaultValue;
+        }
+        return values;
+    }
+
+    /**
+     * Builds the tree from the paths of the entries of an archive.
+     *
+     * <p>
+     * The paths are kept as ranges of a byte array in UTF-8, such as the central directory of a zip archive,
+     * and only the names of the entries are decoded when the tree is built.
+     * The records whose paths are absolute or contain empty segments, "." or ".." are ignored,
+     * and of the records of the same path, the first one is used.
+     * The records under a file are ignored.
+     * </p>
+     */
+    static final class Builder {
+        private static final Logger LOG = LoggerFactory.getLogger(ArchiveTree.class.getName());
+
+        private byte[] bytes;
+        private int byteCount;
+        private int count = 0;
+        private int[] pathStarts;
+        private int[] pathEnds;
+        private boolean[] directories;
+        private long[] sizes;
+        private long[] lastModifieds;
+
+        /**
+         * Create a builder which reads the paths from the bytes.
+         *
+         * @param bytes    the bytes which the paths are in
+         * @param capacity the expected number of the records
+         */
+        Builder(byte[] bytes, int capacity) {
+            this.bytes = bytes;
+            this.byteCount = bytes.length;
+            this.pathStarts = new int[capacity];
+            this.pathEnds = new int[capacity];
+            this.directories = new boolean[capacity];
+            this.sizes = new long[capacity];
+            this.lastModifieds = new long[capacity];
+        }
+
+        /**
+         * Create a builder whose paths are appended by {@link #add(byte[], int, int, boolean, long, long)}.
+         *
+         * @param capacity the expected number of the records
+         */
+        Builder(int capacity) {
+            this(new byte[Math.max(capacity, 16) * 32], capacity);
+            this.byteCount = 0;
+        }
+
+        /**
+         * Add a record whose path is in the bytes given to the constructor.
+         *
+         * @param pathStart    the position of the path in the bytes
+         * @param pathLength   the length of the path in bytes
+         * @param directory    whether the record is a directory; a path ending with "/" is also a directory
+         * @param size         the size of the file
+         * @param lastModified the last modified time, or a negative value if unknown
+         * @return the number of the record, or -1 if it is ignored
+         */
+        int add(int pathStart, int pathLength, boolean directory, long size, long lastModified) {
+            int pathEnd = pathStart + pathLength;
+            while (pathEnd > pathStart && bytes[pathEnd - 1] == '/') {
+                directory = true;
+                pathEnd--;
+            }
+            if (!isLegalPath(pathStart, pathEnd)) {
+                LOG.debug("ignored the entry of an illegal path: "
+                        + new String(bytes, pathStart, pathLength, StandardCharsets.UTF_8));
+                return -1;
+            }
+
+            if (count == pathStarts.length) {
+                final int capacity = Math.max(count * 2, 16);
+                pathStarts = Arrays.copyOf(pathStarts, capacity);
+                pathEnds = Arrays.copyOf(pathEnds, capacity);
+                directories = Arrays.copyOf(directories, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                lastModifieds = Arrays.copyOf(lastModifieds, capacity);
+            }
+            pathStarts[count] = pathStart;
+            pathEnds[count] = pathEnd;
+            directories[count] = directory;
+            sizes[count] = directory ? 0 : size;
+            lastModifieds[count] = lastModified;
+            return count++;
+        }
+
+        /**
+         * Add a record, copying its path.
+         *
+         * @param path         the bytes which the path is in
+         * @param pathStart    the position of the path in the bytes
+         * @param pathLength   the length of the path in bytes
+         * @param directory    whether the record is a directory; a path ending with "/" is also a directory
+         * @param size         the size of the file
+         * @param lastModified the last modified time, or a negative value if unknown
+         * @return the number of the record, or -1 if it is ignored
+         */
+        int add(byte[] path, int pathStart, int pathLength, boolean directory, long size, long lastModified) {
+            if (byteCount + pathLength > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, byteCount + pathLength));
+            }
+            System.arraycopy(path, pathStart, bytes, byteCount, pathLength);
+            final int record = add(byteCount, pathLength, directory, size, lastModified);
+            if (record >= 0) {
+                byteCount += pathLength;
+            }
+            return record;
+        }
+
+        /**
+         * Returns whether the path is relative and has no empty segment, "." or "..".
+         */
+        private boolean isLegalPath(int start, int end) {
+            int segmentStart = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || bytes[i] == '/') {
+                    final int length = i - segmentStart;
+                    if (length == 0
+                            || length == 1 && bytes[segmentStart] == '.'
+                            || length == 2 && bytes[segmentStart] == '.' && bytes[segmentStart + 1] == '.') {
+                        return false;
+                    }
+                    segmentStart = i + 1;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Build the tree.
+         *
+         * @param defaultLastModified the last modified time of the root, the directories only implied,
+         *                            and the records whose times are unknown
+         * @return the tree
+         */
+        ArchiveTree build(long defaultLastModified) {
+            final Nodes nodes = new Nodes(this, count + 1);
+            for (int record : sorted()) {
+                nodes.add(record);
+            }
+            return nodes.flatten(defaultLastModified);
+        }
+
+        /**
+         * Returns the records in the order of their paths compared segment by segment,
+         * so that each directory is followed by the entries under it;
+         * the records of the same path remain in the order they are added.
+         */
+        private Integer[] sorted() {
+            final Integer[] records = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                records[i] = i;
+            }
+            Arrays.sort(records, this::compare);
+            return records;
+        }
+
+        private int compare(int record1, int record2) {
+            final int start1 = pathStarts[record1];
+            final int start2 = pathStarts[record2];
+            final int length1 = pathEnds[record1] - start1;
+            final int length2 = pathEnds[record2] - start2;
+            final int length = Math.min(length1, length2);
+            for (int i = 0; i < length; i++) {
+                final byte b1 = bytes[start1 + i];
+                final byte b2 = bytes[start2 + i];
+                if (b1 != b2) {
+                    // the separator precedes any other character
+                    return (b1 == '/' ? -1 : b1 & 0xFF) - (b2 == '/' ? -1 : b2 & 0xFF);
+                }
+            }
+            return length1 - length2;
+        }
+    }
+
+    /**
+     * The nodes created from the sorted records with the directories implied by their paths.
+     * The node 0 is the root, and the children of each node are linked in the order of their names.
+     */
+    private static final class Nodes {
+        private final Builder builder;
+        private int count = 0;
+        private int[] nameStarts;
+        private int[] nameEnds;
+        private int[] parents;
+        private int[] firstChildren;
+        private int[] lastChildren;
+        private int[] nextSiblings;
+        private boolean[] directories;
+        private int[] records;
+
+        /**
+         * The nodes from the root to the directory of the last added node, and the depth of it.
+         */
+        private int[] path = new int[16];
+        private int depth = 0;
+
+        private Nodes(Builder builder, int capacity) {
+            this.builder = builder;
+            nameStarts = new int[capacity];
+            nameEnds = new int[capacity];
+            parents = new int[capacity];
+            firstChildren = new int[capacity];
+            lastChildren = new int[capacity];
+            nextSiblings = new int[capacity];
+            directories = new boolean[capacity];
+            records = new int[capacity];
+            path[0] = newNode(-1, 0, 0, true, -1);
+        }
+
+        private void add(int record) {
+            final byte[] bytes = builder.bytes;
+            final int end = builder.pathEnds[record];
+
+            // the depth of the common directories with the last added node
+            int start = builder.pathStarts[record];
+            int matched = 0;
+            while (true) {
+                final int segmentEnd = segmentEnd(bytes, start, end);
+                if (matched >= depth || !equalsName(path[matched + 1], bytes, start, segmentEnd)) {
+                    break;
+                }
+                matched++;
+                if (segmentEnd == end) {
+                    Builder.LOG.debug("ignored the duplicate entry: " + pathString(record));
+                    return;
+                }
+                start = segmentEnd + 1;
+            }
+            depth = matched;
+            if (!directories[path[depth]]) {
+                Builder.LOG.debug("ignored the entry under a file: " + pathString(record));
+                return;
+            }
+
+            // the directories only implied by the path
+            int segmentEnd = segmentEnd(bytes, start, end);
+            while (segmentEnd < end) {
+                push(newNode(path[depth], start, segmentEnd, true, -1));
+                start = segmentEnd + 1;
+                segmentEnd = segmentEnd(bytes, start, end);
+            }
+
+            push(newNode(path[depth], start, end, builder.directories[record], record));
+        }
+
+        private void push(int node) {
+            depth++;
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth] = node;
+        }
+
+        private int newNode(int parent, int nameStart, int nameEnd, boolean directory, int record) {
+            if (count == nameStarts.length) {
+                final int capacity = count * 2;
+                nameStarts = Arrays.copyOf(nameStarts, capacity);
+                nameEnds = Arrays.copyOf(nameEnds, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                lastChildren = Arrays.copyOf(lastChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                directories = Arrays.copyOf(directories, capacity);
+                records = Arrays.copyOf(records, capacity);
+            }
+            final int node = count++;
+            nameStarts[node] = nameStart;
+            nameEnds[node] = nameEnd;
+            parents[node] = parent;
+            firstChildren[node] = -1;
+            lastChildren[node] = -1;
+            nextSiblings[node] = -1;
+            directories[node] = directory;
+            records[node] = record;
+
+            if (parent >= 0) {
+                if (lastChildren[parent] < 0) {
+                    firstChildren[parent] = node;
+                } else {
+                    nextSiblings[lastChildren[parent]] = node;
+                }
+                lastChildren[parent] = node;
+            }
+            return node;
+        }
+
+        /**
+         * Number the nodes in breadth-first order, so that the children of each directory are consecutive.
+         */
+        private ArchiveTree flatten(long defaultLastModified) {
+            final String[] entryNames = new String[count];
+            final int[] entryParents = new int[count];
+            final int[] entryFirstChildren = new int[count];
+            final int[] entryChildCounts = new int[count];
+            final long[] entrySizes = new long[count];
+            final long[] entryLastModifieds = new long[count];
+            final int[] entryRecords = new int[count];
+
+            final int[] nodes = new int[count];
+            final int[] numbers = new int[count];
+            int added = 1;
+            for (int i = 0; i < count; i++) {
+                final int node = nodes[i];
+                numbers[node] = i;
+                if (directories[node]) {
+                    entryFirstChildren[i] = added;
+                    for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+                        nodes[added++] = child;
+                    }
+                    entryChildCounts[i] = added - entryFirstChildren[i];
+                } else {
+                    entryFirstChildren[i] = -1;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                final int node = nodes[i];
+                final int record = records[node];
+                entryNames[i] = new String(builder.bytes, nameStarts[node], nameEnds[node] - nameStarts[node],
+                        StandardCharsets.UTF_8);
+                entryParents[i] = i == ArchiveIndex.ROOT ? -1 : numbers[parents[node]];
+                entryRecords[i] = record;
+                entrySizes[i] = record >= 0 ? builder.sizes[record] : 0;
+                entryLastModifieds[i] = record >= 0 && builder.lastModifieds[record] >= 0
+                        ? builder.lastModifieds[record] : defaultLastModified;
+            }
+
+            return new ArchiveTree(entryNames, entryParents, entryFirstChildren, entryChildCounts,
+                    entrySizes, entryLastModifieds, entryRecords);
+        }
+
+        private boolean equalsName(int node, byte[] bytes, int start, int end) {
+            final int nameStart = nameStarts[node];
+            if (nameEnds[node] - nameStart != end - start) {
+                return false;
+            }
+            for (int i = end - start - 1; i >= 0; i--) {
+                if (bytes[nameStart + i] != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String pathString(int record) {
+            final int start = builder.pathStarts[record];
+            return new String(builder.bytes, start, builder.pathEnds[record] - start, StandardCharsets.UTF_8);
+        }
+
+        private static int segmentEnd(byte[] bytes, int start, int end) {
+            int i = start;
+            while (i < end && bytes[i] != '/') {
+                i++;
+            }
+            return i;
+        }
+    }
+}
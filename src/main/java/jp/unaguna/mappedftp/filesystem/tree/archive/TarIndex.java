@@ -0,0 +1,498 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import jp.unaguna.mappedftp.utils.FileChannelSlice;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * The index of the members of a tar archive.
+ *
+ * <p>
+ * Since a tar archive has no central directory, the headers of all members are read once from the top,
+ * skipping their contents, and the offsets of the contents are kept in the index.
+ * The contents are read as ranges of the file, since tar archives are not compressed.
+ * The index can be persisted by {@link #write(Path)} and reused by {@link #read(SharedFileChannel, Path)}
+ * while the size and the last modified time of the archive are unchanged.
+ * </p>
+ *
+ * <p>
+ * The ustar, GNU and pax formats are read: the long names of GNU,
+ * and the path, the size and the modification time of pax extended headers.
+ * Regular files and directories are indexed; links and special files are ignored.
+ * A leading "./" of the paths is removed.
+ * </p>
+ */
+public class TarIndex extends ArchiveIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(TarIndex.class.getName());
+
+    static final byte[] MAGIC = "MFTPTARI".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME = 0;
+    private static final int NAME_LENGTH = 100;
+    private static final int SIZE = 124;
+    private static final int MTIME = 136;
+    private static final int CHECKSUM = 148;
+    private static final int TYPE = 156;
+    private static final int USTAR_MAGIC = 257;
+    private static final int PREFIX = 345;
+    private static final int PREFIX_LENGTH = 155;
+
+    private static final byte[] USTAR = "ustar\0".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The offsets of the contents of the entries in the archive; -1 for directories.
+     */
+    private final long[] dataOffsets;
+
+    private TarIndex(SharedFileChannel file, ArchiveTree tree, long[] dataOffsets) {
+        super(file, tree);
+        this.dataOffsets = dataOffsets;
+    }
+
+    /**
+     * Read the headers of the archive and create its index.
+     *
+     * @param file the archive
+     * @return the index
+     * @throws IOException when the file is not a tar archive, it is broken, or some IO error occurred
+     */
+    public static TarIndex read(SharedFileChannel file) throws IOException {
+        final long fileSize = file.size();
+        final ArchiveTree.Builder builder = new ArchiveTree.Builder(1024);
+        long[] offsets = new long[1024];
+
+        final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        final byte[] header = buffer.array();
+        byte[] longName = null;
+        PaxHeader pax = null;
+        long position = 0;
+        while (position + BLOCK_SIZE <= fileSize) {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                if (file.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("unexpected end of " + file + " at " + (position + buffer.position()));
+                }
+            }
+            if (isZero(header)) {
+                // the end of the archive
+                break;
+            }
+            if (!isValidChecksum(header)) {
+                throw new IOException("broken tar header at " + position + ": " + file);
+            }
+
+            final byte type = header[TYPE];
+            long size = parseNumber(header, SIZE, 12);
+            if (pax != null && pax.size >= 0) {
+                size = pax.size;
+            }
+            final long dataOffset = position + BLOCK_SIZE;
+            if (size < 0 || dataOffset + size > fileSize) {
+                throw new IOException("broken tar header at " + position + ": " + file);
+            }
+
+            switch (type) {
+                case 'L':
+                    // GNU long name of the next member
+                    longName = trimNul(file.readFully(dataOffset, (int) Math.min(size, Integer.MAX_VALUE)).array());
+                    break;
+                case 'x':
+                    pax = PaxHeader.parse(file.readFully(dataOffset, (int) Math.min(size, Integer.MAX_VALUE)).array());
+                    break;
+                case 'g':
+                case 'K':
+                    // global pax headers and GNU long link names are not used
+                    break;
+                default:
+                    final boolean regular = type == '0' || type == 0 || type == '7';
+                    final boolean directory = type == '5';
+                    final byte[] path = pax != null && pax.path != null ? pax.path
+                            : longName != null ? longName
+                            : headerPath(header);
+                    if (regular || directory) {
+                        final long mtime = pax != null && pax.lastModified != Long.MIN_VALUE ? pax.lastModified
+                                : parseNumber(header, MTIME, 12) * 1000L;
+                        int start = 0;
+                        while (path.length - start >= 2 && path[start] == '.' && path[start + 1] == '/') {
+                            start += 2;
+                        }
+                        if (start < path.length) {
+                            final int record = builder.add(path, start, path.length - start, directory,
+                                    regular ? size : 0, mtime);
+                            if (record >= 0) {
+                                if (record == offsets.length) {
+                                    offsets = Arrays.copyOf(offsets, record * 2);
+                                }
+                                offsets[record] = regular ? dataOffset : -1;
+                            }
+                        }
+                    } else {
+                        LOG.debug("ignored the member of type '" + (char) type + "': "
+                                + new String(path, StandardCharsets.UTF_8));
+                    }
+                    longName = null;
+                    pax = null;
+                    break;
+            }
+
+            position = dataOffset + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        }
+
+        final ArchiveTree tree = builder.build(Files.getLastModifiedTime(file.getPath()).toMillis());
+        return new TarIndex(file, tree, tree.mapRecords(offsets, -1));
+    }
+
+    /**
+     * Returns the index of the archive, reusing the persisted index file if it is for the current archive.
+     *
+     * <p>
+     * Otherwise, the archive is read by {@link #read(SharedFileChannel)} and the index is written to the file.
+     * A failure to write the file is logged, and the index is returned anyway.
+     * </p>
+     *
+     * @param file      the archive
+     * @param indexFile the persisted index file
+     * @return the index
+     * @throws IOException when the file is not a tar archive, it is broken, or some IO error occurred
+     */
+    public static TarIndex read(SharedFileChannel file, Path indexFile) throws IOException {
+        final long archiveSize = file.size();
+        final long archiveLastModified = Files.getLastModifiedTime(file.getPath()).toMillis();
+
+        try {
+            final TarIndex loaded = load(file, indexFile, archiveSize, archiveLastModified);
+            if (loaded != null) {
+                LOG.debug("reused the index of " + file + ": " + indexFile);
+                return loaded;
+            }
+        } catch (NoSuchFileException e) {
+            // not persisted yet
+        } catch (IOException e) {
+            LOG.warn("failed to read the index of " + file + ", so it is created again: " + indexFile, e);
+        }
+
+        final TarIndex index = read(file);
+        try {
+            index.write(indexFile, archiveSize, archiveLastModified);
+        } catch (IOException e) {
+            LOG.warn("failed to write the index of " + file + ": " + indexFile, e);
+        }
+        return index;
+    }
+
+    /**
+     * Write this index to the file, with the size and the last modified time of the archive.
+     *
+     * <p>
+     * The index is written to a temporary file next to the index file and then moved to it.
+     * </p>
+     *
+     * @param indexFile the index file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path indexFile) throws IOException {
+        write(indexFile, getFile().size(), Files.getLastModifiedTime(getFile().getPath()).toMillis());
+    }
+
+    private void write(Path indexFile, long archiveSize, long archiveLastModified) throws IOException {
+        final ArchiveTree tree = toTree();
+        final Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path temporary = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(archiveSize);
+                out.writeLong(archiveLastModified);
+                out.writeInt(tree.size());
+                for (int i = 0; i < tree.size(); i++) {
+                    final byte[] name = tree.names[i].getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                    out.writeInt(tree.parents[i]);
+                    out.writeInt(tree.firstChildren[i]);
+                    out.writeInt(tree.childCounts[i]);
+                    out.writeLong(tree.sizes[i]);
+                    out.writeLong(tree.lastModifieds[i]);
+                    out.writeLong(dataOffsets[i]);
+                }
+            }
+
+            try {
+                Files.move(temporary, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Read the persisted index.
+     *
+     * @return the index, or null if the index is for another size or last modified time of the archive
+     */
+    private static TarIndex load(SharedFileChannel file, Path indexFile, long archiveSize, long archiveLastModified)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("not a tar index");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported version of tar index: " + version);
+            }
+            if (in.readLong() != archiveSize || in.readLong() != archiveLastModified) {
+                LOG.debug("the archive has been changed since the index was written: " + file);
+                return null;
+            }
+
+            final int count = in.readInt();
+            if (count < 1) {
+                throw new IOException("broken tar index");
+            }
+            final String[] names = new String[count];
+            final int[] parents = new int[count];
+            final int[] firstChildren = new int[count];
+            final int[] childCounts = new int[count];
+            final long[] sizes = new long[count];
+            final long[] lastModifieds = new long[count];
+            final long[] dataOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                final int nameLength = in.readInt();
+                if (nameLength < 0 || nameLength > 0xFFFF) {
+                    throw new IOException("broken tar index");
+                }
+                final byte[] name = new byte[nameLength];
+                in.readFully(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                parents[i] = in.readInt();
+                firstChildren[i] = in.readInt();
+                childCounts[i] = in.readInt();
+                sizes[i] = in.readLong();
+                lastModifieds[i] = in.readLong();
+                dataOffsets[i] = in.readLong();
+
+                // the entries are numbered in breadth-first order
+                if (i == ROOT ? parents[i] != -1 : parents[i] < 0 || parents[i] >= i
+                        || firstChildren[i] >= 0 && (firstChildren[i] <= i || childCounts[i] < 0
+                        || (long) firstChildren[i] + childCounts[i] > count)) {
+                    throw new IOException("broken tar index");
+                }
+            }
+
+            return new TarIndex(file,
+                    new ArchiveTree(names, parents, firstChildren, childCounts, sizes, lastModifieds, null),
+                    dataOffsets);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * It is a {@link FileChannelSlice} of the archive.
+     * </p>
+     */
+    @Override
+    public ReadableByteChannel openChannel(int entry, long offset) throws IOException {
+        checkFile(entry);
+        final long start = dataOffsets[entry];
+        final long size = getSize(entry);
+        return new FileChannelSlice(getFile(), start + Math.min(offset, size), start + size);
+    }
+
+    @Override
+    public InputStream openStream(int entry, long offset) throws IOException {
+        return Channels.newInputStream(openChannel(entry, offset));
+    }
+
+    /**
+     * Returns the path of the header, joining the prefix of ustar with the name.
+     */
+    private static byte[] headerPath(byte[] header) {
+        final int nameLength = length(header, NAME, NAME_LENGTH);
+        if (!regionEquals(header, USTAR_MAGIC, USTAR) || header[PREFIX] == 0) {
+            return Arrays.copyOfRange(header, NAME, NAME + nameLength);
+        }
+        final int prefixLength = length(header, PREFIX, PREFIX_LENGTH);
+        final byte[] path = new byte[prefixLength + 1 + nameLength];
+        System.arraycopy(header, PREFIX, path, 0, prefixLength);
+        path[prefixLength] = '/';
+        System.arraycopy(header, NAME, path, prefixLength + 1, nameLength);
+        return path;
+    }
+
+    /**
+     * Parse a numeric field, which is octal or, for a large value, base-256 with the highest bit set.
+     */
+    private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xFF);
+            }
+            return value;
+        }
+
+        long value = 0;
+        int i = 0;
+        while (i < length && (header[offset + i] == ' ' || header[offset + i] == 0)) {
+            i++;
+        }
+        for (; i < length; i++) {
+            final byte b = header[offset + i];
+            if (b == ' ' || b == 0) {
+                break;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("illegal octal number in tar header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns whether the checksum of the header is correct, as the sum of either unsigned or signed bytes.
+     */
+    private static boolean isValidChecksum(byte[] header) throws IOException {
+        final long expected = parseNumber(header, CHECKSUM, 8);
+        long unsigned = 0;
+        long signed = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            final byte b = i >= CHECKSUM && i < CHECKSUM + 8 ? (byte) ' ' : header[i];
+            unsigned += b & 0xFF;
+            signed += b;
+        }
+        return expected == unsigned || expected == signed;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int length(byte[] bytes, int offset, int maxLength) {
+        int length = 0;
+        while (length < maxLength && bytes[offset + length] != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static byte[] trimNul(byte[] bytes) {
+        return Arrays.copyOf(bytes, length(bytes, 0, bytes.length));
+    }
+
+    private static boolean regionEquals(byte[] bytes, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The fields of a pax extended header used for the next member.
+     */
+    private static class PaxHeader {
+        private byte[] path = null;
+        private long size = -1;
+        private long lastModified = Long.MIN_VALUE;
+
+        /**
+         * Parse the records of the form "length key=value\n".
+         */
+        private static PaxHeader parse(byte[] data) throws IOException {
+            final PaxHeader header = new PaxHeader();
+            int position = 0;
+            while (position < data.length && data[position] != 0) {
+                int space = position;
+                int length = 0;
+                while (space < data.length && data[space] != ' ') {
+                    if (data[space] < '0' || data[space] > '9') {
+                        throw new IOException("broken pax header");
+                    }
+                    length = length * 10 + (data[space] - '0');
+                    space++;
+                }
+                final int end = position + length;
+                if (space >= data.length || end > data.length || end <= space + 1) {
+                    throw new IOException("broken pax header");
+                }
+                int equal = space + 1;
+                while (equal < end && data[equal] != '=') {
+                    equal++;
+                }
+                if (equal < end) {
+                    final String key = new String(data, space + 1, equal - space - 1, StandardCharsets.UTF_8);
+                    // the value ends with a newline
+                    final int valueStart = equal + 1;
+                    final int valueEnd = data[end - 1] == '\n' ? end - 1 : end;
+                    header.set(key, data, valueStart, valueEnd);
+                }
+                position = end;
+            }
+            return header;
+        }
+
+        private void set(String key, byte[] data, int start, int end) throws IOException {
+            final String value = new String(data, start, end - start, StandardCharsets.UTF_8);
+            try {
+                switch (key) {
+                    case "path":
+                        path = Arrays.copyOfRange(data, start, end);
+                        break;
+                    case "size":
+                        size = Long.parseLong(value);
+                        break;
+                    case "mtime":
+                        final int dot = value.indexOf('.');
+                        if (dot < 0) {
+                            lastModified = Long.parseLong(value) * 1000L;
+                        } else {
+                            final String fraction = (value.substring(dot + 1) + "000").substring(0, 3);
+                            lastModified = Long.parseLong(value.substring(0, dot)) * 1000L
+                                    + (value.startsWith("-") ? -1 : 1) * Long.parseLong(fraction);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("illegal pax header: " + key + "=" + value, e);
+            }
+        }
+    }
+}
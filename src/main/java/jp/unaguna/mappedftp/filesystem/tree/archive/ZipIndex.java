@@ -0,0 +1,415 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import jp.unaguna.mappedftp.utils.FileChannelSlice;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+import jp.unaguna.mappedftp.utils.StreamUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The index of the entries of a zip archive, read from its central directory.
+ *
+ * <p>
+ * The central directory is read once, and the entries stored without compression are read as ranges of the file.
+ * The names are decoded as UTF-8, as {@link java.util.zip.ZipFile} does by default.
+ * The last modified time is the extended timestamp if the entry has it,
+ * or the DOS time in the system default time zone.
+ * The entries compressed by other than deflate, and the encrypted entries, are listed but cannot be read.
+ * ZIP64 archives are supported; multi-disk archives are not.
+ * </p>
+ */
+public class ZipIndex extends ArchiveIndex {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_SIZE = 30;
+
+    private static final int EXTRA_ZIP64 = 0x0001;
+    private static final int EXTRA_EXTENDED_TIMESTAMP = 0x5455;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final long UINT32_MAX = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long[] compressedSizes;
+    private final long[] headerOffsets;
+    private final short[] methods;
+    private final short[] flags;
+
+    /**
+     * The offsets of the contents after the local headers, read at the first open; -1 until then.
+     */
+    private final long[] dataOffsets;
+
+    private ZipIndex(SharedFileChannel file, ArchiveTree tree, Records records) {
+        super(file, tree);
+        this.compressedSizes = tree.mapRecords(records.compressedSizes, 0);
+        this.headerOffsets = tree.mapRecords(records.headerOffsets, -1);
+        this.methods = tree.mapRecords(records.methods, (short) METHOD_STORED);
+        this.flags = tree.mapRecords(records.flags, (short) 0);
+        this.dataOffsets = new long[tree.size()];
+        Arrays.fill(dataOffsets, -1);
+    }
+
+    /**
+     * Read the central directory of the archive and create its index.
+     *
+     * @param file the archive
+     * @return the index
+     * @throws ZipException when the file is not a zip archive or it is broken
+     * @throws IOException  when some IO error occurred
+     */
+    public static ZipIndex read(SharedFileChannel file) throws IOException {
+        final long fileSize = file.size();
+        final int tailSize = (int) Math.min(fileSize, END_SIZE + 0xFFFF);
+        final ByteBuffer tail = order(file.readFully(fileSize - tailSize, tailSize));
+
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("not a zip archive: " + file);
+        }
+
+        final long endPosition = fileSize - tailSize + end;
+        long centralSize = uint32(tail, end + 12);
+        long centralOffset = uint32(tail, end + 16);
+        long entryCount = uint16(tail, end + 10);
+        // the offsets are relative to the top of the archive, which can follow other data such as a stub program
+        long base = 0;
+        if (centralSize == UINT32_MAX || centralOffset == UINT32_MAX || uint16(tail, end + 10) == 0xFFFF) {
+            if (endPosition < ZIP64_LOCATOR_SIZE) {
+                throw new ZipException("broken zip archive: " + file);
+            }
+            final ByteBuffer locator = order(file.readFully(endPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE));
+            if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new ZipException("broken zip64 archive: " + file);
+            }
+            final ByteBuffer zip64End = order(file.readFully(locator.getLong(8), ZIP64_END_SIZE));
+            if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                throw new ZipException("broken zip64 archive: " + file);
+            }
+            centralSize = zip64End.getLong(40);
+            centralOffset = zip64End.getLong(48);
+            entryCount = zip64End.getLong(32);
+        } else {
+            base = Math.max(0, endPosition - centralSize - centralOffset);
+        }
+        centralOffset += base;
+        if (centralSize > Integer.MAX_VALUE || centralOffset + centralSize > fileSize) {
+            throw new ZipException("broken central directory: " + file);
+        }
+
+        // the count is only used as the initial capacity, bounded by the size of the central directory
+        final int capacity = (int) Math.max(1, Math.min(entryCount, centralSize / CENTRAL_SIZE));
+        final ByteBuffer central = order(file.readFully(centralOffset, (int) centralSize));
+        final ArchiveTree.Builder builder = new ArchiveTree.Builder(central.array(), capacity);
+        final Records records = new Records(capacity);
+        readCentralDirectory(central, base, builder, records, file);
+        final ArchiveTree tree = builder.build(Files.getLastModifiedTime(file.getPath()).toMillis());
+
+        return new ZipIndex(file, tree, records);
+    }
+
+    private static void readCentralDirectory(ByteBuffer central, long base, ArchiveTree.Builder builder,
+                                             Records records, SharedFileChannel file) throws ZipException {
+        final DosTimeConverter dosTimes = new DosTimeConverter();
+        int position = 0;
+        while (position + CENTRAL_SIZE <= central.limit()) {
+            if (central.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("broken central directory: " + file);
+            }
+            final int flags = uint16(central, position + 8);
+            final int method = uint16(central, position + 10);
+            final int dosTime = uint16(central, position + 12);
+            final int dosDate = uint16(central, position + 14);
+            long compressedSize = uint32(central, position + 20);
+            long size = uint32(central, position + 24);
+            final int nameLength = uint16(central, position + 28);
+            final int extraLength = uint16(central, position + 30);
+            final int commentLength = uint16(central, position + 32);
+            long headerOffset = uint32(central, position + 42);
+
+            final int nameStart = position + CENTRAL_SIZE;
+            final int extraStart = nameStart + nameLength;
+            final int next = extraStart + extraLength + commentLength;
+            if (next > central.limit()) {
+                throw new ZipException("broken central directory: " + file);
+            }
+
+            long lastModified = -2;
+            for (int extra = extraStart; extra + 4 <= extraStart + extraLength; ) {
+                final int id = uint16(central, extra);
+                final int length = uint16(central, extra + 2);
+                int data = extra + 4;
+                if (data + length > extraStart + extraLength) {
+                    break;
+                }
+                if (id == EXTRA_ZIP64) {
+                    // only the fields which overflow in the fixed part are present, in this order
+                    if (size == UINT32_MAX && data + 8 <= extra + 4 + length) {
+                        size = central.getLong(data);
+                        data += 8;
+                    }
+                    if (compressedSize == UINT32_MAX && data + 8 <= extra + 4 + length) {
+                        compressedSize = central.getLong(data);
+                        data += 8;
+                    }
+                    if (headerOffset == UINT32_MAX && data + 8 <= extra + 4 + length) {
+                        headerOffset = central.getLong(data);
+                    }
+                } else if (id == EXTRA_EXTENDED_TIMESTAMP && length >= 5 && (central.get(data) & 0x01) != 0) {
+                    lastModified = central.getInt(data + 1) * 1000L;
+                }
+                extra += 4 + length;
+            }
+
+            if (lastModified == -2) {
+                lastModified = dosTimes.toJavaTime(dosDate, dosTime);
+            }
+            final int record = builder.add(central.arrayOffset() + nameStart, nameLength, false, size, lastModified);
+            if (record >= 0) {
+                records.add(record, compressedSize, base + headerOffset, method, flags);
+            }
+
+            position = next;
+        }
+    }
+
+    /**
+     * Returns whether the content of the entry is stored without compression,
+     * so that it can be read from any offset without reading the bytes before it.
+     *
+     * @param entry the entry number
+     * @return true if it is stored
+     */
+    public boolean isStored(int entry) {
+        return methods[entry] == METHOD_STORED;
+    }
+
+    /**
+     * Open the content of the file entry as a channel.
+     *
+     * <p>
+     * For an entry stored without compression, it is a {@link FileChannelSlice} of the archive.
+     * </p>
+     *
+     * @param entry  the entry number of a file
+     * @param offset the number of bytes of where to start reading
+     * @return the channel of the content
+     * @throws IOException when the entry cannot be read
+     */
+    @Override
+    public ReadableByteChannel openChannel(int entry, long offset) throws IOException {
+        checkReadable(entry);
+        if (methods[entry] == METHOD_STORED) {
+            final long start = dataOffset(entry);
+            return new FileChannelSlice(getFile(), start + Math.min(offset, getSize(entry)), start + getSize(entry));
+        }
+        return Channels.newChannel(openStream(entry, offset));
+    }
+
+    /**
+     * Open the content of the file entry as a stream.
+     *
+     * <p>
+     * For a compressed entry, the bytes before the offset are inflated and skipped.
+     * </p>
+     *
+     * @param entry  the entry number of a file
+     * @param offset the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when the entry cannot be read
+     */
+    @Override
+    public InputStream openStream(int entry, long offset) throws IOException {
+        checkReadable(entry);
+        if (methods[entry] == METHOD_STORED) {
+            return Channels.newInputStream(openChannel(entry, offset));
+        }
+
+        final long start = dataOffset(entry);
+        final InputStream compressed = Channels.newInputStream(
+                new FileChannelSlice(getFile(), start, start + compressedSizes[entry]));
+        final InputStream inputStream = new EntryInflaterInputStream(compressed);
+        try {
+            StreamUtils.skip(inputStream, offset);
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            throw e;
+        }
+        return inputStream;
+    }
+
+    private void checkReadable(int entry) throws ZipException {
+        checkFile(entry);
+        if ((flags[entry] & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("encrypted entry is not supported: " + getPath(entry) + " in " + getFile());
+        }
+        if (methods[entry] != METHOD_STORED && methods[entry] != METHOD_DEFLATED) {
+            throw new ZipException("unsupported compression method " + methods[entry] + ": "
+                    + getPath(entry) + " in " + getFile());
+        }
+    }
+
+    /**
+     * Returns the offset of the content of the entry, reading its local header at the first call.
+     */
+    private long dataOffset(int entry) throws IOException {
+        long offset = dataOffsets[entry];
+        if (offset >= 0) {
+            return offset;
+        }
+
+        final ByteBuffer header = order(getFile().readFully(headerOffsets[entry], LOCAL_SIZE));
+        if (header.getInt(0) != LOCAL_SIGNATURE) {
+            throw new ZipException("broken local header: " + getPath(entry) + " in " + getFile());
+        }
+        offset = headerOffsets[entry] + LOCAL_SIZE + uint16(header, 26) + uint16(header, 28);
+        // a racing call computes the same value
+        dataOffsets[entry] = offset;
+        return offset;
+    }
+
+    private static ByteBuffer order(ByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int uint16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long uint32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & UINT32_MAX;
+    }
+
+    /**
+     * The data of the entries specific to zip archives, indexed by the record numbers of {@link ArchiveTree.Builder}.
+     */
+    private static class Records {
+        private long[] compressedSizes;
+        private long[] headerOffsets;
+        private int[] methods;
+        private int[] flags;
+
+        private Records(int capacity) {
+            compressedSizes = new long[capacity];
+            headerOffsets = new long[capacity];
+            methods = new int[capacity];
+            flags = new int[capacity];
+        }
+
+        private void add(int record, long compressedSize, long headerOffset, int method, int flag) {
+            if (record == compressedSizes.length) {
+                final int capacity = Math.max(record * 2, 16);
+                compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+                headerOffsets = Arrays.copyOf(headerOffsets, capacity);
+                methods = Arrays.copyOf(methods, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            compressedSizes[record] = compressedSize;
+            headerOffsets[record] = headerOffset;
+            methods[record] = method;
+            flags[record] = flag;
+        }
+    }
+
+    /**
+     * Converts the MS-DOS date and time of the entries in the system time zone,
+     * reusing the offset of the last converted hour since the entries of an archive usually have close times.
+     */
+    private static class DosTimeConverter {
+        private final ZoneId zone = ZoneId.systemDefault();
+        private int lastDate = -1;
+        private int lastHour = -1;
+        private long lastHourMillis;
+
+        private long toJavaTime(int dosDate, int dosTime) {
+            final int hour = (dosTime >> 11) & 0x1f;
+            final int minute = (dosTime >> 5) & 0x3f;
+            final int second = (dosTime << 1) & 0x3e;
+            if (minute > 59 || second > 59) {
+                return -1;
+            }
+            if (dosDate != lastDate || hour != lastHour) {
+                try {
+                    lastHourMillis = LocalDateTime.of(
+                            ((dosDate >> 9) & 0x7f) + 1980, (dosDate >> 5) & 0x0f, dosDate & 0x1f, hour, 0
+                    ).atZone(zone).toInstant().toEpochMilli();
+                } catch (DateTimeException e) {
+                    return -1;
+                }
+                lastDate = dosDate;
+                lastHour = hour;
+            }
+            return lastHourMillis + (minute * 60L + second) * 1000L;
+        }
+    }
+
+    /**
+     * Inflates the raw deflate data of an entry.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+        private boolean closed = false;
+
+        private EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("unexpected end of the compressed entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len < 0) {
+                // the inflater without the zlib header may need an extra byte to finish, as ZipFile gives
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
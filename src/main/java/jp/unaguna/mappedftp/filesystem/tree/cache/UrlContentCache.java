@@ -0,0 +1,1194 @@
+package jp.unaguna.mappedftp.filesystem.tree.cache;
+
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamConnection;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamFetcher;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.utils.StreamUtils;
+import jp.unaguna.mappedftp.utils.URLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of contents got from URLs.
+ *
+ * <p>
+ * Small contents are held in memory and the others are stored as files in {@link #getDirectory() the directory}.
+ * When the total size exceeds the limit, the least recently used contents are discarded.
+ * A content is reused until its time to live passes, and after that it is revalidated with
+ * "If-None-Match" and "If-Modified-Since" if the source is HTTP(S).
+ * Concurrent requests for the same URL which is not cached are collapsed into a single fetch.
+ * </p>
+ *
+ * <p>
+ * A fetched content is served while it is being stored: it is written to a file (or memory) as the streams read it,
+ * and is put into the cache when the upstream reaches its end.
+ * The concurrent requests read the same file from their own positions.
+ * If all the streams are closed before the end, or the upstream fails, the content is discarded.
+ * A content whose "Content-Length" exceeds {@link #getMaxSize() the max size} is not stored at all.
+ * </p>
+ *
+ * <p>
+ * Instances are shared per directory; get them with {@link #getInstance(Path, long)}.
+ * Each instance stores its files in its own subdirectory of the directory, locked while the process is alive,
+ * so that servers sharing a directory do not delete the files of each other.
+ * The subdirectories left by the processes which have exited are deleted when an instance creates its own.
+ * A cached file removed by something else is fetched again.
+ * </p>
+ *
+ * <p>
+ * If {@link MetricRegistry#getDefault() the default registry} is enabled, each open is recorded into it as
+ * {@code cache.url.hits}, {@code cache.url.misses} (including expired contents) or {@code cache.url.collapsed}
+ * (a miss which has waited for the fetch by another thread),
+ * and each revalidation answered by "304 Not Modified" as {@code cache.url.revalidated}.
+ * </p>
+ */
+public class UrlContentCache {
+    private static final Logger LOG = LoggerFactory.getLogger(UrlContentCache.class.getName());
+
+    /**
+     * The default directory; "mapped-ftp-cache" under the system temporary directory.
+     */
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"), "mapped-ftp-cache");
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+    public static final long DEFAULT_MEMORY_MAX_SIZE = 32L * 1024 * 1024;
+    public static final long DEFAULT_MEMORY_ENTRY_MAX_SIZE = 1024L * 1024;
+
+    private static final String FILE_PREFIX = "mappedftp-";
+    private static final String FILE_SUFFIX = ".cache";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final int SPOOL_CHUNK_SIZE = 64 * 1024;
+    private static final Map<Path, UrlContentCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private volatile long maxSize;
+    private volatile long memoryMaxSize = DEFAULT_MEMORY_MAX_SIZE;
+    private volatile long memoryEntryMaxSize = DEFAULT_MEMORY_ENTRY_MAX_SIZE;
+
+    /**
+     * Cached contents in the order of access; guarded by {@code this}.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize = 0;
+    private long diskSize = 0;
+
+    private final Map<String, CompletableFuture<Fetched>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong fileSequence = new AtomicLong();
+
+    /**
+     * The subdirectory of this instance, created at the first file stored; guarded by {@link #lockLock}.
+     */
+    private Path instanceDirectory = null;
+
+    /**
+     * The lock of {@link #instanceDirectory}, held while this process is alive.
+     */
+    private FileLock instanceLock = null;
+    private final Object lockLock = new Object();
+
+    UrlContentCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache which stores files in the specified directory.
+     *
+     * <p>
+     * If the cache of the directory has already been created, it is returned
+     * and its max size is extended to the specified size if it is smaller.
+     * </p>
+     *
+     * @param directory the directory to store cached files, or null to use {@link #DEFAULT_DIRECTORY}
+     * @param maxSize   the limit of the total size of cached contents in bytes
+     * @return the cache
+     */
+    public static UrlContentCache getInstance(Path directory, long maxSize) {
+        final Path key = (directory != null ? directory : DEFAULT_DIRECTORY).toAbsolutePath().normalize();
+
+        final UrlContentCache cache = INSTANCES.computeIfAbsent(key, dir -> new UrlContentCache(dir, maxSize));
+        synchronized (cache) {
+            if (cache.maxSize < maxSize) {
+                cache.maxSize = maxSize;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the directory under which the files are stored.
+     *
+     * @return the directory given to {@link #getInstance(Path, long)}
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getMemoryMaxSize() {
+        return memoryMaxSize;
+    }
+
+    /**
+     * Set the limit of the total size of contents held in memory.
+     *
+     * @param memoryMaxSize the limit in bytes
+     */
+    public void setMemoryMaxSize(long memoryMaxSize) {
+        this.memoryMaxSize = memoryMaxSize;
+    }
+
+    public long getMemoryEntryMaxSize() {
+        return memoryEntryMaxSize;
+    }
+
+    /**
+     * Set the largest size of a content which is held in memory instead of a file.
+     *
+     * @param memoryEntryMaxSize the size in bytes
+     */
+    public void setMemoryEntryMaxSize(long memoryEntryMaxSize) {
+        this.memoryEntryMaxSize = memoryEntryMaxSize;
+    }
+
+    /**
+     * Returns the total size of the cached contents.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return memorySize + diskSize;
+    }
+
+    /**
+     * Returns the length of the content if it is cached and not expired.
+     *
+     * @param url the URL of the content
+     * @return the length in bytes, or null if it is not cached or has expired
+     */
+    public Long getCachedLength(URL url) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(url.toString());
+        }
+        if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+            return entry.length;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Open the content of the URL, fetching it if it is not cached or has expired.
+     *
+     * @param url    the URL of the content
+     * @param ttl    the time to live of a fetched content in milliseconds
+     * @param offset the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when the content cannot be fetched
+     */
+    public InputStream open(URL url, long ttl, long offset) throws IOException {
+        return open(url, UpstreamFetcher.getDefault(), ttl, offset);
+    }
+
+    /**
+     * Open the content of the URL, fetching it through the fetcher if it is not cached or has expired.
+     *
+     * @param url     the URL of the content
+     * @param fetcher the fetcher which connects to the URL
+     * @param ttl     the time to live of a fetched content in milliseconds
+     * @param offset  the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when the content cannot be fetched
+     */
+    public InputStream open(URL url, UpstreamFetcher fetcher, long ttl, long offset) throws IOException {
+        final String key = url.toString();
+
+        final Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        Entry previous = cached;
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+            final InputStream inputStream = openCached(key, cached, offset);
+            if (inputStream != null) {
+                count("cache.url.hits");
+                return inputStream;
+            }
+            previous = null;
+        }
+
+        return fetchCollapsed(url, fetcher, key, previous, ttl, offset);
+    }
+
+    /**
+     * Fetch the content of the URL into the cache if it is not cached or has expired.
+     *
+     * @param url     the URL of the content
+     * @param fetcher the fetcher which connects to the URL
+     * @param ttl     the time to live of a fetched content in milliseconds
+     * @return the length of the content in bytes, even if it has not been kept in the cache
+     * @throws IOException when the content cannot be fetched
+     */
+    public long prefetch(URL url, UpstreamFetcher fetcher, long ttl) throws IOException {
+        try (InputStream inputStream = open(url, fetcher, ttl, 0)) {
+            if (inputStream instanceof EntryInputStream) {
+                return ((EntryInputStream) inputStream).length;
+            }
+            if (inputStream instanceof UncachedInputStream) {
+                // it is not stored even if it is read
+                return ((UncachedInputStream) inputStream).length;
+            }
+            // the content is stored while it is read
+            final byte[] buffer = new byte[SPOOL_CHUNK_SIZE];
+            long length = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                length += read;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Discard all cached contents.
+     */
+    public void clear() {
+        final List<Entry> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+            memorySize = 0;
+            diskSize = 0;
+        }
+        removed.forEach(Entry::discard);
+    }
+
+    private InputStream fetchCollapsed(URL url, UpstreamFetcher fetcher, String key, Entry previous,
+                                       long ttl, long offset)
+            throws IOException {
+        final CompletableFuture<Fetched> newFuture = new CompletableFuture<>();
+        final CompletableFuture<Fetched> future = inFlight.putIfAbsent(key, newFuture);
+
+        if (future != null) {
+            // another thread is fetching the same URL
+            count("cache.url.collapsed");
+            final Fetched fetched;
+            try {
+                fetched = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for " + url);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new IOException(e.getCause().getMessage(), e.getCause());
+                }
+                throw new IOException(e.getCause());
+            }
+
+            final InputStream inputStream = openCollapsed(url, fetcher, key, fetched, offset);
+            if (inputStream != null) {
+                return inputStream;
+            }
+            // the content has been evicted or discarded just now; open it again
+            return open(url, fetcher, ttl, offset);
+        }
+
+        count("cache.url.misses");
+        final Fetched fetched;
+        final InputStream inputStream;
+        try {
+            fetched = fetch(url, fetcher, previous, ttl);
+            inputStream = openFetched(url, fetcher, key, fetched, ttl, offset);
+        } catch (IOException | RuntimeException e) {
+            newFuture.completeExceptionally(e);
+            inFlight.remove(key, newFuture);
+            throw e;
+        }
+        newFuture.complete(fetched);
+        if (fetched.spool != null) {
+            // the later requests join the spool until it is put into the cache
+            fetched.spool.whenDone(() -> inFlight.remove(key, newFuture));
+        } else {
+            inFlight.remove(key, newFuture);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Open the content fetched by another thread.
+     *
+     * @return the stream, or null if the content has been evicted or discarded
+     */
+    private InputStream openCollapsed(URL url, UpstreamFetcher fetcher, String key, Fetched fetched, long offset)
+            throws IOException {
+        if (fetched.spool != null) {
+            return fetched.spool.open(offset);
+        }
+        if (fetched.uncached != null) {
+            // too large to be stored; the fetcher may still collapse the requests
+            return fetcher.open(url, offset);
+        }
+        return openCached(key, fetched.entry, offset);
+    }
+
+    /**
+     * Open the cached entry.
+     *
+     * @return the stream, or null if the file has been deleted by eviction or removed by something else
+     */
+    private InputStream openCached(String key, Entry entry, long offset) throws IOException {
+        try {
+            return entry.open(offset);
+        } catch (NoSuchFileException e) {
+            LOG.warn("the cached file has been removed, so it is fetched again: " + entry.file);
+            invalidate(key, entry);
+            return null;
+        }
+    }
+
+    /**
+     * Open the content returned by {@link #fetch(URL, UpstreamFetcher, Entry, long)},
+     * fetching it again if the file of the revalidated entry has been removed by something else.
+     */
+    private InputStream openFetched(URL url, UpstreamFetcher fetcher, String key, Fetched fetched, long ttl,
+                                    long offset)
+            throws IOException {
+        if (fetched.spool != null) {
+            // no other stream has opened it yet, so it has not been discarded
+            return fetched.spool.open(offset);
+        }
+        if (fetched.uncached != null) {
+            try {
+                StreamUtils.skip(fetched.uncached, offset);
+            } catch (IOException | RuntimeException e) {
+                fetched.uncached.close();
+                throw e;
+            }
+            return fetched.uncached;
+        }
+
+        final Entry entry = fetched.entry;
+        try {
+            return entry.openAcquired(offset);
+        } catch (NoSuchFileException e) {
+            LOG.warn("the cached file has been removed, so it is fetched again: " + entry.file);
+            invalidate(key, entry);
+            return openFetched(url, fetcher, key, fetch(url, fetcher, null, ttl), ttl, offset);
+        }
+    }
+
+    private void invalidate(String key, Entry entry) {
+        synchronized (this) {
+            if (!entries.remove(key, entry)) {
+                return;
+            }
+            removeSize(entry);
+        }
+        entry.discard();
+    }
+
+    /**
+     * Fetch the content.
+     *
+     * <p>
+     * A revalidated entry has been acquired for the caller, so it is not deleted before
+     * {@link Entry#openAcquired(long)} is called even if it is evicted.
+     * A new content is returned as a {@link Spool}, which puts it into the cache after it is read to the end,
+     * unless it is too large to be stored.
+     * </p>
+     */
+    private Fetched fetch(URL url, UpstreamFetcher fetcher, Entry previous, long ttl) throws IOException {
+        final UpstreamConnection upstream = fetcher.connect(url);
+        boolean handedOver = false;
+        try {
+            final URLConnection connection = upstream.getConnection();
+            HttpURLConnection httpConnection = null;
+            boolean notModified = false;
+
+            if (connection instanceof HttpURLConnection) {
+                httpConnection = (HttpURLConnection) connection;
+                if (previous != null && previous.eTag != null) {
+                    httpConnection.setRequestProperty("If-None-Match", previous.eTag);
+                }
+                if (previous != null && previous.lastModified != null) {
+                    httpConnection.setRequestProperty("If-Modified-Since", previous.lastModified);
+                }
+
+                final int responseCode;
+                try {
+                    responseCode = httpConnection.getResponseCode();
+                } catch (IOException e) {
+                    upstream.failed();
+                    return new Fetched(staleOrThrow(url, previous, e), null, null);
+                }
+                upstream.responded();
+
+                notModified = responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null;
+                if (notModified && previous.acquire()) {
+                    count("cache.url.revalidated");
+                    previous.expiresAt = expiresAt(ttl);
+                    LOG.debug("revalidated the cached content of " + url);
+                    return new Fetched(previous, null, null);
+                }
+                if (responseCode >= 500 && previous != null) {
+                    upstream.failed();
+                    URLUtils.closeErrorStream(httpConnection);
+                    return new Fetched(staleOrThrow(url, previous,
+                            new IOException("Server returned HTTP response code: " + responseCode
+                                    + " for URL: " + url)), null, null);
+                }
+            }
+
+            if (!notModified) {
+                final InputStream inputStream;
+                try {
+                    inputStream = connection.getInputStream();
+                    upstream.responded();
+                } catch (IOException | RuntimeException e) {
+                    upstream.failed();
+                    throw e;
+                }
+
+                final long contentLength = connection.getContentLengthLong();
+                final Fetched fetched;
+                try {
+                    if (contentLength > maxSize) {
+                        LOG.debug("the content of " + url + " (" + contentLength
+                                + " bytes) is larger than the cache, so it is not stored");
+                        if (previous != null) {
+                            // it has been replaced by the content which is not stored
+                            invalidate(url.toString(), previous);
+                        }
+                        fetched = new Fetched(null, null,
+                                new UncachedInputStream(upstream.wrap(inputStream), contentLength));
+                    } else {
+                        fetched = new Fetched(null, new Spool(url, upstream, inputStream, contentLength,
+                                httpConnection != null ? httpConnection.getHeaderField("ETag") : null,
+                                httpConnection != null ? httpConnection.getHeaderField("Last-Modified") : null,
+                                ttl), null);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    inputStream.close();
+                    throw e;
+                }
+                handedOver = true;
+                return fetched;
+            }
+        } finally {
+            if (!handedOver) {
+                upstream.close();
+            }
+        }
+
+        // the previous content has been evicted while revalidating; fetch it after releasing the connection
+        return fetch(url, fetcher, null, ttl);
+    }
+
+    private Entry staleOrThrow(URL url, Entry previous, IOException e) throws IOException {
+        if (previous == null || !previous.acquire()) {
+            throw e;
+        }
+        LOG.warn("failed to revalidate " + url + "; the stale cached content is used: " + e.getMessage());
+        return previous;
+    }
+
+    private void put(String key, Entry entry) {
+        final List<Entry> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            final Entry old = entries.put(key, entry);
+            if (old != null && old != entry) {
+                removeSize(old);
+                evicted.add(old);
+            }
+            if (old != entry) {
+                addSize(entry);
+            }
+
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext() && (memorySize > memoryMaxSize || memorySize + diskSize > maxSize)) {
+                final Entry candidate = iterator.next();
+                final boolean memoryOver = memorySize > memoryMaxSize && candidate.data != null;
+                if (memoryOver || memorySize + diskSize > maxSize) {
+                    iterator.remove();
+                    removeSize(candidate);
+                    evicted.add(candidate);
+                }
+            }
+        }
+
+        evicted.forEach(Entry::discard);
+    }
+
+    private void addSize(Entry entry) {
+        if (entry.data != null) {
+            memorySize += entry.length;
+        } else {
+            diskSize += entry.length;
+        }
+    }
+
+    private void removeSize(Entry entry) {
+        if (entry.data != null) {
+            memorySize -= entry.length;
+        } else {
+            diskSize -= entry.length;
+        }
+    }
+
+    /**
+     * Returns the subdirectory of this instance, creating it at the first call.
+     *
+     * <p>
+     * The lock file next to the subdirectory is created and locked before the subdirectory,
+     * so a subdirectory whose lock can be taken has been left by a process which has exited.
+     * </p>
+     */
+    private Path getInstanceDirectory() throws IOException {
+        synchronized (lockLock) {
+            if (instanceDirectory != null) {
+                return instanceDirectory;
+            }
+
+            Files.createDirectories(directory);
+            deleteLeftDirectories();
+
+            final Path lockFile = Files.createTempFile(directory, FILE_PREFIX, LOCK_SUFFIX);
+            final FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+            try {
+                final FileLock lock = channel.lock();
+                final Path newDirectory = Files.createDirectory(instanceDirectoryOf(lockFile));
+                instanceLock = lock;
+                instanceDirectory = newDirectory;
+                return newDirectory;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                Files.deleteIfExists(lockFile);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Delete the subdirectories whose lock is not held, that is, left by the processes which have exited.
+     */
+    private void deleteLeftDirectories() {
+        try (DirectoryStream<Path> lockFiles = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + LOCK_SUFFIX)) {
+            for (Path lockFile : lockFiles) {
+                final Path leftDirectory = instanceDirectoryOf(lockFile);
+                // a lock file without the subdirectory is being created
+                if (Files.isDirectory(leftDirectory, LinkOption.NOFOLLOW_LINKS)) {
+                    deleteIfLeft(lockFile, leftDirectory);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("failed to clean up the cache directory: " + directory, e);
+        }
+    }
+
+    private static void deleteIfLeft(Path lockFile, Path leftDirectory) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(leftDirectory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(leftDirectory);
+            lock.release();
+        } catch (NoSuchFileException | OverlappingFileLockException e) {
+            // deleted by another process, or used by another instance in this process
+            return;
+        }
+        Files.deleteIfExists(lockFile);
+    }
+
+    private static Path instanceDirectoryOf(Path lockFile) {
+        final String name = lockFile.getFileName().toString();
+        return lockFile.resolveSibling(name.substring(0, name.length() - LOCK_SUFFIX.length()));
+    }
+
+    private static void count(String name) {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        if (metrics.isEnabled()) {
+            metrics.counter(name).increment();
+        }
+    }
+
+    private static long expiresAt(long ttl) {
+        return ttl < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttl;
+    }
+
+    /**
+     * A cached content; held in either {@link #data} or {@link #file}.
+     *
+     * <p>
+     * A file is deleted when the entry is discarded and no stream reads it.
+     * </p>
+     */
+    private static class Entry {
+        private final byte[] data;
+        private final Path file;
+        private final long length;
+        private final String eTag;
+        private final String lastModified;
+        private volatile long expiresAt;
+
+        // guarded by this
+        private int references = 0;
+        private boolean discarded = false;
+        private boolean deleted = false;
+
+        private Entry(byte[] data, Path file, String eTag, String lastModified, long expiresAt) throws IOException {
+            this.data = data;
+            this.file = file;
+            this.length = data != null ? data.length : Files.size(file);
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        /**
+         * Open the content.
+         *
+         * @param offset the number of bytes of where to start reading
+         * @return the stream, or null if the file has been already deleted
+         * @throws NoSuchFileException if the file has been removed by something else
+         * @throws IOException when some IO error occurred
+         */
+        private InputStream open(long offset) throws IOException {
+            if (!acquire()) {
+                return null;
+            }
+            return openAcquired(offset);
+        }
+
+        /**
+         * Open the content which has been acquired by {@link #acquire()}.
+         * The acquisition is released when the returned stream is closed.
+         *
+         * @param offset the number of bytes of where to start reading
+         * @return the stream
+         * @throws NoSuchFileException if the file has been removed by something else
+         * @throws IOException when some IO error occurred
+         */
+        private InputStream openAcquired(long offset) throws IOException {
+            if (data != null) {
+                // the array is never deleted, so it need not be held while reading
+                release();
+                final InputStream inputStream = new ByteArrayInputStream(data);
+                StreamUtils.skip(inputStream, offset);
+                return new EntryInputStream(inputStream, length, null);
+            }
+
+            final FileChannel channel;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+                channel.position(offset);
+            } catch (IOException | RuntimeException e) {
+                release();
+                throw e;
+            }
+            return new EntryInputStream(Channels.newInputStream(channel), length, this);
+        }
+
+        private synchronized boolean acquire() {
+            if (deleted) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+
+        private synchronized void release() {
+            references--;
+            deleteIfUnused();
+        }
+
+        private synchronized void discard() {
+            discarded = true;
+            deleteIfUnused();
+        }
+
+        private void deleteIfUnused() {
+            if (!discarded || references > 0 || deleted) {
+                return;
+            }
+            deleted = true;
+
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOG.warn("failed to delete a cached file: " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The stream of a cached content, which releases the entry when it is closed.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+        private final long length;
+        private final Entry acquired;
+        private boolean closed = false;
+
+        /**
+         * @param inputStream the stream of the content
+         * @param length      the length of the whole content
+         * @param acquired    the entry to release on close, or null
+         */
+        private EntryInputStream(InputStream inputStream, long length, Entry acquired) {
+            super(inputStream);
+            this.length = length;
+            this.acquired = acquired;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    if (acquired != null) {
+                        acquired.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The result of {@link #fetch(URL, UpstreamFetcher, Entry, long)}; one of the fields is set.
+     */
+    private static class Fetched {
+        /**
+         * The revalidated (or stale) entry, acquired for the caller.
+         */
+        private final Entry entry;
+
+        /**
+         * The new content being stored.
+         */
+        private final Spool spool;
+
+        /**
+         * The new content which is too large to be stored, only for the caller.
+         */
+        private final InputStream uncached;
+
+        private Fetched(Entry entry, Spool spool, InputStream uncached) {
+            this.entry = entry;
+            this.spool = spool;
+            this.uncached = uncached;
+        }
+    }
+
+    /**
+     * A new content which is written to a file (or memory, if its length is known to be small) while it is read.
+     *
+     * <p>
+     * Whichever stream reaches the end of the written bytes reads the next chunk from upstream and writes it,
+     * so the upstream is read as fast as the fastest stream.
+     * When the upstream reaches its end, the content is put into the cache,
+     * and the file is handed over to the entry after the streams of this are closed.
+     * If all the streams are closed before the end, or the upstream fails, the file is deleted.
+     * </p>
+     */
+    private class Spool {
+        private final URL url;
+        private final UpstreamConnection upstream;
+        private final InputStream upstreamStream;
+        private final String eTag;
+        private final String lastModified;
+        private final long ttl;
+        private final long memoryEntryMaxSize;
+        private final Path file;
+        private final FileChannel channel;
+
+        /**
+         * The buffer to read upstream; used by the stream which is pulling.
+         */
+        private final byte[] pullBuffer = new byte[SPOOL_CHUNK_SIZE];
+
+        // guarded by this
+        private byte[] data;
+        private long written = 0;
+        private int readers = 0;
+        private boolean pulling = false;
+        private boolean finished = false;
+        private IOException failure = null;
+        private boolean released = false;
+        private Entry stored = null;
+        private final List<Runnable> doneListeners = new ArrayList<>();
+        private boolean done = false;
+
+        private Spool(URL url, UpstreamConnection upstream, InputStream upstreamStream, long contentLength,
+                      String eTag, String lastModified, long ttl) throws IOException {
+            this.url = url;
+            this.upstream = upstream;
+            this.upstreamStream = upstreamStream;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.ttl = ttl;
+            this.memoryEntryMaxSize = UrlContentCache.this.memoryEntryMaxSize;
+
+            if (contentLength >= 0 && contentLength <= memoryEntryMaxSize) {
+                this.data = new byte[(int) contentLength];
+                this.file = null;
+                this.channel = null;
+            } else {
+                this.data = null;
+                this.file = getInstanceDirectory().resolve(FILE_PREFIX + Integer.toHexString(url.toString().hashCode())
+                        + "-" + fileSequence.incrementAndGet() + FILE_SUFFIX);
+                this.channel = FileChannel.open(file,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        }
+
+        /**
+         * Open a stream of the content.
+         *
+         * @param offset the number of bytes of where to start reading
+         * @return the stream, or null if this has been discarded or all of its streams have been closed
+         * @throws IOException if the upstream has failed
+         */
+        private synchronized InputStream open(long offset) throws IOException {
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            if (released) {
+                return null;
+            }
+            readers++;
+            return new SpoolInputStream(this, offset);
+        }
+
+        /**
+         * Run the listener when the upstream has been read to the end, has failed, or has been abandoned.
+         */
+        private void whenDone(Runnable listener) {
+            synchronized (this) {
+                if (!done) {
+                    doneListeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /**
+         * Read the content into the buffer, pulling it from upstream if the stream has reached the written bytes.
+         */
+        private int read(SpoolInputStream stream, byte[] b, int off, int len) throws IOException {
+            while (true) {
+                final long available;
+                synchronized (this) {
+                    available = written - stream.position;
+                    if (available > 0 && data != null) {
+                        final int length = (int) Math.min(len, available);
+                        System.arraycopy(data, (int) stream.position, b, off, length);
+                        stream.position += length;
+                        return length;
+                    }
+                    if (available <= 0) {
+                        if (finished) {
+                            return -1;
+                        }
+                        if (failure != null) {
+                            throw new IOException(failure.getMessage(), failure);
+                        }
+                        if (pulling) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("interrupted while waiting for " + url);
+                            }
+                            continue;
+                        }
+                        pulling = true;
+                    }
+                }
+
+                if (available > 0) {
+                    // the bytes before the written position are not changed, so they are read without the lock
+                    final ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, available));
+                    while (buffer.hasRemaining()) {
+                        channel.read(buffer, stream.position + buffer.position() - off);
+                    }
+                    final int length = buffer.position() - off;
+                    stream.position += length;
+                    return length;
+                }
+                pull();
+            }
+        }
+
+        /**
+         * Read the next chunk from upstream and write it. It is called by the stream which has set {@link #pulling}.
+         */
+        private void pull() throws IOException {
+            final int length;
+            try {
+                length = upstreamStream.read(pullBuffer);
+                if (length > 0 && channel != null) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(pullBuffer, 0, length);
+                    final long position;
+                    synchronized (this) {
+                        position = written;
+                    }
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, position + buffer.position());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                upstream.failed();
+                closeUpstream();
+                synchronized (this) {
+                    pulling = false;
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    notifyAll();
+                }
+                LOG.debug("failed to fetch " + url + " into the cache: " + e.getMessage());
+                done();
+                throw e;
+            }
+
+            if (length < 0) {
+                closeUpstream();
+                final Entry entry = store();
+                synchronized (this) {
+                    stored = entry;
+                    pulling = false;
+                    finished = true;
+                    notifyAll();
+                }
+                done();
+                return;
+            }
+
+            synchronized (this) {
+                if (data != null) {
+                    if (written + length > data.length) {
+                        // longer than the "Content-Length"
+                        data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, (written + length) * 2));
+                    }
+                    System.arraycopy(pullBuffer, 0, data, (int) written, length);
+                }
+                written += length;
+                pulling = false;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Put the content read to the end into the cache.
+         *
+         * @return the entry which holds the file of this, to be released when the streams are closed, or null
+         */
+        private Entry store() {
+            final long length;
+            synchronized (this) {
+                length = written;
+            }
+            try {
+                if (length > maxSize) {
+                    LOG.debug("the content of " + url + " (" + length
+                            + " bytes) is larger than the cache, so it is not stored");
+                    return null;
+                }
+
+                final Entry entry;
+                Entry held = null;
+                if (data != null) {
+                    entry = new Entry(Arrays.copyOf(data, (int) length), null, eTag, lastModified, expiresAt(ttl));
+                } else if (length <= memoryEntryMaxSize) {
+                    // the length was unknown before reading
+                    final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+                        // read until the buffer is filled
+                    }
+                    entry = new Entry(buffer.array(), null, eTag, lastModified, expiresAt(ttl));
+                } else {
+                    entry = new Entry(null, file, eTag, lastModified, expiresAt(ttl));
+                    entry.acquire();
+                    held = entry;
+                }
+                LOG.debug("fetched " + url + " into the cache (" + length + " bytes)");
+                put(url.toString(), entry);
+                return held;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("failed to store the content of " + url + " into the cache", e);
+                return null;
+            }
+        }
+
+        /**
+         * Called when a stream of this is closed.
+         */
+        private void closeStream() {
+            final boolean abandoned;
+            final Entry entry;
+            synchronized (this) {
+                readers--;
+                if (readers > 0 || released) {
+                    return;
+                }
+                released = true;
+                abandoned = !finished && failure == null;
+                entry = stored;
+            }
+
+            if (abandoned) {
+                LOG.debug("the fetch of " + url + " has been abandoned before the end, so it is not stored");
+                closeUpstream();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.warn("failed to close a spooled file: " + file, e);
+                }
+            }
+            if (entry != null) {
+                // the entry deletes the file when it is discarded
+                entry.release();
+            } else if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOG.warn("failed to delete a spooled file: " + file, e);
+                }
+            }
+            if (abandoned) {
+                done();
+            }
+        }
+
+        private void closeUpstream() {
+            try {
+                upstreamStream.close();
+            } catch (IOException e) {
+                LOG.debug("failed to close the connection to " + url, e);
+            } finally {
+                upstream.close();
+            }
+        }
+
+        private void done() {
+            final List<Runnable> listeners;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                listeners = new ArrayList<>(doneListeners);
+                doneListeners.clear();
+            }
+            listeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * A stream of {@link Spool}.
+     */
+    private static class SpoolInputStream extends InputStream {
+        private final Spool spool;
+
+        /**
+         * The position in the content; read and written by the thread reading this stream.
+         */
+        private long position;
+        private boolean closed = false;
+
+        private SpoolInputStream(Spool spool, long offset) {
+            this.spool = spool;
+            this.position = offset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int length = read(b, 0, 1);
+            return length < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            return spool.read(this, b, off, len);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                spool.closeStream();
+            }
+        }
+    }
+
+    /**
+     * The stream of a content which is not stored because it is larger than the cache.
+     */
+    private static class UncachedInputStream extends FilterInputStream {
+        private final long length;
+
+        private UncachedInputStream(InputStream inputStream, long length) {
+            super(inputStream);
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The settings of reading ahead the content of a URL, which decouples the upstream from the client.
+ *
+ * <p>
+ * A stream opened by {@link #open(UpstreamFetcher, URL, long)} reads the upstream in a background thread
+ * into a ring of at most {@link #getDepth()} buffers, while the client drains them.
+ * A stall of the upstream does not stall the client until the ring is empty,
+ * and a slow client does not slow the upstream until the ring is full.
+ * When the ring is full, the upstream waits for the client ({@link Backpressure#BLOCK}),
+ * or it is closed after {@link #getReleaseDelay()} to give the connection back and reopened with a range request
+ * when the client catches up ({@link Backpressure#RELEASE}).
+ * </p>
+ *
+ * <p>
+ * The buffers are pooled by their size and reused by the following transfers.
+ * </p>
+ */
+public class ReadAhead {
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_RELEASE_DELAY = 1000L;
+
+    /**
+     * The maximum bytes of the idle buffers pooled for each size.
+     */
+    private static final long MAX_POOLED_BYTES = 16L * 1024 * 1024;
+
+    private static final Map<Integer, BlockingQueue<byte[]>> POOLS = new ConcurrentHashMap<>();
+
+    private final int depth;
+    private final int bufferSize;
+    private final Backpressure backpressure;
+    private volatile long releaseDelay = DEFAULT_RELEASE_DELAY;
+
+    public ReadAhead() {
+        this(DEFAULT_DEPTH, DEFAULT_BUFFER_SIZE, Backpressure.BLOCK);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param depth        the maximum number of buffers read ahead
+     * @param bufferSize   the size of each buffer in bytes
+     * @param backpressure what to do with the upstream when the ring is full
+     */
+    public ReadAhead(int depth, int bufferSize, Backpressure backpressure) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive: " + depth);
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.depth = depth;
+        this.bufferSize = bufferSize;
+        this.backpressure = backpressure;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public long getReleaseDelay() {
+        return releaseDelay;
+    }
+
+    /**
+     * Set the time for which the upstream waits for the client before it is closed by {@link Backpressure#RELEASE}.
+     *
+     * @param releaseDelay the time in milliseconds
+     */
+    public void setReleaseDelay(long releaseDelay) {
+        this.releaseDelay = releaseDelay;
+    }
+
+    /**
+     * Open the content of the URL through the fetcher and read it ahead.
+     *
+     * <p>
+     * The upstream request is made before this method returns, so an error of the request is thrown from it.
+     * An error while reading is thrown when the client reaches it.
+     * </p>
+     *
+     * @param fetcher the fetcher of the content
+     * @param url     the URL of the content
+     * @param offset  the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when the content cannot be opened
+     */
+    public InputStream open(UpstreamFetcher fetcher, URL url, long offset) throws IOException {
+        return new ReadAheadInputStream(this, fetcher, url, offset, fetcher.open(url, offset));
+    }
+
+    byte[] acquireBuffer() {
+        final BlockingQueue<byte[]> pool = POOLS.get(bufferSize);
+        final byte[] buffer = pool != null ? pool.poll() : null;
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    void releaseBuffer(byte[] buffer) {
+        POOLS.computeIfAbsent(buffer.length,
+                size -> new ArrayBlockingQueue<>((int) Math.max(1, MAX_POOLED_BYTES / size))).offer(buffer);
+    }
+
+    @Override
+    public String toString() {
+        return "read-ahead(" + depth + " x " + bufferSize + ", " + backpressure + ")";
+    }
+
+    /**
+     * What to do with the upstream when the client is so slow that the ring is full.
+     */
+    public enum Backpressure {
+        /**
+         * Stop reading the upstream until the client frees a buffer, keeping the connection.
+         */
+        BLOCK,
+
+        /**
+         * Close the upstream if the client frees no buffer for a while,
+         * and reopen it from the offset to continue when the client frees a buffer.
+         */
+        RELEASE;
+
+        /**
+         * Returns the value of the name written in a configuration, such as "block".
+         *
+         * @param name the name, case-insensitive
+         * @return the value
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Backpressure parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown backpressure of read-ahead: " + name, e);
+            }
+        }
+    }
+}
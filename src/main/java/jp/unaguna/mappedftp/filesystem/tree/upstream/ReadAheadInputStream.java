@@ -0,0 +1,289 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stream which reads the upstream ahead in a background thread, as configured by {@link ReadAhead}.
+ *
+ * <p>
+ * The fetching thread puts the filled buffers into the ring and the client takes them out.
+ * While the ring is not empty, the fetching thread fills a buffer fully before it puts it,
+ * so that small reads of the upstream do not take a buffer each.
+ * </p>
+ *
+ * <p>
+ * If {@link MetricRegistry#getDefault() the default registry} is enabled, the times the ring has been full
+ * are recorded as {@code upstream.readahead.stalls{host}}, and the upstream connections closed by
+ * {@link ReadAhead.Backpressure#RELEASE} as {@code upstream.readahead.releases{host}}.
+ * </p>
+ */
+class ReadAheadInputStream extends InputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(ReadAheadInputStream.class.getName());
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "url-read-ahead-" + THREAD_NUMBER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The chunk put after the last one.
+     */
+    private static final Chunk END = new Chunk(null, 0, null);
+
+    private final ReadAhead settings;
+    private final UpstreamFetcher fetcher;
+    private final URL url;
+    private final BlockingQueue<Chunk> ring;
+    private final Future<?> task;
+    private volatile boolean closed = false;
+
+    // read only by the fetching thread
+    private boolean upstreamEnded = false;
+
+    // read only by the client
+    private Chunk current = null;
+    private int position = 0;
+    private boolean finished = false;
+    private IOException failure = null;
+
+    ReadAheadInputStream(ReadAhead settings, UpstreamFetcher fetcher, URL url, long offset, InputStream upstream) {
+        this.settings = settings;
+        this.fetcher = fetcher;
+        this.url = url;
+        this.ring = new ArrayBlockingQueue<>(settings.getDepth());
+        this.task = EXECUTOR.submit(() -> fetch(upstream, offset));
+    }
+
+    /**
+     * Read the upstream into the ring until the end. It runs in the fetching thread.
+     */
+    private void fetch(InputStream firstUpstream, long offset) {
+        InputStream upstream = firstUpstream;
+        long fetched = offset;
+        try {
+            while (!closed) {
+                if (upstream == null) {
+                    upstream = fetcher.openDirect(url, fetched);
+                }
+
+                final byte[] buffer = settings.acquireBuffer();
+                final int length;
+                try {
+                    length = fill(upstream, buffer);
+                } catch (IOException | RuntimeException e) {
+                    settings.releaseBuffer(buffer);
+                    throw e;
+                }
+                if (length < 0) {
+                    settings.releaseBuffer(buffer);
+                    break;
+                }
+                fetched += length;
+
+                final Chunk chunk = new Chunk(buffer, length, null);
+                if (ring.offer(chunk)) {
+                    continue;
+                }
+
+                // the client is slower than the upstream
+                final MetricRegistry metrics = MetricRegistry.getDefault();
+                if (metrics.isEnabled()) {
+                    metrics.counter("upstream.readahead.stalls", "host", UpstreamFetcher.hostKey(url)).increment();
+                }
+                if (settings.getBackpressure() == ReadAhead.Backpressure.RELEASE
+                        && !ring.offer(chunk, settings.getReleaseDelay(), TimeUnit.MILLISECONDS)) {
+                    upstream.close();
+                    upstream = null;
+                    if (metrics.isEnabled()) {
+                        metrics.counter("upstream.readahead.releases", "host", UpstreamFetcher.hostKey(url)).increment();
+                    }
+                    ring.put(chunk);
+                } else if (settings.getBackpressure() == ReadAhead.Backpressure.BLOCK) {
+                    ring.put(chunk);
+                }
+            }
+            ring.put(END);
+
+        } catch (IOException | RuntimeException e) {
+            try {
+                ring.put(new Chunk(null, 0, e instanceof IOException ? (IOException) e : new IOException(e)));
+            } catch (InterruptedException ignored) {
+                // closed by the client
+            }
+        } catch (InterruptedException e) {
+            // closed by the client
+        } finally {
+            if (upstream != null) {
+                try {
+                    upstream.close();
+                } catch (IOException e) {
+                    LOG.debug("failed to close the upstream of " + url, e);
+                }
+            }
+            if (closed) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Read the upstream into the buffer; it continues to fill the buffer while the client has chunks to read.
+     *
+     * @return the number of bytes read, or -1 at the end of the upstream
+     */
+    private int fill(InputStream upstream, byte[] buffer) throws IOException {
+        // some streams, such as of HttpURLConnection, cannot be read again after the end
+        if (upstreamEnded) {
+            return -1;
+        }
+        int length = upstream.read(buffer, 0, buffer.length);
+        if (length < 0) {
+            upstreamEnded = true;
+            return -1;
+        }
+        while (length < buffer.length && !ring.isEmpty() && !closed) {
+            final int read = upstream.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                upstreamEnded = true;
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the chunk to read, taking the next one if the current one has been read.
+     *
+     * @return the chunk, or null at the end
+     */
+    private Chunk next() throws IOException {
+        if (current != null && position < current.length) {
+            return current;
+        }
+        if (current != null) {
+            settings.releaseBuffer(current.buffer);
+            current = null;
+        }
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+        if (finished) {
+            return null;
+        }
+
+        final Chunk chunk;
+        try {
+            chunk = ring.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading " + url);
+        }
+        if (chunk == END) {
+            finished = true;
+            return null;
+        }
+        if (chunk.failure != null) {
+            failure = chunk.failure;
+            throw new IOException(failure.getMessage(), failure);
+        }
+        current = chunk;
+        position = 0;
+        return chunk;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        final Chunk chunk = next();
+        if (chunk == null) {
+            return -1;
+        }
+        return chunk.buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        final Chunk chunk = next();
+        if (chunk == null) {
+            return -1;
+        }
+        final int length = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.buffer, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return current != null ? current.length - position : 0;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // wake the fetching thread waiting for a free buffer; a blocking read of the upstream ends by its timeout
+        task.cancel(true);
+
+        if (current != null) {
+            settings.releaseBuffer(current.buffer);
+            current = null;
+        }
+        drain();
+    }
+
+    private void drain() {
+        Chunk chunk;
+        while ((chunk = ring.poll()) != null) {
+            if (chunk.buffer != null) {
+                settings.releaseBuffer(chunk.buffer);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] buffer;
+        private final int length;
+        private final IOException failure;
+
+        private Chunk(byte[] buffer, int length, IOException failure) {
+            this.buffer = buffer;
+            this.length = length;
+            this.failure = failure;
+        }
+    }
+}
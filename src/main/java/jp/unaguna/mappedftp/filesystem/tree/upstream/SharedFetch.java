@@ -0,0 +1,315 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An upstream request whose content is read by multiple streams.
+ *
+ * <p>
+ * The content read from upstream is appended to a linked list of chunks, and each stream follows the list.
+ * Whichever stream reaches the end of the list reads the next chunk from upstream,
+ * so the upstream is read as fast as the fastest stream.
+ * The chunks which all of the streams have passed are left to the garbage collector.
+ * </p>
+ */
+class SharedFetch {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedFetch.class.getName());
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final UpstreamFetcher fetcher;
+    private final URL url;
+    private final String key;
+
+    /**
+     * The stream of the upstream response; set once by {@link #start()} and read by one thread at a time.
+     */
+    private volatile InputStream upstreamStream = null;
+
+    // guarded by this
+    private Chunk head = new Chunk(new byte[0], 0);
+    private Chunk tail = head;
+    private long fetched = 0;
+    private boolean joinable = true;
+    private boolean busy = true;
+    private boolean finished = false;
+    private IOException failure = null;
+    private UpstreamConnection upstream = null;
+    private final List<Reader> readers = new ArrayList<>();
+
+    SharedFetch(UpstreamFetcher fetcher, URL url, String key) {
+        this.fetcher = fetcher;
+        this.url = url;
+        this.key = key;
+    }
+
+    /**
+     * Open a stream which reads the content from the beginning.
+     *
+     * @return the stream, or null if this does not accept any more streams
+     */
+    synchronized InputStream join() {
+        if (!joinable) {
+            return null;
+        }
+        final Reader reader = new Reader(head);
+        readers.add(reader);
+        return reader;
+    }
+
+    /**
+     * Connect to upstream. It is called once by the thread which has created this.
+     */
+    void start() throws IOException {
+        UpstreamConnection connection = null;
+        try {
+            connection = fetcher.connect(url);
+            final InputStream inputStream = connection.getConnection().getInputStream();
+            connection.responded();
+            synchronized (this) {
+                upstream = connection;
+                upstreamStream = inputStream;
+                busy = false;
+                notifyAll();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.failed();
+                connection.close();
+            }
+            synchronized (this) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                busy = false;
+                stopJoining();
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Read the next chunk from upstream. The caller must have set {@link #busy}.
+     */
+    private void pull() {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        int length;
+        IOException error = null;
+        try {
+            length = upstreamStream.read(buffer);
+        } catch (IOException e) {
+            error = e;
+            length = -1;
+        }
+
+        final UpstreamConnection connectionToClose;
+        synchronized (this) {
+            busy = false;
+            if (error != null) {
+                LOG.debug("failed to read " + url + ": " + error);
+                failure = error;
+                stopJoining();
+                connectionToClose = takeUpstream();
+                if (connectionToClose != null) {
+                    connectionToClose.failed();
+                }
+            } else if (length < 0) {
+                finished = true;
+                stopJoining();
+                connectionToClose = takeUpstream();
+            } else {
+                final Chunk chunk = new Chunk(length < buffer.length / 2 ? Arrays.copyOf(buffer, length) : buffer,
+                        length);
+                tail.next = chunk;
+                tail = chunk;
+                // the streams waiting for this chunk are at the previous end
+                detachLaggards(fetched);
+                fetched += length;
+                if (fetched > fetcher.getJoinWindow()) {
+                    stopJoining();
+                }
+                connectionToClose = null;
+            }
+            notifyAll();
+        }
+        closeUpstream(connectionToClose);
+    }
+
+    /**
+     * Stop accepting new streams; the beginning of the content is no longer held for them.
+     */
+    private void stopJoining() {
+        if (joinable) {
+            joinable = false;
+            head = null;
+            fetcher.inFlight.remove(key, this);
+        }
+    }
+
+    /**
+     * Let the streams which are too far behind read by their own upstream requests.
+     *
+     * @param front the position of the fastest streams
+     */
+    private void detachLaggards(long front) {
+        final long maxLag = fetcher.getMaxLag();
+        final Iterator<Reader> iterator = readers.iterator();
+        while (iterator.hasNext()) {
+            final Reader reader = iterator.next();
+            if (front - reader.position > maxLag) {
+                LOG.debug("a stream of " + url + " is " + (front - reader.position)
+                        + " bytes behind; it reads by its own request");
+                reader.detached = true;
+                reader.current = null;
+                iterator.remove();
+            }
+        }
+    }
+
+    private UpstreamConnection takeUpstream() {
+        final UpstreamConnection connection = upstream;
+        upstream = null;
+        return connection;
+    }
+
+    private void closeUpstream(UpstreamConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            upstreamStream.close();
+        } catch (IOException e) {
+            LOG.debug("failed to close the connection to " + url, e);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+        private final int length;
+        private Chunk next = null;
+
+        private Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A stream of the shared content; its fields are guarded by the {@link SharedFetch}.
+     */
+    private class Reader extends InputStream {
+        private Chunk current;
+        private int offsetInChunk = 0;
+        private long position = 0;
+        private boolean detached = false;
+        private boolean closed = false;
+
+        /**
+         * The stream of its own upstream request after it is detached; only used by the reading thread.
+         */
+        private InputStream own = null;
+
+        private Reader(Chunk start) {
+            this.current = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int length = read(b, 0, 1);
+            return length < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (own != null) {
+                return own.read(b, off, len);
+            }
+
+            while (true) {
+                final long reopenAt;
+                synchronized (SharedFetch.this) {
+                    if (closed) {
+                        throw new IOException("Stream closed");
+                    }
+                    if (detached) {
+                        reopenAt = position;
+                    } else {
+                        while (offsetInChunk >= current.length && current.next != null) {
+                            current = current.next;
+                            offsetInChunk = 0;
+                        }
+                        if (offsetInChunk < current.length) {
+                            final int length = Math.min(len, current.length - offsetInChunk);
+                            System.arraycopy(current.data, offsetInChunk, b, off, length);
+                            offsetInChunk += length;
+                            position += length;
+                            return length;
+                        }
+                        if (failure != null) {
+                            throw new IOException(failure.getMessage(), failure);
+                        }
+                        if (finished) {
+                            return -1;
+                        }
+                        if (busy) {
+                            try {
+                                SharedFetch.this.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("interrupted while waiting for " + url);
+                            }
+                            continue;
+                        }
+                        busy = true;
+                        reopenAt = -1;
+                    }
+                }
+
+                if (reopenAt >= 0) {
+                    own = fetcher.openDirect(url, reopenAt);
+                    return own.read(b, off, len);
+                }
+                pull();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UpstreamConnection connectionToClose = null;
+            synchronized (SharedFetch.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                current = null;
+                if (readers.remove(this) && readers.isEmpty() && !finished && failure == null) {
+                    // nobody reads the rest
+                    failure = new IOException("the upstream request has been aborted: " + url);
+                    stopJoining();
+                    connectionToClose = takeUpstream();
+                }
+            }
+            closeUpstream(connectionToClose);
+            if (own != null) {
+                own.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection to an upstream server which holds one of the connections allowed for the host.
+ *
+ * <p>
+ * Closing it gives the allowance back; it does not disconnect the connection,
+ * so that the underlying socket can be reused by the keep-alive of {@link java.net.HttpURLConnection}
+ * if the response has been read to the end.
+ * </p>
+ *
+ * <p>
+ * The users report the outcome by {@link #responded()} and {@link #failed()},
+ * which are recorded into {@link MetricRegistry#getDefault() the default registry}
+ * as {@code upstream.latency.micros{host}} and {@code upstream.errors{host}} if it is enabled.
+ * </p>
+ *
+ * @see UpstreamFetcher#connect(java.net.URL)
+ */
+public class UpstreamConnection implements Closeable {
+    private final URLConnection connection;
+    private final Semaphore permits;
+    private final String host;
+    private final long startNanos;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+
+    UpstreamConnection(URLConnection connection, Semaphore permits, String host) {
+        this.connection = connection;
+        this.permits = permits;
+        this.host = host;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the connection, whose timeouts have been set but which has not been connected yet.
+     *
+     * @return the connection
+     */
+    public URLConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Wrap a stream of this connection so that this connection is closed with the stream.
+     *
+     * @param inputStream the stream read from this connection
+     * @return the wrapped stream
+     */
+    public InputStream wrap(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    UpstreamConnection.this.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Record that the response has been received; the time since this connection was opened is the latency.
+     * Only the first call is recorded.
+     */
+    public void responded() {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        if (metrics.isEnabled() && responded.compareAndSet(false, true)) {
+            metrics.histogram("upstream.latency.micros", "host", host).recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Record that the request has failed, before or after the response.
+     * Only the first call is recorded.
+     */
+    public void failed() {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        if (metrics.isEnabled() && failed.compareAndSet(false, true)) {
+            metrics.counter("upstream.errors", "host", host).increment();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.utils.StreamUtils;
+import jp.unaguna.mappedftp.utils.URLUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches contents from upstream servers with limited connections.
+ *
+ * <ul>
+ *     <li>At most {@link #getMaxConnectionsPerHost()} connections are opened to each host at the same time.
+ *     A connection is held until its content is read, that is, during the whole download of a client.
+ *     A request waits for a free connection up to {@link #getAcquireTimeout()}, which is unlimited by default,
+ *     so that the downloads beyond the limit are queued instead of failing.</li>
+ *     <li>Connecting and reading time out after {@link #getConnectTimeout()} and {@link #getReadTimeout()},
+ *     so a slow upstream does not hold the threads of the FTP server forever.</li>
+ *     <li>Concurrent requests for the whole content of the same URL are collapsed into a single upstream request,
+ *     whose content is shared by all of the requesters.
+ *     A request joins the running one only while it has read less than {@link #getJoinWindow()} bytes,
+ *     and a requester reading more than {@link #getMaxLag()} bytes behind the others falls back to
+ *     its own upstream request, so that the shared content held in memory is bounded.</li>
+ * </ul>
+ *
+ * <p>
+ * Connections of HTTP(S) are reused by the keep-alive of {@link HttpURLConnection}
+ * when their responses are read to the end; the number of idle connections kept for reuse
+ * is set by the system property "http.maxConnections".
+ * </p>
+ *
+ * <p>
+ * If {@link MetricRegistry#getDefault() the default registry} is enabled, the requests are recorded into it:
+ * {@code upstream.requests{host}}, {@code upstream.wait.micros{host}} for the time to wait for a free connection,
+ * {@code upstream.collapsed{host}} for the requests which have joined a running one,
+ * and the latencies and errors reported through {@link UpstreamConnection}.
+ * </p>
+ */
+public class UpstreamFetcher {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final int DEFAULT_ACQUIRE_TIMEOUT = 0;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT = 30_000;
+    public static final long DEFAULT_JOIN_WINDOW = 1024L * 1024;
+    public static final long DEFAULT_MAX_LAG = 16L * 1024 * 1024;
+
+    private static final UpstreamFetcher DEFAULT_INSTANCE = new UpstreamFetcher();
+
+    private final int maxConnectionsPerHost;
+    private volatile int acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile long joinWindow = DEFAULT_JOIN_WINDOW;
+    private volatile long maxLag = DEFAULT_MAX_LAG;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    final Map<String, SharedFetch> inFlight = new ConcurrentHashMap<>();
+
+    public UpstreamFetcher() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxConnectionsPerHost the maximum number of connections opened to each host at the same time
+     */
+    public UpstreamFetcher(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be positive: " + maxConnectionsPerHost);
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Returns the fetcher shared by the items which are not given their own.
+     *
+     * @return the default fetcher
+     */
+    public static UpstreamFetcher getDefault() {
+        return DEFAULT_INSTANCE;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    /**
+     * Set the time to wait for a free connection to the host.
+     *
+     * @param acquireTimeout the timeout in milliseconds; zero means infinite
+     */
+    public void setAcquireTimeout(int acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Set the time to wait for connecting.
+     *
+     * @param connectTimeout the timeout in milliseconds; zero means infinite
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Set the time to wait for each read from upstream.
+     *
+     * @param readTimeout the timeout in milliseconds; zero means infinite
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getJoinWindow() {
+        return joinWindow;
+    }
+
+    /**
+     * Set how far a collapsed request can have read when another request joins it.
+     *
+     * @param joinWindow the number of bytes; zero means that only the requests made before any byte is read join
+     */
+    public void setJoinWindow(long joinWindow) {
+        this.joinWindow = joinWindow;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * Set how far a requester of a collapsed request may fall behind the fastest one.
+     *
+     * @param maxLag the number of bytes
+     */
+    public void setMaxLag(long maxLag) {
+        this.maxLag = maxLag;
+    }
+
+    /**
+     * Returns the number of connections opened to the host of the URL.
+     *
+     * @param url a URL of the host
+     * @return the number of connections in use
+     */
+    public int getConnectionCount(URL url) {
+        final Semaphore permits = hostPermits.get(hostKey(url));
+        return permits != null ? maxConnectionsPerHost - permits.availablePermits() : 0;
+    }
+
+    /**
+     * Open a connection to the URL, waiting for a free connection to the host.
+     *
+     * <p>
+     * The returned connection must be closed to give the connection back.
+     * </p>
+     *
+     * @param url the URL to connect
+     * @return the connection which has not been connected yet
+     * @throws IOException if no connection gets free until the acquire timeout, or the connection cannot be opened
+     */
+    public UpstreamConnection connect(URL url) throws IOException {
+        final String key = hostKey(url);
+        final Semaphore permits = hostPermits.computeIfAbsent(key, k -> new Semaphore(maxConnectionsPerHost));
+        final int timeout = acquireTimeout;
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        final boolean measured = metrics.isEnabled();
+        final long start = measured ? System.nanoTime() : 0L;
+
+        try {
+            if (timeout <= 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                if (measured) {
+                    metrics.counter("upstream.errors", "host", key).increment();
+                }
+                throw new SocketTimeoutException("timed out waiting for a free connection to " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a free connection to " + key);
+        }
+        if (measured) {
+            metrics.counter("upstream.requests", "host", key).increment();
+            metrics.histogram("upstream.wait.micros", "host", key).recordSince(start);
+        }
+
+        try {
+            final URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            return new UpstreamConnection(connection, permits, key);
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the content of the URL.
+     *
+     * <p>
+     * If the offset is zero, the request may be collapsed with the concurrent requests for the same URL.
+     * In that case, an error of the upstream is thrown when the returned stream is read.
+     * </p>
+     *
+     * @param url    the URL of the content
+     * @param offset the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when some IO error occurred
+     */
+    public InputStream open(URL url, long offset) throws IOException {
+        if (offset > 0) {
+            return openDirect(url, offset);
+        }
+
+        final String key = url.toString();
+        while (true) {
+            final SharedFetch running = inFlight.get(key);
+            if (running != null) {
+                final InputStream inputStream = running.join();
+                if (inputStream != null) {
+                    final MetricRegistry metrics = MetricRegistry.getDefault();
+                    if (metrics.isEnabled()) {
+                        metrics.counter("upstream.collapsed", "host", hostKey(url)).increment();
+                    }
+                    return inputStream;
+                }
+                // it has stopped accepting requests and has been removed
+                continue;
+            }
+
+            final SharedFetch created = new SharedFetch(this, url, key);
+            if (inFlight.putIfAbsent(key, created) != null) {
+                continue;
+            }
+            final InputStream inputStream = created.join();
+            try {
+                created.start();
+            } catch (IOException | RuntimeException e) {
+                inputStream.close();
+                throw e;
+            }
+            return inputStream;
+        }
+    }
+
+    /**
+     * Open the content of the URL with its own upstream request.
+     *
+     * <p>
+     * If the source is HTTP(S), the offset is requested by the "Range" header.
+     * If the server ignores it or the source is not HTTP(S), the bytes before the offset are skipped.
+     * </p>
+     *
+     * @param url    the URL of the content
+     * @param offset the number of bytes of where to start reading
+     * @return the stream of the content
+     * @throws IOException when some IO error occurred
+     */
+    public InputStream openDirect(URL url, long offset) throws IOException {
+        final UpstreamConnection upstream = connect(url);
+        try {
+            final URLConnection connection = upstream.getConnection();
+
+            if (offset > 0 && connection instanceof HttpURLConnection) {
+                final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                httpConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+
+                final int responseCode = httpConnection.getResponseCode();
+                upstream.responded();
+                if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    return upstream.wrap(httpConnection.getInputStream());
+                } else if (responseCode == URLUtils.HTTP_RANGE_NOT_SATISFIABLE) {
+                    // the offset is at or after the end of the content
+                    URLUtils.closeErrorStream(httpConnection);
+                    upstream.close();
+                    return StreamUtils.emptyInputStream();
+                }
+            }
+
+            final InputStream inputStream = connection.getInputStream();
+            upstream.responded();
+            try {
+                StreamUtils.skip(inputStream, offset);
+            } catch (IOException | RuntimeException e) {
+                inputStream.close();
+                throw e;
+            }
+            return upstream.wrap(inputStream);
+
+        } catch (IOException | RuntimeException e) {
+            upstream.failed();
+            upstream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the length of the content which the URL refers, as {@link URLUtils#getContentLength(URLConnection)}.
+     *
+     * @param url the URL of the content
+     * @return the length of the content, or -1 if it is unknown
+     * @throws IOException when some IO error occurred or the server responds an error status
+     */
+    public long getContentLength(URL url) throws IOException {
+        try (UpstreamConnection upstream = connect(url)) {
+            try {
+                final long contentLength = URLUtils.getContentLength(upstream.getConnection());
+                upstream.responded();
+                return contentLength;
+            } catch (IOException | RuntimeException e) {
+                upstream.failed();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Checks that the content which the URL refers can be read, as {@link URLUtils#checkContent(URLConnection)}.
+     *
+     * @param url the URL of the content
+     * @return the length of the content, or -1 if it is unknown
+     * @throws IOException when the content cannot be read
+     */
+    public long checkContent(URL url) throws IOException {
+        try (UpstreamConnection upstream = connect(url)) {
+            try {
+                final long contentLength = URLUtils.checkContent(upstream.getConnection());
+                upstream.responded();
+                return contentLength;
+            } catch (IOException | RuntimeException e) {
+                upstream.failed();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the validator of the content which the URL refers, as {@link URLUtils#getValidator(URLConnection)}.
+     *
+     * @param url the URL of the content
+     * @return the validator, or null if the source reports neither an ETag nor a last modified time
+     * @throws IOException when some IO error occurred or the server responds an error status
+     */
+    public String getValidator(URL url) throws IOException {
+        try (UpstreamConnection upstream = connect(url)) {
+            try {
+                final String validator = URLUtils.getValidator(upstream.getConnection());
+                upstream.responded();
+                return validator;
+            } catch (IOException | RuntimeException e) {
+                upstream.failed();
+                throw e;
+            }
+        }
+    }
+
+    static String hostKey(URL url) {
+        final int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+}
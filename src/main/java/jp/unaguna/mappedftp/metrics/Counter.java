@@ -0,0 +1,27 @@
+package jp.unaguna.mappedftp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, which is cheap to update from many threads.
+ */
+public class Counter {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Add the amount to this count.
+     *
+     * @param amount the amount, which should not be negative
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+}
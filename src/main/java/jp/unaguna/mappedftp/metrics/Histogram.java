@@ -0,0 +1,144 @@
+package jp.unaguna.mappedftp.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distribution of non-negative values, such as latencies in microseconds or sizes in bytes.
+ *
+ * <p>
+ * The values are counted in buckets whose bounds are powers of two,
+ * so recording is a few atomic additions and the memory does not grow with the number of values.
+ * The percentiles of a {@link Snapshot} are therefore approximate:
+ * each of them is the upper bound of the bucket which contains it, and at most twice the exact value.
+ * </p>
+ */
+public class Histogram {
+    /**
+     * The bucket {@code i} counts the values whose bit length is {@code i}; that is,
+     * 0 in the bucket 0 and {@code [2^(i-1), 2^i - 1]} in the bucket {@code i}.
+     */
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Record a value.
+     *
+     * @param value the value; a negative one is recorded as zero
+     */
+    public void record(long value) {
+        final long normalized = Math.max(value, 0L);
+        buckets.incrementAndGet(bucketOf(normalized));
+        count.increment();
+        sum.add(normalized);
+        max.accumulate(normalized);
+    }
+
+    /**
+     * Record the time elapsed since the start in microseconds.
+     *
+     * @param startNanos the start time got by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000L);
+    }
+
+    /**
+     * Returns the current distribution.
+     *
+     * <p>
+     * The values recorded while taking it may be partially included.
+     * </p>
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+    }
+
+    private static int bucketOf(long value) {
+        return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    /**
+     * An immutable distribution taken by {@link Histogram#snapshot()}.
+     */
+    public static class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the approximate value under which the specified ratio of the values are.
+         *
+         * @param quantile the ratio between 0 and 1, such as 0.99
+         * @return the upper bound of the bucket which contains the quantile, but not more than {@link #getMax()};
+         * or 0 if no value has been recorded
+         */
+        public long getPercentile(double quantile) {
+            long total = 0;
+            for (long bucketCount : buckets) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0L;
+            }
+
+            final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    final long upperBound = i == 0 ? 0L : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upperBound, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + " sum=" + sum
+                    + " mean=" + String.format(Locale.ROOT, "%.1f", getMean())
+                    + " p50=" + getPercentile(0.5)
+                    + " p90=" + getPercentile(0.9)
+                    + " p99=" + getPercentile(0.99)
+                    + " max=" + max;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package jp.unaguna.mappedftp.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the latest snapshot as text at {@code http://<address>:<port>/metrics}.
+ *
+ * <p>
+ * The endpoint is bound to the loopback address by default, since the metrics contain the mapped paths.
+ * It answers 503 until the first snapshot is reported.
+ * </p>
+ */
+public class HttpMetricsReporter implements MetricsReporter {
+    public static final String DEFAULT_ADDRESS = "127.0.0.1";
+    public static final String PATH = "/metrics";
+
+    private final String address;
+    private final int port;
+
+    private volatile MetricsSnapshot latest = null;
+    private HttpServer server = null;
+
+    /**
+     * Constructor.
+     *
+     * @param address the address to bind, or null to bind {@link #DEFAULT_ADDRESS}
+     * @param port    the port to bind, or 0 to bind any free port
+     */
+    public HttpMetricsReporter(String address, int port) {
+        this.address = address != null ? address : DEFAULT_ADDRESS;
+        this.port = port;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the port which the endpoint is bound to.
+     *
+     * @return the port; the actual one after {@link #start()} even if 0 has been specified
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    @Override
+    public void report(MetricsSnapshot snapshot) {
+        this.latest = snapshot;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final MetricsSnapshot snapshot = latest;
+            if (snapshot == null) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            final byte[] body = snapshot.format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package jp.unaguna.mappedftp.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the snapshots to the log at the INFO level; a line for each metric.
+ */
+public class LogMetricsReporter implements MetricsReporter {
+    private static final Logger LOG = LoggerFactory.getLogger(LogMetricsReporter.class.getName());
+
+    @Override
+    public void report(MetricsSnapshot snapshot) {
+        if (!LOG.isInfoEnabled()) {
+            return;
+        }
+        for (String line : snapshot.format().split("\n")) {
+            if (!line.isEmpty()) {
+                LOG.info(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package jp.unaguna.mappedftp.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The named {@link Counter counters} and {@link Histogram histograms}.
+ *
+ * <p>
+ * A metric is identified by its name and tags, such as {@code ftp.retr.bytes{type=FileTreeItemFromURL}}.
+ * The number of tagged series of each name is limited by {@link #getMaxSeriesPerName()},
+ * so that tags whose values are unbounded, such as paths, do not exhaust the memory;
+ * the values recorded after the limit are put together into the series whose tag values are
+ * {@value #OVERFLOW_TAG_VALUE}.
+ * </p>
+ *
+ * <p>
+ * The components of this server record into {@link #getDefault() the default registry}
+ * only while it is {@link #isEnabled() enabled}, so the cost of the metrics is a volatile read when they are not used.
+ * </p>
+ */
+public class MetricRegistry {
+    public static final int DEFAULT_MAX_SERIES_PER_NAME = 1000;
+    public static final String OVERFLOW_TAG_VALUE = "_other";
+
+    private static final MetricRegistry DEFAULT_INSTANCE = new MetricRegistry();
+
+    private volatile boolean enabled = false;
+    private volatile int maxSeriesPerName = DEFAULT_MAX_SERIES_PER_NAME;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> seriesCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the registry into which the components of this server record.
+     *
+     * @return the default registry
+     */
+    public static MetricRegistry getDefault() {
+        return DEFAULT_INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether the components record into this registry.
+     * The recorded metrics are kept while it is disabled.
+     *
+     * @param enabled true to record
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxSeriesPerName() {
+        return maxSeriesPerName;
+    }
+
+    /**
+     * Set the maximum number of tagged series of each name.
+     * It takes effect on the series created after this call.
+     *
+     * @param maxSeriesPerName the number of series
+     */
+    public void setMaxSeriesPerName(int maxSeriesPerName) {
+        this.maxSeriesPerName = maxSeriesPerName;
+    }
+
+    /**
+     * Returns the counter of the name and tags, creating it if it does not exist.
+     *
+     * @param name the name of the metric
+     * @param tags the pairs of a tag name and its value
+     * @return the counter
+     */
+    public Counter counter(String name, String... tags) {
+        final String key = key(name, tags);
+        final Counter counter = counters.get(key);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.computeIfAbsent(admit(name, key, tags, counters), k -> new Counter());
+    }
+
+    /**
+     * Returns the histogram of the name and tags, creating it if it does not exist.
+     *
+     * @param name the name of the metric
+     * @param tags the pairs of a tag name and its value
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String... tags) {
+        final String key = key(name, tags);
+        final Histogram histogram = histograms.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        return histograms.computeIfAbsent(admit(name, key, tags, histograms), k -> new Histogram());
+    }
+
+    /**
+     * Returns the current values of all metrics.
+     *
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot() {
+        final Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((key, counter) -> counterValues.put(key, counter.getCount()));
+
+        final Map<String, Histogram.Snapshot> histogramValues = new TreeMap<>();
+        histograms.forEach((key, histogram) -> histogramValues.put(key, histogram.snapshot()));
+
+        return new MetricsSnapshot(System.currentTimeMillis(), counterValues, histogramValues);
+    }
+
+    /**
+     * Discard all metrics.
+     */
+    public void clear() {
+        counters.clear();
+        histograms.clear();
+        seriesCounts.clear();
+    }
+
+    /**
+     * Returns the key of a new series, or of the overflow series if the name has too many series.
+     */
+    private String admit(String name, String key, String[] tags, Map<String, ?> metrics) {
+        if (tags.length == 0) {
+            return key;
+        }
+
+        final String kind = metrics == counters ? "counter:" : "histogram:";
+        final AtomicInteger seriesCount = seriesCounts.computeIfAbsent(kind + name, k -> new AtomicInteger());
+        while (true) {
+            final int current = seriesCount.get();
+            if (current >= maxSeriesPerName) {
+                return overflowKey(name, tags);
+            }
+            if (seriesCount.compareAndSet(current, current + 1)) {
+                return key;
+            }
+        }
+    }
+
+    private static String overflowKey(String name, String[] tags) {
+        final String[] overflowTags = tags.clone();
+        for (int i = 1; i < overflowTags.length; i += 2) {
+            overflowTags[i] = OVERFLOW_TAG_VALUE;
+        }
+        return key(name, overflowTags);
+    }
+
+    /**
+     * Returns the key of the metric, such as {@code name{tag1=value1,tag2=value2}}.
+     *
+     * @param name the name of the metric
+     * @param tags the pairs of a tag name and its value
+     * @return the key
+     * @throws IllegalArgumentException if the tags are not pairs
+     */
+    static String key(String name, String... tags) {
+        if (tags.length == 0) {
+            return name;
+        }
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("tags must be pairs of a name and a value: " + tags.length);
+        }
+
+        final StringBuilder builder = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return builder.append('}').toString();
+    }
+}
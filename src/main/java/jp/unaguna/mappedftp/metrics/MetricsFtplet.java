@@ -0,0 +1,131 @@
+package jp.unaguna.mappedftp.metrics;
+
+import jp.unaguna.mappedftp.filesystem.LinkedFileNode;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import org.apache.ftpserver.ftplet.DataTransferFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+
+import java.util.Locale;
+
+/**
+ * Records the FTP commands into a {@link MetricRegistry}.
+ *
+ * <ul>
+ *     <li>{@code ftp.command.micros{command}}: the time to process each command,
+ *     including the data transfer; the one of PASS is the login latency</li>
+ *     <li>{@code ftp.login{result}}: the number of successful and failed logins</li>
+ *     <li>{@code ftp.list.bytes{command}}: the size of each listing by LIST, NLST and MLSD</li>
+ *     <li>{@code ftp.retr.bytes{type}}, {@code ftp.retr.micros{type}}, {@code ftp.retr.errors{type}}:
+ *     the size, the time and the failures of RETR by the class of the mapped item</li>
+ *     <li>{@code ftp.retr.path.bytes{path}}, {@code ftp.retr.path.count{path}}:
+ *     the total size and the number of RETR by the path</li>
+ * </ul>
+ *
+ * <p>
+ * Nothing is recorded while the registry is not {@link MetricRegistry#isEnabled() enabled}.
+ * </p>
+ */
+public class MetricsFtplet extends DefaultFtplet {
+    private static final String START_ATTRIBUTE = MetricsFtplet.class.getName() + ".start";
+
+    private final MetricRegistry registry;
+
+    public MetricsFtplet() {
+        this(MetricRegistry.getDefault());
+    }
+
+    public MetricsFtplet(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request) {
+        if (registry.isEnabled()) {
+            session.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) {
+        final Object start = session.getAttribute(START_ATTRIBUTE);
+        session.removeAttribute(START_ATTRIBUTE);
+        if (!registry.isEnabled() || !(start instanceof Long)) {
+            return FtpletResult.DEFAULT;
+        }
+        final long startNanos = (Long) start;
+
+        final String command = request.getCommand().toUpperCase(Locale.ROOT);
+        registry.histogram("ftp.command.micros", "command", command).recordSince(startNanos);
+
+        switch (command) {
+            case "PASS":
+                registry.counter("ftp.login", "result", reply.getCode() == 230 ? "success" : "failure").increment();
+                break;
+            case "LIST":
+            case "NLST":
+            case "MLSD":
+                if (reply instanceof DataTransferFtpReply && reply.getCode() < 400) {
+                    registry.histogram("ftp.list.bytes", "command", command)
+                            .record(((DataTransferFtpReply) reply).getBytesTransferred());
+                }
+                break;
+            case "RETR":
+                if (reply instanceof DataTransferFtpReply) {
+                    recordRetr((DataTransferFtpReply) reply, startNanos);
+                }
+                break;
+            default:
+                break;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    private void recordRetr(DataTransferFtpReply reply, long startNanos) {
+        final FtpFile file = reply.getFile();
+        if (file == null) {
+            return;
+        }
+        final String type = typeOf(file);
+
+        if (reply.getCode() >= 400) {
+            registry.counter("ftp.retr.errors", "type", type).increment();
+            return;
+        }
+
+        final long bytes = reply.getBytesTransferred();
+        registry.histogram("ftp.retr.bytes", "type", type).record(bytes);
+        registry.histogram("ftp.retr.micros", "type", type).recordSince(startNanos);
+
+        final String path = file.getAbsolutePath();
+        registry.counter("ftp.retr.path.bytes", "path", path).add(bytes);
+        registry.counter("ftp.retr.path.count", "path", path).increment();
+    }
+
+    /**
+     * Returns the name of the class of the item mapped to the file, such as "FileTreeItemFromURL".
+     */
+    private static String typeOf(FtpFile file) {
+        if (file instanceof LinkedFileNode) {
+            final FileTreeItem item = ((LinkedFileNode) file).getFile();
+            if (item != null) {
+                return nameOf(item.getClass());
+            }
+        }
+        return nameOf(file.getClass());
+    }
+
+    private static String nameOf(Class<?> clazz) {
+        // anonymous classes have no simple name
+        return clazz.isAnonymousClass() ? clazz.getName() : clazz.getSimpleName();
+    }
+}
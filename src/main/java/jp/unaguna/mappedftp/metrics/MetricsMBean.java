@@ -0,0 +1,122 @@
+package jp.unaguna.mappedftp.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the metrics of a {@link MetricRegistry} as the attributes of an MBean.
+ *
+ * <p>
+ * Each counter is an attribute named by its key, and each histogram is the attributes named by its key with
+ * the suffixes ".count", ".mean", ".p50", ".p90", ".p99" and ".max".
+ * The attributes appear as the metrics are created; reconnect the JMX client to see the new ones.
+ * </p>
+ */
+public class MetricsMBean implements DynamicMBean {
+    /**
+     * The name under which {@link MetricsService} registers the MBean of the default registry.
+     */
+    public static final String OBJECT_NAME = "jp.unaguna.mappedftp:type=Metrics";
+
+    private final MetricRegistry registry;
+
+    public MetricsMBean(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the name under which the MBean of the default registry is registered.
+     *
+     * @return the object name
+     */
+    public static ObjectName objectName() {
+        try {
+            return new ObjectName(OBJECT_NAME);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        final Object value = attributes().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("no such metric: " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        final Map<String, Object> attributes = attributes();
+        final AttributeList list = new AttributeList();
+        for (String name : names) {
+            final Object value = attributes.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("clear".equals(actionName) && (params == null || params.length == 0)) {
+            registry.clear();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributeInfos = new ArrayList<>();
+        attributes().forEach((name, value) -> attributeInfos.add(new MBeanAttributeInfo(
+                name, value.getClass().getName(), name, true, false, false)));
+
+        final MBeanOperationInfo clear = new MBeanOperationInfo(
+                "clear", "Discard all metrics", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+
+        return new MBeanInfo(getClass().getName(), "Metrics of the mapped FTP server",
+                attributeInfos.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[]{clear}, null);
+    }
+
+    private Map<String, Object> attributes() {
+        final MetricsSnapshot snapshot = registry.snapshot();
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.putAll(snapshot.getCounters());
+        snapshot.getHistograms().forEach((key, histogram) -> {
+            attributes.put(key + ".count", histogram.getCount());
+            attributes.put(key + ".mean", histogram.getMean());
+            attributes.put(key + ".p50", histogram.getPercentile(0.5));
+            attributes.put(key + ".p90", histogram.getPercentile(0.9));
+            attributes.put(key + ".p99", histogram.getPercentile(0.99));
+            attributes.put(key + ".max", histogram.getMax());
+        });
+        return attributes;
+    }
+}
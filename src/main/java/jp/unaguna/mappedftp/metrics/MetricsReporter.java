@@ -0,0 +1,38 @@
+package jp.unaguna.mappedftp.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination of the snapshots of the metrics, which {@link MetricsService} reports to periodically.
+ *
+ * <p>
+ * Implement it to send the metrics to another monitoring system.
+ * </p>
+ */
+public interface MetricsReporter extends Closeable {
+    /**
+     * Prepare this reporter; called once before the first report.
+     *
+     * @throws IOException if this reporter cannot be prepared
+     */
+    default void start() throws IOException {
+    }
+
+    /**
+     * Report a snapshot.
+     *
+     * @param snapshot the current values of the metrics
+     * @throws IOException if the snapshot cannot be reported; the next one is still reported
+     */
+    void report(MetricsSnapshot snapshot) throws IOException;
+
+    /**
+     * Release the resources of this reporter; called once when the reporting stops.
+     *
+     * @throws IOException when some IO error occurred
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,187 @@
+package jp.unaguna.mappedftp.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enables a {@link MetricRegistry} and publishes it through JMX and {@link MetricsReporter reporters}.
+ *
+ * <p>
+ * It is created by the "metrics" element of the XML configuration, and can be used directly when embedded:
+ * </p>
+ * <pre>
+ * MetricsService service = new MetricsService(MetricRegistry.getDefault());
+ * service.setReporters(Collections.singletonList(new LogMetricsReporter()));
+ * service.start();
+ * </pre>
+ * <p>
+ * To record the FTP commands, add {@link MetricsFtplet} to the server too.
+ * </p>
+ */
+public class MetricsService {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsService.class.getName());
+
+    public static final long DEFAULT_REPORT_INTERVAL = 60_000L;
+
+    private final MetricRegistry registry;
+    private boolean jmx = true;
+    private long reportInterval = DEFAULT_REPORT_INTERVAL;
+    private List<MetricsReporter> reporters = Collections.emptyList();
+
+    private ScheduledExecutorService scheduler = null;
+    private ObjectName registeredName = null;
+
+    public MetricsService() {
+        this(MetricRegistry.getDefault());
+    }
+
+    public MetricsService(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    /**
+     * Set whether the metrics are exposed as the MBean {@value MetricsMBean#OBJECT_NAME}.
+     *
+     * @param jmx true to register the MBean on start
+     */
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * Set the interval at which a snapshot is reported to the reporters.
+     *
+     * @param reportInterval the interval in milliseconds
+     */
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public List<MetricsReporter> getReporters() {
+        return reporters;
+    }
+
+    public void setReporters(List<MetricsReporter> reporters) {
+        this.reporters = new ArrayList<>(reporters);
+    }
+
+    /**
+     * Enable the registry, register the MBean and start reporting.
+     *
+     * <p>
+     * A reporter which fails to start is logged and skipped.
+     * </p>
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        registry.setEnabled(true);
+
+        if (jmx) {
+            registerMBean();
+        }
+
+        final List<MetricsReporter> started = new ArrayList<>();
+        for (MetricsReporter reporter : reporters) {
+            try {
+                reporter.start();
+                started.add(reporter);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("failed to start the metrics reporter " + reporter, e);
+            }
+        }
+        reporters = started;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!reporters.isEmpty()) {
+            scheduler.scheduleAtFixedRate(this::report, 0L, reportInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop reporting after reporting the last snapshot, and unregister the MBean.
+     * The registry stays enabled, since other services may use it.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+
+        report();
+        for (MetricsReporter reporter : reporters) {
+            try {
+                reporter.close();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("failed to close the metrics reporter " + reporter, e);
+            }
+        }
+
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                LOG.warn("failed to unregister the MBean " + registeredName, e);
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Report a snapshot to all reporters now.
+     */
+    public void report() {
+        final MetricsSnapshot snapshot = registry.snapshot();
+        for (MetricsReporter reporter : reporters) {
+            try {
+                reporter.report(snapshot);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("failed to report the metrics to " + reporter, e);
+            }
+        }
+    }
+
+    private void registerMBean() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = MetricsMBean.objectName();
+        try {
+            server.registerMBean(new MetricsMBean(registry), name);
+            registeredName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warn("the MBean " + name + " has already been registered by another service");
+        } catch (JMException e) {
+            LOG.error("failed to register the MBean " + name, e);
+        }
+    }
+}
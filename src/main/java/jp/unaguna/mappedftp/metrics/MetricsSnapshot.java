@@ -0,0 +1,85 @@
+package jp.unaguna.mappedftp.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The values of the metrics of a {@link MetricRegistry} at a time.
+ *
+ * <p>
+ * The latencies are in microseconds and the sizes are in bytes.
+ * </p>
+ */
+public class MetricsSnapshot {
+    private final long timestamp;
+    private final Map<String, Long> counters;
+    private final Map<String, Histogram.Snapshot> histograms;
+
+    MetricsSnapshot(long timestamp, Map<String, Long> counters, Map<String, Histogram.Snapshot> histograms) {
+        this.timestamp = timestamp;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Returns the time at which this snapshot was taken.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the counts of the counters.
+     *
+     * @return the mapping from the key of the metric to its count, in the order of the key
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * Returns the distributions of the histograms.
+     *
+     * @return the mapping from the key of the metric to its distribution, in the order of the key
+     */
+    public Map<String, Histogram.Snapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Returns the count of the counter, or 0 if it does not exist.
+     *
+     * @param name the name of the metric
+     * @param tags the pairs of a tag name and its value
+     * @return the count
+     */
+    public long getCount(String name, String... tags) {
+        final Long count = counters.get(MetricRegistry.key(name, tags));
+        return count != null ? count : 0L;
+    }
+
+    /**
+     * Returns the distribution of the histogram.
+     *
+     * @param name the name of the metric
+     * @param tags the pairs of a tag name and its value
+     * @return the distribution, or null if it does not exist
+     */
+    public Histogram.Snapshot getHistogram(String name, String... tags) {
+        return histograms.get(MetricRegistry.key(name, tags));
+    }
+
+    /**
+     * Format this snapshot as lines of text; a line for each metric.
+     *
+     * @return the formatted text
+     */
+    public String format() {
+        final StringBuilder builder = new StringBuilder();
+        counters.forEach((key, count) -> builder.append(key).append(' ').append(count).append('\n'));
+        histograms.forEach((key, histogram) -> builder.append(key).append(' ').append(histogram).append('\n'));
+        return builder.toString();
+    }
+}
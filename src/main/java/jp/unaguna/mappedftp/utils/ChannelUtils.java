@@ -0,0 +1,125 @@
+package jp.unaguna.mappedftp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+public class ChannelUtils {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes all remaining bytes of the source channel to the target channel.
+     *
+     * <p>
+     * If the source is a {@link FileChannel}, the bytes are transferred with
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which the operating system may perform without copying them into user space (e.g. sendfile).
+     * A {@link FileChannelSlice} is transferred in the same way.
+     * Otherwise, they are copied through a direct buffer.
+     * The target is expected to be in blocking mode.
+     * </p>
+     *
+     * @param source the channel to read from; it is read from its current position
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     * @throws IOException when some IO error occurred
+     */
+    public static long transfer(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        if (source instanceof FileChannel) {
+            return transferFromFile((FileChannel) source, target);
+        }
+        if (source instanceof FileChannelSlice) {
+            return ((FileChannelSlice) source).transferTo(target);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long transferred = 0;
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                transferred += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return transferred;
+    }
+
+    private static long transferFromFile(FileChannel source, WritableByteChannel target) throws IOException {
+        final long start = source.position();
+        final long transferred = transferRange(new PositionalChannel() {
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                return source.transferTo(position, count, target);
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) throws IOException {
+                return source.read(dst, position);
+            }
+        }, start, source.size(), target);
+
+        source.position(start + transferred);
+        return transferred;
+    }
+
+    /**
+     * Writes the bytes in the range of the source to the target.
+     *
+     * <p>
+     * The bytes are transferred with {@link PositionalChannel#transferTo(long, long, WritableByteChannel)}.
+     * When it transfers no bytes, such as when the target cannot accept them at once,
+     * the rest is copied through a direct buffer instead of retrying it.
+     * If the source has been truncated while transferring, the bytes up to its end are written.
+     * </p>
+     *
+     * @param source the channel to read from
+     * @param start  the position of the source at which the range begins
+     * @param end    the position of the source at which the range ends, exclusive
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     * @throws IOException when some IO error occurred
+     */
+    static long transferRange(PositionalChannel source, long start, long end, WritableByteChannel target)
+            throws IOException {
+        long position = start;
+        while (position < end) {
+            final long transferred = source.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        if (position >= end) {
+            return position - start;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, end - position));
+        while (position < end) {
+            if (buffer.remaining() > end - position) {
+                buffer.limit((int) (end - position));
+            }
+            final int read = source.read(buffer, position);
+            if (read < 0) {
+                // the source has been truncated while transferring
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return position - start;
+    }
+
+    /**
+     * A channel which is read at given positions, such as {@link FileChannel} and {@link SharedFileChannel}.
+     */
+    interface PositionalChannel {
+        long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+}
@@ -0,0 +1,124 @@
+package jp.unaguna.mappedftp.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+
+/**
+ * An input stream which reads the encoded bytes of character sequences.
+ *
+ * <p>
+ * The sequences are taken from the iterator and encoded only as the stream is read,
+ * so at most one buffer of bytes is held regardless of the total length.
+ * Each sequence is encoded as a complete text;
+ * malformed or unmappable characters are replaced with the replacement of the charset.
+ * </p>
+ */
+public class CharSequenceInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Iterator<? extends CharSequence> source;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private CharBuffer current = null;
+    private boolean flushing = false;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param source  the character sequences to read in order
+     * @param charset the charset to encode the sequences
+     */
+    public CharSequenceInputStream(Iterator<? extends CharSequence> source, Charset charset) {
+        this.source = source;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        // nothing is encoded yet
+        this.buffer.flip();
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+
+        final int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Encodes the next bytes if the buffer is consumed.
+     *
+     * @return false if the end of the stream is reached
+     */
+    private boolean fill() {
+        while (!buffer.hasRemaining()) {
+            if (finished) {
+                return false;
+            }
+            buffer.clear();
+            encode();
+            buffer.flip();
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the sequences into the buffer until it is full or all sequences are encoded.
+     */
+    private void encode() {
+        while (buffer.hasRemaining()) {
+            if (current == null) {
+                if (!source.hasNext()) {
+                    finished = true;
+                    return;
+                }
+                current = CharBuffer.wrap(source.next());
+            }
+
+            if (!flushing) {
+                if (encoder.encode(current, buffer, true).isOverflow()) {
+                    return;
+                }
+                flushing = true;
+            }
+            final CoderResult result = encoder.flush(buffer);
+            if (result.isOverflow()) {
+                return;
+            }
+
+            encoder.reset();
+            flushing = false;
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package jp.unaguna.mappedftp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel which reads a range of a {@link SharedFileChannel}, such as an entry stored in an archive.
+ *
+ * <p>
+ * Closing this channel does not close the shared file.
+ * {@link ChannelUtils#transfer(ReadableByteChannel, WritableByteChannel)} transfers the range with
+ * {@link SharedFileChannel#transferTo(long, long, WritableByteChannel)}, as it does for a file.
+ * </p>
+ */
+public class FileChannelSlice implements ReadableByteChannel {
+    private final SharedFileChannel file;
+    private final long end;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * Constructor.
+     *
+     * @param file  the shared file
+     * @param start the position of the file at which the range begins
+     * @param end   the position of the file at which the range ends, exclusive
+     */
+    public FileChannelSlice(SharedFileChannel file, long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("illegal range: " + start + "-" + end);
+        }
+        this.file = file;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the number of bytes left in the range.
+     *
+     * @return the number of bytes
+     */
+    public long remaining() {
+        return end - position;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= end) {
+            return -1;
+        }
+
+        final int limit = dst.limit();
+        if (dst.remaining() > end - position) {
+            dst.limit(dst.position() + (int) (end - position));
+        }
+        try {
+            final int read = file.read(dst, position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of the range to the target.
+     *
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     * @throws IOException when some IO error occurred
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        ensureOpen();
+        final long transferred = ChannelUtils.transferRange(file, position, end, target);
+        position += transferred;
+        return transferred;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package jp.unaguna.mappedftp.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only channel of a local file which is shared by many readers.
+ *
+ * <p>
+ * The file is opened at the first read and kept open, and it is read only by positional reads,
+ * so the readers do not disturb each other.
+ * Since a {@link FileChannel} is closed when a thread reading it is interrupted,
+ * the file is opened again for the other readers in that case; the read of the interrupted thread fails.
+ * </p>
+ */
+public class SharedFileChannel implements Closeable, ChannelUtils.PositionalChannel {
+    private final Path path;
+    private volatile FileChannel channel = null;
+    private boolean closed = false;
+
+    public SharedFileChannel(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the open channel of the file, opening it if it has not been opened or has been closed by an interrupt.
+     *
+     * @return the channel
+     * @throws IOException when the file cannot be opened
+     */
+    private FileChannel channel() throws IOException {
+        final FileChannel current = channel;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            FileChannel opened = channel;
+            if (opened == null || !opened.isOpen()) {
+                opened = FileChannel.open(path, StandardOpenOption.READ);
+                channel = opened;
+            }
+            return opened;
+        }
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return the size in bytes
+     * @throws IOException when some IO error occurred
+     */
+    public long size() throws IOException {
+        try {
+            return channel().size();
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            // closed by an interrupt of another reader
+            return channel().size();
+        }
+    }
+
+    /**
+     * Reads bytes from the position of the file, as {@link FileChannel#read(ByteBuffer, long)}.
+     *
+     * @param dst      the buffer into which bytes are read
+     * @param position the position of the file at which the read begins
+     * @return the number of bytes read, or -1 if the position is at the end of the file
+     * @throws IOException when some IO error occurred
+     */
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        try {
+            return channel().read(dst, position);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            return channel().read(dst, position);
+        }
+    }
+
+    /**
+     * Reads bytes of the length from the position of the file.
+     *
+     * @param position the position of the file at which the read begins
+     * @param length   the number of bytes to read
+     * @return the buffer which has the bytes, flipped to be read
+     * @throws IOException when the file ends before the length, or some IO error occurred
+     */
+    public ByteBuffer readFully(long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            final int read = read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("unexpected end of " + path + " at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Transfers bytes from the position of the file to the target,
+     * as {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+     *
+     * @param position the position of the file at which the transfer begins
+     * @param count    the maximum number of bytes to transfer
+     * @param target   the channel to write to
+     * @return the number of bytes transferred
+     * @throws IOException when some IO error occurred
+     */
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        try {
+            return channel().transferTo(position, count, target);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            return channel().transferTo(position, count, target);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
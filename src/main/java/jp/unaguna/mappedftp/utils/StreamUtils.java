@@ -0,0 +1,52 @@
+package jp.unaguna.mappedftp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class StreamUtils {
+    /**
+     * Skips bytes of the stream until the specified number of bytes are skipped or the end of the stream is reached.
+     *
+     * <p>
+     * Unlike {@link InputStream#skip(long)}, this method does not return until it reaches the specified position
+     * or the end of the stream.
+     * </p>
+     *
+     * @param inputStream the stream to skip
+     * @param length      the number of bytes to skip
+     * @return the number of bytes actually skipped
+     * @throws IOException when some IO error occurred
+     */
+    public static long skip(InputStream inputStream, long length) throws IOException {
+        long remaining = length;
+
+        while (remaining > 0) {
+            final long skipped = inputStream.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else {
+                // InputStream#skip may return 0 before the end, so confirm it by reading
+                if (inputStream.read() < 0) {
+                    break;
+                }
+                remaining--;
+            }
+        }
+
+        return length - remaining;
+    }
+
+    /**
+     * Returns an input stream which has no content.
+     *
+     * @return an empty stream
+     */
+    public static InputStream emptyInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return -1;
+            }
+        };
+    }
+}
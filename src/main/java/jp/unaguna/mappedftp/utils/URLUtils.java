@@ -0,0 +1,162 @@
+package jp.unaguna.mappedftp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+public class URLUtils {
+    /**
+     * The status code "416 Range Not Satisfiable"; it is not defined in {@link HttpURLConnection}.
+     */
+    public static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Returns the length of the content which the URL refers.
+     *
+     * <p>
+     * For HTTP(S), it is requested by the method "HEAD", so that the content is not transferred.
+     * </p>
+     *
+     * @param url the URL of the content
+     * @return the length of the content, or -1 if it is unknown
+     * @throws IOException when some IO error occurred or the server responds an error status
+     */
+    public static long getContentLength(URL url) throws IOException {
+        return getContentLength(url.openConnection());
+    }
+
+    /**
+     * Returns the length of the content which the connection refers, as {@link #getContentLength(URL)}.
+     *
+     * @param connection the connection which has not been connected yet
+     * @return the length of the content, or -1 if it is unknown
+     * @throws IOException when some IO error occurred or the server responds an error status
+     */
+    public static long getContentLength(URLConnection connection) throws IOException {
+        if (connection instanceof HttpURLConnection) {
+            final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setRequestMethod("HEAD");
+
+            final int responseCode = httpConnection.getResponseCode();
+            if (responseCode >= 400) {
+                closeErrorStream(httpConnection);
+                throw new IOException("Server returned HTTP response code: " + responseCode
+                        + " for URL: " + connection.getURL());
+            }
+            return httpConnection.getContentLengthLong();
+        }
+
+        try {
+            return connection.getContentLengthLong();
+        } finally {
+            // some connections, such as "file:", open the stream to get the header
+            try {
+                connection.getInputStream().close();
+            } catch (IOException ignored) {
+                // it has been already closed, or could not be opened
+            }
+        }
+    }
+
+    /**
+     * Checks that the content which the URL refers can be read, and returns its length.
+     *
+     * <p>
+     * For HTTP(S), it is requested by the method "HEAD" as {@link #getContentLength(URL)}.
+     * For the other protocols, the content is opened and closed without reading,
+     * since they may not report an error to get the length.
+     * </p>
+     *
+     * @param url the URL of the content
+     * @return the length of the content, or -1 if it is unknown
+     * @throws IOException when the content cannot be read
+     */
+    public static long checkContent(URL url) throws IOException {
+        return checkContent(url.openConnection());
+    }
+
+    /**
+     * Checks that the content which the connection refers can be read, as {@link #checkContent(URL)}.
+     *
+     * @param connection the connection which has not been connected yet
+     * @return the length of the content, or -1 if it is unknown
+     * @throws IOException when the content cannot be read
+     */
+    public static long checkContent(URLConnection connection) throws IOException {
+        if (connection instanceof HttpURLConnection) {
+            return getContentLength(connection);
+        }
+
+        connection.getInputStream().close();
+        return connection.getContentLengthLong();
+    }
+
+    /**
+     * Returns the validator of the content which the connection refers, which changes when the content changes.
+     *
+     * <p>
+     * For HTTP(S), it is requested by the method "HEAD" as {@link #getContentLength(URL)},
+     * and it is the strong ETag, or the length and the "Last-Modified" header if there is no strong ETag.
+     * For the other protocols, it is the length and the last modified time.
+     * </p>
+     *
+     * @param connection the connection which has not been connected yet
+     * @return the validator, or null if the source reports neither an ETag nor a last modified time
+     * @throws IOException when some IO error occurred or the server responds an error status
+     */
+    public static String getValidator(URLConnection connection) throws IOException {
+        if (connection instanceof HttpURLConnection) {
+            final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setRequestMethod("HEAD");
+
+            final int responseCode = httpConnection.getResponseCode();
+            if (responseCode >= 400) {
+                closeErrorStream(httpConnection);
+                throw new IOException("Server returned HTTP response code: " + responseCode
+                        + " for URL: " + connection.getURL());
+            }
+            final String eTag = httpConnection.getHeaderField("ETag");
+            // a weak ETag does not promise the same bytes
+            if (eTag != null && !eTag.startsWith("W/")) {
+                return "etag=" + eTag;
+            }
+            final String lastModified = httpConnection.getHeaderField("Last-Modified");
+            return lastModified != null
+                    ? "size=" + httpConnection.getContentLengthLong() + "&last-modified=" + lastModified
+                    : null;
+        }
+
+        try {
+            final long lastModified = connection.getLastModified();
+            return lastModified > 0
+                    ? "size=" + connection.getContentLengthLong() + "&mtime=" + lastModified
+                    : null;
+        } finally {
+            // some connections, such as "file:", open the stream to get the header
+            try {
+                connection.getInputStream().close();
+            } catch (IOException ignored) {
+                // it has been already closed, or could not be opened
+            }
+        }
+    }
+
+    /**
+     * Closes the error stream of the response, so that the connection can be reused by keep-alive.
+     *
+     * @param connection the connection which has received an error status
+     */
+    public static void closeErrorStream(HttpURLConnection connection) {
+        final InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
+        try {
+            errorStream.close();
+        } catch (IOException ignored) {
+            // the connection is not reused
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package jp.unaguna.mappedftp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local HTTP server which serves fixed contents for tests.
+ */
+public class HttpServerStub implements AutoCloseable {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d+)-$");
+
+    private final HttpServer server;
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private volatile boolean rangeSupported = true;
+    private volatile long delay = 0;
+    private volatile int pausePosition = -1;
+    private volatile CountDownLatch resume = null;
+
+    public HttpServerStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public HttpServerStub put(String path, byte[] content) {
+        contents.put(path, content);
+        return this;
+    }
+
+    public HttpServerStub setRangeSupported(boolean rangeSupported) {
+        this.rangeSupported = rangeSupported;
+        return this;
+    }
+
+    /**
+     * Set the time to wait before responding, to simulate a slow server.
+     *
+     * @param delay the time in milliseconds
+     * @return this
+     */
+    public HttpServerStub setDelay(long delay) {
+        this.delay = delay;
+        return this;
+    }
+
+    /**
+     * Make the responses stop after sending the specified number of bytes of the body until the latch is released,
+     * to simulate a download in progress.
+     *
+     * @param pausePosition the number of bytes sent before pausing
+     * @param resume        the latch to resume sending
+     * @return this
+     */
+    public HttpServerStub setPause(int pausePosition, CountDownLatch resume) {
+        this.pausePosition = pausePosition;
+        this.resume = resume;
+        return this;
+    }
+
+    public URL url(String path) {
+        return TestUtils.url("http://" + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + server.getAddress().getPort() + path);
+    }
+
+    /**
+     * Returns the number of requests which this server has received.
+     *
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests to which this server has responded "304 Not Modified".
+     *
+     * @return the number of responses
+     */
+    public int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+
+        try {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            final byte[] content = contents.get(exchange.getRequestURI().getPath());
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            final String eTag = "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+            exchange.getResponseHeaders().set("ETag", eTag);
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedCount.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            final boolean head = "HEAD".equals(exchange.getRequestMethod());
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final Matcher rangeMatcher = range != null ? RANGE_PATTERN.matcher(range) : null;
+
+            int offset = 0;
+            int status = 200;
+            if (rangeSupported && rangeMatcher != null && rangeMatcher.find()) {
+                offset = Integer.parseInt(rangeMatcher.group(1));
+                if (offset >= content.length) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+            }
+
+            final int length = content.length - offset;
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                final CountDownLatch resume = this.resume;
+                if (resume != null && pausePosition >= offset && pausePosition < content.length) {
+                    body.write(content, offset, pausePosition - offset);
+                    body.flush();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    body.write(content, pausePosition, content.length - pausePosition);
+                } else {
+                    body.write(content, offset, length);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
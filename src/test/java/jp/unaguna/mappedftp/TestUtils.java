@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -254,6 +255,25 @@ public class TestUtils {
         }
     }
 
+    /**
+     * Read all bytes of the stream and close it.
+     *
+     * @param inputStream the stream to read
+     * @return the bytes read
+     * @throws IOException some error occurred when read the stream
+     */
+    public static byte[] readAllBytes(InputStream inputStream) throws IOException {
+        try (InputStream is = inputStream) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int length;
+            while ((length = is.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
     private static String buildString(String separator, String... parts) {
         final StringBuilder pathBuilder = new StringBuilder(128);
         pathBuilder.append(parts[0]);
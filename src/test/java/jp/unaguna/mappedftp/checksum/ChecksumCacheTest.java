@@ -0,0 +1,95 @@
+package jp.unaguna.mappedftp.checksum;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChecksumCacheTest {
+    @Test
+    public void testPut__persisted(@TempDir Path directory) throws IOException {
+        final Path file = directory.resolve("checksums");
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            cache.put(ChecksumAlgorithm.MD5, "file:/a", "0123");
+            cache.put(ChecksumAlgorithm.SHA_256, "file:/a", "4567");
+            cache.put(ChecksumAlgorithm.MD5, "file:/b", "89ab");
+        }
+
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            assertEquals(3, cache.size());
+            assertEquals("0123", cache.get(ChecksumAlgorithm.MD5, "file:/a"));
+            assertEquals("4567", cache.get(ChecksumAlgorithm.SHA_256, "file:/a"));
+            assertEquals("89ab", cache.get(ChecksumAlgorithm.MD5, "file:/b"));
+            assertNull(cache.get(ChecksumAlgorithm.CRC32, "file:/a"));
+        }
+    }
+
+    @Test
+    public void testPut__least_recently_used_is_removed(@TempDir Path directory) throws IOException {
+        final Path file = directory.resolve("checksums");
+        try (ChecksumCache cache = new ChecksumCache(file, 2)) {
+            cache.put(ChecksumAlgorithm.MD5, "file:/a", "a");
+            cache.put(ChecksumAlgorithm.MD5, "file:/b", "b");
+            assertEquals("a", cache.get(ChecksumAlgorithm.MD5, "file:/a"));
+            cache.put(ChecksumAlgorithm.MD5, "file:/c", "c");
+
+            assertEquals(2, cache.size());
+            assertNull(cache.get(ChecksumAlgorithm.MD5, "file:/b"));
+
+            // the file is rewritten instead of growing beyond twice the limit
+            for (int i = 0; i < 10; i++) {
+                cache.put(ChecksumAlgorithm.MD5, "file:/" + i, Integer.toString(i));
+            }
+        }
+
+        try (ChecksumCache cache = new ChecksumCache(file, 2)) {
+            assertEquals(2, cache.size());
+            assertEquals("8", cache.get(ChecksumAlgorithm.MD5, "file:/8"));
+            assertEquals("9", cache.get(ChecksumAlgorithm.MD5, "file:/9"));
+        }
+        assertTrue(Files.size(file) < 200);
+    }
+
+    @Test
+    public void testLoad__broken_tail(@TempDir Path directory) throws IOException {
+        final Path file = directory.resolve("checksums");
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            cache.put(ChecksumAlgorithm.MD5, "file:/a", "0123");
+        }
+        final long validSize = Files.size(file);
+        // a record partially written by a crash
+        Files.write(file, new byte[]{0, 3, 'M'}, StandardOpenOption.APPEND);
+
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            assertEquals("0123", cache.get(ChecksumAlgorithm.MD5, "file:/a"));
+            assertEquals(validSize, Files.size(file));
+            cache.put(ChecksumAlgorithm.MD5, "file:/b", "4567");
+        }
+
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            assertEquals("0123", cache.get(ChecksumAlgorithm.MD5, "file:/a"));
+            assertEquals("4567", cache.get(ChecksumAlgorithm.MD5, "file:/b"));
+        }
+    }
+
+    @Test
+    public void testLoad__not_a_cache(@TempDir Path directory) throws IOException {
+        final Path file = directory.resolve("checksums");
+        Files.write(file, "something else".getBytes(StandardCharsets.UTF_8));
+
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            assertEquals(0, cache.size());
+            cache.put(ChecksumAlgorithm.MD5, "file:/a", "0123");
+        }
+
+        try (ChecksumCache cache = new ChecksumCache(file, 10)) {
+            assertEquals("0123", cache.get(ChecksumAlgorithm.MD5, "file:/a"));
+        }
+    }
+}
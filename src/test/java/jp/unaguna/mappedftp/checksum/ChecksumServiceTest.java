@@ -0,0 +1,178 @@
+package jp.unaguna.mappedftp.checksum;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChecksumServiceTest {
+    @Test
+    public void testCompute() throws Exception {
+        try (ChecksumService service = new ChecksumService(1)) {
+            final FileTreeItemInMemory file = new FileTreeItemInMemory("abc".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals("352441c2", get(service.compute(file, ChecksumAlgorithm.CRC32)));
+            assertEquals("900150983cd24fb0d6963f7d28e17f72", get(service.compute(file, ChecksumAlgorithm.MD5)));
+            assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d",
+                    get(service.compute(file, ChecksumAlgorithm.SHA_1)));
+            assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                    get(service.compute(file, ChecksumAlgorithm.SHA_256)));
+        }
+    }
+
+    @Test
+    public void testCompute__chunks() throws Exception {
+        final byte[] content = new byte[10_000];
+        new Random(0).nextBytes(content);
+        final CRC32 expected = new CRC32();
+        expected.update(content);
+
+        try (ChecksumService service = new ChecksumService(2)) {
+            service.setChunkSize(1000);
+            final CountingFile file = new CountingFile(content, null);
+
+            assertEquals(ChecksumAlgorithm.formatCrc(expected.getValue()),
+                    get(service.compute(file, ChecksumAlgorithm.CRC32)));
+            // 10 chunks and the check of the end
+            assertEquals(11, file.openCount.get());
+
+            // digests are not split
+            file.openCount.set(0);
+            get(service.compute(file, ChecksumAlgorithm.MD5));
+            assertEquals(1, file.openCount.get());
+        }
+    }
+
+    @Test
+    public void testCompute__cached_by_identity() throws Exception {
+        try (ChecksumService service = new ChecksumService(1)) {
+            final CountingFile file = new CountingFile("abc".getBytes(StandardCharsets.UTF_8), "test:1");
+
+            assertEquals("900150983cd24fb0d6963f7d28e17f72", get(service.compute(file, ChecksumAlgorithm.MD5)));
+            assertEquals("900150983cd24fb0d6963f7d28e17f72", get(service.compute(file, ChecksumAlgorithm.MD5)));
+            assertEquals(1, file.openCount.get());
+
+            file.identity = "test:2";
+            get(service.compute(file, ChecksumAlgorithm.MD5));
+            assertEquals(2, file.openCount.get());
+        }
+    }
+
+    @Test
+    public void testCompute__without_identity() throws Exception {
+        try (ChecksumService service = new ChecksumService(1)) {
+            final CountingFile file = new CountingFile("abc".getBytes(StandardCharsets.UTF_8), null);
+
+            get(service.compute(file, ChecksumAlgorithm.MD5));
+            get(service.compute(file, ChecksumAlgorithm.MD5));
+            assertEquals(2, file.openCount.get());
+        }
+    }
+
+    @Test
+    public void testCompute__persisted(@TempDir Path directory) throws Exception {
+        final Path source = Files.write(directory.resolve("file.txt"), "abc".getBytes(StandardCharsets.UTF_8));
+        final Path cacheFile = directory.resolve("checksums");
+        final FileTreeItemFromLocalFile file = new FileTreeItemFromLocalFile(source);
+
+        try (ChecksumService service = new ChecksumService(1)) {
+            service.setCacheFile(cacheFile);
+            assertEquals("352441c2", get(service.compute(file, ChecksumAlgorithm.CRC32)));
+        }
+
+        try (ChecksumService service = new ChecksumService(1)) {
+            service.setCacheFile(cacheFile);
+            assertEquals("352441c2", service.getCache().get(ChecksumAlgorithm.CRC32, file.getContentIdentity()));
+
+            // the identity changes with the content
+            Files.write(source, "abcd".getBytes(StandardCharsets.UTF_8));
+            assertNull(service.getCache().get(ChecksumAlgorithm.CRC32, file.getContentIdentity()));
+            assertEquals("ed82cd11", get(service.compute(new FileTreeItemFromLocalFile(source), ChecksumAlgorithm.CRC32)));
+        }
+    }
+
+    @Test
+    public void testCompute__shared_and_rejected() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        try (ChecksumService service = new ChecksumService(1)) {
+            service.setQueueSize(1);
+            final BlockingFile file = new BlockingFile(latch);
+
+            final CompletableFuture<String> future = service.compute(file, ChecksumAlgorithm.SHA_256);
+            assertSame(future, service.compute(file, ChecksumAlgorithm.SHA_256));
+
+            final ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> service.compute(new BlockingFile(latch), ChecksumAlgorithm.SHA_256).get());
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+
+            latch.countDown();
+            assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", get(future));
+
+            // the queue is free again
+            assertEquals("352441c2", get(service.compute(new BlockingFile(latch), ChecksumAlgorithm.CRC32)));
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    private static String get(CompletableFuture<String> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static class CountingFile extends FileTreeItemInMemory {
+        private final AtomicInteger openCount = new AtomicInteger();
+        private volatile String identity;
+
+        private CountingFile(byte[] content, String identity) {
+            super(content);
+            this.identity = identity;
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            openCount.incrementAndGet();
+            return super.createInputStream(offset);
+        }
+
+        @Override
+        public String getContentIdentity() {
+            return identity;
+        }
+    }
+
+    private static class BlockingFile extends FileTreeItemInMemory {
+        private final CountDownLatch latch;
+
+        private BlockingFile(CountDownLatch latch) {
+            super("abc".getBytes(StandardCharsets.UTF_8));
+            this.latch = latch;
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return super.createInputStream(offset);
+        }
+    }
+}
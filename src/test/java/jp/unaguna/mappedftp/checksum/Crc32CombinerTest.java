@@ -0,0 +1,45 @@
+package jp.unaguna.mappedftp.checksum;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Crc32CombinerTest {
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 7, 512, 4095, 4096})
+    public void testCombine(int split) {
+        final byte[] content = new byte[4096];
+        new Random(split).nextBytes(content);
+
+        final long crc1 = crc(content, 0, split);
+        final long crc2 = crc(content, split, content.length - split);
+
+        assertEquals(crc(content, 0, content.length), Crc32Combiner.combine(crc1, crc2, content.length - split));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 10})
+    public void testCombine__many_chunks(int chunkCount) {
+        final byte[] content = new byte[10_000];
+        new Random(chunkCount).nextBytes(content);
+        final int chunkSize = (content.length + chunkCount - 1) / chunkCount;
+
+        long crc = 0;
+        for (int offset = 0; offset < content.length; offset += chunkSize) {
+            final int length = Math.min(chunkSize, content.length - offset);
+            crc = Crc32Combiner.combine(crc, crc(content, offset, length), length);
+        }
+
+        assertEquals(crc(content, 0, content.length), crc);
+    }
+
+    private static long crc(byte[] content, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(content, offset, length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,115 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import org.apache.ftpserver.command.impl.listing.DirectoryLister;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.command.impl.listing.ListArgumentParser;
+import org.apache.ftpserver.command.impl.listing.NLSTFileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingDirectoryListerTest {
+    @ParameterizedTest
+    @ValueSource(strings = {"", "/", "-a /", "dir2", "dir2/file3", "/dir*"})
+    public void testListFiles__same_as_directory_lister(String argument) {
+        final LinkedFileSystemView fileSystemView = new LinkedFileSystemView(createTree());
+        final FileFormater formatter = new NLSTFileFormater();
+
+        try {
+            final String expected = new DirectoryLister()
+                    .listFiles(ListArgumentParser.parse(argument), fileSystemView, formatter);
+            final String actual = new CachingDirectoryLister()
+                    .listFiles(ListArgumentParser.parse(argument), fileSystemView, formatter, "NLST");
+
+            assertEquals(expected, actual);
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "/", "-a /", "dir2", "dir2/file3", "/dir*"})
+    public void testOpenListing(String argument) {
+        final LinkedFileSystemView fileSystemView = new LinkedFileSystemView(createTree());
+        final FileFormater formatter = new NLSTFileFormater();
+
+        try {
+            final String expected = new DirectoryLister()
+                    .listFiles(ListArgumentParser.parse(argument), fileSystemView, formatter);
+            final String actual;
+            try (InputStream inputStream = new CachingDirectoryLister()
+                    .openListing(ListArgumentParser.parse(argument), fileSystemView, formatter, "NLST")) {
+                actual = readString(inputStream);
+            }
+
+            assertEquals(expected, actual);
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/", "dir2"})
+    public void testListFiles__reuse(String argument) {
+        final LinkedFileSystemView fileSystemView = new LinkedFileSystemView(createTree());
+        final CountingFormatter formatter = new CountingFormatter();
+        final CachingDirectoryLister lister = new CachingDirectoryLister();
+
+        try {
+            final String first = lister.listFiles(ListArgumentParser.parse(argument), fileSystemView, formatter, "NLST");
+            final int count = formatter.count.get();
+            final String second = lister.listFiles(ListArgumentParser.parse(argument), fileSystemView, formatter, "NLST");
+
+            assertSame(first, second);
+            assertEquals(count, formatter.count.get());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private static FileTreeNode createTree() {
+        final FileTreeNode root = new FileTreeNode(new FileTreeItemDirectory(), null);
+        root.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("file2"));
+        root.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir2", "file3"));
+        root.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("file1"));
+        root.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir1", "file4"));
+        root.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir2", "file1"));
+        return root;
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class CountingFormatter extends NLSTFileFormater {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String format(FtpFile file) {
+            count.incrementAndGet();
+            return super.format(file);
+        }
+    }
+}
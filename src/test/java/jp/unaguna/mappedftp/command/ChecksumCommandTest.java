@@ -0,0 +1,177 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.checksum.ChecksumService;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.impl.DefaultFtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ChecksumCommandTest {
+    @ParameterizedTest
+    @CsvSource({
+            "XCRC, 352441c2",
+            "XMD5, 900150983cd24fb0d6963f7d28e17f72",
+            "XSHA, a9993e364706816aba3e25717850c26c9cd0d89d",
+            "XSHA1, a9993e364706816aba3e25717850c26c9cd0d89d",
+            "XSHA256, ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+    })
+    public void testExecute(String commandName, String expected) throws Exception {
+        final SessionStub session = new SessionStub(createTree(new FileTreeItemInMemory(bytes("abc"))));
+
+        session.execute(commandName + " /dir/file.txt");
+
+        assertReply(250, expected, session.replies.get(0));
+    }
+
+    @Test
+    public void testExecute__quoted() throws Exception {
+        final SessionStub session = new SessionStub(createTree(new FileTreeItemInMemory(bytes("abc"))));
+
+        session.execute("XCRC \"/dir/file.txt\"");
+        session.execute("XCRC \"/dir/file.txt\" 0 1");
+
+        assertReply(250, "352441c2", session.replies.get(0));
+        assertEquals(504, session.replies.get(1).getCode());
+    }
+
+    @Test
+    public void testExecute__hash() throws Exception {
+        final SessionStub session = new SessionStub(createTree(new FileTreeItemInMemory(bytes("abc"))));
+
+        session.execute("HASH /dir/file.txt");
+        session.execute("OPTS HASH");
+        session.execute("OPTS HASH md5");
+        session.execute("HASH /dir/file.txt");
+        session.execute("OPTS HASH unknown");
+        session.execute("OPTS HASH");
+
+        assertReply(213, "SHA-256 0-3 ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad /dir/file.txt",
+                session.replies.get(0));
+        assertReply(200, "SHA-256", session.replies.get(1));
+        assertReply(200, "MD5", session.replies.get(2));
+        assertReply(213, "MD5 0-3 900150983cd24fb0d6963f7d28e17f72 /dir/file.txt", session.replies.get(3));
+        assertEquals(501, session.replies.get(4).getCode());
+        assertReply(200, "MD5", session.replies.get(5));
+    }
+
+    @Test
+    public void testExecute__not_a_file() throws Exception {
+        final SessionStub session = new SessionStub(createTree(new FileTreeItemInMemory(bytes("abc"))));
+
+        session.execute("XMD5 /dir/missing.txt");
+        session.execute("XMD5 /dir");
+        session.execute("XMD5");
+
+        assertEquals(550, session.replies.get(0).getCode());
+        assertEquals(550, session.replies.get(1).getCode());
+        assertEquals(501, session.replies.get(2).getCode());
+    }
+
+    @Test
+    public void testExecute__being_computed() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        try (ChecksumService service = new ChecksumService(1)) {
+            final SessionStub session = new SessionStub(createTree(new BlockingFile(latch)));
+            final XMD5 command = new XMD5();
+            command.setService(service);
+            command.setWait(100);
+            session.commands.put("MD5", command);
+
+            session.execute("XMD5 /dir/file.txt");
+            latch.countDown();
+            command.setWait(10_000);
+            session.execute("XMD5 /dir/file.txt");
+
+            assertEquals(450, session.replies.get(0).getCode());
+            assertReply(250, "900150983cd24fb0d6963f7d28e17f72", session.replies.get(1));
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    private static void assertReply(int expectedCode, String expectedMessage, FtpReply actual) {
+        assertEquals(expectedCode, actual.getCode());
+        assertEquals(expectedMessage, actual.getMessage());
+    }
+
+    private static FileTreeNode createTree(FileTreeItemInMemory file) {
+        final FileTreeNode root = new FileTreeNode(new FileTreeItemDirectory(), null);
+        root.appendSubFile(file, TreePath.get("dir", "file.txt"));
+        return root;
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class SessionStub {
+        private final FtpIoSession session = mock(FtpIoSession.class);
+        private final Map<String, Object> attributes = new HashMap<>();
+        private final Map<String, Command> commands = new HashMap<>();
+        private final List<FtpReply> replies = new ArrayList<>();
+
+        private SessionStub(FileTreeNode root) throws Exception {
+            when(session.getFileSystemView()).thenReturn(new LinkedFileSystemView(root));
+            when(session.getAttribute(anyString())).then(invocation -> attributes.get(invocation.<String>getArgument(0)));
+            when(session.setAttribute(anyString(), any())).then(invocation ->
+                    attributes.put(invocation.getArgument(0), invocation.getArgument(1)));
+            when(session.write(any())).then(invocation -> {
+                replies.add(invocation.getArgument(0));
+                return null;
+            });
+        }
+
+        private void execute(String line) throws Exception {
+            final DefaultFtpRequest request = new DefaultFtpRequest(line);
+            Command command = commands.get(request.getCommand());
+            if (command == null) {
+                command = MappedCommands.getChecksumCommandClasses().get(request.getCommand())
+                        .getDeclaredConstructor().newInstance();
+                commands.put(request.getCommand(), command);
+            }
+            command.execute(session, null, request);
+        }
+    }
+
+    private static class BlockingFile extends FileTreeItemInMemory {
+        private final CountDownLatch latch;
+
+        private BlockingFile(CountDownLatch latch) {
+            super(bytes("abc"));
+            this.latch = latch;
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return super.createInputStream(offset);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package jp.unaguna.mappedftp.command;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromArchive;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromTar;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import jp.unaguna.mappedftp.filesystem.tree.archive.TarBuilder;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RETRTest {
+    @TempDir
+    public Path tempDir;
+
+    private FtpServer server;
+
+    @AfterEach
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRetr__channel() throws Exception {
+        final byte[] content = content(200000);
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/file.bin", new LocalFileWithoutStream(writeFile("file.bin", content)));
+
+        try (ClientStub client = new ClientStub(startServer(files, 0))) {
+            client.command("TYPE I", 200);
+            assertArrayEquals(content, client.retrieve("RETR /file.bin", 226));
+            assertArrayEquals(Arrays.copyOfRange(content, 150000, content.length),
+                    client.retrieve("RETR /file.bin", 150000, 226));
+        }
+    }
+
+    @Test
+    public void testRetr__channel_afterPort() throws Exception {
+        final byte[] content = content(100000);
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/file.bin", new LocalFileWithoutStream(writeFile("file.bin", content)));
+
+        try (ClientStub client = new ClientStub(startServer(files, 0))) {
+            client.command("TYPE I", 200);
+            assertArrayEquals(content, client.retrieveActive("RETR /file.bin", 226));
+        }
+    }
+
+    @Test
+    public void testRetr__tarMember() throws Exception {
+        final String content = text(100000);
+        final Path tar = new TarBuilder()
+                .add("dir/file.txt", '0', content, 0)
+                .write(tempDir.resolve("test.tar"));
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/data", new FileTreeItemFromTar(tar));
+
+        try (ClientStub client = new ClientStub(startServer(files, 0))) {
+            client.command("TYPE I", 200);
+            assertArrayEquals(bytes(content), client.retrieve("RETR /data/dir/file.txt", 226));
+            assertArrayEquals(bytes(content.substring(60000)), client.retrieve("RETR /data/dir/file.txt", 60000, 226));
+        }
+    }
+
+    @Test
+    public void testRetr__zipEntry() throws Exception {
+        final byte[] content = content(100000);
+        final Path zip = tempDir.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            final ZipEntry stored = new ZipEntry("stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(content);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("deflated.bin"));
+            out.write(content);
+            out.closeEntry();
+        }
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/data", new FileTreeItemFromArchive(zip));
+
+        try (ClientStub client = new ClientStub(startServer(files, 0))) {
+            client.command("TYPE I", 200);
+            assertArrayEquals(content, client.retrieve("RETR /data/stored.bin", 226));
+            assertArrayEquals(Arrays.copyOfRange(content, 60000, content.length),
+                    client.retrieve("RETR /data/stored.bin", 60000, 226));
+            // a compressed entry is inflated into the channel
+            assertArrayEquals(content, client.retrieve("RETR /data/deflated.bin", 226));
+        }
+    }
+
+    @Test
+    public void testRetr__streamInAscii() throws Exception {
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/file.txt", new LocalFileWithoutStream(writeFile("file.txt", bytes("a\nb\n"))));
+        files.put("/memory.txt", new FileTreeItemInMemory(bytes("a\nb\n")));
+
+        try (ClientStub client = new ClientStub(startServer(files, 0))) {
+            client.command("TYPE A", 200);
+            // the ASCII type is sent from the stream, which the item does not offer
+            client.retrieve("RETR /file.txt", 551);
+            assertArrayEquals(bytes("a\r\nb\r\n"), client.retrieve("RETR /memory.txt", 226));
+        }
+    }
+
+    @Test
+    public void testRetr__streamWithRateLimit() throws Exception {
+        final byte[] content = content(1000);
+        final Map<String, FileTreeItem> files = new HashMap<>();
+        files.put("/file.bin", new LocalFileWithoutStream(writeFile("file.bin", content)));
+        files.put("/memory.bin", new FileTreeItemInMemory(content));
+
+        try (ClientStub client = new ClientStub(startServer(files, 1000000))) {
+            client.command("TYPE I", 200);
+            client.retrieve("RETR /file.bin", 551);
+            assertArrayEquals(content, client.retrieve("RETR /memory.bin", 226));
+        }
+    }
+
+    private int startServer(Map<String, FileTreeItem> files, int maxDownloadRate) throws Exception {
+        final FtpServerFactory serverFactory = new FtpServerFactory();
+        final ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress(InetAddress.getLoopbackAddress().getHostAddress());
+        listenerFactory.setPort(0);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.setUserManager(createUserManager(maxDownloadRate));
+        serverFactory.setFileSystem(new MappingFileSystemFactory(files));
+        serverFactory.setCommandFactory(MappedCommands.createCommandFactory());
+        server = serverFactory.createServer();
+        server.start();
+        return serverFactory.getListener("default").getPort();
+    }
+
+    private static UserManager createUserManager(int maxDownloadRate) throws FtpException {
+        final UserManager userManager = new PropertiesUserManagerFactory().createUserManager();
+        final BaseUser user = new BaseUser();
+        user.setName("anonymous");
+        user.setHomeDirectory("/");
+        user.setAuthorities(Arrays.<Authority>asList(
+                new ConcurrentLoginPermission(0, 0),
+                new TransferRatePermission(maxDownloadRate, 0)));
+        userManager.save(user);
+        return userManager;
+    }
+
+    private Path writeFile(String name, byte[] content) throws IOException {
+        final Path file = tempDir.resolve(name);
+        Files.write(file, content);
+        return file;
+    }
+
+    private static byte[] content(int size) {
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private static String text(int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + (i * 7 + i / 26) % 26));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A local file which can only be sent through a channel.
+     */
+    private static class LocalFileWithoutStream extends FileTreeItemFromLocalFile {
+        public LocalFileWithoutStream(Path source) {
+            super(source);
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            throw new IOException("the stream is not expected to be opened");
+        }
+    }
+
+    /**
+     * A minimal FTP client logged in as anonymous.
+     */
+    private static class ClientStub implements AutoCloseable {
+        private static final Pattern PASV_REPLY = Pattern.compile("\\((\\d+),(\\d+),(\\d+),(\\d+),(\\d+),(\\d+)\\)");
+
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final OutputStream writer;
+
+        public ClientStub(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = socket.getOutputStream();
+            assertEquals(220, readReply().code);
+            command("USER anonymous", 331);
+            command("PASS test@example.com", 230);
+        }
+
+        public Reply command(String line, int expectedCode) throws IOException {
+            writer.write(bytes(line + "\r\n"));
+            writer.flush();
+            final Reply reply = readReply();
+            assertEquals(expectedCode, reply.code, line + ": " + reply.text);
+            return reply;
+        }
+
+        public byte[] retrieve(String line, int expectedCode) throws IOException {
+            return retrieve(line, 0, expectedCode);
+        }
+
+        public byte[] retrieve(String line, long offset, int expectedCode) throws IOException {
+            final Matcher matcher = PASV_REPLY.matcher(command("PASV", 227).text);
+            assertTrue(matcher.find());
+            final int port = Integer.parseInt(matcher.group(5)) * 256 + Integer.parseInt(matcher.group(6));
+            if (offset != 0) {
+                command("REST " + offset, 350);
+            }
+
+            try (Socket dataSocket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                return transfer(dataSocket, line, expectedCode);
+            }
+        }
+
+        public byte[] retrieveActive(String line, int expectedCode) throws IOException {
+            try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                final int port = serverSocket.getLocalPort();
+                command("PORT 127,0,0,1," + port / 256 + "," + port % 256, 200);
+                writer.write(bytes(line + "\r\n"));
+                writer.flush();
+                assertEquals(150, readReply().code);
+                try (Socket dataSocket = serverSocket.accept()) {
+                    return receive(dataSocket, line, expectedCode);
+                }
+            }
+        }
+
+        private byte[] transfer(Socket dataSocket, String line, int expectedCode) throws IOException {
+            writer.write(bytes(line + "\r\n"));
+            writer.flush();
+            assertEquals(150, readReply().code);
+            return receive(dataSocket, line, expectedCode);
+        }
+
+        private byte[] receive(Socket dataSocket, String line, int expectedCode) throws IOException {
+            final byte[] received = TestUtils.readAllBytes(dataSocket.getInputStream());
+            final Reply reply = readReply();
+            assertEquals(expectedCode, reply.code, line + ": " + reply.text);
+            return received;
+        }
+
+        private Reply readReply() throws IOException {
+            final List<String> lines = new ArrayList<>();
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("the control connection is closed");
+                }
+                lines.add(line);
+            } while (line.length() < 4 || line.charAt(3) != ' ' || !Character.isDigit(line.charAt(0)));
+            return new Reply(Integer.parseInt(line.substring(0, 3)), String.join("\n", lines));
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static class Reply {
+        private final int code;
+        private final String text;
+
+        private Reply(int code, String text) {
+            this.code = code;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.compact.CompactTreeNode;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamFetcher;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedFilesystemBeanDefinitionParserTest {
+    @Test
+    public void testParse(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        assertFalse(fileSystemFactory.isCompact());
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            assertInstanceOf(FileTreeNode.class, fileSystemView.getFile("/dir1/file1"));
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testParse__compact(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        assertTrue(fileSystemFactory.isCompact());
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            final FtpFile file1 = fileSystemView.getFile("/dir1/file1");
+            assertInstanceOf(CompactTreeNode.class, file1);
+            assertEquals("owner1", file1.getOwnerName());
+            assertEquals("group1", file1.getGroupName());
+            assertEquals(1000L, file1.getLastModified());
+
+            final FtpFile file2 = fileSystemView.getFile("/file2");
+            assertEquals("anonymous", file2.getOwnerName());
+            assertTrue(file2.isFile());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testParse__prefetch(TestInfo testInfo) throws Exception {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        // broken sources do not stop the server
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        assertEquals(2, fileSystemFactory.getPrefetchThreads());
+        assertEquals(5000L, fileSystemFactory.getPrefetchTimeout());
+        assertTrue(((FileTreeItemReadOnlyFile) fileSystemFactory.getFiles().get("/file1")).isPrefetch());
+        assertTrue(((FileTreeItemReadOnlyFile) fileSystemFactory.getFiles().get("/file3")).isPrefetch());
+        assertFalse(((FileTreeItemReadOnlyFile) fileSystemFactory.getFiles().get("/file4")).isPrefetch());
+
+        final Map<String, IOException> failures = fileSystemFactory.prefetch();
+        assertEquals(Arrays.asList("/file2", "/file3"), Arrays.asList(failures.keySet().toArray()));
+    }
+
+    @Test
+    public void testParse__error_by_invalid_mapping(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        // the tree is built at startup, so the server does not start with an invalid mapping
+        final BeanCreationException e = assertThrows(BeanCreationException.class,
+                () -> new FileSystemXmlApplicationContext(configPath.toString()));
+        assertInstanceOf(FileSystemDefinitionException.class, e.getCause().getCause());
+        assertEquals("cannot append on out of this directory: ../file2", e.getCause().getCause().getMessage());
+    }
+
+    @Test
+    public void testParse__upstream(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        final UpstreamFetcher fetcher1 = ((FileTreeItemFromURL) fileSystemFactory.getFiles().get("/file1")).getFetcher();
+        final UpstreamFetcher fetcher2 = ((FileTreeItemFromURL) fileSystemFactory.getFiles().get("/file2")).getFetcher();
+
+        // the url-files share the fetcher
+        assertSame(fetcher1, fetcher2);
+        assertNotSame(UpstreamFetcher.getDefault(), fetcher1);
+        assertEquals(2, fetcher1.getMaxConnectionsPerHost());
+        assertEquals(500, fetcher1.getAcquireTimeout());
+        assertEquals(1000, fetcher1.getConnectTimeout());
+        assertEquals(2000, fetcher1.getReadTimeout());
+    }
+
+    @Test
+    public void testParse__upstream_default(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        final FileTreeItemFromURL file = (FileTreeItemFromURL) fileSystemFactory.getFiles().get("/file4");
+        assertSame(UpstreamFetcher.getDefault(), file.getFetcher());
+    }
+
+    @Test
+    public void testParse__mapping_file(@TempDir Path directory, TestInfo testInfo) throws IOException, FtpException {
+        final Path configPath = prepareMappingFileConfig(directory, testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toUri().toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        // the entries of the element and of the mapping file
+        assertEquals(Arrays.asList("/dir1/file1", "/dir1/file2", "/file3"),
+                Arrays.asList(fileSystemFactory.getFiles().keySet().toArray()));
+
+        final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+        final FtpFile file2 = fileSystemView.getFile("/dir1/file2");
+        assertEquals("owner2", file2.getOwnerName());
+        assertEquals("group2", file2.getGroupName());
+        assertEquals(2000L, file2.getLastModified());
+
+        // the url-files in the mapping file also use the fetcher of the element
+        final UpstreamFetcher fetcher = ((FileTreeItemFromURL) fileSystemFactory.getFiles().get("/file3")).getFetcher();
+        assertEquals(2, fetcher.getMaxConnectionsPerHost());
+    }
+
+    @Test
+    public void testParse__error_by_mapping_file(@TempDir Path directory, TestInfo testInfo) throws IOException {
+        final Path configPath = prepareMappingFileConfig(directory, testInfo);
+
+        final BeanDefinitionStoreException e = assertThrows(BeanDefinitionStoreException.class,
+                () -> new FileSystemXmlApplicationContext(configPath.toUri().toString()));
+        assertTrue(e.getMessage().contains("mapping.csv:3: unknown type of file: dummy-file"), e.getMessage());
+    }
+
+    @Test
+    public void testParse__index(@TempDir Path directory, TestInfo testInfo)
+            throws IOException, FtpException, FileSystemDefinitionException {
+        final Path mappingFile = prepareMappingFileConfig(directory, testInfo).resolveSibling("mapping.csv");
+        final Path indexFile = directory.resolve("mapping.idx");
+        new MappingIndexCompiler().compile(mappingFile, indexFile);
+
+        final Path configPath = directory.resolve("config.xml");
+        final String config = new String(Files.readAllBytes(configPath), StandardCharsets.UTF_8);
+        Files.write(configPath, config.replace("${index}", indexFile.toString()).getBytes(StandardCharsets.UTF_8));
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toUri().toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        assertNotNull(fileSystemFactory.getIndex());
+        final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+        final FtpFile file2 = fileSystemView.getFile("/dir1/file2");
+        assertInstanceOf(CompactTreeNode.class, file2);
+        assertEquals("owner2", file2.getOwnerName());
+        assertEquals(2000L, file2.getLastModified());
+
+        // the url-files in the index also use the fetcher of the element
+        final UpstreamFetcher fetcher = ((FileTreeItemFromURL) ((CompactTreeNode) fileSystemView.getFile("/file3"))
+                .getFile()).getFetcher();
+        assertEquals(2, fetcher.getMaxConnectionsPerHost());
+    }
+
+    @Test
+    public void testParse__error_by_index_with_files(@TempDir Path directory, TestInfo testInfo) throws IOException {
+        final Path configPath = prepareMappingFileConfig(directory, testInfo);
+
+        final BeanDefinitionStoreException e = assertThrows(BeanDefinitionStoreException.class,
+                () -> new FileSystemXmlApplicationContext(configPath.toUri().toString()));
+        assertTrue(e.getMessage().contains("mapped-filesystem with an index cannot have files"), e.getMessage());
+    }
+
+    @Test
+    public void testParse__overlays(TestInfo testInfo) throws FtpException {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        assertEquals(Collections.singleton("bob"), fileSystemFactory.getUserOverlays().keySet());
+        assertEquals(Arrays.asList("alice", "bob"), fileSystemFactory.getGroupMembers().get("staff"));
+
+        final LinkedFileSystemView bob = fileSystemFactory.createFileSystemView(new UserStub("bob"));
+        assertEquals("file1", bob.getFile("/pub/file1").getName());
+        assertEquals("staff", bob.getFile("/pub/staff").getOwnerName());
+        assertEquals("bob", bob.getFile("/home/bob/file3").getOwnerName());
+
+        final LinkedFileSystemView alice = fileSystemFactory.createFileSystemView(new UserStub("alice"));
+        assertEquals("staff", alice.getFile("/pub/staff").getOwnerName());
+        assertThrows(FtpException.class, () -> alice.getFile("/home/bob/file3"));
+
+        final LinkedFileSystemView carol = fileSystemFactory.createFileSystemView(new UserStub("carol"));
+        assertInstanceOf(CompactTreeNode.class, carol.getFile("/pub/file1"));
+        assertThrows(FtpException.class, () -> carol.getFile("/pub/staff"));
+    }
+
+    /**
+     * Copies the input "config.xml" and "mapping.csv" into the directory,
+     * replacing "${mapping-file}" in the configuration with the path of the mapping file.
+     */
+    private static Path prepareMappingFileConfig(Path directory, TestInfo testInfo) throws IOException {
+        final Path mappingFile = directory.resolve("mapping.csv");
+        try (InputStream inputStream = TestUtils.getInputResource("mapping.csv", testInfo).openStream()) {
+            Files.copy(inputStream, mappingFile);
+        }
+
+        final Path configPath = directory.resolve("config.xml");
+        try (InputStream inputStream = TestUtils.getInputResource("config.xml", testInfo).openStream()) {
+            final String config = new String(TestUtils.readAllBytes(inputStream), StandardCharsets.UTF_8);
+            Files.write(configPath, config.replace("${mapping-file}", mappingFile.toString())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return configPath;
+    }
+}
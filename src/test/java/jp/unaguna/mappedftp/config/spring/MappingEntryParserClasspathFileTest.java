@@ -24,7 +24,7 @@ import java.util.Date;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
-public class ClasspathFileBeanDefinitionParserTest {
+public class MappingEntryParserClasspathFileTest {
     @Test
     public void testParse(TestInfo testInfo) {
         final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
@@ -5,6 +5,7 @@ import jp.unaguna.mappedftp.UserStub;
 import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
 import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.impl.DefaultFtpServer;
@@ -25,7 +26,7 @@ import java.util.Date;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
-public class LocalFileBeanDefinitionParserTest {
+public class MappingEntryParserLocalFileTest {
     @Test
     public void testParse(TestInfo testInfo) {
         final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
@@ -162,4 +163,26 @@ public class LocalFileBeanDefinitionParserTest {
             fail(e);
         }
     }
+
+    @Test
+    public void testParse__with_metadata_ttl(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            final FileTreeItemFromLocalFile file1 =
+                    (FileTreeItemFromLocalFile) ((FileTreeNode) fileSystemView.getFile("/file1")).getFile();
+            final FileTreeItemFromLocalFile file2 =
+                    (FileTreeItemFromLocalFile) ((FileTreeNode) fileSystemView.getFile("/file2")).getFile();
+            assertEquals(1234L, file1.getMetadataTtl());
+            assertEquals(FileTreeItemReadOnlyFile.DEFAULT_METADATA_TTL, file2.getMetadataTtl());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
 }
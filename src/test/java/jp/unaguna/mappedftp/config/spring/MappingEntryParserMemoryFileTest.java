@@ -0,0 +1,64 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import jp.unaguna.mappedftp.utils.ClasspathUtils;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingEntryParserMemoryFileTest {
+    @Test
+    public void testParse(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+
+            final FileTreeItemInMemory file1 =
+                    (FileTreeItemInMemory) ((FileTreeNode) fileSystemView.getFile("/file1")).getFile();
+            assertEquals(ClasspathUtils.getResource("/unittest/input/local.txt"), file1.getSource());
+            assertFalse(file1.isDirect());
+            assertEquals("test_owner", file1.getOwnerName());
+            assertNull(file1.getGroupName());
+            assertEquals(1234L, file1.getLastModified());
+            assertEquals(26L, file1.getSize());
+
+            // the source is not read until it is requested
+            final FileTreeItemInMemory file2 =
+                    (FileTreeItemInMemory) ((FileTreeNode) fileSystemView.getFile("/file2")).getFile();
+            assertEquals(new URL("file:/dummy/no_exists"), file2.getSource());
+            assertTrue(file2.isDirect());
+            assertNull(file2.getOwnerName());
+            assertEquals("test_group", file2.getGroupName());
+
+        } catch (FtpException | MalformedURLException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testParse__error_by_missing_resource(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final BeanDefinitionStoreException e = assertThrows(BeanDefinitionStoreException.class,
+                () -> new FileSystemXmlApplicationContext(configPath.toString()));
+        assertTrue(e.getMessage().contains("no such resource: classpath:/dummy/no_exists"), e.getMessage());
+    }
+}
@@ -0,0 +1,43 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemMappedFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.net.URL;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingEntryParserMmapFileTest {
+    @Test
+    public void testParse(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            final FileTreeItemMappedFile file =
+                    (FileTreeItemMappedFile) ((FileTreeNode) fileSystemView.getFile("/file1")).getFile();
+            assertEquals(Paths.get("dir1/dummy.txt"), file.getSource());
+            assertEquals("test_owner", file.getOwnerName());
+            assertEquals("test_group", file.getGroupName());
+            assertNull(file.getLastModified());
+            assertTrue(file.isPrefetch());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+}
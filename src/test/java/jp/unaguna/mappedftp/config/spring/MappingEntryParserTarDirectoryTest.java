@@ -0,0 +1,73 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromTar;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.net.URL;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingEntryParserTarDirectoryTest {
+    @Test
+    public void testParse(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            final FileTreeNode fileTreeNode = (FileTreeNode) fileSystemView.getFile("/dir1");
+            final FileTreeItemFromTar file = (FileTreeItemFromTar) fileTreeNode.getFile();
+            assertTrue(fileTreeNode.isDirectory());
+            assertEquals(Paths.get("bundle.tar"), file.getSource());
+            assertNull(file.getLastModifiedFactory());
+            assertNull(file.getOwnerName());
+            assertNull(file.getGroupName());
+            assertEquals(FileTreeItemFromTar.DEFAULT_CACHE_TTL, file.getCacheTtl());
+            assertEquals(FileTreeItemFromTar.DEFAULT_CACHE_MAX_ENTRIES, file.getCacheMaxEntries());
+            assertNull(file.getIndexDirectory());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testParse__with_attributes(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            // mapped to the root
+            final FileTreeNode fileTreeNode = (FileTreeNode) fileSystemView.getFile("/");
+            final FileTreeItemFromTar file = (FileTreeItemFromTar) fileTreeNode.getFile();
+            assertEquals(Paths.get("bundle.tar"), file.getSource());
+            assertEquals(1234L, file.getLastModified());
+            assertEquals("test-owner", file.getOwnerName());
+            assertEquals("test-group", file.getGroupName());
+            assertEquals(3456L, file.getCacheTtl());
+            assertEquals(3456L, file.getMetadataTtl());
+            assertEquals(4567L, file.getCacheMaxEntries());
+            assertEquals(Paths.get("index-cache"), file.getIndexDirectory());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+}
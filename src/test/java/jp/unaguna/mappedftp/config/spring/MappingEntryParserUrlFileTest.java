@@ -6,6 +6,8 @@ import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
 import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
 import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import jp.unaguna.mappedftp.filesystem.tree.cache.UrlContentCache;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.ReadAhead;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.impl.DefaultFtpServer;
 import org.junit.jupiter.api.Tag;
@@ -23,7 +25,7 @@ import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-public class UrlFileBeanDefinitionParserTest {
+public class MappingEntryParserUrlFileTest {
     @Test
     public void testParse(TestInfo testInfo) {
         final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
@@ -160,4 +162,63 @@ public class UrlFileBeanDefinitionParserTest {
             fail(e);
         }
     }
+
+    @Test
+    public void testParse__with_cache(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            final FileTreeItemFromURL file1 =
+                    (FileTreeItemFromURL) ((FileTreeNode) fileSystemView.getFile("/file1")).getFile();
+            final FileTreeItemFromURL file2 =
+                    (FileTreeItemFromURL) ((FileTreeNode) fileSystemView.getFile("/file2")).getFile();
+            final FileTreeItemFromURL file3 =
+                    (FileTreeItemFromURL) ((FileTreeNode) fileSystemView.getFile("/file3")).getFile();
+
+            assertNotNull(file1.getCache());
+            assertSame(file1.getCache(), file2.getCache());
+            assertEquals(UrlContentCache.DEFAULT_DIRECTORY, file1.getCache().getDirectory());
+            assertEquals(1234L, file1.getCacheTtl());
+            assertEquals(FileTreeItemFromURL.DEFAULT_CACHE_TTL, file2.getCacheTtl());
+            assertNull(file3.getCache());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testParse__with_read_ahead(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final MappingFileSystemFactory fileSystemFactory = (MappingFileSystemFactory) actualServer.getFileSystem();
+
+        try {
+            final LinkedFileSystemView fileSystemView = fileSystemFactory.createFileSystemView(new UserStub());
+            final FileTreeItemFromURL file1 =
+                    (FileTreeItemFromURL) ((FileTreeNode) fileSystemView.getFile("/file1")).getFile();
+            final FileTreeItemFromURL file2 =
+                    (FileTreeItemFromURL) ((FileTreeNode) fileSystemView.getFile("/file2")).getFile();
+            final FileTreeItemFromURL file3 =
+                    (FileTreeItemFromURL) ((FileTreeNode) fileSystemView.getFile("/file3")).getFile();
+
+            assertEquals(8, file1.getReadAhead().getDepth());
+            assertEquals(4096, file1.getReadAhead().getBufferSize());
+            assertEquals(ReadAhead.Backpressure.RELEASE, file1.getReadAhead().getBackpressure());
+            assertEquals(2, file2.getReadAhead().getDepth());
+            assertEquals(ReadAhead.DEFAULT_BUFFER_SIZE, file2.getReadAhead().getBufferSize());
+            assertEquals(ReadAhead.Backpressure.BLOCK, file2.getReadAhead().getBackpressure());
+            assertNull(file3.getReadAhead());
+
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.UpstreamFetcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingFileReaderTest {
+    @Test
+    public void testRead(@TempDir Path directory) throws IOException, FileSystemDefinitionException {
+        final Path mappingFile = write(directory,
+                "type,path,src,owner,group,last-modified,cache-ttl",
+                "# comment",
+                "local-file,/dir1/file1,./file1.txt,owner1,group1,1000,",
+                "",
+                "url-file,/file2,\"https://example.com/a,\"\"b\"\".txt\",,,,",
+                "local-directory,/dir2,./dir2,,,,500");
+
+        final Map<String, FileTreeItem> files = new MappingFileReader().read(mappingFile);
+
+        assertEquals(Arrays.asList("/dir1/file1", "/file2", "/dir2"), Arrays.asList(files.keySet().toArray()));
+
+        final FileTreeItemFromLocalFile file1 = (FileTreeItemFromLocalFile) files.get("/dir1/file1");
+        assertEquals(Paths.get("./file1.txt"), file1.getSource());
+        assertEquals("owner1", file1.getOwnerName());
+        assertEquals("group1", file1.getGroupName());
+        assertEquals(1000L, file1.getLastModified());
+
+        final FileTreeItemFromURL file2 = (FileTreeItemFromURL) files.get("/file2");
+        assertEquals("https://example.com/a,\"b\".txt", file2.getSource().toString());
+        assertNull(file2.getOwnerName());
+        assertNull(file2.getLastModified());
+        assertSame(UpstreamFetcher.getDefault(), file2.getFetcher());
+
+        final FileTreeItemFromLocalDirectory dir2 = (FileTreeItemFromLocalDirectory) files.get("/dir2");
+        assertEquals(500L, dir2.getCacheTtl());
+    }
+
+    @Test
+    public void testRead__fetcher(@TempDir Path directory) throws IOException, FileSystemDefinitionException {
+        final Path mappingFile = write(directory,
+                "path,type,src",
+                "/file1,url-file,https://example.com/1",
+                "/file2,url-file,https://example.com/2");
+        final UpstreamFetcher fetcher = new UpstreamFetcher(2);
+
+        final Map<String, FileTreeItem> files = new MappingFileReader(new MappingEntryParser(fetcher)).read(mappingFile);
+
+        assertSame(fetcher, ((FileTreeItemFromURL) files.get("/file1")).getFetcher());
+        assertSame(fetcher, ((FileTreeItemFromURL) files.get("/file2")).getFetcher());
+    }
+
+    @Test
+    public void testRead__error_by_unknown_type(@TempDir Path directory) throws IOException {
+        final Path mappingFile = write(directory,
+                "type,path,src",
+                "local-file,/file1,./file1.txt",
+                "dummy-file,/file2,./file2.txt");
+
+        final FileSystemDefinitionException e = assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingFileReader().read(mappingFile));
+        assertEquals(mappingFile + ":3: unknown type of file: dummy-file", e.getMessage());
+    }
+
+    @Test
+    public void testRead__error_by_invalid_attribute(@TempDir Path directory) throws IOException {
+        final Path mappingFile = write(directory,
+                "type,path,src,last-modified",
+                "local-file,/file1,./file1.txt,yesterday");
+
+        final FileSystemDefinitionException e = assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingFileReader().read(mappingFile));
+        assertTrue(e.getMessage().startsWith(mappingFile + ":2: "), e.getMessage());
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    }
+
+    @Test
+    public void testRead__error_by_missing_src(@TempDir Path directory) throws IOException {
+        final Path mappingFile = write(directory,
+                "type,path,src",
+                "local-file,/file1,");
+
+        final FileSystemDefinitionException e = assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingFileReader().read(mappingFile));
+        assertEquals(mappingFile + ":2: src of local-file is required", e.getMessage());
+    }
+
+    @Test
+    public void testRead__error_by_header(@TempDir Path directory) throws IOException {
+        final Path mappingFile = write(directory,
+                "path,src",
+                "/file1,./file1.txt");
+
+        final FileSystemDefinitionException e = assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingFileReader().read(mappingFile));
+        assertTrue(e.getMessage().startsWith(mappingFile + ":1: "), e.getMessage());
+    }
+
+    @Test
+    public void testRead__error_by_no_file(@TempDir Path directory) {
+        assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingFileReader().read(directory.resolve("no_exists.csv")));
+    }
+
+    @Test
+    public void testSplitRow() {
+        assertEquals(Arrays.asList("a", "", "c"), MappingFileReader.splitRow("a,,c"));
+        assertEquals(Arrays.asList("a", ""), MappingFileReader.splitRow("a,"));
+        assertEquals(Arrays.asList("a,b", "c\"d", ""), MappingFileReader.splitRow("\"a,b\",\"c\"\"d\",\"\""));
+        assertEquals(Arrays.asList(" a ", "b"), MappingFileReader.splitRow(" a ,b"));
+    }
+
+    @Test
+    public void testSplitRow__error_by_quote() {
+        assertThrows(IllegalArgumentException.class, () -> MappingFileReader.splitRow("\"a,b"));
+        assertThrows(IllegalArgumentException.class, () -> MappingFileReader.splitRow("\"a\"b,c"));
+    }
+
+    private static Path write(Path directory, String... lines) throws IOException {
+        final Path mappingFile = directory.resolve("mapping.csv");
+        Files.write(mappingFile, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return mappingFile;
+    }
+}
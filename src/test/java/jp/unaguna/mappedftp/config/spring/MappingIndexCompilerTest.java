@@ -0,0 +1,101 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.compact.CompactTreeNode;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndex;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingIndexCompilerTest {
+    @Test
+    public void testCompile__configuration(@TempDir Path directory) throws IOException, FileSystemDefinitionException {
+        final Path mappingFile = write(directory.resolve("mapping.csv"),
+                "type,path,src,owner",
+                "local-file,/dir1/file3,./file3.txt,owner3");
+        final Path config = write(directory.resolve("config.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>",
+                "<server xmlns=\"http://mappedftp.unaguna.jp/mapped-ftpserver\" id=\"server\">",
+                "    <mapped-filesystem>",
+                "        <local-file path=\"/dir1/file1\" src=\"./file1.txt\" owner=\"owner1\" last-modified=\"1000\"/>",
+                "        <url-file path=\"/file2\" src=\"https://example.com/2\" cache-ttl=\"100\" cache=\"true\"/>",
+                "        <mapping-file src=\"" + mappingFile + "\"/>",
+                "    </mapped-filesystem>",
+                "</server>");
+        final Path indexFile = directory.resolve("mapping.idx");
+
+        assertEquals(3, new MappingIndexCompiler().compile(config, indexFile));
+
+        final MappingIndex index = MappingIndex.open(indexFile, new MappingEntryParser()::parse);
+        final CompactTreeNode root = index.getRoot();
+
+        final CompactTreeNode file1 = root.getNodeByRelativePath(TreePath.get("dir1/file1"));
+        assertEquals("owner1", file1.getOwnerName());
+        assertEquals(1000L, file1.getLastModified());
+        assertEquals(Paths.get("./file1.txt"), ((FileTreeItemFromLocalFile) file1.getFile()).getSource());
+
+        final FileTreeItemFromURL file2 = (FileTreeItemFromURL) root.getNodeByRelativePath(TreePath.get("file2")).getFile();
+        assertEquals("https://example.com/2", file2.getSource().toString());
+        assertEquals(100L, file2.getCacheTtl());
+        assertNotNull(file2.getCache());
+
+        assertEquals("owner3", root.getNodeByRelativePath(TreePath.get("dir1/file3")).getOwnerName());
+    }
+
+    @Test
+    public void testCompile__mapping_file(@TempDir Path directory) throws IOException, FileSystemDefinitionException {
+        final Path mappingFile = write(directory.resolve("mapping.csv"),
+                "type,path,src",
+                "local-file,/b,./b.txt",
+                "local-file,/a,./a.txt",
+                "local-file,/a,./a2.txt");
+        final Path indexFile = directory.resolve("mapping.idx");
+
+        assertEquals(3, new MappingIndexCompiler().compile(mappingFile, indexFile));
+
+        final CompactTreeNode root = MappingIndex.open(indexFile, new MappingEntryParser()::parse).getRoot();
+        assertEquals(2, root.listFiles().size());
+        // the later entry replaces the former one
+        assertEquals(Paths.get("./a2.txt"),
+                ((FileTreeItemFromLocalFile) root.getNodeByRelativePath(TreePath.get("a")).getFile()).getSource());
+    }
+
+    @Test
+    public void testCompile__error_by_local_directory(@TempDir Path directory) throws IOException {
+        final Path mappingFile = write(directory.resolve("mapping.csv"),
+                "type,path,src",
+                "local-directory,/dir1,./dir1");
+        final Path indexFile = directory.resolve("mapping.idx");
+
+        final FileSystemDefinitionException e = assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingIndexCompiler().compile(mappingFile, indexFile));
+        assertTrue(e.getMessage().startsWith(mappingFile + ":2: "), e.getMessage());
+        assertFalse(Files.exists(indexFile));
+    }
+
+    @Test
+    public void testCompile__error_by_no_mapped_filesystem(@TempDir Path directory) throws IOException {
+        final Path config = write(directory.resolve("config.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>",
+                "<server xmlns=\"http://mappedftp.unaguna.jp/mapped-ftpserver\" id=\"server\"/>");
+
+        assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingIndexCompiler().compile(config, directory.resolve("mapping.idx")));
+    }
+
+    private static Path write(Path file, String... lines) throws IOException {
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.metrics.MetricsReporter;
+import jp.unaguna.mappedftp.metrics.MetricsSnapshot;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingReloaderTest {
+    @Test
+    public void testReload(@TempDir Path directory, TestInfo testInfo) throws Exception {
+        final Path configPath = directory.resolve("config.xml");
+        copyInput("config.xml", configPath, testInfo);
+        final MappingFileSystemFactory factory = loadFactory(configPath);
+
+        copyInput("config__changed.xml", configPath, testInfo);
+        new MappingReloader(configPath, factory).reload();
+
+        assertEquals(1, factory.getGeneration());
+        assertEquals("file2", factory.createFileSystemView(new UserStub()).getFile("/file2").getName());
+        assertThrows(FtpException.class, () -> factory.createFileSystemView(new UserStub()).getFile("/file1"));
+    }
+
+    @Test
+    public void testReload__error_by_invalid_config(@TempDir Path directory, TestInfo testInfo) throws Exception {
+        final Path configPath = directory.resolve("config.xml");
+        copyInput("config.xml", configPath, testInfo);
+        final MappingFileSystemFactory factory = loadFactory(configPath);
+
+        Files.write(configPath, "<server".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(FileSystemDefinitionException.class, () -> new MappingReloader(configPath, factory).reload());
+
+        // the current mapping is kept
+        assertEquals(0, factory.getGeneration());
+        assertEquals("file1", factory.createFileSystemView(new UserStub()).getFile("/file1").getName());
+    }
+
+    @Test
+    public void testReload__not_start_metrics(@TempDir Path directory, TestInfo testInfo) throws Exception {
+        final Path configPath = directory.resolve("config.xml");
+        copyInput("config__metrics.xml", configPath, testInfo);
+        CountingReporter.STARTS.set(0);
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toUri().toString());
+        try {
+            final MappingFileSystemFactory factory =
+                    (MappingFileSystemFactory) ((DefaultFtpServer) ctx.getBean("testServer")).getFileSystem();
+            assertEquals(1, CountingReporter.STARTS.get());
+
+            copyInput("config__metrics_changed.xml", configPath, testInfo);
+            new MappingReloader(configPath, factory).reload();
+
+            // the metrics service in the configuration is not started by the reload
+            assertEquals(1, factory.getGeneration());
+            assertEquals(1, CountingReporter.STARTS.get());
+        } finally {
+            ctx.close();
+            MetricRegistry.getDefault().setEnabled(false);
+        }
+    }
+
+    @Test
+    public void testStart(@TempDir Path directory, TestInfo testInfo) throws Exception {
+        final Path configPath = directory.resolve("config.xml");
+        copyInput("config.xml", configPath, testInfo);
+        final MappingFileSystemFactory factory = loadFactory(configPath);
+
+        try (MappingReloader reloader = new MappingReloader(configPath, factory)) {
+            reloader.start();
+
+            copyInput("config__changed.xml", configPath, testInfo);
+
+            final long deadline = System.currentTimeMillis() + 30_000;
+            while (factory.getGeneration() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        }
+
+        assertEquals(1, factory.getGeneration());
+        assertEquals("file2", factory.createFileSystemView(new UserStub()).getFile("/file2").getName());
+    }
+
+    private static MappingFileSystemFactory loadFactory(Path configPath) {
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toUri().toString());
+        final DefaultFtpServer server = (DefaultFtpServer) ctx.getBean("testServer");
+        return (MappingFileSystemFactory) server.getFileSystem();
+    }
+
+    private static void copyInput(String name, Path target, TestInfo testInfo) throws IOException {
+        try (InputStream inputStream = TestUtils.getInputResource(name, testInfo).openStream()) {
+            Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static class CountingReporter implements MetricsReporter {
+        private static final AtomicInteger STARTS = new AtomicInteger();
+
+        @Override
+        public void start() {
+            STARTS.incrementAndGet();
+        }
+
+        @Override
+        public void report(MetricsSnapshot snapshot) {
+        }
+    }
+}
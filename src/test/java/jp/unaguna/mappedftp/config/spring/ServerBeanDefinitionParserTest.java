@@ -0,0 +1,110 @@
+package jp.unaguna.mappedftp.config.spring;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.checksum.ChecksumService;
+import jp.unaguna.mappedftp.command.ChecksumCommand;
+import jp.unaguna.mappedftp.metrics.LogMetricsReporter;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.metrics.MetricsFtplet;
+import jp.unaguna.mappedftp.metrics.MetricsService;
+import org.apache.ftpserver.command.CommandFactory;
+import org.apache.ftpserver.impl.DefaultFtpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.net.URL;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerBeanDefinitionParserTest {
+    @Test
+    public void testParse__default_commands(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final CommandFactory commandFactory = actualServer.getServerContext().getCommandFactory();
+
+        assertInstanceOf(jp.unaguna.mappedftp.command.LIST.class, commandFactory.getCommand("LIST"));
+        assertInstanceOf(jp.unaguna.mappedftp.command.NLST.class, commandFactory.getCommand("NLST"));
+        assertInstanceOf(jp.unaguna.mappedftp.command.MLSD.class, commandFactory.getCommand("MLSD"));
+        assertInstanceOf(jp.unaguna.mappedftp.command.RETR.class, commandFactory.getCommand("RETR"));
+        assertInstanceOf(jp.unaguna.mappedftp.command.PASV.class, commandFactory.getCommand("PASV"));
+        assertInstanceOf(org.apache.ftpserver.command.impl.STOR.class, commandFactory.getCommand("STOR"));
+    }
+
+    @Test
+    public void testParse__with_commands(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+        final CommandFactory commandFactory = actualServer.getServerContext().getCommandFactory();
+
+        // the configured command is not replaced
+        assertInstanceOf(jp.unaguna.mappedftp.command.LIST.class, commandFactory.getCommand("LIST"));
+        assertInstanceOf(org.apache.ftpserver.command.impl.NLST.class, commandFactory.getCommand("NLST"));
+        assertInstanceOf(jp.unaguna.mappedftp.command.MLSD.class, commandFactory.getCommand("MLSD"));
+    }
+
+    @Test
+    public void testParse__checksums(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        try {
+            final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+            final CommandFactory commandFactory = actualServer.getServerContext().getCommandFactory();
+            final ChecksumService service = ctx.getBean(ChecksumService.class);
+
+            assertEquals(1, service.getThreads());
+            assertEquals(8, service.getQueueSize());
+            assertEquals(1048576L, service.getChunkSize());
+            assertEquals(Paths.get("./checksums.db"), service.getCacheFile());
+            assertEquals(100, service.getMaxCacheEntries());
+
+            // the leading "X" of the command names is removed by Apache FtpServer
+            final ChecksumCommand crc = (ChecksumCommand) commandFactory.getCommand("CRC");
+            assertInstanceOf(jp.unaguna.mappedftp.command.XCRC.class, crc);
+            assertSame(service, crc.getService());
+            assertEquals(500L, crc.getWait());
+            assertInstanceOf(jp.unaguna.mappedftp.command.HASH.class, commandFactory.getCommand("HASH"));
+            assertInstanceOf(jp.unaguna.mappedftp.command.OPTS.class, commandFactory.getCommand("OPTS"));
+            assertInstanceOf(jp.unaguna.mappedftp.command.XMD5.class, commandFactory.getCommand("MD5"));
+            assertInstanceOf(jp.unaguna.mappedftp.command.XSHA1.class, commandFactory.getCommand("SHA"));
+            assertInstanceOf(jp.unaguna.mappedftp.command.XSHA1.class, commandFactory.getCommand("SHA1"));
+            assertInstanceOf(jp.unaguna.mappedftp.command.MLSD.class, commandFactory.getCommand("MLSD"));
+
+            // the configured command is not replaced
+            final ChecksumCommand sha256 = (ChecksumCommand) commandFactory.getCommand("SHA256");
+            assertSame(ChecksumService.getDefault(), sha256.getService());
+        } finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testParse__metrics(TestInfo testInfo) {
+        final URL configPath = TestUtils.getInputResource("config.xml", testInfo);
+
+        final FileSystemXmlApplicationContext ctx = new FileSystemXmlApplicationContext(configPath.toString());
+        try {
+            final DefaultFtpServer actualServer = (DefaultFtpServer) ctx.getBean("testServer");
+            final MetricsService metricsService = ctx.getBean(MetricsService.class);
+
+            assertInstanceOf(MetricsFtplet.class, actualServer.getServerContext().getFtpletContainer()
+                    .getFtplet(ServerBeanDefinitionParser.METRICS_FTPLET_NAME));
+            assertSame(MetricRegistry.getDefault(), metricsService.getRegistry());
+            assertTrue(MetricRegistry.getDefault().isEnabled());
+            assertFalse(metricsService.isJmx());
+            assertEquals(5000L, metricsService.getReportInterval());
+            assertEquals(2, metricsService.getReporters().size());
+            metricsService.getReporters().forEach(reporter -> assertInstanceOf(LogMetricsReporter.class, reporter));
+        } finally {
+            ctx.close();
+            MetricRegistry.getDefault().setEnabled(false);
+        }
+    }
+}
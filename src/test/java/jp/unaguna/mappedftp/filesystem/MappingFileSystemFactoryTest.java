@@ -2,13 +2,26 @@ package jp.unaguna.mappedftp.filesystem;
 
 import jp.unaguna.mappedftp.TestUtils;
 import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.compact.CompactTreeNode;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndex;
+import jp.unaguna.mappedftp.filesystem.compact.MappingIndexWriter;
 import jp.unaguna.mappedftp.filesystem.tree.*;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.metrics.MetricsSnapshot;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.User;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,6 +77,238 @@ public class MappingFileSystemFactoryTest {
         }
     }
 
+    @Test
+    public void testCreate__share_tree_between_users() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemFromURL(TestUtils.url("https://dummy1.example.com/")));
+        }};
+
+        final LinkedFileSystemView fileSystemView1;
+        final LinkedFileSystemView fileSystemView2;
+        try {
+            final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+            fileSystemView1 = factory.createFileSystemView(new UserStub("user1"));
+            fileSystemView2 = factory.createFileSystemView(new UserStub("user2"));
+        } catch (FtpException | FileSystemDefinitionException e) {
+            fail(e);
+            return;
+        }
+
+        try {
+            // the tree is not constructed for each user
+            assertSame(fileSystemView1.getHomeDirectory(), fileSystemView2.getHomeDirectory());
+            assertSame(fileSystemView1.getFile("/dir1/file1"), fileSystemView2.getFile("/dir1/file1"));
+
+            // each view has its own working directory
+            assertTrue(fileSystemView1.changeWorkingDirectory("/dir1"));
+            assertEquals("/dir1", fileSystemView1.getWorkingDirectory().getAbsolutePath());
+            assertEquals("/", fileSystemView2.getWorkingDirectory().getAbsolutePath());
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testCreate__user_specific_files() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemFromURL(TestUtils.url("https://dummy1.example.com/")));
+        }};
+
+        final LinkedFileSystemView fileSystemViewAdmin;
+        final LinkedFileSystemView fileSystemViewOther;
+        try {
+            final MappingFileSystemFactory factory = new MappingFileSystemFactory(files) {
+                @Override
+                protected Map<String, FileTreeItem> getUserSpecificFiles(User user) {
+                    if ("admin".equals(user.getName())) {
+                        return Collections.singletonMap("/dir1/admin", new FileTreeItemEmptyFile());
+                    } else {
+                        return null;
+                    }
+                }
+            };
+            fileSystemViewAdmin = factory.createFileSystemView(new UserStub("admin"));
+            fileSystemViewOther = factory.createFileSystemView(new UserStub("other"));
+        } catch (FtpException | FileSystemDefinitionException e) {
+            fail(e);
+            return;
+        }
+
+        try {
+            assertEquals("file1", fileSystemViewAdmin.getFile("/dir1/file1").getName());
+            assertEquals("admin", fileSystemViewAdmin.getFile("/dir1/admin").getName());
+
+            assertEquals("file1", fileSystemViewOther.getFile("/dir1/file1").getName());
+            assertThrows(FtpException.class, () -> fileSystemViewOther.getFile("/dir1/admin"));
+        } catch (FtpException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testReload() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+            put("/dir2/file2", new FileTreeItemEmptyFile());
+        }};
+        final Map<String, FileTreeItem> newFiles = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file3", new FileTreeItemEmptyFile());
+        }};
+
+        try {
+            final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+            final LinkedFileSystemView oldView1 = factory.createFileSystemView(new UserStub("user1"));
+            final LinkedFileSystemView oldView2 = factory.createFileSystemView(new UserStub("user2"));
+            assertTrue(oldView1.changeWorkingDirectory("/dir1"));
+            assertTrue(oldView2.changeWorkingDirectory("/dir2"));
+
+            factory.reload(newFiles);
+
+            assertEquals(1, factory.getGeneration());
+            assertEquals(newFiles, factory.getFiles());
+
+            // a new view uses the new tree
+            final LinkedFileSystemView newView = factory.createFileSystemView(new UserStub("user3"));
+            assertEquals("file3", newView.getFile("/dir1/file3").getName());
+            assertThrows(FtpException.class, () -> newView.getFile("/dir1/file1"));
+
+            // the former views keep the former tree until they change the working directory
+            assertEquals("file1", oldView1.getFile("/dir1/file1").getName());
+            assertEquals("file1", oldView1.getFile("file1").getName());
+            assertThrows(FtpException.class, () -> oldView1.getFile("/dir1/file3"));
+
+            assertTrue(oldView1.changeWorkingDirectory("."));
+            assertEquals("/dir1", oldView1.getWorkingDirectory().getAbsolutePath());
+            assertEquals("file3", oldView1.getFile("file3").getName());
+            assertThrows(FtpException.class, () -> oldView1.getFile("file1"));
+
+            // the working directory which no longer exists moves to the root
+            assertTrue(oldView2.changeWorkingDirectory("."));
+            assertEquals("/", oldView2.getWorkingDirectory().getAbsolutePath());
+            assertSame(newView.getHomeDirectory(), oldView2.getHomeDirectory());
+
+        } catch (FtpException | FileSystemDefinitionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testReload__during_first_build() throws Exception {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+        }};
+        final Map<String, FileTreeItem> newFiles = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file2", new FileTreeItemEmptyFile());
+        }};
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory(files) {
+            @Override
+            protected LinkedFileNode buildRootNode(Map<String, FileTreeItem> files) {
+                if (files.containsKey("/file1")) {
+                    building.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.buildRootNode(files);
+            }
+        };
+
+        // the first login builds the tree from the former files while the mapping is reloaded
+        final Thread login = new Thread(() -> factory.getSharedRoot());
+        login.start();
+        building.await();
+        final Thread reload = new Thread(() -> {
+            try {
+                factory.reload(newFiles);
+            } catch (FileSystemDefinitionException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        reload.start();
+        Thread.sleep(200);
+        resume.countDown();
+        login.join();
+        reload.join();
+
+        assertEquals(1, factory.getGeneration());
+        assertEquals("file2", factory.createFileSystemView(new UserStub()).getFile("/file2").getName());
+    }
+
+    @Test
+    public void testReload__error_by_root_as_not_dir() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+        }};
+        final Map<String, FileTreeItem> newFiles = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/", new FileTreeItemEmptyFile());
+        }};
+
+        try {
+            final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+
+            assertThrows(FileSystemDefinitionException.class, () -> factory.reload(newFiles));
+
+            // the current mapping is kept
+            assertEquals(0, factory.getGeneration());
+            assertEquals("file1", factory.createFileSystemView(new UserStub()).getFile("/file1").getName());
+
+        } catch (FtpException | FileSystemDefinitionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testCreate__compact() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+            put("/file2", new FileTreeItemEmptyFile());
+        }};
+
+        try {
+            final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+            factory.setCompact(true);
+            final LinkedFileSystemView fileSystemView = factory.createFileSystemView(new UserStub());
+
+            assertTrue(fileSystemView.getHomeDirectory() instanceof CompactTreeNode);
+            assertTrue(fileSystemView.changeWorkingDirectory("dir1"));
+            assertEquals("/dir1", fileSystemView.getWorkingDirectory().getAbsolutePath());
+            assertEquals("/dir1/file1", fileSystemView.getFile("file1").getAbsolutePath());
+            assertEquals("file2", fileSystemView.getFile("../file2").getName());
+            assertThrows(FtpException.class, () -> fileSystemView.getFile("file2"));
+
+        } catch (FtpException | FileSystemDefinitionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testReload__error_by_lazy_directory_in_compact() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+        }};
+        final Map<String, FileTreeItem> newFiles = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1", new FileTreeItemFromLocalDirectory(Paths.get("dir1")));
+        }};
+
+        try {
+            final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+            factory.setCompact(true);
+
+            assertThrows(FileSystemDefinitionException.class, () -> factory.reload(newFiles));
+
+            // the current mapping is kept
+            assertEquals(0, factory.getGeneration());
+            assertEquals("file1", factory.createFileSystemView(new UserStub()).getFile("/file1").getName());
+
+        } catch (FtpException | FileSystemDefinitionException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testOverrideBuildRoot() {
         final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
@@ -111,4 +356,151 @@ public class MappingFileSystemFactoryTest {
             return super.buildRoot(user);
         }
     }
+
+    @Test
+    public void testCreate__metrics() throws FtpException, FileSystemDefinitionException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+        }};
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        metrics.clear();
+        metrics.setEnabled(true);
+        try {
+            final LinkedFileSystemView fileSystemView = new MappingFileSystemFactory(files)
+                    .createFileSystemView(new UserStub());
+            fileSystemView.getFile("/dir1/file1");
+            fileSystemView.changeWorkingDirectory("dir1");
+            assertThrows(FtpException.class, () -> fileSystemView.getFile("/dir1/file2"));
+
+            final MetricsSnapshot snapshot = metrics.snapshot();
+            assertEquals(1, snapshot.getHistogram("fs.view.create.micros").getCount());
+            assertEquals(3, snapshot.getHistogram("fs.resolve.micros").getCount());
+            assertEquals(1, snapshot.getCount("fs.resolve.misses"));
+        } finally {
+            metrics.setEnabled(false);
+            metrics.clear();
+        }
+    }
+
+    @Test
+    public void testSetIndex(@TempDir Path directory) throws IOException, FtpException {
+        final MappingIndex index = writeIndex(directory, "/dir1/file1");
+
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory();
+        factory.setIndex(index);
+
+        final LinkedFileSystemView view = factory.createFileSystemView(new UserStub());
+        assertInstanceOf(CompactTreeNode.class, view.getFile("/dir1/file1"));
+        assertEquals("file1", view.getFile("/dir1/file1").getName());
+    }
+
+    @Test
+    public void testReload__index(@TempDir Path directory) throws IOException, FtpException, FileSystemDefinitionException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+        }};
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+        final LinkedFileSystemView oldView = factory.createFileSystemView(new UserStub());
+
+        factory.reload(writeIndex(directory, "/dir1/file2"));
+
+        assertEquals(1, factory.getGeneration());
+        assertTrue(factory.getFiles().isEmpty());
+        final LinkedFileSystemView newView = factory.createFileSystemView(new UserStub());
+        assertEquals("file2", newView.getFile("/dir1/file2").getName());
+        assertThrows(FtpException.class, () -> newView.getFile("/dir1/file1"));
+        // the former view keeps the former tree
+        assertEquals("file1", oldView.getFile("/dir1/file1").getName());
+
+        // the mapping replaces the index
+        factory.reload(files);
+        assertNull(factory.getIndex());
+        assertEquals("file1", factory.createFileSystemView(new UserStub()).getFile("/dir1/file1").getName());
+    }
+
+    @Test
+    public void testCreate__user_specific_files_with_index(@TempDir Path directory) throws IOException, FtpException {
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory() {
+            @Override
+            protected Map<String, FileTreeItem> getUserSpecificFiles(User user) {
+                return Collections.singletonMap("/dir1/admin", new FileTreeItemEmptyFile());
+            }
+        };
+        factory.setIndex(writeIndex(directory, "/dir1/file1"));
+
+        final LinkedFileSystemView view = factory.createFileSystemView(new UserStub());
+        assertEquals("/dir1/file1", view.getFile("/dir1/file1").getAbsolutePath());
+        assertEquals("/dir1/admin", view.getFile("/dir1/admin").getAbsolutePath());
+    }
+
+    @Test
+    public void testCreate__overlays() throws FtpException, FileSystemDefinitionException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/pub/file1", new FileTreeItemEmptyFile());
+        }};
+
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+        factory.setGroupOverlays(new LinkedHashMap<String, MappingOverlay>() {{
+            put("staff", new MappingOverlay(Collections.singletonMap("/pub/staff", new FileTreeItemEmptyFile())));
+            put("admin", new MappingOverlay(Collections.singletonMap("/pub/staff", new FileTreeItemDirectory())));
+        }});
+        factory.setGroupMembers(new LinkedHashMap<String, List<String>>() {{
+            put("staff", Arrays.asList("alice", "bob"));
+            put("admin", Collections.singletonList("alice"));
+        }});
+        factory.setUserOverlays(Collections.singletonMap("bob",
+                new MappingOverlay(Collections.singletonMap("/home/bob", new FileTreeItemEmptyFile()))));
+
+        final LinkedFileSystemView alice = factory.createFileSystemView(new UserStub("alice"));
+        final LinkedFileSystemView bob = factory.createFileSystemView(new UserStub("bob"));
+        final LinkedFileSystemView carol = factory.createFileSystemView(new UserStub("carol"));
+
+        // the overlay of the later group wins
+        assertTrue(alice.getFile("/pub/staff").isDirectory());
+        assertThrows(FtpException.class, () -> alice.getFile("/home/bob"));
+
+        assertTrue(bob.getFile("/pub/staff").isFile());
+        assertTrue(bob.getFile("/home/bob").isFile());
+        assertTrue(bob.changeWorkingDirectory("/home"));
+        assertEquals("file1", bob.getFile("../pub/file1").getName());
+
+        // a user without overlays shares the tree
+        assertThrows(FtpException.class, () -> carol.getFile("/pub/staff"));
+        assertSame(factory.getSharedRoot(), carol.getHomeDirectory());
+
+        assertEquals(Arrays.asList("alice", "bob"), factory.getGroupMembers().get("staff"));
+    }
+
+    @Test
+    public void testPrefetch__build_shared_tree() throws Exception {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+        }};
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+
+        factory.prefetch();
+        final LinkedFileNode root = factory.getSharedRoot();
+
+        // the tree built at startup is served to the first login
+        assertSame(root, factory.createFileSystemView(new UserStub()).getHomeDirectory());
+    }
+
+    @Test
+    public void testPrefetch__error_by_invalid_mapping() throws Exception {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+            put("/../file2", new FileTreeItemEmptyFile());
+        }};
+        final MappingFileSystemFactory factory = new MappingFileSystemFactory(files);
+
+        assertThrows(FileSystemDefinitionException.class, factory::prefetch);
+    }
+
+    private static MappingIndex writeIndex(Path directory, String path) throws IOException {
+        final Path indexFile = directory.resolve("mapping.idx");
+        new MappingIndexWriter()
+                .add(path, new FileTreeItemEmptyFile(), "empty-file", Collections.emptyMap())
+                .write(indexFile);
+        return MappingIndex.open(indexFile, (type, attributes) -> new FileTreeItemEmptyFile());
+    }
 }
@@ -0,0 +1,201 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.filesystem.compact.CompactTree;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingOverlayTest {
+    private static final FileFormater NAME_FORMATTER = file -> file.getName() + "\r\n";
+
+    @Test
+    public void testApply__merge() throws IOException, FileSystemDefinitionException {
+        final FileTreeNode base = MappingFileSystemFactory.buildTree(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+            put("/dir1/file2", new FileTreeItemEmptyFile());
+            put("/file3", new FileTreeItemEmptyFile());
+        }});
+        final MappingOverlay overlay = new MappingOverlay(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file2", memoryFile("overlay2"));
+            put("/dir1/file4", new FileTreeItemEmptyFile());
+            put("/dir5/file5", new FileTreeItemEmptyFile());
+        }});
+
+        final LinkedFileNode root = overlay.apply(base);
+        assertEquals("/", root.getAbsolutePath());
+        assertEquals(Arrays.asList("dir1", "dir5", "file3"), names(root.listFiles()));
+
+        final LinkedFileNode dir1 = root.getNodeByRelativePath(TreePath.get("dir1"));
+        assertEquals("/dir1", dir1.getAbsolutePath());
+        assertTrue(dir1.isDirectory());
+        assertEquals(Arrays.asList("file1", "file2", "file4"), names(dir1.listFiles()));
+
+        // the file of the overlay wins
+        final LinkedFileNode file2 = dir1.getNodeByRelativePath(TreePath.get("file2"));
+        assertEquals("/dir1/file2", file2.getAbsolutePath());
+        assertEquals(8, file2.getSize());
+        try (InputStream inputStream = file2.createInputStream(0)) {
+            assertEquals("overlay2", new String(TestUtils.readAllBytes(inputStream), StandardCharsets.UTF_8));
+        }
+
+        // ".." goes back through the overlay
+        assertEquals("file5", dir1.getNodeByRelativePath(TreePath.get("file1/../../dir5/file5")).getName());
+        assertEquals("/dir5/file5", root.getNodeByRelativePath(TreePath.get("dir5/file5")).getAbsolutePath());
+
+        assertThrows(NoSuchFileException.class, () -> root.getNodeByRelativePath(TreePath.get("dir5/file1")));
+        assertThrows(NotDirectoryException.class, () -> root.getNodeByRelativePath(TreePath.get("file3/a")));
+
+        // the base tree is not modified
+        assertThrows(NoSuchFileException.class, () -> base.getNodeByRelativePath(TreePath.get("dir1/file4")));
+        assertEquals(0, base.getNodeByRelativePath(TreePath.get("dir1/file2")).getSize());
+    }
+
+    @Test
+    public void testApply__compact_base() throws IOException, FileSystemDefinitionException {
+        final LinkedFileNode base = CompactTree.build(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+            put("/dir2/file2", new FileTreeItemEmptyFile());
+        }}).getRoot();
+        final MappingOverlay overlay = new MappingOverlay(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file3", new FileTreeItemEmptyFile());
+        }});
+
+        final LinkedFileNode root = overlay.apply(base);
+        assertEquals("c_dir1\r\nc_dir2\r\n", root.formatChildren("key", null, file -> "c_" + file.getName() + "\r\n"));
+
+        final LinkedFileNode dir1 = root.getNodeByRelativePath(TreePath.get("dir1"));
+        assertEquals("file1\r\nfile3\r\n", dir1.formatChildren("key", null, NAME_FORMATTER));
+        assertEquals("file1\r\nfile3\r\n",
+                new String(TestUtils.readAllBytes(dir1.openChildrenListing("key", null, NAME_FORMATTER)), StandardCharsets.UTF_8));
+
+        // outside of the overlay, the listing of the base is used
+        final LinkedFileNode dir2 = root.getNodeByRelativePath(TreePath.get("dir2"));
+        assertEquals("file2\r\n", dir2.formatChildren("key", null, NAME_FORMATTER));
+        assertEquals("/dir1/file3", dir2.getNodeByRelativePath(TreePath.get("../dir1/file3")).getAbsolutePath());
+    }
+
+    @Test
+    public void testApply__replace_directory(@TempDir Path directory) throws IOException, FileSystemDefinitionException {
+        Files.write(directory.resolve("local.txt"), "local".getBytes(StandardCharsets.UTF_8));
+
+        final FileTreeNode base = MappingFileSystemFactory.buildTree(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+            put("/file2", new FileTreeItemEmptyFile());
+        }});
+        final MappingOverlay overlay = new MappingOverlay(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/extra", new FileTreeItemEmptyFile());
+            put("/dir1", new FileTreeItemFromLocalDirectory(directory));
+            put("/file2/sub", new FileTreeItemEmptyFile());
+        }});
+
+        final LinkedFileNode root = overlay.apply(base);
+
+        // a file of the overlay replaces the directory of the base with its files
+        final LinkedFileNode dir1 = root.getNodeByRelativePath(TreePath.get("dir1"));
+        assertEquals(Arrays.asList("extra", "local.txt"), names(dir1.listFiles()));
+        assertEquals(5, dir1.getNodeByRelativePath(TreePath.get("local.txt")).getSize());
+        assertEquals("/dir1/local.txt", dir1.getNodeByRelativePath(TreePath.get("local.txt")).getAbsolutePath());
+        assertThrows(NoSuchFileException.class, () -> dir1.getNodeByRelativePath(TreePath.get("file1")));
+
+        // a directory of the overlay hides the file of the base
+        final LinkedFileNode file2 = root.getNodeByRelativePath(TreePath.get("file2"));
+        assertTrue(file2.isDirectory());
+        assertEquals(Arrays.asList("sub"), names(file2.listFiles()));
+    }
+
+    @Test
+    public void testApply__explicit_directory() throws IOException, FileSystemDefinitionException {
+        final FileTreeItemDirectory dirItem = new FileTreeItemDirectory() {
+            @Override
+            public String getOwnerName() {
+                return "overlay-owner";
+            }
+        };
+
+        final FileTreeNode base = MappingFileSystemFactory.buildTree(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+        }});
+        final MappingOverlay overlay = new MappingOverlay(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1", dirItem);
+        }});
+
+        final LinkedFileNode dir1 = overlay.apply(base).getNodeByRelativePath(TreePath.get("dir1"));
+        assertEquals("overlay-owner", dir1.getOwnerName());
+        assertSame(dirItem, dir1.getFile());
+        assertEquals(Arrays.asList("file1"), names(dir1.listFiles()));
+    }
+
+    @Test
+    public void testApply__stacked() throws IOException, FileSystemDefinitionException {
+        final FileTreeNode base = MappingFileSystemFactory.buildTree(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+        }});
+        final MappingOverlay group = new MappingOverlay(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/shared/file2", memoryFile("group"));
+        }});
+        final MappingOverlay user = new MappingOverlay(new LinkedHashMap<String, FileTreeItem>() {{
+            put("/shared/file2", memoryFile("user"));
+            put("/shared/file3", new FileTreeItemEmptyFile());
+        }});
+
+        final LinkedFileNode root = user.apply(group.apply(base));
+        assertEquals(Arrays.asList("file1", "shared"), names(root.listFiles()));
+        assertEquals(4, root.getNodeByRelativePath(TreePath.get("shared/file2")).getSize());
+        assertEquals(Arrays.asList("file2", "file3"),
+                names(root.getNodeByRelativePath(TreePath.get("shared")).listFiles()));
+    }
+
+    @Test
+    public void testCreate__error_by_file_under_file() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+            put("/file1/file2", new FileTreeItemEmptyFile());
+        }};
+
+        assertThrows(FileSystemDefinitionException.class, () -> new MappingOverlay(files));
+    }
+
+    @Test
+    public void testCreate__error_by_root_as_not_dir() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/", new FileTreeItemEmptyFile());
+        }};
+
+        final FileSystemDefinitionException e = assertThrows(FileSystemDefinitionException.class,
+                () -> new MappingOverlay(files));
+        assertEquals("cannot append a non-directory file on the root \"/\"", e.getMessage());
+    }
+
+    private static FileTreeItemInMemory memoryFile(String content) {
+        return new FileTreeItemInMemory(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> names(List<? extends FtpFile> files) {
+        final List<String> names = new ArrayList<>();
+        files.forEach(file -> names.add(file.getName()));
+        return names;
+    }
+}
@@ -0,0 +1,157 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SourcePrefetcherTest {
+
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        final StubFile file1 = new StubFile(true, 10L);
+        final StubFile file2 = new StubFile(false, 20L);
+        final StubFile file3 = new StubFile(true, (Long) null);
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", file1);
+            put("/file2", file2);
+            put("/file3", file3);
+            put("/dir1", new FileTreeItemDirectory());
+        }};
+
+        final Map<String, IOException> failures = new SourcePrefetcher(4, 10_000L).prefetch(files);
+
+        assertTrue(failures.isEmpty());
+        // only the marked files are prefetched
+        assertEquals(1, file1.fetchCount.get());
+        assertEquals(0, file2.fetchCount.get());
+        assertEquals(1, file3.fetchCount.get());
+
+        // the prefetched size is reused
+        assertEquals(10L, file1.getSize());
+        assertEquals(1, file1.fetchCount.get());
+    }
+
+    @Test
+    public void testPrefetch__parallel() throws InterruptedException {
+        // each prefetching waits for all of the others, so it finishes only if they run at the same time
+        final CountDownLatch latch = new CountDownLatch(4);
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            files.put("/file" + i, new StubFile(true, 1L) {
+                @Override
+                protected Long fetchSize() throws IOException {
+                    latch.countDown();
+                    try {
+                        if (!latch.await(10, TimeUnit.SECONDS)) {
+                            throw new IOException("not prefetched in parallel");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return super.fetchSize();
+                }
+            });
+        }
+
+        final Map<String, IOException> failures = new SourcePrefetcher(4, 20_000L).prefetch(files);
+
+        assertTrue(failures.isEmpty(), failures.toString());
+    }
+
+    @Test
+    public void testPrefetch__broken_sources() throws InterruptedException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/broken2", new StubFile(true, new FileNotFoundException("broken2")));
+            put("/file1", new StubFile(true, 1L));
+            put("/broken1", new StubFile(true, new IllegalStateException("broken1")));
+        }};
+
+        final Map<String, IOException> failures = new SourcePrefetcher(1, 10_000L).prefetch(files);
+
+        // in the order of the mapping
+        assertEquals(Arrays.asList("/broken2", "/broken1"), Arrays.asList(failures.keySet().toArray()));
+        assertInstanceOf(FileNotFoundException.class, failures.get("/broken2"));
+        assertInstanceOf(IllegalStateException.class, failures.get("/broken1").getCause());
+    }
+
+    @Test
+    public void testPrefetch__timeout() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/slow", new StubFile(true, 1L) {
+                @Override
+                protected Long fetchSize() throws IOException {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return super.fetchSize();
+                }
+            });
+        }};
+
+        try {
+            final long start = System.currentTimeMillis();
+            final Map<String, IOException> failures = new SourcePrefetcher(1, 100L).prefetch(files);
+
+            assertTrue(failures.isEmpty());
+            assertTrue(System.currentTimeMillis() - start < 5_000L);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testConstructor__error_by_no_threads() {
+        assertThrows(IllegalArgumentException.class, () -> new SourcePrefetcher(0, 1000L));
+    }
+
+    private static class StubFile extends FileTreeItemReadOnlyFile {
+        private final AtomicInteger fetchCount = new AtomicInteger();
+        private final Long size;
+        private final Exception error;
+
+        private StubFile(boolean prefetch, Long size) {
+            this.size = size;
+            this.error = null;
+            setPrefetch(prefetch);
+        }
+
+        private StubFile(boolean prefetch, Exception error) {
+            this.size = null;
+            this.error = error;
+            setPrefetch(prefetch);
+        }
+
+        @Override
+        protected Long fetchSize() throws IOException {
+            fetchCount.incrementAndGet();
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            return size;
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package jp.unaguna.mappedftp.filesystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TreePathTest {
+    @ParameterizedTest
+    @CsvSource({
+            "'/', true, 0, '/'",
+            "'', false, 0, ''",
+            "'/dir1/file1', true, 2, '/dir1/file1'",
+            "'dir1/file1', false, 2, 'dir1/file1'",
+            "'//dir1///file1/', true, 2, '/dir1/file1'",
+            "'dir1/./../file1', false, 4, 'dir1/./../file1'",
+            "'file1', false, 1, 'file1'",
+    })
+    public void testGet(String path, boolean expectedAbsolute, int expectedNameCount, String expectedString) {
+        final TreePath treePath = TreePath.get(path);
+
+        assertEquals(expectedAbsolute, treePath.isAbsolute());
+        assertEquals(expectedNameCount, treePath.getNameCount());
+        assertEquals(expectedString, treePath.toString());
+    }
+
+    @Test
+    public void testGet__multiple_names() {
+        final TreePath treePath = TreePath.get("/dir1", "dir2/dir3", "", "/file1");
+
+        assertTrue(treePath.isAbsolute());
+        assertEquals(4, treePath.getNameCount());
+        assertEquals("dir1", treePath.getNameString(0));
+        assertEquals("dir2", treePath.getNameString(1));
+        assertEquals("dir3", treePath.getNameString(2));
+        assertEquals("file1", treePath.getNameString(3));
+        assertEquals("/dir1/dir2/dir3/file1", treePath.toString());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'/dir1/./dir2/../file1', '/dir1/file1'",
+            "'/../file1', '/file1'",
+            "'../file1', '../file1'",
+            "'dir1/../..', '..'",
+    })
+    public void testNormalize(String path, String expected) {
+        assertEquals(expected, TreePath.get(path).normalize().toString());
+    }
+}
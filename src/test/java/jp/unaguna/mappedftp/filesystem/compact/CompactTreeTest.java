@@ -0,0 +1,309 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemEmptyFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeNode;
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactTreeTest {
+
+    @Test
+    public void testBuild() throws IOException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1/file1", new FileTreeItemEmptyFile());
+            put("/dir1/sub/file2", new FileTreeItemEmptyFile());
+            put("/file3", new FileTreeItemEmptyFile());
+            put("/dir2", new FileTreeItemDirectory());
+        }};
+
+        final CompactTree tree = CompactTree.build(files);
+        // root, dir1, dir2, file3, file1, sub, file2
+        assertEquals(7, tree.size());
+
+        final CompactTreeNode root = tree.getRoot();
+        assertEquals("/", root.getAbsolutePath());
+        assertNull(root.getName());
+        assertTrue(root.isDirectory());
+
+        final CompactTreeNode file2 = root.getNodeByRelativePath(TreePath.get("dir1/sub/file2"));
+        assertEquals("file2", file2.getName());
+        assertEquals("/dir1/sub/file2", file2.getAbsolutePath());
+        assertTrue(file2.isFile());
+        assertFalse(file2.isDirectory());
+        assertSame(files.get("/dir1/sub/file2"), file2.getFile());
+
+        final CompactTreeNode sub = root.getNodeByRelativePath(TreePath.get("dir1/sub"));
+        assertTrue(sub.isDirectory());
+        assertFalse(sub.isFile());
+        assertNull(sub.getFile());
+
+        final CompactTreeNode dir2 = root.getNodeByRelativePath(TreePath.get("dir2"));
+        assertTrue(dir2.isDirectory());
+        assertEquals(0, dir2.listFiles().size());
+
+        // equal to the node looked up again
+        assertEquals(file2, sub.getNodeByRelativePath(TreePath.get("file2")));
+        assertEquals(file2.hashCode(), sub.getNodeByRelativePath(TreePath.get("file2")).hashCode());
+        assertEquals(root, file2.getNodeByRelativePath(TreePath.get("../../..")));
+        assertSame(sub, sub.getNodeByRelativePath(TreePath.get(".")));
+    }
+
+    @Test
+    public void testBuild__same_as_file_tree_node() throws IOException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        for (int i = 0; i < 300; i++) {
+            files.put("/dir" + (i % 7) + "/sub" + (i % 3) + "/file" + i, new FileTreeItemEmptyFile());
+            files.put("/file" + i, new FileTreeItemEmptyFile());
+        }
+        // replaces the former one
+        files.put("/dir1/sub1/file1", new FileTreeItemDirectory());
+
+        final FileTreeNode expectedRoot = new FileTreeNode(new FileTreeItemDirectory(), null);
+        files.forEach((path, item) -> expectedRoot.appendSubFile(item, TreePath.get(path).toRelative()));
+        final CompactTreeNode actualRoot = CompactTree.build(files).getRoot();
+
+        assertSameTree(expectedRoot, actualRoot);
+    }
+
+    private static void assertSameTree(FileTreeNode expected, CompactTreeNode actual) {
+        assertEquals(expected.getAbsolutePath(), actual.getAbsolutePath());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.isDirectory(), actual.isDirectory());
+        assertEquals(expected.isFile(), actual.isFile());
+
+        final List<FileTreeNode> expectedChildren = expected.listFiles();
+        final List<CompactTreeNode> actualChildren = actual.listFiles();
+        if (expectedChildren == null) {
+            assertNull(actualChildren);
+            return;
+        }
+        assertEquals(expectedChildren.size(), actualChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            assertSameTree(expectedChildren.get(i), actualChildren.get(i));
+        }
+    }
+
+    @Test
+    public void testBuild__root_item() throws IOException {
+        final FileTreeItemDirectory rootItem = new FileTreeItemDirectory();
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/", rootItem);
+            put("/file1", new FileTreeItemEmptyFile());
+        }};
+
+        final CompactTreeNode root = CompactTree.build(files).getRoot();
+        assertSame(rootItem, root.getFile());
+        assertEquals("file1", root.getNodeByRelativePath(TreePath.get("file1")).getName());
+    }
+
+    @Test
+    public void testBuild__error_by_root_as_not_dir() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/", new FileTreeItemEmptyFile());
+        }};
+
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> CompactTree.build(files));
+        assertEquals("cannot append a non-directory file on the root \"/\"", e.getMessage());
+    }
+
+    @Test
+    public void testBuild__error_by_file_under_file() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/file1", new FileTreeItemEmptyFile());
+            put("/file1/file2", new FileTreeItemEmptyFile());
+        }};
+
+        assertThrows(IllegalArgumentException.class, () -> CompactTree.build(files));
+    }
+
+    @Test
+    public void testBuild__error_by_out_of_root() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/../file1", new FileTreeItemEmptyFile());
+        }};
+
+        assertThrows(IllegalArgumentException.class, () -> CompactTree.build(files));
+    }
+
+    @Test
+    public void testBuild__error_by_lazy_directory() {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<String, FileTreeItem>() {{
+            put("/dir1", new FileTreeItemFromLocalDirectory(Paths.get("dir1")));
+        }};
+
+        assertThrows(IllegalArgumentException.class, () -> CompactTree.build(files));
+    }
+
+    @Test
+    public void testGetNodeByRelativePath__error() {
+        final CompactTreeNode root = new CompactTree.Builder()
+                .add("/file1", new FileTreeItemEmptyFile())
+                .build().getRoot();
+
+        final NotDirectoryException e1 = assertThrows(NotDirectoryException.class,
+                () -> root.getNodeByRelativePath(TreePath.get("file1/file2")));
+        assertEquals("/file1", e1.getMessage());
+
+        final NoSuchFileException e2 = assertThrows(NoSuchFileException.class,
+                () -> root.getNodeByRelativePath(TreePath.get("dir1/file2")));
+        assertEquals("dir1/file2", e2.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> root.getNodeByRelativePath(TreePath.get("/file1")));
+    }
+
+    @Test
+    public void testMetadata() throws IOException {
+        final FileTreeItemEmptyFile constantItem = new FileTreeItemEmptyFile();
+        constantItem.setOwnerName("owner1");
+        constantItem.setGroupName("group1");
+        constantItem.setLastModifiedFactory(DateFactory.constance(1000L));
+        final FileTreeItemEmptyFile dynamicItem = new FileTreeItemEmptyFile();
+        dynamicItem.setOwnerName("");
+        dynamicItem.setGroupName("group 1");
+        dynamicItem.setLastModifiedFactory(DateFactory.eachTime());
+
+        final CompactTreeNode root = new CompactTree.Builder()
+                .add("/constant", constantItem)
+                .add("/dynamic", dynamicItem)
+                .add("/packed", new FileTreeItemEmptyFile(), "owner1", "group2", 2000L)
+                .build().getRoot();
+
+        final CompactTreeNode constant = root.getNodeByRelativePath(TreePath.get("constant"));
+        assertEquals("owner1", constant.getOwnerName());
+        assertEquals("group1", constant.getGroupName());
+        assertEquals(1000L, constant.getLastModified());
+        assertEquals(0L, constant.getSize());
+
+        // invalid names are replaced with the default one
+        final CompactTreeNode dynamic = root.getNodeByRelativePath(TreePath.get("dynamic"));
+        assertEquals("anonymous", dynamic.getOwnerName());
+        assertEquals("anonymous", dynamic.getGroupName());
+        final long before = System.currentTimeMillis();
+        final long lastModified = dynamic.getLastModified();
+        assertTrue(before <= lastModified && lastModified <= System.currentTimeMillis());
+
+        // the same names are shared
+        final CompactTreeNode packed = root.getNodeByRelativePath(TreePath.get("packed"));
+        assertSame(constant.getOwnerName(), packed.getOwnerName());
+        assertEquals("group2", packed.getGroupName());
+        assertEquals(2000L, packed.getLastModified());
+
+        assertEquals("anonymous", root.getOwnerName());
+        assertEquals("anonymous", root.getGroupName());
+    }
+
+    @Test
+    public void testListFiles() {
+        final CompactTreeNode root = new CompactTree.Builder()
+                .add("/b_file", new FileTreeItemEmptyFile())
+                .add("/c_dir/file", new FileTreeItemEmptyFile())
+                .add("/a_file", new FileTreeItemEmptyFile())
+                .build().getRoot();
+
+        final List<CompactTreeNode> children = root.listFiles();
+        assertEquals(3, children.size());
+        assertEquals("a_file", children.get(0).getName());
+        assertEquals("b_file", children.get(1).getName());
+        assertEquals("c_dir", children.get(2).getName());
+        assertThrows(IndexOutOfBoundsException.class, () -> children.get(3));
+        assertThrows(UnsupportedOperationException.class, () -> children.remove(0));
+
+        assertNull(children.get(0).listFiles());
+    }
+
+    @Test
+    public void testFormatChildren() throws IOException {
+        final CompactTreeNode root = new CompactTree.Builder()
+                .add("/b_file", new FileTreeItemEmptyFile())
+                .add("/c_dir", new FileTreeItemDirectory())
+                .add("/a_file", new FileTreeItemEmptyFile())
+                .build().getRoot();
+        final FileFormater formatter = file -> file.getName() + "\r\n";
+
+        // directories first
+        assertEquals("c_dir\r\na_file\r\nb_file\r\n", root.formatChildren("key", null, formatter));
+        assertEquals("a_file\r\nb_file\r\n", root.formatChildren("other", FtpFile::isFile, formatter));
+        try (InputStream inputStream = root.openChildrenListing("key", null, formatter)) {
+            assertEquals("c_dir\r\na_file\r\nb_file\r\n", readString(inputStream));
+        }
+
+        final CompactTreeNode file = root.getNodeByRelativePath(TreePath.get("a_file"));
+        assertThrows(IllegalStateException.class, () -> file.formatChildren("key", null, formatter));
+    }
+
+    @Test
+    public void testReadContent(@TempDir Path tempDir) throws IOException {
+        final Path source = tempDir.resolve("local.txt");
+        Files.write(source, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        final CompactTreeNode root = new CompactTree.Builder()
+                .add("/local/file", new FileTreeItemFromLocalFile(source))
+                .add("/stream/file", new StreamOnlyFile())
+                .build().getRoot();
+
+        final CompactTreeNode local = root.getNodeByRelativePath(TreePath.get("local/file"));
+        assertEquals(10L, local.getSize());
+        try (InputStream inputStream = local.createInputStream(3)) {
+            assertEquals("3456789", readString(inputStream));
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(6L, local.transferTo(4, Channels.newChannel(outputStream)));
+        assertEquals("456789", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+        // random accessible if all files under the directory are
+        assertTrue(local.isRandomAccessible());
+        assertTrue(root.getNodeByRelativePath(TreePath.get("local")).isRandomAccessible());
+        assertFalse(root.getNodeByRelativePath(TreePath.get("stream")).isRandomAccessible());
+        assertFalse(root.isRandomAccessible());
+
+        final CompactTreeNode stream = root.getNodeByRelativePath(TreePath.get("stream/file"));
+        assertThrows(IOException.class, () -> stream.createInputStream(1));
+        assertThrows(IOException.class, () -> stream.transferTo(1, Channels.newChannel(outputStream)));
+    }
+
+    /**
+     * A file which can be read only from the beginning.
+     */
+    private static class StreamOnlyFile extends FileTreeItemReadOnlyFile {
+        @Override
+        public InputStream createInputStream(long offset) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
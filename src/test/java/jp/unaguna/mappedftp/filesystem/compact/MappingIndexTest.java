@@ -0,0 +1,234 @@
+package jp.unaguna.mappedftp.filesystem.compact;
+
+import jp.unaguna.mappedftp.filesystem.TreePath;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalDirectory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromLocalFile;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemFromURL;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemReadOnlyFile;
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingIndexTest {
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Test
+    public void testOpen(@TempDir Path directory) throws IOException {
+        final Path source = directory.resolve("file1.txt");
+        Files.write(source, "content1".getBytes(StandardCharsets.UTF_8));
+
+        final Path indexFile = directory.resolve("mapping.idx");
+        new MappingIndexWriter()
+                .add("/dir1/file1", localFile(source, "owner1", 1000L), "local-file", attributes("src", source.toString()))
+                .add("/dir1/sub/file2", sequentialUrlFile("https://example.com/2"), "url-file",
+                        attributes("src", "https://example.com/2", "cache-ttl", "100"))
+                .add("/dir2", new FileTreeItemDirectory(), "directory", Collections.emptyMap())
+                .write(indexFile);
+
+        final MappingIndex index = MappingIndex.open(indexFile, this::createItem);
+        // root, dir1, dir2, file1, sub, file2
+        assertEquals(6, index.size());
+
+        final CompactTreeNode root = index.getRoot();
+        assertEquals("/", root.getAbsolutePath());
+        assertNull(root.getName());
+        assertTrue(root.isDirectory());
+        assertNull(root.getFile());
+
+        final CompactTreeNode file1 = root.getNodeByRelativePath(TreePath.get("dir1/file1"));
+        assertEquals("file1", file1.getName());
+        assertEquals("/dir1/file1", file1.getAbsolutePath());
+        assertTrue(file1.isFile());
+        assertEquals("owner1", file1.getOwnerName());
+        assertEquals("anonymous", file1.getGroupName());
+        assertEquals(1000L, file1.getLastModified());
+        assertEquals(8, file1.getSize());
+        assertTrue(file1.isRandomAccessible());
+        try (InputStream inputStream = file1.createInputStream(0)) {
+            assertEquals('c', inputStream.read());
+        }
+
+        final CompactTreeNode file2 = root.getNodeByRelativePath(TreePath.get("dir1/sub/file2"));
+        final FileTreeItemFromURL item2 = (FileTreeItemFromURL) file2.getFile();
+        assertEquals("https://example.com/2", item2.getSource().toString());
+        assertEquals(100L, item2.getCacheTtl());
+        assertFalse(file2.isRandomAccessible());
+        assertFalse(root.isRandomAccessible());
+        assertTrue(root.getNodeByRelativePath(TreePath.get("dir2")).isRandomAccessible());
+
+        final List<String> names = new ArrayList<>();
+        root.listFiles().forEach(child -> names.add(child.getName()));
+        assertEquals(Arrays.asList("dir1", "dir2"), names);
+        assertEquals("/dir1", file2.getNodeByRelativePath(TreePath.get("../..")).getAbsolutePath());
+
+        assertThrows(NoSuchFileException.class, () -> root.getNodeByRelativePath(TreePath.get("dir1/file3")));
+        assertThrows(NotDirectoryException.class, () -> root.getNodeByRelativePath(TreePath.get("dir1/file1/a")));
+    }
+
+    @Test
+    public void testGetItem__reused(@TempDir Path directory) throws IOException {
+        final Path indexFile = directory.resolve("mapping.idx");
+        new MappingIndexWriter()
+                .add("/file1", urlFile("https://example.com/1"), "url-file", attributes("src", "https://example.com/1"))
+                .add("/file2", urlFile("https://example.com/2"), "url-file", attributes("src", "https://example.com/2"))
+                .write(indexFile);
+
+        final MappingIndex index = MappingIndex.open(indexFile, this::createItem, 1);
+        final CompactTreeNode root = index.getRoot();
+
+        final FileTreeItem file1 = root.getNodeByRelativePath(TreePath.get("file1")).getFile();
+        assertSame(file1, root.getNodeByRelativePath(TreePath.get("file1")).getFile());
+        assertEquals(1, created.get());
+
+        // the cache holds only one item
+        root.getNodeByRelativePath(TreePath.get("file2")).getFile();
+        assertNotSame(file1, root.getNodeByRelativePath(TreePath.get("file1")).getFile());
+        assertEquals(3, created.get());
+    }
+
+    @Test
+    public void testFindChild__non_ascii(@TempDir Path directory) throws IOException {
+        final String[] names = {"a", "ab", "b", "ä", "あ", "Ａ", "😀", "アイ"};
+        final MappingIndexWriter writer = new MappingIndexWriter();
+        for (String name : names) {
+            writer.add("/" + name, urlFile("https://example.com/"), "url-file", attributes("src", "https://example.com/"));
+        }
+        final Path indexFile = directory.resolve("mapping.idx");
+        writer.write(indexFile);
+
+        final CompactTreeNode root = MappingIndex.open(indexFile, this::createItem).getRoot();
+        for (String name : names) {
+            assertEquals(name, root.getNodeByRelativePath(TreePath.get(name)).getName());
+        }
+        assertThrows(NoSuchFileException.class, () -> root.getNodeByRelativePath(TreePath.get("äb")));
+        assertThrows(NoSuchFileException.class, () -> root.getNodeByRelativePath(TreePath.get("\ud83d")));
+    }
+
+    @Test
+    public void testWrite__dynamic_last_modified(@TempDir Path directory) throws IOException {
+        final FileTreeItemReadOnlyFile item = urlFile("https://example.com/1");
+        item.setLastModifiedFactory(DateFactory.eachTime());
+
+        final Path indexFile = directory.resolve("mapping.idx");
+        new MappingIndexWriter()
+                .add("/file1", item, "url-file", attributes("src", "https://example.com/1", "last-modified", "current"))
+                .write(indexFile);
+
+        final MappingIndex index = MappingIndex.open(indexFile, this::createItem);
+        final CompactTreeNode file1 = index.getRoot().getNodeByRelativePath(TreePath.get("file1"));
+        final long before = System.currentTimeMillis();
+        assertTrue(file1.getLastModified() >= before);
+    }
+
+    @Test
+    public void testWrite__error_by_lazy_directory(@TempDir Path directory) {
+        final MappingIndexWriter writer = new MappingIndexWriter();
+        assertThrows(IllegalArgumentException.class, () -> writer.add("/dir1",
+                new FileTreeItemFromLocalDirectory(directory),
+                "local-directory", attributes("src", directory.toString())));
+    }
+
+    @Test
+    public void testOpen__error_by_not_index(@TempDir Path directory) throws IOException {
+        final Path indexFile = directory.resolve("mapping.idx");
+        Files.write(indexFile, "type,path,src\n".getBytes(StandardCharsets.UTF_8));
+
+        final IOException e = assertThrows(IOException.class, () -> MappingIndex.open(indexFile, this::createItem));
+        assertEquals("not a mapping index", e.getMessage());
+    }
+
+    @Test
+    public void testOpen__error_by_broken_index(@TempDir Path directory) throws IOException {
+        final Path indexFile = directory.resolve("mapping.idx");
+        new MappingIndexWriter()
+                .add("/file1", urlFile("https://example.com/1"), "url-file", attributes("src", "https://example.com/1"))
+                .write(indexFile);
+        final byte[] bytes = Files.readAllBytes(indexFile);
+        Files.write(indexFile, Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertThrows(IOException.class, () -> MappingIndex.open(indexFile, this::createItem));
+    }
+
+    private FileTreeItem createItem(String type, Function<String, String> attributes) {
+        created.incrementAndGet();
+        switch (type) {
+            case "local-file":
+                return new FileTreeItemFromLocalFile(Paths.get(attributes.apply("src")));
+            case "url-file":
+                final FileTreeItemFromURL item = urlFile(attributes.apply("src"));
+                if (attributes.apply("cache-ttl") != null) {
+                    item.setCacheTtl(Long.parseLong(attributes.apply("cache-ttl")));
+                }
+                if ("current".equals(attributes.apply("last-modified"))) {
+                    item.setLastModifiedFactory(DateFactory.eachTime());
+                }
+                return item;
+            case "directory":
+                return new FileTreeItemDirectory();
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+
+    private static FileTreeItemFromLocalFile localFile(Path source, String owner, long lastModified) {
+        final FileTreeItemFromLocalFile item = new FileTreeItemFromLocalFile(source);
+        item.setOwnerName(owner);
+        item.setLastModifiedFactory(DateFactory.constance(lastModified));
+        return item;
+    }
+
+    private static FileTreeItemFromURL urlFile(String src) {
+        try {
+            return new FileTreeItemFromURL(new URL(src));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns a url-file which cannot be read from an offset, to see that the flag is written to the index.
+     */
+    private static FileTreeItemFromURL sequentialUrlFile(String src) {
+        try {
+            return new FileTreeItemFromURL(new URL(src)) {
+                @Override
+                public boolean isRandomAccessible() {
+                    return false;
+                }
+            };
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Map<String, String> attributes(String... keyValues) {
+        final Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            attributes.put(keyValues[i], keyValues[i + 1]);
+        }
+        return attributes;
+    }
+}
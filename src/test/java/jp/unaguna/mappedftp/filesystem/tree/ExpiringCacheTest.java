@@ -0,0 +1,86 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiringCacheTest {
+    @Test
+    public void testGet__reuse() throws IOException {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(-1, 100, String::length);
+        final AtomicInteger count = new AtomicInteger();
+
+        assertEquals("value0", cache.get("key", () -> "value" + count.getAndIncrement()));
+        assertEquals("value0", cache.get("key", () -> "value" + count.getAndIncrement()));
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void testGet__ttl_zero() throws IOException {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(0, 100, String::length);
+        final AtomicInteger count = new AtomicInteger();
+
+        assertEquals("value0", cache.get("key", () -> "value" + count.getAndIncrement()));
+        assertEquals("value1", cache.get("key", () -> "value" + count.getAndIncrement()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGet__expired() throws IOException, InterruptedException {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(50, 100, String::length);
+        final AtomicInteger count = new AtomicInteger();
+
+        assertEquals("value0", cache.get("key", () -> "value" + count.getAndIncrement()));
+        Thread.sleep(100);
+        assertEquals("value1", cache.get("key", () -> "value" + count.getAndIncrement()));
+    }
+
+    @Test
+    public void testGet__discard_least_recently_used() throws IOException {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(-1, 10, String::length);
+
+        cache.get("a", () -> "aaaa");
+        cache.get("b", () -> "bbbb");
+        // "a" becomes the most recently used
+        cache.get("a", () -> "AAAA");
+        cache.get("c", () -> "cccc");
+
+        assertEquals(2, cache.size());
+        assertEquals("aaaa", cache.get("a", () -> "AAAA"));
+        assertEquals("BBBB", cache.get("b", () -> "BBBB"));
+    }
+
+    @Test
+    public void testGet__keep_value_heavier_than_max() throws IOException {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(-1, 3, String::length);
+
+        cache.get("a", () -> "aa");
+        assertEquals("bbbb", cache.get("b", () -> "bbbb"));
+
+        assertEquals(1, cache.size());
+        assertEquals("bbbb", cache.get("b", () -> "BBBB"));
+    }
+
+    @Test
+    public void testGet__error_by_loader() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(-1, 100, String::length);
+
+        assertThrows(IOException.class, () -> cache.get("key", () -> {
+            throw new IOException("test");
+        }));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(-1, 100, String::length);
+
+        cache.get("key", () -> "value0");
+        cache.invalidate("key");
+
+        assertEquals("value1", cache.get("key", () -> "value1"));
+    }
+}
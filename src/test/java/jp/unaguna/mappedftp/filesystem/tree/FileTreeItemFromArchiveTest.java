@@ -0,0 +1,126 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileTreeItemFromArchiveTest {
+    @Test
+    public void testGetFile(@TempDir Path directory) throws IOException, FtpException {
+        final Path zip = createZip(directory.resolve("test.zip"), "sub1/sub2/file", "sub1/other");
+
+        final FileTreeItemFromArchive item = new FileTreeItemFromArchive(zip);
+        item.setOwnerName("test-owner");
+        final LinkedFileSystemView fileSystemView = createFileSystemView("/data", item);
+
+        final FtpFile file = fileSystemView.getFile("/data/sub1/sub2/file");
+        assertTrue(file.isFile());
+        assertEquals("/data/sub1/sub2/file", file.getAbsolutePath());
+        assertEquals("content of sub1/sub2/file".length(), file.getSize());
+        assertEquals("test-owner", file.getOwnerName());
+        assertEquals(1_600_000_000_000L, file.getLastModified());
+        try (InputStream inputStream = file.createInputStream(11)) {
+            assertEquals("sub1/sub2/file", readString(inputStream));
+        }
+
+        final FtpFile dir = fileSystemView.getFile("/data/sub1");
+        assertTrue(dir.isDirectory());
+        assertEquals("test-owner", dir.getOwnerName());
+
+        assertThrows(FtpException.class, () -> fileSystemView.getFile("/data/sub1/no_exists"));
+    }
+
+    @Test
+    public void testListFiles(@TempDir Path directory) throws IOException, FtpException {
+        final Path zip = createZip(directory.resolve("test.zip"), "c_file", "b_dir/file", "a_file");
+
+        final LinkedFileSystemView fileSystemView =
+                createFileSystemView("/data", new FileTreeItemFromArchive(zip));
+
+        final List<? extends FtpFile> children = fileSystemView.getFile("/data").listFiles();
+        assertEquals(Arrays.asList("a_file", "b_dir", "c_file"), names(children));
+        assertTrue(children.get(1).isDirectory());
+        assertEquals("/data/b_dir", children.get(1).getAbsolutePath());
+        assertEquals(Arrays.asList("file"), names(fileSystemView.getFile("/data/b_dir").listFiles()));
+    }
+
+    @Test
+    public void testGetLastModified__specified(@TempDir Path directory) throws IOException, FtpException {
+        final Path zip = createZip(directory.resolve("test.zip"), "dir/file");
+
+        final FileTreeItemFromArchive item = new FileTreeItemFromArchive(zip);
+        final DateFactory lastModified = DateFactory.constance(1234L);
+        item.setLastModifiedFactory(lastModified);
+        final LinkedFileSystemView fileSystemView = createFileSystemView("/data", item);
+
+        assertEquals(1234L, fileSystemView.getFile("/data").getLastModified());
+        assertEquals(1234L, fileSystemView.getFile("/data/dir").getLastModified());
+        assertEquals(1234L, fileSystemView.getFile("/data/dir/file").getLastModified());
+    }
+
+    @Test
+    public void testListFiles__no_exists(@TempDir Path directory) throws FtpException {
+        final LinkedFileSystemView fileSystemView =
+                createFileSystemView("/data", new FileTreeItemFromArchive(directory.resolve("no_exists.zip")));
+
+        assertThrows(FtpException.class, () -> fileSystemView.getFile("/data/file"));
+    }
+
+    private static Path createZip(Path zip, String... names) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String name : names) {
+                final ZipEntry entry = new ZipEntry(name);
+                entry.setTime(1_600_000_000_000L);
+                out.putNextEntry(entry);
+                out.write(("content of " + name).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static LinkedFileSystemView createFileSystemView(String path, FileTreeItem item) throws FtpException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        files.put(path, item);
+        try {
+            return new MappingFileSystemFactory(files).createFileSystemView(new UserStub());
+        } catch (FileSystemDefinitionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> names(List<? extends FtpFile> files) {
+        return files.stream().map(FtpFile::getName).collect(Collectors.toList());
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[1024];
+        final StringBuilder builder = new StringBuilder();
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            builder.append(new String(buffer, 0, count, StandardCharsets.UTF_8));
+        }
+        return builder.toString();
+    }
+}
@@ -4,12 +4,20 @@ import jp.unaguna.mappedftp.TestUtils;
 import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -46,6 +54,26 @@ public class FileTreeItemFromClasspathTest {
         assertEquals("I am a text file for test", line);
     }
 
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test\n'",
+            "5, 'a text file for test\n'",
+            "26, ''",
+            "100, ''",
+    })
+    public void testInputStream__with_offset(long offset, String expected, TestInfo testInfo) {
+        final String source = TestUtils.getInputResourceClasspath("local.txt", testInfo);
+
+        FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspath(source);
+
+        try {
+            assertTrue(fileTreeItem.isRandomAccessible());
+            assertEquals(expected, new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(offset))));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testInputStream__error_by_missing_resource() {
         final String source = "dummy/no_exists";
@@ -130,4 +158,117 @@ public class FileTreeItemFromClasspathTest {
 
         assertNull(fileTreeItem.getLastModified());
     }
+
+    @Test
+    public void testGetSize(TestInfo testInfo) {
+        final String source = TestUtils.getInputResourceClasspath("local.txt", testInfo);
+
+        final FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspath(source);
+
+        assertEquals(26L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testGetSize__null_by_missing_resource() {
+        final FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspath("dummy/no_exists");
+
+        assertNull(fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testGetSize__read_only_once(@TempDir Path tempDir, TestInfo testInfo) throws IOException {
+        final Path file = tempDir.resolve("local.txt");
+        Files.copy(Paths.get(TestUtils.getInputResource("local.txt", testInfo).getPath()), file);
+
+        final FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspathStub(file.toUri().toURL());
+        fileTreeItem.setMetadataTtl(0);
+
+        assertEquals(26L, fileTreeItem.getSize());
+
+        // the resource in the classpath is regarded as unchanged
+        Files.write(file, new byte[100]);
+        assertEquals(26L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testGetSize__jar_entry(@TempDir Path tempDir) throws IOException {
+        final Path jar = tempDir.resolve("resources.jar");
+        try (JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(jar))) {
+            final JarEntry entry = new JarEntry("file.bin");
+            entry.setTime(1666501478_000L);
+            outputStream.putNextEntry(entry);
+            outputStream.write(new byte[1000]);
+            outputStream.closeEntry();
+        }
+
+        final FileTreeItemFromClasspath fileTreeItem =
+                new FileTreeItemFromClasspathStub(new URL("jar:" + jar.toUri() + "!/file.bin"));
+
+        assertEquals(1000L, fileTreeItem.getSize());
+        assertEquals(1666501478_000L, fileTreeItem.getSourceLastModified());
+    }
+
+    @Test
+    public void testGetSize__null_by_missing_jar_entry(@TempDir Path tempDir) throws IOException {
+        final Path jar = tempDir.resolve("resources.jar");
+        try (JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(jar))) {
+            outputStream.putNextEntry(new JarEntry("file.bin"));
+            outputStream.closeEntry();
+        }
+
+        final FileTreeItemFromClasspath fileTreeItem =
+                new FileTreeItemFromClasspathStub(new URL("jar:" + jar.toUri() + "!/no_exists"));
+
+        assertNull(fileTreeItem.getSize());
+        assertThrows(FileNotFoundException.class, fileTreeItem::prefetch);
+    }
+
+    @Test
+    public void testGetSourceLastModified(TestInfo testInfo) throws IOException {
+        final String source = TestUtils.getInputResourceClasspath("local.txt", testInfo);
+
+        final FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspath(source);
+
+        final Path file = Paths.get(TestUtils.getInputResource("local.txt", testInfo).getPath());
+        final long expected = Files.getLastModifiedTime(file).toMillis();
+        assertEquals(expected, fileTreeItem.getSourceLastModified());
+        // it is not served as the last modified time
+        assertNull(fileTreeItem.getLastModified());
+    }
+
+    @Test
+    public void testPrefetch(TestInfo testInfo) {
+        final String source = TestUtils.getInputResourceClasspath("local.txt", testInfo);
+
+        final FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspath(source);
+
+        try {
+            fileTreeItem.prefetch();
+            assertNotNull(fileTreeItem.getSourceUrl());
+            assertEquals(26L, fileTreeItem.getSize());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPrefetch__error_by_missing_resource() {
+        final FileTreeItemFromClasspath fileTreeItem = new FileTreeItemFromClasspath("dummy/no_exists");
+
+        assertThrows(FileNotFoundException.class, fileTreeItem::prefetch);
+    }
+
+    private static class FileTreeItemFromClasspathStub extends FileTreeItemFromClasspath {
+        private final URL url;
+
+        private FileTreeItemFromClasspathStub(URL url) {
+            super("stub");
+            this.url = url;
+        }
+
+        @Override
+        public URL getSourceUrl() {
+            return url;
+        }
+    }
 }
@@ -0,0 +1,187 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileTreeItemFromLocalDirectoryTest {
+    @Test
+    public void testGetFile(@TempDir Path directory) throws IOException, FtpException {
+        Files.createDirectories(directory.resolve("sub1/sub2"));
+        Files.write(directory.resolve("sub1/sub2/file"), "content".getBytes(StandardCharsets.UTF_8));
+
+        final FileTreeItemFromLocalDirectory item = new FileTreeItemFromLocalDirectory(directory);
+        item.setOwnerName("test-owner");
+        final LinkedFileSystemView fileSystemView = createFileSystemView("/data", item);
+
+        final FtpFile file = fileSystemView.getFile("/data/sub1/sub2/file");
+        assertTrue(file.isFile());
+        assertEquals("/data/sub1/sub2/file", file.getAbsolutePath());
+        assertEquals(7, file.getSize());
+        assertEquals("test-owner", file.getOwnerName());
+        try (InputStream inputStream = file.createInputStream(3)) {
+            assertEquals("tent", readString(inputStream));
+        }
+
+        final FtpFile dir = fileSystemView.getFile("/data/sub1");
+        assertTrue(dir.isDirectory());
+        assertEquals("test-owner", dir.getOwnerName());
+
+        assertThrows(FtpException.class, () -> fileSystemView.getFile("/data/sub1/no_exists"));
+    }
+
+    @Test
+    public void testListFiles(@TempDir Path directory) throws IOException, FtpException {
+        Files.createDirectories(directory.resolve("b_dir"));
+        Files.createFile(directory.resolve("c_file"));
+        Files.createFile(directory.resolve("a_file"));
+
+        final LinkedFileSystemView fileSystemView =
+                createFileSystemView("/data", new FileTreeItemFromLocalDirectory(directory));
+
+        final List<? extends FtpFile> children = fileSystemView.getFile("/data").listFiles();
+        assertEquals(Arrays.asList("a_file", "b_dir", "c_file"), names(children));
+        assertTrue(children.get(1).isDirectory());
+        assertEquals("/data/b_dir", children.get(1).getAbsolutePath());
+    }
+
+    @Test
+    public void testListFiles__skip_symbolic_links(@TempDir Path directory) throws IOException, FtpException {
+        final Path outside = Files.createDirectories(directory.resolve("outside"));
+        Files.write(outside.resolve("secret"), "secret".getBytes(StandardCharsets.UTF_8));
+        final Path exported = Files.createDirectories(directory.resolve("exported"));
+        Files.createFile(exported.resolve("a_file"));
+        Files.createSymbolicLink(exported.resolve("link_dir"), outside);
+        Files.createSymbolicLink(exported.resolve("link_file"), outside.resolve("secret"));
+
+        final LinkedFileSystemView fileSystemView =
+                createFileSystemView("/data", new FileTreeItemFromLocalDirectory(exported));
+
+        final List<? extends FtpFile> children = fileSystemView.getFile("/data").listFiles();
+        assertEquals(Arrays.asList("a_file"), names(children));
+        assertThrows(FtpException.class, () -> fileSystemView.getFile("/data/link_dir/secret"));
+        assertThrows(FtpException.class, () -> fileSystemView.getFile("/data/link_file"));
+    }
+
+    @Test
+    public void testListFiles__cache_ttl(@TempDir Path directory) throws IOException, FtpException {
+        Files.createFile(directory.resolve("file1"));
+
+        final FileTreeItemFromLocalDirectory cachedItem = new FileTreeItemFromLocalDirectory(directory);
+        cachedItem.setCacheTtl(-1);
+        final FileTreeItemFromLocalDirectory uncachedItem = new FileTreeItemFromLocalDirectory(directory);
+        uncachedItem.setCacheTtl(0);
+        final LinkedFileSystemView cachedView = createFileSystemView("/data", cachedItem);
+        final LinkedFileSystemView uncachedView = createFileSystemView("/data", uncachedItem);
+        assertEquals(1, cachedView.getFile("/data").listFiles().size());
+        assertEquals(1, uncachedView.getFile("/data").listFiles().size());
+
+        Files.createFile(directory.resolve("file2"));
+
+        assertEquals(1, cachedView.getFile("/data").listFiles().size());
+        assertEquals(2, uncachedView.getFile("/data").listFiles().size());
+    }
+
+    @Test
+    public void testListFiles__cache_max_entries(@TempDir Path directory) throws IOException, FtpException {
+        for (int i = 0; i < 5; i++) {
+            Files.createDirectories(directory.resolve("dir" + i));
+            Files.createFile(directory.resolve("dir" + i + "/file1"));
+            Files.createFile(directory.resolve("dir" + i + "/file2"));
+        }
+
+        final FileTreeItemFromLocalDirectory item = new FileTreeItemFromLocalDirectory(directory);
+        item.setCacheMaxEntries(10);
+        final LinkedFileSystemView fileSystemView = createFileSystemView("/data", item);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(2, fileSystemView.getFile("/data/dir" + i).listFiles().size());
+        }
+
+        // the top directory (5 entries) is used at each access, so the older subdirectories are discarded
+        assertEquals(3, item.getChildrenCache().size());
+    }
+
+    @Test
+    public void testListFiles__with_mapped_file(@TempDir Path directory) throws IOException, FtpException {
+        Files.createFile(directory.resolve("file1"));
+        Files.createFile(directory.resolve("file2"));
+
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        files.put("/data", new FileTreeItemFromLocalDirectory(directory));
+        files.put("/data/file2", new FileTreeItemEmptyFile());
+        files.put("/data/file3", new FileTreeItemEmptyFile());
+        final LinkedFileSystemView fileSystemView = createFileSystemView(files);
+
+        final List<? extends FtpFile> children = fileSystemView.getFile("/data").listFiles();
+        assertEquals(Arrays.asList("file1", "file2", "file3"), names(children));
+        // the mapped file takes precedence
+        assertInstanceOf(FileTreeItemEmptyFile.class, ((FileTreeNode) fileSystemView.getFile("/data/file2")).getFile());
+        assertInstanceOf(FileTreeItemFromLocalFile.class, ((FileTreeNode) fileSystemView.getFile("/data/file1")).getFile());
+    }
+
+    @Test
+    public void testListFiles__root(@TempDir Path directory) throws IOException, FtpException {
+        Files.createFile(directory.resolve("file1"));
+
+        final LinkedFileSystemView fileSystemView =
+                createFileSystemView("/", new FileTreeItemFromLocalDirectory(directory));
+
+        assertEquals(Arrays.asList("file1"), names(fileSystemView.getFile("/").listFiles()));
+        assertEquals("/file1", fileSystemView.getFile("/file1").getAbsolutePath());
+    }
+
+    @Test
+    public void testListFiles__no_exists(@TempDir Path directory) throws FtpException {
+        final LinkedFileSystemView fileSystemView =
+                createFileSystemView("/data", new FileTreeItemFromLocalDirectory(directory.resolve("no_exists")));
+
+        assertTrue(fileSystemView.getFile("/data").listFiles().isEmpty());
+    }
+
+    private static LinkedFileSystemView createFileSystemView(String path, FileTreeItem item) throws FtpException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        files.put(path, item);
+        return createFileSystemView(files);
+    }
+
+    private static LinkedFileSystemView createFileSystemView(Map<String, FileTreeItem> files) throws FtpException {
+        try {
+            return new MappingFileSystemFactory(files).createFileSystemView(new UserStub());
+        } catch (FileSystemDefinitionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> names(List<? extends FtpFile> files) {
+        return files.stream().map(FtpFile::getName).collect(Collectors.toList());
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[1024];
+        final StringBuilder builder = new StringBuilder();
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            builder.append(new String(buffer, 0, count, StandardCharsets.UTF_8));
+        }
+        return builder.toString();
+    }
+}
@@ -7,10 +7,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.*;
+import java.nio.channels.Channels;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -60,6 +62,55 @@ public class FileTreeItemFromLocalFileTest {
         }
     }
 
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test\n'",
+            "5, 'a text file for test\n'",
+            "26, ''",
+            "100, ''",
+    })
+    public void testInputStream__with_offset(long offset, String expected, TestInfo testInfo) {
+        final TemporaryFile localPath = TestUtils.getInputResourceAsTempFile("local.txt", testInfo);
+
+        try {
+            FileTreeItemFromLocalFile fileTreeItem = new FileTreeItemFromLocalFile(localPath.toPath());
+
+            assertTrue(fileTreeItem.isRandomAccessible());
+            assertEquals(expected, new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(offset))));
+
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            TestUtils.deleteTempFile(localPath);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test\n'",
+            "5, 'a text file for test\n'",
+            "26, ''",
+            "100, ''",
+    })
+    public void testTransferTo__with_offset(long offset, String expected, TestInfo testInfo) {
+        final TemporaryFile localPath = TestUtils.getInputResourceAsTempFile("local.txt", testInfo);
+
+        try {
+            final FileTreeNode fileTreeNode =
+                    new FileTreeNode(new FileTreeItemFromLocalFile(localPath.toPath()), "file");
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            final long transferred = fileTreeNode.transferTo(offset, Channels.newChannel(outputStream));
+            assertEquals(expected.length(), transferred);
+            assertEquals(expected, outputStream.toString());
+
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            TestUtils.deleteTempFile(localPath);
+        }
+    }
+
     @Test
     public void testInputStream__error_by_missing_resource() {
         final Path path = Paths.get("/dummy/no_exists");
@@ -174,4 +225,26 @@ public class FileTreeItemFromLocalFileTest {
             TestUtils.deleteTempFile(localPath);
         }
     }
+
+    @Test
+    public void testGetSize(TestInfo testInfo) {
+        final TemporaryFile localPath = TestUtils.getInputResourceAsTempFile("local.txt", testInfo);
+
+        try {
+            FileTreeItemFromLocalFile fileTreeItem = new FileTreeItemFromLocalFile(localPath.toPath());
+
+            assertEquals(26L, fileTreeItem.getSize());
+
+        } finally {
+            TestUtils.deleteTempFile(localPath);
+        }
+    }
+
+    @Test
+    public void testGetSize__null_by_missing_resource() {
+        final Path path = Paths.get("/dummy/no_exists");
+        FileTreeItemFromLocalFile fileTreeItem = new FileTreeItemFromLocalFile(path);
+
+        assertNull(fileTreeItem.getSize());
+    }
 }
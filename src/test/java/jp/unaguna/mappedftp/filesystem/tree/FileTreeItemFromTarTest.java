@@ -0,0 +1,108 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.archive.TarBuilder;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileTreeItemFromTarTest {
+    @Test
+    public void testGetFile(@TempDir Path directory) throws IOException, FtpException {
+        final Path tar = new TarBuilder()
+                .add("sub1/sub2/file", '0', "content", 1_600_000_000L)
+                .add("sub1/other", '0', "", 1_600_000_000L)
+                .write(directory.resolve("test.tar"));
+
+        final FileTreeItemFromTar item = new FileTreeItemFromTar(tar);
+        item.setOwnerName("test-owner");
+        final LinkedFileSystemView fileSystemView = createFileSystemView("/data", item);
+
+        final FtpFile file = fileSystemView.getFile("/data/sub1/sub2/file");
+        assertTrue(file.isFile());
+        assertEquals(7, file.getSize());
+        assertEquals("test-owner", file.getOwnerName());
+        assertEquals(1_600_000_000_000L, file.getLastModified());
+        try (InputStream inputStream = file.createInputStream(3)) {
+            assertEquals("tent", readString(inputStream));
+        }
+        assertEquals(Arrays.asList("other", "sub2"), names(fileSystemView.getFile("/data/sub1").listFiles()));
+
+        // the index is persisted next to the archive
+        assertTrue(Files.exists(directory.resolve("test.tar.index")));
+    }
+
+    @Test
+    public void testGetIndexFile(@TempDir Path directory) {
+        final FileTreeItemFromTar item = new FileTreeItemFromTar(directory.resolve("data/test.tar"));
+        assertEquals(directory.resolve("data/test.tar.index").toAbsolutePath(), item.getIndexFile());
+
+        item.setIndexDirectory(directory.resolve("cache"));
+        final Path indexFile = item.getIndexFile();
+        assertEquals(directory.resolve("cache"), indexFile.getParent());
+        assertTrue(indexFile.getFileName().toString().startsWith("test.tar-"));
+        assertTrue(indexFile.getFileName().toString().endsWith(FileTreeItemFromTar.INDEX_SUFFIX));
+
+        // the archives of the same name in other directories
+        final FileTreeItemFromTar other = new FileTreeItemFromTar(directory.resolve("other/test.tar"));
+        other.setIndexDirectory(directory.resolve("cache"));
+        assertNotEquals(indexFile, other.getIndexFile());
+    }
+
+    @Test
+    public void testGetFile__index_directory(@TempDir Path directory) throws IOException, FtpException {
+        final Path tar = new TarBuilder()
+                .add("file", '0', "content", 0)
+                .write(directory.resolve("test.tar"));
+
+        final FileTreeItemFromTar item = new FileTreeItemFromTar(tar);
+        item.setIndexDirectory(directory.resolve("cache"));
+        final LinkedFileSystemView fileSystemView = createFileSystemView("/data", item);
+
+        assertEquals(7, fileSystemView.getFile("/data/file").getSize());
+        assertTrue(Files.exists(item.getIndexFile()));
+        assertFalse(Files.exists(directory.resolve("test.tar.index")));
+        assertEquals("tar-directory(" + tar + ")", item.toString());
+    }
+
+    private static LinkedFileSystemView createFileSystemView(String path, FileTreeItem item) throws FtpException {
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        files.put(path, item);
+        try {
+            return new MappingFileSystemFactory(files).createFileSystemView(new UserStub());
+        } catch (FileSystemDefinitionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> names(List<? extends FtpFile> files) {
+        return files.stream().map(FtpFile::getName).collect(Collectors.toList());
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[1024];
+        final StringBuilder builder = new StringBuilder();
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            builder.append(new String(buffer, 0, count, StandardCharsets.UTF_8));
+        }
+        return builder.toString();
+    }
+}
@@ -1,17 +1,23 @@
 package jp.unaguna.mappedftp.filesystem.tree;
 
+import jp.unaguna.mappedftp.HttpServerStub;
 import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.filesystem.tree.cache.UrlContentCache;
 import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import jp.unaguna.mappedftp.filesystem.tree.upstream.ReadAhead;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.*;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -48,6 +54,71 @@ public class FileTreeItemFromURLTest {
         assertEquals("I am a text file for test", line);
     }
 
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test\n'",
+            "5, 'a text file for test\n'",
+            "26, ''",
+            "100, ''",
+    })
+    public void testInputStream__with_offset(long offset, String expected, TestInfo testInfo) {
+        final URL source = TestUtils.getInputResource("local.txt", testInfo);
+
+        FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(source);
+
+        try {
+            assertTrue(fileTreeItem.isRandomAccessible());
+            assertEquals(expected, new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(offset))));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "true, 0, 'I am a text file for test'",
+            "true, 5, 'a text file for test'",
+            "true, 25, ''",
+            "true, 100, ''",
+            "false, 0, 'I am a text file for test'",
+            "false, 5, 'a text file for test'",
+            "false, 25, ''",
+            "false, 100, ''",
+    })
+    public void testInputStream__with_offset__http(boolean rangeSupported, long offset, String expected) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes())
+                    .setRangeSupported(rangeSupported);
+
+            FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+
+            assertEquals(expected, new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(offset))));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test'",
+            "5, 'a text file for test'",
+            "25, ''",
+    })
+    public void testInputStream__with_read_ahead(long offset, String expected) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+
+            FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+            fileTreeItem.setReadAhead(new ReadAhead(2, 4, ReadAhead.Backpressure.BLOCK));
+
+            try (InputStream inputStream = fileTreeItem.createInputStream(offset)) {
+                assertEquals(expected, new String(TestUtils.readAllBytes(inputStream)));
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testInputStream__error_by_missing_resource() {
         final URL source = TestUtils.url("http://dummy1.example.com/");
@@ -132,4 +203,157 @@ public class FileTreeItemFromURLTest {
 
         assertNull(fileTreeItem.getLastModified());
     }
+
+    @Test
+    public void testGetSize(TestInfo testInfo) {
+        final URL source = TestUtils.getInputResource("local.txt", testInfo);
+
+        final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(source);
+
+        assertEquals(26L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testGetSize__http_cached() {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+
+            assertEquals(25L, fileTreeItem.getSize());
+            assertEquals(25L, fileTreeItem.getSize());
+            assertEquals(1, server.getRequestCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testGetSize__http_not_cached_when_ttl_is_zero() {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+            fileTreeItem.setMetadataTtl(0);
+
+            assertEquals(25L, fileTreeItem.getSize());
+            server.put("/file", "updated".getBytes());
+            assertEquals(7L, fileTreeItem.getSize());
+            assertEquals(2, server.getRequestCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testGetSize__null_by_missing_resource() {
+        try (HttpServerStub server = new HttpServerStub()) {
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/no_exists"));
+
+            assertNull(fileTreeItem.getSize());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPrefetch__http() {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+            fileTreeItem.prefetch();
+
+            // the size fetched by prefetching is reused
+            assertEquals(25L, fileTreeItem.getSize());
+            assertEquals(1, server.getRequestCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPrefetch__http_cache(@TempDir Path cacheDirectory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+            final UrlContentCache cache = UrlContentCache.getInstance(cacheDirectory, UrlContentCache.DEFAULT_MAX_SIZE);
+            fileTreeItem.setCache(cache);
+            fileTreeItem.prefetch();
+
+            // the content has been downloaded into the cache
+            assertEquals(25L, cache.getCachedLength(server.url("/file")));
+            assertEquals(25L, fileTreeItem.getSize());
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(0))));
+            assertEquals(1, server.getRequestCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPrefetch__http_cache_expired(@TempDir Path cacheDirectory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+            fileTreeItem.setCache(UrlContentCache.getInstance(cacheDirectory, UrlContentCache.DEFAULT_MAX_SIZE));
+            fileTreeItem.setCacheTtl(0);
+            fileTreeItem.prefetch();
+
+            // the length of the fetched content is used without requesting the source again
+            assertEquals(25L, fileTreeItem.getSize());
+            assertEquals(1, server.getRequestCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPrefetch__error_by_missing_resource(TestInfo testInfo) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/no_exists"));
+
+            assertThrows(IOException.class, fileTreeItem::prefetch);
+
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        final URL localSource = TestUtils.getInputResource("local.txt", testInfo);
+        final FileTreeItemFromURL localItem = new FileTreeItemFromURL(TestUtils.url(localSource + ".no_exists"));
+        assertThrows(FileNotFoundException.class, localItem::prefetch);
+    }
+
+    @Test
+    public void testGetContentIdentity() throws IOException {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final FileTreeItemFromURL fileTreeItem = new FileTreeItemFromURL(server.url("/file"));
+
+            final String identity = fileTreeItem.getContentIdentity();
+            assertTrue(identity.startsWith("url:" + server.url("/file") + " etag="));
+            assertEquals(identity, fileTreeItem.getContentIdentity());
+
+            // the ETag changes with the content
+            server.put("/file", "I am another text file".getBytes());
+            assertNotEquals(identity, fileTreeItem.getContentIdentity());
+        }
+    }
+
+    @Test
+    public void testGetContentIdentity__local(TestInfo testInfo) throws IOException {
+        final URL source = TestUtils.getInputResource("local.txt", testInfo);
+
+        final String identity = new FileTreeItemFromURL(source).getContentIdentity();
+
+        assertTrue(identity.startsWith("url:" + source + " size=26&mtime="));
+    }
 }
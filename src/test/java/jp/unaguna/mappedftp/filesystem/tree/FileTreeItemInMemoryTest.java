@@ -0,0 +1,106 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.TestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileTreeItemInMemoryTest {
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test\n'",
+            "5, 'a text file for test\n'",
+            "26, ''",
+            "100, ''",
+    })
+    public void testInputStream__with_offset(long offset, String expected) throws IOException {
+        final FileTreeItemInMemory fileTreeItem =
+                new FileTreeItemInMemory("I am a text file for test\n".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(fileTreeItem.isRandomAccessible());
+        assertEquals(expected, new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(offset))));
+        assertEquals(26L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testInputStream__buffer_from_position() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap("0123456789".getBytes(StandardCharsets.UTF_8));
+        buffer.position(3);
+        buffer.limit(8);
+
+        final FileTreeItemInMemory fileTreeItem = new FileTreeItemInMemory(buffer);
+
+        assertEquals("34567", new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(0))));
+        assertEquals("67", new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(3))));
+        assertEquals(5L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testInputStream__concurrent_streams() throws IOException {
+        final FileTreeItemInMemory fileTreeItem = new FileTreeItemInMemory("abcdef".getBytes(StandardCharsets.UTF_8));
+
+        // streams do not share the position
+        try (InputStream stream1 = fileTreeItem.createInputStream(0);
+             InputStream stream2 = fileTreeItem.createInputStream(0)) {
+            assertEquals('a', stream1.read());
+            assertEquals('b', stream1.read());
+            assertEquals('a', stream2.read());
+            assertEquals("cdef", new String(TestUtils.readAllBytes(stream1)));
+            assertEquals("bcdef", new String(TestUtils.readAllBytes(stream2)));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testLoad(boolean direct, @TempDir Path tempDir, TestInfo testInfo) throws IOException {
+        final Path file = tempDir.resolve("local.txt");
+        try (InputStream inputStream = TestUtils.getInputResource("local.txt", testInfo).openStream()) {
+            Files.copy(inputStream, file);
+        }
+
+        final FileTreeItemInMemory fileTreeItem = new FileTreeItemInMemory(file.toUri().toURL(), direct);
+
+        assertEquals(direct, fileTreeItem.isDirect());
+        assertEquals(direct, fileTreeItem.getContent().isDirect());
+        assertEquals("I am a text file for test\n",
+                new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(0))));
+
+        // the content is read only once
+        Files.delete(file);
+        assertEquals("a text file for test\n",
+                new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(5))));
+        assertEquals(26L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testContent__read_only() throws IOException {
+        final byte[] content = "abc".getBytes(StandardCharsets.UTF_8);
+        final FileTreeItemInMemory fileTreeItem = new FileTreeItemInMemory(content);
+
+        assertTrue(fileTreeItem.getContent().isReadOnly());
+    }
+
+    @Test
+    public void testPrefetch__error_by_missing_source(@TempDir Path tempDir) throws IOException {
+        final URL source = tempDir.resolve("no_exists").toUri().toURL();
+        final FileTreeItemInMemory fileTreeItem = new FileTreeItemInMemory(source, false);
+
+        assertThrows(FileNotFoundException.class, fileTreeItem::prefetch);
+        assertThrows(FileNotFoundException.class, () -> fileTreeItem.createInputStream(0));
+        assertNull(fileTreeItem.getSize());
+    }
+}
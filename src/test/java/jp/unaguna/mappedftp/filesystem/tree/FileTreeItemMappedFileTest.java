@@ -0,0 +1,77 @@
+package jp.unaguna.mappedftp.filesystem.tree;
+
+import jp.unaguna.mappedftp.TestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileTreeItemMappedFileTest {
+    @TempDir
+    public Path tempDir;
+
+    private Path copyInput(TestInfo testInfo) throws IOException {
+        final Path file = tempDir.resolve("local.txt");
+        try (InputStream inputStream = TestUtils.getInputResource("local.txt", testInfo).openStream()) {
+            Files.copy(inputStream, file);
+        }
+        return file;
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 'I am a text file for test\n'",
+            "5, 'a text file for test\n'",
+            "26, ''",
+            "100, ''",
+    })
+    public void testInputStream__with_offset(long offset, String expected, TestInfo testInfo) throws IOException {
+        final Path file = copyInput(testInfo);
+
+        final FileTreeItemMappedFile fileTreeItem = new FileTreeItemMappedFile(file);
+
+        assertEquals(file, fileTreeItem.getSource());
+        assertTrue(fileTreeItem.isRandomAccessible());
+        assertEquals(expected, new String(TestUtils.readAllBytes(fileTreeItem.createInputStream(offset))));
+        assertEquals(26L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testContent__mapped(TestInfo testInfo) throws IOException {
+        final FileTreeItemMappedFile fileTreeItem = new FileTreeItemMappedFile(copyInput(testInfo));
+
+        fileTreeItem.prefetch();
+
+        assertTrue(fileTreeItem.getContent().isDirect());
+        assertTrue(fileTreeItem.getContent().isReadOnly());
+        assertInstanceOf(MappedByteBuffer.class, fileTreeItem.getContent());
+    }
+
+    @Test
+    public void testInputStream__empty() throws IOException {
+        final Path file = Files.createFile(tempDir.resolve("empty"));
+
+        final FileTreeItemMappedFile fileTreeItem = new FileTreeItemMappedFile(file);
+
+        assertEquals(0, TestUtils.readAllBytes(fileTreeItem.createInputStream(0)).length);
+        assertEquals(0L, fileTreeItem.getSize());
+    }
+
+    @Test
+    public void testPrefetch__error_by_missing_file() {
+        final FileTreeItemMappedFile fileTreeItem = new FileTreeItemMappedFile(tempDir.resolve("no_exists"));
+
+        assertThrows(NoSuchFileException.class, fileTreeItem::prefetch);
+        assertNull(fileTreeItem.getSize());
+    }
+}
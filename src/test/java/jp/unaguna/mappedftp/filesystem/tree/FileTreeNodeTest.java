@@ -2,6 +2,7 @@ package jp.unaguna.mappedftp.filesystem.tree;
 
 import jp.unaguna.mappedftp.filesystem.TreePath;
 import jp.unaguna.mappedftp.filesystem.tree.date.DateFactory;
+import org.apache.ftpserver.command.impl.listing.FileFormater;
 import org.apache.ftpserver.ftplet.FtpFile;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -10,9 +11,13 @@ import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.util.Comparator;
@@ -33,8 +38,8 @@ public class FileTreeNodeTest {
         baseNode.addChild(child2, child2.getName());
 
         final List<? extends FtpFile> actualChildren = baseNode.listFiles();
-        actualChildren.sort(Comparator.comparing(FtpFile::getName));
 
+        // the children are sorted by name
         assertEquals(2, actualChildren.size());
         assertEquals(child1, actualChildren.get(0));
         assertEquals(child2, actualChildren.get(1));
@@ -405,6 +410,120 @@ public class FileTreeNodeTest {
         }
     }
 
+    @Test
+    public void testListFiles() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("child3"));
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("child1"));
+        baseNode.appendSubFile(new FileTreeItemDirectory(), TreePath.get("child2"));
+
+        final List<FileTreeNode> actualChildren = baseNode.listFiles();
+
+        // sorted by name
+        assertEquals(3, actualChildren.size());
+        assertEquals("child1", actualChildren.get(0).getName());
+        assertEquals("child2", actualChildren.get(1).getName());
+        assertEquals("child3", actualChildren.get(2).getName());
+
+        // shared and unmodifiable
+        assertSame(actualChildren, baseNode.listFiles());
+        assertThrows(UnsupportedOperationException.class, () -> actualChildren.remove(0));
+
+        // rebuilt when a child is added
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("child0"));
+        assertEquals(4, baseNode.listFiles().size());
+        assertEquals("child0", baseNode.listFiles().get(0).getName());
+    }
+
+    @Test
+    public void testFormatChildren() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("b_file"));
+        baseNode.appendSubFile(new FileTreeItemDirectory(), TreePath.get("c_dir"));
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("a_file"));
+        final int[] count = {0};
+        final FileFormater formatter = file -> {
+            count[0]++;
+            return file.getName() + "\n";
+        };
+
+        // directories first
+        final String actual = baseNode.formatChildren("key", null, formatter);
+        assertEquals("c_dir\na_file\nb_file\n", actual);
+        assertEquals(3, count[0]);
+
+        // reused for the same key
+        assertSame(actual, baseNode.formatChildren("key", null, formatter));
+        assertEquals(3, count[0]);
+
+        // formatted for another key
+        assertEquals("c_dir\n", baseNode.formatChildren("other", FtpFile::isDirectory, formatter));
+        assertEquals(4, count[0]);
+
+        // formatted again after a child is added
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("d_file"));
+        assertEquals("c_dir\na_file\nb_file\nd_file\n", baseNode.formatChildren("key", null, formatter));
+    }
+
+    @Test
+    public void testOpenChildrenListing() throws IOException {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("b_file"));
+        baseNode.appendSubFile(new FileTreeItemDirectory(), TreePath.get("c_dir"));
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("a_file"));
+        final FileFormater formatter = file -> file.getName() + "\r\n";
+
+        try (InputStream inputStream = baseNode.openChildrenListing("key", null, formatter)) {
+            assertEquals("c_dir\r\na_file\r\nb_file\r\n", readString(inputStream));
+        }
+    }
+
+    @Test
+    public void testOpenChildrenListing__wide() throws IOException {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        for (int i = 0; i <= FileTreeNode.MAX_CACHED_LISTING_ENTRIES; i++) {
+            baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get(String.format("file%05d", i)));
+        }
+        baseNode.appendSubFile(new FileTreeItemDirectory(), TreePath.get("dir"));
+        final int[] count = {0};
+        final FileFormater formatter = file -> {
+            count[0]++;
+            return file.getName() + "\r\n";
+        };
+        final String expected = baseNode.formatChildren("key", null, formatter);
+        assertTrue(expected.startsWith("dir\r\nfile00000\r\n"));
+        count[0] = 0;
+
+        try (InputStream inputStream = baseNode.openChildrenListing("key", null, formatter)) {
+            // formatted while the stream is read
+            assertEquals('d', inputStream.read());
+            assertTrue(count[0] < FileTreeNode.MAX_CACHED_LISTING_ENTRIES);
+
+            assertEquals(expected.substring(1), readString(inputStream));
+            assertEquals(FileTreeNode.MAX_CACHED_LISTING_ENTRIES + 2, count[0]);
+        }
+    }
+
+    @Test
+    public void testFormatChildren__metadata_ttl_zero() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        final FileTreeItemFromLocalFile file = new FileTreeItemFromLocalFile(java.nio.file.Paths.get("dummy"));
+        file.setMetadataTtl(0);
+        baseNode.appendSubFile(file, TreePath.get("file"));
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("file2"));
+        final int[] count = {0};
+        final FileFormater formatter = f -> {
+            count[0]++;
+            return f.getName() + "\n";
+        };
+
+        baseNode.formatChildren("key", null, formatter);
+        baseNode.formatChildren("key", null, formatter);
+
+        // not reused since the metadata of "file" may change at any time
+        assertEquals(4, count[0]);
+    }
+
     @Test
     public void testGetAbsolutePath() {
         final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
@@ -431,6 +550,42 @@ public class FileTreeNodeTest {
         }
     }
 
+    @Test
+    public void testGetAbsolutePath__cached() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir1", "child1"));
+
+        try {
+            final FileTreeNode child1Node = baseNode.getNodeByRelativePath(TreePath.get("dir1/child1"));
+
+            assertSame(child1Node.getAbsolutePath(), child1Node.getAbsolutePath());
+
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testGetAbsolutePath__after_add_to_another_directory() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        final FileTreeNode dirNode = new FileTreeNode(new FileTreeItemDirectory(), "dir1");
+        dirNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir1-1", "child1"));
+
+        try {
+            final FileTreeNode child1Node = dirNode.getNodeByRelativePath(TreePath.get("dir1-1/child1"));
+
+            // the path is computed before the directory is added
+            assertEquals("/dir1-1/child1", child1Node.getAbsolutePath());
+
+            baseNode.addChild(dirNode, "dir1");
+            assertEquals("/dir1", dirNode.getAbsolutePath());
+            assertEquals("/dir1/dir1-1/child1", child1Node.getAbsolutePath());
+
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testIsHidden() {
         final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
@@ -705,6 +860,31 @@ public class FileTreeNodeTest {
         }
     }
 
+    @Test
+    public void testGetSize() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        final FileTreeItem child1 = new FileTreeItemStub();
+        final FileTreeItem child2 = new FileTreeItemStub().setSize(1234L);
+
+        baseNode.appendSubFile(child1, TreePath.get("dir1", "child1"));
+        baseNode.appendSubFile(child2, TreePath.get("dir1", "child2"));
+
+        try {
+            final FileTreeNode dir1Node = baseNode.getNodeByRelativePath(TreePath.get("dir1"));
+            final FileTreeNode child1Node = baseNode.getNodeByRelativePath(TreePath.get("dir1/child1"));
+            final FileTreeNode child2Node = baseNode.getNodeByRelativePath(TreePath.get("dir1/child2"));
+
+            assertEquals(0, baseNode.getSize());
+            assertEquals(0, dir1Node.getSize());
+            // unknown size
+            assertEquals(0, child1Node.getSize());
+            assertEquals(1234L, child2Node.getSize());
+
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testMkdir() {
         final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
@@ -850,6 +1030,80 @@ public class FileTreeNodeTest {
         }
     }
 
+    @Test
+    public void testCreateInputStream__error_by_offset_of_not_random_accessible_file() {
+        final FileTreeItem fileTreeItem = new FileTreeItemStub();
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(fileTreeItem, TreePath.get("file"));
+
+        try {
+            final FileTreeNode fileTreeNode = baseNode.getNodeByRelativePath(TreePath.get("file"));
+            assertFalse(fileTreeNode.isRandomAccessible());
+            assertFalse(baseNode.isRandomAccessible());
+
+            fileTreeNode.createInputStream(1);
+            fail("expected exception has not been thrown");
+
+        } catch (IOException e) {
+            // expected exception
+            assertEquals("cannot read from the offset 1: /file", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTransferTo() {
+        final FileTreeItem fileTreeItem =
+                new FileTreeItemStub(new ByteArrayInputStream("content".getBytes()), null);
+        final FileTreeNode fileTreeNode = new FileTreeNode(fileTreeItem, "file");
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            // without a channel-based implementation, the stream is transferred
+            assertEquals(7, fileTreeNode.transferTo(0, Channels.newChannel(outputStream)));
+            assertEquals("content", outputStream.toString());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testTransferTo__error_by_offset_of_not_random_accessible_file() {
+        final FileTreeItem fileTreeItem = new FileTreeItemStub();
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(fileTreeItem, TreePath.get("file"));
+
+        try {
+            final FileTreeNode fileTreeNode = baseNode.getNodeByRelativePath(TreePath.get("file"));
+            fileTreeNode.transferTo(1, Channels.newChannel(new ByteArrayOutputStream()));
+            fail("expected exception has not been thrown");
+
+        } catch (IOException e) {
+            // expected exception
+            assertEquals("cannot read from the offset 1: /file", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIsRandomAccessible() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir1", "file1"));
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("file2"));
+
+        assertTrue(baseNode.isRandomAccessible());
+    }
+
+    @Test
+    public void testIsRandomAccessible__reset_by_append() {
+        final FileTreeNode baseNode = new FileTreeNode(new FileTreeItemDirectory(), null);
+        baseNode.appendSubFile(new FileTreeItemEmptyFile(), TreePath.get("dir1", "file1"));
+        assertTrue(baseNode.isRandomAccessible());
+
+        baseNode.appendSubFile(new FileTreeItemStub(), TreePath.get("dir1", "file2"));
+
+        assertFalse(baseNode.isRandomAccessible());
+    }
+
     @Test
     public void testCreateOutputStream() {
         try (final OutputStream outputStreamStub = new OutputStreamStub()) {
@@ -870,6 +1124,7 @@ public class FileTreeNodeTest {
         private final OutputStream outputStreamStub;
         private String ownerName;
         private String groupName;
+        private Long size;
 
         public FileTreeItemStub(InputStream inputStreamStub, OutputStream outputStreamStub) {
             this.inputStreamStub = inputStreamStub;
@@ -890,6 +1145,11 @@ public class FileTreeNodeTest {
             return this;
         }
 
+        public FileTreeItemStub setSize(Long size) {
+            this.size = size;
+            return this;
+        }
+
         @Override
         public boolean isDirectory() {
             return false;
@@ -914,6 +1174,11 @@ public class FileTreeNodeTest {
         public String getGroupName() {
             return groupName;
         }
+
+        @Override
+        public Long getSize() {
+            return size;
+        }
     }
 
     private static class OutputStreamStub extends OutputStream {
@@ -929,4 +1194,14 @@ public class FileTreeNodeTest {
             throw new UnsupportedOperationException("stub");
         }
     }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
 }
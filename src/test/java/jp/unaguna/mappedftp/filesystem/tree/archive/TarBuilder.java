@@ -0,0 +1,63 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes a tar archive in the ustar format, with the members given as they are.
+ */
+public class TarBuilder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    public TarBuilder add(String name, char type, String content, long mtimeSeconds) {
+        final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        final byte[] header = new byte[512];
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            // split into the prefix and the name of ustar
+            final int slash = name.lastIndexOf('/');
+            final byte[] prefix = name.substring(0, slash).getBytes(StandardCharsets.UTF_8);
+            final byte[] rest = name.substring(slash + 1).getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(rest, 0, header, 0, rest.length);
+            System.arraycopy(prefix, 0, header, 345, prefix.length);
+        } else {
+            System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        }
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, data.length);
+        putOctal(header, 136, 12, mtimeSeconds);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, sum);
+
+        out.write(header, 0, header.length);
+        out.write(data, 0, data.length);
+        out.write(new byte[(512 - data.length % 512) % 512], 0, (512 - data.length % 512) % 512);
+        return this;
+    }
+
+    public Path write(Path path) throws IOException {
+        out.write(new byte[1024], 0, 1024);
+        Files.write(path, out.toByteArray());
+        return path;
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        final String octal = String.format("%0" + (length - 1) + "o", value);
+        final byte[] bytes = octal.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+}
@@ -0,0 +1,217 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import jp.unaguna.mappedftp.utils.ChannelUtils;
+import jp.unaguna.mappedftp.utils.FileChannelSlice;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TarIndexTest {
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @Test
+    public void testRead(@TempDir Path directory) throws IOException {
+        final Path tar = new TarBuilder()
+                .add("./", '5', "", 1_600_000_000L)
+                .add("./b/", '5', "", 1_600_000_100L)
+                .add("./b/file.txt", '0', CONTENT, 1_600_000_200L)
+                .add("./a.txt", '0', "a", 1_600_000_300L)
+                .add("./c/d/implied.txt", '0', "", 1_600_000_400L)
+                .add("./link", '2', "", 1_600_000_500L)
+                .write(directory.resolve("test.tar"));
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            final TarIndex index = TarIndex.read(file);
+
+            assertEquals(Arrays.asList("a.txt", "b", "c"), childNames(index, ArchiveIndex.ROOT));
+            final int b = index.getChild(ArchiveIndex.ROOT, 1);
+            assertTrue(index.isDirectory(b));
+            assertEquals(1_600_000_100_000L, index.getLastModified(b));
+
+            final int fileEntry = index.getChild(b, 0);
+            assertEquals("b/file.txt", index.getPath(fileEntry));
+            assertEquals(CONTENT.length(), index.getSize(fileEntry));
+            assertEquals(1_600_000_200_000L, index.getLastModified(fileEntry));
+            try (InputStream in = index.openStream(fileEntry, 15)) {
+                assertEquals("fghij", readString(in));
+            }
+
+            final int c = index.getChild(ArchiveIndex.ROOT, 2);
+            assertEquals("c/d/implied.txt", index.getPath(index.getChild(index.getChild(c, 0), 0)));
+            // the directories only implied have the time of the archive
+            assertEquals(Files.getLastModifiedTime(tar).toMillis(), index.getLastModified(c));
+        }
+    }
+
+    @Test
+    public void testOpenChannel(@TempDir Path directory) throws IOException {
+        final Path tar = new TarBuilder()
+                .add("first.txt", '0', "first", 0)
+                .add("file.txt", '0', CONTENT, 0)
+                .write(directory.resolve("test.tar"));
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            final TarIndex index = TarIndex.read(file);
+            try (ReadableByteChannel channel = index.openChannel(index.getChild(ArchiveIndex.ROOT, 0), 10)) {
+                assertInstanceOf(FileChannelSlice.class, channel);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(10, ChannelUtils.transfer(channel, Channels.newChannel(out)));
+                assertEquals("abcdefghij", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testRead__long_names(@TempDir Path directory) throws IOException {
+        final String gnuName = "gnu/" + repeat("g", 150) + ".txt";
+        final String paxName = "pax/" + repeat("p", 150) + ".txt";
+        final Path tar = new TarBuilder()
+                .add("././@LongLink", 'L', gnuName + "\0", 0)
+                .add(gnuName.substring(0, 99), '0', "gnu", 1_600_000_000L)
+                .add("PaxHeaders/pax", 'x', pax("path", paxName) + pax("mtime", "1600000000.5"), 0)
+                .add(paxName.substring(0, 99), '0', "pax", 0)
+                .add("ustar/" + repeat("u", 120) + "/file.txt", '0', "ustar", 0)
+                .write(directory.resolve("test.tar"));
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            final TarIndex index = TarIndex.read(file);
+            assertEquals(Arrays.asList("gnu", "pax", "ustar"), childNames(index, ArchiveIndex.ROOT));
+
+            final int gnu = index.getChild(index.getChild(ArchiveIndex.ROOT, 0), 0);
+            assertEquals(gnuName, index.getPath(gnu));
+            try (InputStream in = index.openStream(gnu, 0)) {
+                assertEquals("gnu", readString(in));
+            }
+
+            final int pax = index.getChild(index.getChild(ArchiveIndex.ROOT, 1), 0);
+            assertEquals(paxName, index.getPath(pax));
+            assertEquals(1_600_000_000_500L, index.getLastModified(pax));
+
+            final int ustarDirectory = index.getChild(index.getChild(ArchiveIndex.ROOT, 2), 0);
+            assertEquals(Arrays.asList("file.txt"), childNames(index, ustarDirectory));
+        }
+    }
+
+    @Test
+    public void testRead__persisted(@TempDir Path directory) throws IOException {
+        final Path tar = new TarBuilder()
+                .add("dir/file.txt", '0', CONTENT, 1_600_000_000L)
+                .write(directory.resolve("test.tar"));
+        final Path indexFile = directory.resolve("index/test.tar.index");
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            TarIndex.read(file, indexFile);
+        }
+        assertTrue(Files.exists(indexFile));
+
+        // break the headers with the same size and time, which the persisted index does not notice
+        final FileTime lastModified = Files.getLastModifiedTime(tar);
+        final byte[] bytes = Files.readAllBytes(tar);
+        bytes[0] = 'X';
+        Files.write(tar, bytes);
+        Files.setLastModifiedTime(tar, lastModified);
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            assertThrows(IOException.class, () -> TarIndex.read(file));
+
+            final TarIndex index = TarIndex.read(file, indexFile);
+            final int fileEntry = index.getChild(index.getChild(ArchiveIndex.ROOT, 0), 0);
+            assertEquals("dir/file.txt", index.getPath(fileEntry));
+            assertEquals(1_600_000_000_000L, index.getLastModified(fileEntry));
+            try (InputStream in = index.openStream(fileEntry, 0)) {
+                assertEquals(CONTENT, readString(in));
+            }
+        }
+    }
+
+    @Test
+    public void testRead__persisted_changed(@TempDir Path directory) throws IOException {
+        final Path tar = directory.resolve("test.tar");
+        final Path indexFile = directory.resolve("test.tar.index");
+        new TarBuilder().add("file1", '0', CONTENT, 0).write(tar);
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            assertEquals(Arrays.asList("file1"), childNames(TarIndex.read(file, indexFile), ArchiveIndex.ROOT));
+        }
+
+        new TarBuilder().add("file1", '0', CONTENT, 0).add("file2", '0', CONTENT, 0).write(tar);
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            assertEquals(Arrays.asList("file1", "file2"),
+                    childNames(TarIndex.read(file, indexFile), ArchiveIndex.ROOT));
+        }
+    }
+
+    @Test
+    public void testRead__persisted_broken(@TempDir Path directory) throws IOException {
+        final Path tar = new TarBuilder().add("file1", '0', CONTENT, 0).write(directory.resolve("test.tar"));
+        final Path indexFile = directory.resolve("test.tar.index");
+        Files.write(indexFile, "broken".getBytes(StandardCharsets.UTF_8));
+
+        try (SharedFileChannel file = new SharedFileChannel(tar)) {
+            assertEquals(Arrays.asList("file1"), childNames(TarIndex.read(file, indexFile), ArchiveIndex.ROOT));
+        }
+        // written again
+        assertTrue(Files.size(indexFile) > "broken".length());
+    }
+
+    @Test
+    public void testRead__not_tar(@TempDir Path directory) throws IOException {
+        final Path notTar = directory.resolve("test.txt");
+        final byte[] bytes = new byte[2048];
+        Arrays.fill(bytes, (byte) 'a');
+        Files.write(notTar, bytes);
+
+        try (SharedFileChannel file = new SharedFileChannel(notTar)) {
+            assertThrows(IOException.class, () -> TarIndex.read(file));
+        }
+    }
+
+    private static List<String> childNames(ArchiveIndex index, int entry) {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < index.getChildCount(entry); i++) {
+            names.add(index.getName(index.getChild(entry, i)));
+        }
+        return names;
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[7];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String s, int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    private static String pax(String key, String value) {
+        final String record = " " + key + "=" + value + "\n";
+        int length = record.length() + 1;
+        while (String.valueOf(length).length() + record.length() != length) {
+            length++;
+        }
+        return length + record;
+    }
+}
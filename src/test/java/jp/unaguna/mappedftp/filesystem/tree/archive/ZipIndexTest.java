@@ -0,0 +1,220 @@
+package jp.unaguna.mappedftp.filesystem.tree.archive;
+
+import jp.unaguna.mappedftp.utils.ChannelUtils;
+import jp.unaguna.mappedftp.utils.FileChannelSlice;
+import jp.unaguna.mappedftp.utils.SharedFileChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipIndexTest {
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testRead(@TempDir Path directory) throws IOException {
+        final Path zip = directory.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            putDeflated(out, "b/deflated.txt", CONTENT, 1_600_000_000_000L);
+            putStored(out, "b/stored.txt", CONTENT);
+            putDeflated(out, "a.txt", CONTENT, 1_600_000_000_000L);
+            out.putNextEntry(new ZipEntry("c/"));
+            out.closeEntry();
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            final ZipIndex index = ZipIndex.read(file);
+
+            // the root, a.txt, b, c, and the two files in b
+            assertEquals(6, index.size());
+            assertTrue(index.isDirectory(ZipIndex.ROOT));
+            assertEquals(Arrays.asList("a.txt", "b", "c"), childNames(index, ZipIndex.ROOT));
+
+            final int b = index.getChild(ZipIndex.ROOT, 1);
+            assertTrue(index.isDirectory(b));
+            assertEquals(Arrays.asList("deflated.txt", "stored.txt"), childNames(index, b));
+            assertEquals(0, index.getChildCount(index.getChild(ZipIndex.ROOT, 2)));
+
+            final int deflated = index.getChild(b, 0);
+            assertFalse(index.isDirectory(deflated));
+            assertEquals("b/deflated.txt", index.getPath(deflated));
+            assertEquals(CONTENT.length, index.getSize(deflated));
+            assertFalse(index.isStored(deflated));
+            // the extended timestamp has the precision of seconds
+            assertEquals(1_600_000_000_000L, index.getLastModified(deflated));
+            assertTrue(index.isStored(index.getChild(b, 1)));
+        }
+    }
+
+    @Test
+    public void testOpenStream(@TempDir Path directory) throws IOException {
+        final Path zip = directory.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            putDeflated(out, "deflated.txt", CONTENT, 0);
+            putStored(out, "stored.txt", CONTENT);
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            final ZipIndex index = ZipIndex.read(file);
+            for (int i = 0; i < 2; i++) {
+                final int entry = index.getChild(ZipIndex.ROOT, i);
+                try (InputStream in = index.openStream(entry, 0)) {
+                    assertEquals("0123456789abcdefghij", readString(in));
+                }
+                try (InputStream in = index.openStream(entry, 15)) {
+                    assertEquals("fghij", readString(in));
+                }
+                try (InputStream in = index.openStream(entry, 100)) {
+                    assertEquals("", readString(in));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOpenChannel__stored(@TempDir Path directory) throws IOException {
+        final Path zip = directory.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            putStored(out, "first.txt", "first".getBytes(StandardCharsets.UTF_8));
+            putStored(out, "stored.txt", CONTENT);
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            final ZipIndex index = ZipIndex.read(file);
+            final int entry = index.getChild(ZipIndex.ROOT, 1);
+
+            try (ReadableByteChannel channel = index.openChannel(entry, 10)) {
+                assertInstanceOf(FileChannelSlice.class, channel);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(10, ChannelUtils.transfer(channel, Channels.newChannel(out)));
+                assertEquals("abcdefghij", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testRead__unsafe_path(@TempDir Path directory) throws IOException {
+        final Path zip = directory.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            putStored(out, "../escaped.txt", CONTENT);
+            putStored(out, "dir/./dot.txt", CONTENT);
+            putStored(out, "/absolute.txt", CONTENT);
+            putStored(out, "safe.txt", CONTENT);
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            final ZipIndex index = ZipIndex.read(file);
+            assertEquals(Arrays.asList("safe.txt"), childNames(index, ZipIndex.ROOT));
+        }
+    }
+
+    @Test
+    public void testRead__duplicate(@TempDir Path directory) throws IOException {
+        final Path zip = directory.resolve("test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            putStored(out, "name", CONTENT);
+            // ZipOutputStream rejects duplicate names, but "name/" is another name
+            out.putNextEntry(new ZipEntry("name/"));
+            out.closeEntry();
+            putStored(out, "name/under_file.txt", CONTENT);
+            putStored(out, "a-b", CONTENT);
+            putStored(out, "a/b", CONTENT);
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            final ZipIndex index = ZipIndex.read(file);
+            assertEquals(Arrays.asList("a", "a-b", "name"), childNames(index, ZipIndex.ROOT));
+            assertFalse(index.isDirectory(index.getChild(ZipIndex.ROOT, 2)));
+            assertEquals(Arrays.asList("b"), childNames(index, index.getChild(ZipIndex.ROOT, 0)));
+            assertEquals("a/b", index.getPath(index.getChild(index.getChild(ZipIndex.ROOT, 0), 0)));
+        }
+    }
+
+    @Test
+    public void testRead__prefixed(@TempDir Path directory) throws IOException {
+        // such as a self-extracting archive; the offsets are relative to the top of the file
+        final Path zip = directory.resolve("test.zip");
+        try (OutputStream raw = Files.newOutputStream(zip)) {
+            raw.write(new byte[1000]);
+            final ZipOutputStream out = new ZipOutputStream(raw);
+            putStored(out, "stored.txt", CONTENT);
+            out.finish();
+        }
+
+        try (SharedFileChannel file = new SharedFileChannel(zip)) {
+            final ZipIndex index = ZipIndex.read(file);
+            try (InputStream in = index.openStream(index.getChild(ZipIndex.ROOT, 0), 0)) {
+                assertEquals("0123456789abcdefghij", readString(in));
+            }
+        }
+    }
+
+    @Test
+    public void testRead__not_zip(@TempDir Path directory) throws IOException {
+        final Path notZip = directory.resolve("test.txt");
+        Files.write(notZip, CONTENT);
+
+        try (SharedFileChannel file = new SharedFileChannel(notZip)) {
+            assertThrows(ZipException.class, () -> ZipIndex.read(file));
+        }
+    }
+
+    private static void putDeflated(ZipOutputStream out, String name, byte[] content, long time) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        if (time > 0) {
+            entry.setTime(time);
+            entry.setLastModifiedTime(java.nio.file.attribute.FileTime.fromMillis(time));
+        }
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static void putStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static List<String> childNames(ZipIndex index, int entry) {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < index.getChildCount(entry); i++) {
+            names.add(index.getName(index.getChild(entry, i)));
+        }
+        return names;
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[7];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,344 @@
+package jp.unaguna.mappedftp.filesystem.tree.cache;
+
+import jp.unaguna.mappedftp.HttpServerStub;
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.metrics.MetricsSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UrlContentCacheTest {
+    @Test
+    public void testOpen__cached(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            assertEquals("a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 5))));
+            assertEquals(1, server.getRequestCount());
+            assertEquals(25L, cache.getCachedLength(url));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__metrics(@TempDir Path directory) {
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        metrics.clear();
+        metrics.setEnabled(true);
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+
+            TestUtils.readAllBytes(cache.open(url, -1, 0));
+            TestUtils.readAllBytes(cache.open(url, -1, 0));
+            TestUtils.readAllBytes(cache.open(url, -1, 5));
+
+            final MetricsSnapshot snapshot = metrics.snapshot();
+            assertEquals(2, snapshot.getCount("cache.url.hits"));
+            assertEquals(1, snapshot.getCount("cache.url.misses"));
+            assertEquals(1, snapshot.getHistogram("upstream.latency.micros",
+                    "host", "http://" + url.getHost() + ":" + url.getPort()).getCount());
+
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            metrics.setEnabled(false);
+            metrics.clear();
+        }
+    }
+
+    @Test
+    public void testOpen__revalidate_expired_content(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, 0, 0))));
+            assertNull(cache.getCachedLength(url));
+
+            // not modified
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, 0, 0))));
+            assertEquals(2, server.getRequestCount());
+            assertEquals(1, server.getNotModifiedCount());
+
+            // modified
+            server.put("/file", "updated".getBytes());
+            assertEquals("updated", new String(TestUtils.readAllBytes(cache.open(url, 0, 0))));
+            assertEquals(3, server.getRequestCount());
+            assertEquals(1, server.getNotModifiedCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__collapse_concurrent_fetches(@TempDir Path directory) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes())
+                    .setDelay(300);
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+
+            final List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            }
+            for (Future<byte[]> result : results) {
+                assertEquals("I am a text file for test", new String(result.get()));
+            }
+            assertEquals(1, server.getRequestCount());
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOpen__serve_while_fetching(@TempDir Path directory) throws Exception {
+        final byte[] content = new byte[200000];
+        new Random(0).nextBytes(content);
+        final CountDownLatch resume = new CountDownLatch(1);
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", content)
+                    .setPause(100000, resume);
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024 * 1024);
+            cache.setMemoryEntryMaxSize(10);
+
+            try (InputStream first = cache.open(url, -1, 0);
+                 InputStream second = cache.open(url, -1, 1000)) {
+                // the first bytes are served before the whole content is fetched
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                    assertArrayEquals(Arrays.copyOfRange(content, 0, 1000), readBytes(first, 1000));
+                    assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), readBytes(second, 1000));
+                });
+                assertNull(cache.getCachedLength(url));
+
+                resume.countDown();
+                assertArrayEquals(Arrays.copyOfRange(content, 1000, content.length), TestUtils.readAllBytes(first));
+                assertArrayEquals(Arrays.copyOfRange(content, 2000, content.length), TestUtils.readAllBytes(second));
+            }
+            assertEquals(1, server.getRequestCount());
+            assertEquals(200000L, cache.getCachedLength(url));
+            assertEquals(1, countFiles(directory));
+
+            assertArrayEquals(content, TestUtils.readAllBytes(cache.open(url, -1, 0)));
+            assertEquals(1, server.getRequestCount());
+
+        } finally {
+            resume.countDown();
+        }
+    }
+
+    @Test
+    public void testOpen__discard_abandoned_fetch(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+            cache.setMemoryEntryMaxSize(10);
+
+            try (InputStream inputStream = cache.open(url, -1, 0)) {
+                assertEquals("I am", new String(readBytes(inputStream, 4)));
+            }
+            assertNull(cache.getCachedLength(url));
+            assertEquals(0, cache.getSize());
+            assertEquals(0, countFiles(directory));
+
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            assertEquals(2, server.getRequestCount());
+            assertEquals(25L, cache.getCachedLength(url));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__store_large_content_in_directory(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+            cache.setMemoryEntryMaxSize(10);
+
+            assertEquals("a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 5))));
+            assertEquals(1, countFiles(directory));
+
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            assertEquals(1, server.getRequestCount());
+
+            cache.clear();
+            assertEquals(0, countFiles(directory));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__evict_least_recently_used(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file1", "0123456789".getBytes())
+                    .put("/file2", "abcdefghij".getBytes())
+                    .put("/file3", "ABCDEFGHIJ".getBytes());
+            final UrlContentCache cache = new UrlContentCache(directory, 25);
+            cache.setMemoryEntryMaxSize(5);
+
+            TestUtils.readAllBytes(cache.open(server.url("/file1"), -1, 0));
+            TestUtils.readAllBytes(cache.open(server.url("/file2"), -1, 0));
+            TestUtils.readAllBytes(cache.open(server.url("/file1"), -1, 0));
+            TestUtils.readAllBytes(cache.open(server.url("/file3"), -1, 0));
+
+            // file2 is the least recently used
+            assertEquals(10L, cache.getCachedLength(server.url("/file1")));
+            assertNull(cache.getCachedLength(server.url("/file2")));
+            assertEquals(10L, cache.getCachedLength(server.url("/file3")));
+            assertEquals(20L, cache.getSize());
+            assertEquals(2, countFiles(directory));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__content_larger_than_max_size(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 10);
+            cache.setMemoryEntryMaxSize(5);
+
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            assertNull(cache.getCachedLength(url));
+            assertEquals(0, cache.getSize());
+            assertEquals(0, countFiles(directory));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__refetch_removed_file(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            final URL url = server.url("/file");
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+            cache.setMemoryEntryMaxSize(10);
+
+            TestUtils.readAllBytes(cache.open(url, -1, 0));
+            try (Stream<Path> files = listCacheFiles(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+
+            assertEquals("I am a text file for test", new String(TestUtils.readAllBytes(cache.open(url, -1, 0))));
+            assertEquals(2, server.getRequestCount());
+            assertEquals(25L, cache.getSize());
+            assertEquals(1, countFiles(directory));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__share_directory(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file1", "I am a text file for test".getBytes())
+                    .put("/file2", "I am another text file for test".getBytes());
+            final UrlContentCache cache1 = new UrlContentCache(directory, 1024);
+            final UrlContentCache cache2 = new UrlContentCache(directory, 1024);
+            cache1.setMemoryEntryMaxSize(10);
+            cache2.setMemoryEntryMaxSize(10);
+
+            TestUtils.readAllBytes(cache1.open(server.url("/file1"), -1, 0));
+            TestUtils.readAllBytes(cache2.open(server.url("/file2"), -1, 0));
+
+            // the files of the living cache are not deleted
+            assertEquals(2, countFiles(directory));
+            assertEquals("I am a text file for test",
+                    new String(TestUtils.readAllBytes(cache1.open(server.url("/file1"), -1, 0))));
+            assertEquals(2, server.getRequestCount());
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testOpen__delete_left_directory(@TempDir Path directory) {
+        try (HttpServerStub server = new HttpServerStub()) {
+            server.put("/file", "I am a text file for test".getBytes());
+            // left by a process which has exited
+            Files.createFile(directory.resolve("mappedftp-left.lock"));
+            Files.createDirectory(directory.resolve("mappedftp-left"));
+            Files.createFile(directory.resolve("mappedftp-left").resolve("mappedftp-0-1.cache"));
+            final UrlContentCache cache = new UrlContentCache(directory, 1024);
+            cache.setMemoryEntryMaxSize(10);
+
+            TestUtils.readAllBytes(cache.open(server.url("/file"), -1, 0));
+
+            assertFalse(Files.exists(directory.resolve("mappedftp-left")));
+            assertFalse(Files.exists(directory.resolve("mappedftp-left.lock")));
+            assertEquals(1, countFiles(directory));
+
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private static byte[] readBytes(InputStream inputStream, int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        int position = 0;
+        while (position < length) {
+            final int read = inputStream.read(bytes, position, length - position);
+            if (read < 0) {
+                throw new IOException("unexpected end of the stream");
+            }
+            position += read;
+        }
+        return bytes;
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = listCacheFiles(directory)) {
+            return files.count();
+        }
+    }
+
+    private static Stream<Path> listCacheFiles(Path directory) throws IOException {
+        return Files.walk(directory).filter(file -> file.getFileName().toString().endsWith(".cache"));
+    }
+}
@@ -0,0 +1,143 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import jp.unaguna.mappedftp.HttpServerStub;
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.metrics.MetricsSnapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadAheadTest {
+    private static final byte[] CONTENT = new byte[200_000];
+
+    static {
+        new Random(0).nextBytes(CONTENT);
+    }
+
+    private HttpServerStub server;
+    private URL url;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new HttpServerStub().put("/file", CONTENT);
+        url = server.url("/file");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testOpen() throws IOException, InterruptedException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        final ReadAhead readAhead = new ReadAhead(2, 1024, ReadAhead.Backpressure.BLOCK);
+
+        try (InputStream inputStream = readAhead.open(fetcher, url, 0)) {
+            assertArrayEquals(CONTENT, TestUtils.readAllBytes(inputStream));
+        }
+        assertEquals(1, server.getRequestCount());
+        awaitNoConnection(fetcher);
+    }
+
+    @Test
+    public void testOpen__with_offset() throws IOException, InterruptedException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        final ReadAhead readAhead = new ReadAhead(2, 1000, ReadAhead.Backpressure.BLOCK);
+
+        try (InputStream inputStream = readAhead.open(fetcher, url, 5)) {
+            assertEquals(CONTENT[5] & 0xff, inputStream.read());
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, 6, CONTENT.length), TestUtils.readAllBytes(inputStream));
+        }
+        awaitNoConnection(fetcher);
+    }
+
+    @Test
+    public void testOpen__release() throws IOException, InterruptedException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        final ReadAhead readAhead = new ReadAhead(2, 1024, ReadAhead.Backpressure.RELEASE);
+        readAhead.setReleaseDelay(50);
+        final String host = "http://" + url.getHost() + ":" + url.getPort();
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        metrics.clear();
+        metrics.setEnabled(true);
+        try {
+            try (InputStream inputStream = readAhead.open(fetcher, url, 0)) {
+                final byte[] head = new byte[10];
+                assertEquals(10, inputStream.read(head));
+
+                // the client stalls, so the upstream is closed to give the connection back
+                awaitNoConnection(fetcher);
+
+                final byte[] rest = TestUtils.readAllBytes(inputStream);
+                assertArrayEquals(Arrays.copyOfRange(CONTENT, 0, 10), head);
+                assertArrayEquals(Arrays.copyOfRange(CONTENT, 10, CONTENT.length), rest);
+            }
+            assertTrue(server.getRequestCount() >= 2);
+
+            final MetricsSnapshot snapshot = metrics.snapshot();
+            assertTrue(snapshot.getCount("upstream.readahead.releases", "host", host) >= 1);
+            assertTrue(snapshot.getCount("upstream.readahead.stalls", "host", host) >= 1);
+        } finally {
+            metrics.setEnabled(false);
+            metrics.clear();
+        }
+        awaitNoConnection(fetcher);
+    }
+
+    @Test
+    public void testClose__before_end() throws IOException, InterruptedException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        final ReadAhead readAhead = new ReadAhead(2, 1024, ReadAhead.Backpressure.BLOCK);
+
+        final InputStream inputStream = readAhead.open(fetcher, url, 0);
+        assertEquals(CONTENT[0] & 0xff, inputStream.read());
+        inputStream.close();
+
+        assertThrows(IOException.class, inputStream::read);
+        awaitNoConnection(fetcher);
+    }
+
+    @Test
+    public void testOpen__error_by_missing() {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        final ReadAhead readAhead = new ReadAhead();
+
+        assertThrows(FileNotFoundException.class, () -> readAhead.open(fetcher, server.url("/missing"), 0));
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testConstructor__error_by_invalid_size() {
+        assertThrows(IllegalArgumentException.class, () -> new ReadAhead(0, 1024, ReadAhead.Backpressure.BLOCK));
+        assertThrows(IllegalArgumentException.class, () -> new ReadAhead(2, 0, ReadAhead.Backpressure.BLOCK));
+    }
+
+    @Test
+    public void testBackpressureParse() {
+        assertEquals(ReadAhead.Backpressure.BLOCK, ReadAhead.Backpressure.parse("block"));
+        assertEquals(ReadAhead.Backpressure.RELEASE, ReadAhead.Backpressure.parse("RELEASE"));
+        assertThrows(IllegalArgumentException.class, () -> ReadAhead.Backpressure.parse("drop"));
+    }
+
+    /**
+     * Wait until the fetching thread closes the upstream.
+     */
+    private void awaitNoConnection(UpstreamFetcher fetcher) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (fetcher.getConnectionCount(url) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+}
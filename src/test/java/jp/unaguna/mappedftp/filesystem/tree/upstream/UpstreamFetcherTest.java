@@ -0,0 +1,272 @@
+package jp.unaguna.mappedftp.filesystem.tree.upstream;
+
+import jp.unaguna.mappedftp.HttpServerStub;
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.metrics.MetricRegistry;
+import jp.unaguna.mappedftp.metrics.MetricsSnapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpstreamFetcherTest {
+    private static final byte[] CONTENT = new byte[200_000];
+
+    static {
+        new Random(0).nextBytes(CONTENT);
+    }
+
+    private HttpServerStub server;
+    private URL url;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new HttpServerStub().put("/file", CONTENT);
+        url = server.url("/file");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testOpen() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+
+        try (InputStream inputStream = fetcher.open(url, 0)) {
+            assertArrayEquals(CONTENT, TestUtils.readAllBytes(inputStream));
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testOpen__with_offset() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+
+        try (InputStream inputStream1 = fetcher.open(url, 5);
+             InputStream inputStream2 = fetcher.open(url, CONTENT.length)) {
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, 5, CONTENT.length), TestUtils.readAllBytes(inputStream1));
+            assertEquals(0, TestUtils.readAllBytes(inputStream2).length);
+        }
+        // requests with offsets are not collapsed
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testOpen__collapsed() throws Exception {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        server.setDelay(500);
+
+        final int clients = 4;
+        final CountDownLatch ready = new CountDownLatch(clients);
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            final List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                results.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    try (InputStream inputStream = fetcher.open(url, 0)) {
+                        return TestUtils.readAllBytes(inputStream);
+                    }
+                }));
+            }
+
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(CONTENT, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testOpen__fan_out_to_slow_reader() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+
+        try (InputStream fast = fetcher.open(url, 0);
+             InputStream slow = fetcher.open(url, 0)) {
+            assertEquals(CONTENT[0] & 0xff, slow.read());
+            assertArrayEquals(CONTENT, TestUtils.readAllBytes(fast));
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, 1, CONTENT.length), TestUtils.readAllBytes(slow));
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testOpen__not_joined_after_join_window() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        fetcher.setJoinWindow(0);
+
+        try (InputStream first = fetcher.open(url, 0)) {
+            assertEquals(CONTENT[0] & 0xff, first.read());
+
+            try (InputStream second = fetcher.open(url, 0)) {
+                assertArrayEquals(CONTENT, TestUtils.readAllBytes(second));
+            }
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, 1, CONTENT.length), TestUtils.readAllBytes(first));
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testOpen__laggard_detached() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        fetcher.setMaxLag(1000);
+
+        try (InputStream fast = fetcher.open(url, 0);
+             InputStream slow = fetcher.open(url, 0)) {
+            assertEquals(CONTENT[0] & 0xff, slow.read());
+            assertArrayEquals(CONTENT, TestUtils.readAllBytes(fast));
+
+            // it reads the rest by its own request
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, 1, CONTENT.length), TestUtils.readAllBytes(slow));
+        }
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testOpen__aborted_by_closing_all() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+
+        final InputStream inputStream = fetcher.open(url, 0);
+        assertEquals(1, fetcher.getConnectionCount(url));
+        inputStream.close();
+        assertEquals(0, fetcher.getConnectionCount(url));
+
+        // a closed request is not joined
+        try (InputStream another = fetcher.open(url, 0)) {
+            assertArrayEquals(CONTENT, TestUtils.readAllBytes(another));
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testOpen__error_by_missing_resource() {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+
+        assertThrows(FileNotFoundException.class, () -> fetcher.open(server.url("/no_exists"), 0));
+        assertThrows(FileNotFoundException.class, () -> fetcher.open(server.url("/no_exists"), 5));
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testOpen__error_by_read_timeout() {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        fetcher.setReadTimeout(200);
+        server.setDelay(2000);
+
+        final long start = System.currentTimeMillis();
+        assertThrows(SocketTimeoutException.class, () -> fetcher.open(url, 0));
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testConnect__error_by_max_connections() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher(1);
+        fetcher.setAcquireTimeout(200);
+
+        try (InputStream ignored = fetcher.open(url, 5)) {
+            assertEquals(1, fetcher.getConnectionCount(url));
+
+            final SocketTimeoutException e = assertThrows(SocketTimeoutException.class, () -> fetcher.open(url, 6));
+            assertTrue(e.getMessage().startsWith("timed out waiting for a free connection to http://"), e.getMessage());
+        }
+
+        // the connection has been given back
+        assertEquals(0, fetcher.getConnectionCount(url));
+        try (InputStream inputStream = fetcher.open(url, 6)) {
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, 6, CONTENT.length), TestUtils.readAllBytes(inputStream));
+        }
+    }
+
+    @Test
+    public void testConnect__wait_for_free_connection() throws Exception {
+        final UpstreamFetcher fetcher = new UpstreamFetcher(1);
+        fetcher.setConnectTimeout(200);
+
+        final CompletableFuture<byte[]> waiting;
+        try (InputStream ignored = fetcher.open(url, 5)) {
+            waiting = CompletableFuture.supplyAsync(() -> {
+                try (InputStream inputStream = fetcher.open(url, 6)) {
+                    return TestUtils.readAllBytes(inputStream);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            // the second download waits beyond the connect timeout without failing
+            Thread.sleep(500);
+            assertFalse(waiting.isDone());
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 6, CONTENT.length), waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testGetContentLength() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+
+        assertEquals(CONTENT.length, fetcher.getContentLength(url));
+        assertThrows(IOException.class, () -> fetcher.getContentLength(server.url("/no_exists")));
+        assertEquals(0, fetcher.getConnectionCount(url));
+    }
+
+    @Test
+    public void testConstructor__error_by_no_connections() {
+        assertThrows(IllegalArgumentException.class, () -> new UpstreamFetcher(0));
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        final UpstreamFetcher fetcher = new UpstreamFetcher();
+        final String host = "http://" + url.getHost() + ":" + url.getPort();
+        final MetricRegistry metrics = MetricRegistry.getDefault();
+        metrics.clear();
+        metrics.setEnabled(true);
+        try {
+            try (InputStream inputStream = fetcher.open(url, 0)) {
+                TestUtils.readAllBytes(inputStream);
+            }
+            try (InputStream inputStream = fetcher.open(url, 100)) {
+                TestUtils.readAllBytes(inputStream);
+            }
+            assertThrows(FileNotFoundException.class, () -> fetcher.openDirect(server.url("/missing"), 0));
+
+            final MetricsSnapshot snapshot = metrics.snapshot();
+            assertEquals(3, snapshot.getCount("upstream.requests", "host", host));
+            assertEquals(3, snapshot.getHistogram("upstream.wait.micros", "host", host).getCount());
+            assertEquals(2, snapshot.getHistogram("upstream.latency.micros", "host", host).getCount());
+            assertEquals(1, snapshot.getCount("upstream.errors", "host", host));
+        } finally {
+            metrics.setEnabled(false);
+            metrics.clear();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jp.unaguna.mappedftp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistogramTest {
+    @Test
+    public void testSnapshot() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(50.5, snapshot.getMean());
+        assertEquals(100, snapshot.getMax());
+        // the upper bounds of the buckets [32, 63] and [64, 127], but not more than the max
+        assertEquals(63, snapshot.getPercentile(0.5));
+        assertEquals(100, snapshot.getPercentile(0.9));
+        assertEquals(100, snapshot.getPercentile(0.99));
+    }
+
+    @Test
+    public void testSnapshot__at_most_twice() {
+        final Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.record(1_000_000);
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        final long p50 = snapshot.getPercentile(0.5);
+        assertTrue(1000 <= p50 && p50 < 2000, String.valueOf(p50));
+        assertEquals(1_000_000, snapshot.getPercentile(1.0));
+    }
+
+    @Test
+    public void testSnapshot__empty() {
+        final Histogram.Snapshot snapshot = new Histogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0.0, snapshot.getMean());
+        assertEquals(0, snapshot.getPercentile(0.99));
+        assertEquals(0, snapshot.getMax());
+    }
+
+    @Test
+    public void testRecord__zero_and_negative() {
+        final Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(-5);
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getSum());
+        assertEquals(0, snapshot.getPercentile(1.0));
+    }
+
+    @Test
+    public void testRecord__max_value() {
+        final Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getPercentile(0.5));
+    }
+}
@@ -0,0 +1,96 @@
+package jp.unaguna.mappedftp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricRegistryTest {
+    @Test
+    public void testCounter() {
+        final MetricRegistry registry = new MetricRegistry();
+
+        registry.counter("requests", "host", "a").increment();
+        registry.counter("requests", "host", "a").add(2);
+        registry.counter("requests", "host", "b").increment();
+        registry.counter("total").increment();
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(3, snapshot.getCount("requests", "host", "a"));
+        assertEquals(1, snapshot.getCount("requests", "host", "b"));
+        assertEquals(1, snapshot.getCount("total"));
+        assertEquals(0, snapshot.getCount("requests", "host", "c"));
+        assertEquals(Arrays.asList("requests{host=a}", "requests{host=b}", "total"),
+                Arrays.asList(snapshot.getCounters().keySet().toArray()));
+    }
+
+    @Test
+    public void testHistogram() {
+        final MetricRegistry registry = new MetricRegistry();
+
+        registry.histogram("size", "type", "x", "command", "LIST").record(10);
+        registry.histogram("size", "type", "x", "command", "LIST").record(20);
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(2, snapshot.getHistogram("size", "type", "x", "command", "LIST").getCount());
+        assertNotNull(snapshot.getHistograms().get("size{type=x,command=LIST}"));
+        assertNull(snapshot.getHistogram("size"));
+    }
+
+    @Test
+    public void testMaxSeriesPerName() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.setMaxSeriesPerName(2);
+
+        registry.counter("bytes", "path", "/a").add(1);
+        registry.counter("bytes", "path", "/b").add(2);
+        registry.counter("bytes", "path", "/c").add(4);
+        registry.counter("bytes", "path", "/d").add(8);
+        // the existing series are still updated
+        registry.counter("bytes", "path", "/a").add(16);
+        // other names have their own limits
+        registry.counter("count", "path", "/c").increment();
+        registry.histogram("bytes", "path", "/c").record(1);
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(17, snapshot.getCount("bytes", "path", "/a"));
+        assertEquals(2, snapshot.getCount("bytes", "path", "/b"));
+        assertEquals(0, snapshot.getCount("bytes", "path", "/c"));
+        assertEquals(12, snapshot.getCount("bytes", "path", MetricRegistry.OVERFLOW_TAG_VALUE));
+        assertEquals(1, snapshot.getCount("count", "path", "/c"));
+        assertEquals(1, snapshot.getHistogram("bytes", "path", "/c").getCount());
+    }
+
+    @Test
+    public void testCounter__error_by_odd_tags() {
+        final MetricRegistry registry = new MetricRegistry();
+
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("requests", "host"));
+    }
+
+    @Test
+    public void testClear() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.setMaxSeriesPerName(1);
+        registry.counter("bytes", "path", "/a").increment();
+
+        registry.clear();
+        registry.counter("bytes", "path", "/b").increment();
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(0, snapshot.getCount("bytes", "path", "/a"));
+        assertEquals(1, snapshot.getCount("bytes", "path", "/b"));
+    }
+
+    @Test
+    public void testFormat() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests", "host", "a").add(3);
+        registry.histogram("latency").record(100);
+
+        assertEquals("requests{host=a} 3\n"
+                        + "latency count=1 sum=100 mean=100.0 p50=100 p90=100 p99=100 max=100\n",
+                registry.snapshot().format());
+    }
+}
@@ -0,0 +1,180 @@
+package jp.unaguna.mappedftp.metrics;
+
+import jp.unaguna.mappedftp.TestUtils;
+import jp.unaguna.mappedftp.UserStub;
+import jp.unaguna.mappedftp.command.LIST;
+import jp.unaguna.mappedftp.command.MLSD;
+import jp.unaguna.mappedftp.command.NLST;
+import jp.unaguna.mappedftp.filesystem.FileSystemDefinitionException;
+import jp.unaguna.mappedftp.filesystem.LinkedFileSystemView;
+import jp.unaguna.mappedftp.filesystem.MappingFileSystemFactory;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItem;
+import jp.unaguna.mappedftp.filesystem.tree.FileTreeItemInMemory;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.impl.DefaultFtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import org.apache.ftpserver.impl.LocalizedDataTransferFtpReply;
+import org.apache.ftpserver.impl.ServerDataConnectionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetricsFtpletTest {
+    private MetricRegistry registry;
+    private MetricsFtplet ftplet;
+    private FtpSession session;
+    private LinkedFileSystemView view;
+
+    @BeforeEach
+    public void setUp() throws FtpException, FileSystemDefinitionException {
+        registry = new MetricRegistry();
+        registry.setEnabled(true);
+        ftplet = new MetricsFtplet(registry);
+        session = sessionStub();
+
+        final Map<String, FileTreeItem> files = new LinkedHashMap<>();
+        files.put("/dir1/file1", new FileTreeItemInMemory(new byte[100]));
+        files.put("/file2", new FileTreeItemInMemory(new byte[10]));
+        view = new MappingFileSystemFactory(files).createFileSystemView(new UserStub());
+    }
+
+    @Test
+    public void testRetr() throws FtpException {
+        final FtpFile file1 = view.getFile("/dir1/file1");
+        execute("RETR /dir1/file1", new LocalizedDataTransferFtpReply(226, "ok", file1, 100));
+        execute("RETR /dir1/file1", new LocalizedDataTransferFtpReply(226, "ok", file1, 100));
+        execute("RETR /file2", new LocalizedDataTransferFtpReply(226, "ok", view.getFile("/file2"), 10));
+        execute("RETR /dir1/file1", new LocalizedDataTransferFtpReply(426, "aborted", file1, 50));
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        final Histogram.Snapshot bytes = snapshot.getHistogram("ftp.retr.bytes", "type", "FileTreeItemInMemory");
+        assertEquals(3, bytes.getCount());
+        assertEquals(210, bytes.getSum());
+        assertEquals(3, snapshot.getHistogram("ftp.retr.micros", "type", "FileTreeItemInMemory").getCount());
+        assertEquals(1, snapshot.getCount("ftp.retr.errors", "type", "FileTreeItemInMemory"));
+        assertEquals(200, snapshot.getCount("ftp.retr.path.bytes", "path", "/dir1/file1"));
+        assertEquals(2, snapshot.getCount("ftp.retr.path.count", "path", "/dir1/file1"));
+        assertEquals(10, snapshot.getCount("ftp.retr.path.bytes", "path", "/file2"));
+        assertEquals(4, snapshot.getHistogram("ftp.command.micros", "command", "RETR").getCount());
+    }
+
+    @Test
+    public void testList() throws Exception {
+        final long listBytes = executeListing(new LIST(), "LIST /dir1");
+        final long mlsdBytes = executeListing(new MLSD(), "mlsd /dir1");
+        final long nlstBytes = executeListing(new NLST(), "NLST /");
+        execute("LIST /missing", new DefaultFtpReply(450, "no such file"));
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertTrue(listBytes > 0);
+        assertEquals(listBytes, snapshot.getHistogram("ftp.list.bytes", "command", "LIST").getSum());
+        assertTrue(mlsdBytes > 0);
+        assertEquals(mlsdBytes, snapshot.getHistogram("ftp.list.bytes", "command", "MLSD").getSum());
+        assertEquals("dir1\r\nfile2\r\n".length(), nlstBytes);
+        assertEquals(nlstBytes, snapshot.getHistogram("ftp.list.bytes", "command", "NLST").getSum());
+        assertEquals(2, snapshot.getHistogram("ftp.command.micros", "command", "LIST").getCount());
+        assertEquals(1, snapshot.getHistogram("ftp.list.bytes", "command", "LIST").getCount());
+    }
+
+    @Test
+    public void testLogin() {
+        execute("PASS secret", new DefaultFtpReply(230, "logged in"));
+        execute("PASS wrong", new DefaultFtpReply(530, "failed"));
+        execute("PASS wrong", new DefaultFtpReply(530, "failed"));
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(1, snapshot.getCount("ftp.login", "result", "success"));
+        assertEquals(2, snapshot.getCount("ftp.login", "result", "failure"));
+        assertEquals(3, snapshot.getHistogram("ftp.command.micros", "command", "PASS").getCount());
+    }
+
+    @Test
+    public void testAfterCommand__disabled() {
+        registry.setEnabled(false);
+
+        execute("PASS secret", new DefaultFtpReply(230, "logged in"));
+
+        assertTrue(registry.snapshot().getCounters().isEmpty());
+        assertTrue(registry.snapshot().getHistograms().isEmpty());
+    }
+
+    private void execute(String requestLine, FtpReply reply) {
+        final DefaultFtpRequest request = new DefaultFtpRequest(requestLine);
+        ftplet.beforeCommand(session, request);
+        ftplet.afterCommand(session, request, reply);
+    }
+
+    /**
+     * Execute the listing command with a data connection stub, and pass its last reply to the ftplet.
+     *
+     * @return the number of bytes sent through the data connection
+     */
+    private long executeListing(Command command, String requestLine) throws Exception {
+        final AtomicLong sent = new AtomicLong();
+        final DataConnection dataConnection = mock(DataConnection.class);
+        when(dataConnection.transferToClient(any(), any(InputStream.class))).then(invocation -> {
+            final long length = TestUtils.readAllBytes(invocation.<InputStream>getArgument(1)).length;
+            sent.addAndGet(length);
+            return length;
+        });
+        final ServerDataConnectionFactory dataConnectionFactory = mock(ServerDataConnectionFactory.class);
+        when(dataConnectionFactory.openConnection()).thenReturn(dataConnection);
+
+        final List<FtpReply> replies = new ArrayList<>();
+        final FtpIoSession ioSession = mock(FtpIoSession.class);
+        when(ioSession.getFileSystemView()).thenReturn(view);
+        when(ioSession.getDataConnection()).thenReturn(dataConnectionFactory);
+        when(ioSession.write(any())).then(invocation -> {
+            replies.add(invocation.getArgument(0));
+            return null;
+        });
+
+        final DefaultFtpRequest request = new DefaultFtpRequest(requestLine);
+        ftplet.beforeCommand(session, request);
+        command.execute(ioSession, mock(FtpServerContext.class), request);
+        ftplet.afterCommand(session, request, replies.get(replies.size() - 1));
+        return sent.get();
+    }
+
+    /**
+     * Returns a session which only holds attributes.
+     */
+    private static FtpSession sessionStub() {
+        final Map<String, Object> attributes = new HashMap<>();
+        return (FtpSession) Proxy.newProxyInstance(FtpSession.class.getClassLoader(), new Class<?>[]{FtpSession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAttribute":
+                            return attributes.get((String) args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        case "removeAttribute":
+                            attributes.remove((String) args[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
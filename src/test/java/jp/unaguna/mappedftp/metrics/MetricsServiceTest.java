@@ -0,0 +1,137 @@
+package jp.unaguna.mappedftp.metrics;
+
+import jp.unaguna.mappedftp.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsServiceTest {
+    @Test
+    public void testStart() throws InterruptedException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").add(5);
+        final RecordingReporter reporter = new RecordingReporter();
+
+        final MetricsService service = new MetricsService(registry);
+        service.setJmx(false);
+        service.setReportInterval(50);
+        service.setReporters(Collections.singletonList(reporter));
+
+        service.start();
+        try {
+            assertTrue(registry.isEnabled());
+            assertTrue(reporter.started);
+            Thread.sleep(300);
+        } finally {
+            service.stop();
+        }
+
+        assertTrue(reporter.closed);
+        // periodically, and once more on stop
+        assertTrue(reporter.snapshots.size() >= 3, String.valueOf(reporter.snapshots.size()));
+        assertEquals(5, reporter.snapshots.get(0).getCount("requests"));
+    }
+
+    @Test
+    public void testStart__broken_reporter() {
+        final RecordingReporter reporter = new RecordingReporter();
+        final MetricsReporter broken = new RecordingReporter() {
+            @Override
+            public void start() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+
+        final MetricsService service = new MetricsService(new MetricRegistry());
+        service.setJmx(false);
+        service.setReporters(Arrays.asList(broken, reporter));
+
+        service.start();
+        service.stop();
+
+        assertEquals(Collections.singletonList(reporter), service.getReporters());
+        assertFalse(reporter.snapshots.isEmpty());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests", "host", "a").add(3);
+        registry.histogram("latency").record(100);
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        final MetricsService service = new MetricsService(registry);
+        service.start();
+        try {
+            assertEquals(3L, mBeanServer.getAttribute(MetricsMBean.objectName(), "requests{host=a}"));
+            assertEquals(1L, mBeanServer.getAttribute(MetricsMBean.objectName(), "latency.count"));
+            assertEquals(100L, mBeanServer.getAttribute(MetricsMBean.objectName(), "latency.p99"));
+            assertEquals(7, mBeanServer.getMBeanInfo(MetricsMBean.objectName()).getAttributes().length);
+
+            mBeanServer.invoke(MetricsMBean.objectName(), "clear", new Object[0], new String[0]);
+            assertTrue(registry.snapshot().getCounters().isEmpty());
+        } finally {
+            service.stop();
+        }
+
+        assertFalse(mBeanServer.isRegistered(MetricsMBean.objectName()));
+    }
+
+    @Test
+    public void testHttpReporter() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests", "host", "a").add(3);
+        final HttpMetricsReporter reporter = new HttpMetricsReporter(null, 0);
+
+        final MetricsService service = new MetricsService(registry);
+        service.setJmx(false);
+        service.setReporters(Collections.singletonList(reporter));
+        service.start();
+        try {
+            service.report();
+
+            final URL url = new URL("http://127.0.0.1:" + reporter.getPort() + HttpMetricsReporter.PATH);
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream inputStream = connection.getInputStream()) {
+                final String body = new String(TestUtils.readAllBytes(inputStream), StandardCharsets.UTF_8);
+                assertEquals("requests{host=a} 3\n", body);
+            }
+        } finally {
+            service.stop();
+        }
+    }
+
+    private static class RecordingReporter implements MetricsReporter {
+        private final List<MetricsSnapshot> snapshots = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean started = false;
+        private volatile boolean closed = false;
+
+        @Override
+        public void start() throws IOException {
+            started = true;
+        }
+
+        @Override
+        public void report(MetricsSnapshot snapshot) {
+            snapshots.add(snapshot);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package jp.unaguna.mappedftp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteBufferInputStreamTest {
+    @Test
+    public void testRead() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, (byte) 0xff});
+        final ByteBufferInputStream inputStream = new ByteBufferInputStream(buffer);
+
+        assertEquals(3, inputStream.available());
+        assertEquals(1, inputStream.read());
+        assertEquals(2, inputStream.read());
+        assertEquals(0xff, inputStream.read());
+        assertEquals(-1, inputStream.read());
+        assertEquals(0, inputStream.available());
+    }
+
+    @Test
+    public void testRead__array() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5});
+        final ByteBufferInputStream inputStream = new ByteBufferInputStream(buffer);
+        final byte[] b = new byte[4];
+
+        assertEquals(0, inputStream.read(b, 0, 0));
+        assertEquals(3, inputStream.read(b, 1, 3));
+        assertArrayEquals(new byte[]{0, 1, 2, 3}, b);
+        assertEquals(2, inputStream.read(b, 0, 4));
+        assertArrayEquals(new byte[]{4, 5, 2, 3}, b);
+        assertEquals(-1, inputStream.read(b, 0, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> inputStream.read(b, 2, 3));
+    }
+
+    @Test
+    public void testSkip() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        final ByteBufferInputStream inputStream = new ByteBufferInputStream(buffer);
+
+        assertEquals(0, inputStream.skip(-1));
+        assertEquals(4, inputStream.skip(4));
+        assertEquals(6, inputStream.skip(100));
+        assertEquals(0, inputStream.skip(1));
+        assertEquals(-1, inputStream.read());
+    }
+}
@@ -0,0 +1,123 @@
+package jp.unaguna.mappedftp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChannelUtilsTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testTransfer__file() throws IOException {
+        final byte[] content = createContent(200_000);
+        final Path file = Files.write(tempDir.resolve("file"), content);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            source.position(10);
+            assertEquals(content.length - 10, ChannelUtils.transfer(source, new StreamChannel(output, 0)));
+            assertEquals(content.length, source.position());
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 10, content.length), output.toByteArray());
+    }
+
+    @Test
+    public void testTransfer__file_target_accepts_nothing() throws IOException {
+        final byte[] content = createContent(200_000);
+        final Path file = Files.write(tempDir.resolve("file"), content);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamChannel target = new StreamChannel(output, 3);
+
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(content.length, ChannelUtils.transfer(source, target));
+            assertEquals(content.length, source.position());
+        }
+        assertArrayEquals(content, output.toByteArray());
+    }
+
+    @Test
+    public void testTransfer__slice_target_accepts_nothing() throws IOException {
+        final byte[] content = createContent(200_000);
+        final Path file = Files.write(tempDir.resolve("file"), content);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamChannel target = new StreamChannel(output, 3);
+
+        try (SharedFileChannel shared = new SharedFileChannel(file)) {
+            final FileChannelSlice slice = new FileChannelSlice(shared, 100, 150_000);
+            assertEquals(150_000 - 100, ChannelUtils.transfer(slice, target));
+            assertEquals(0, slice.remaining());
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 150_000), output.toByteArray());
+    }
+
+    @Test
+    public void testTransfer__slice_of_truncated_file() throws IOException {
+        final byte[] content = createContent(1000);
+        final Path file = Files.write(tempDir.resolve("file"), content);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (SharedFileChannel shared = new SharedFileChannel(file)) {
+            final FileChannelSlice slice = new FileChannelSlice(shared, 100, 900);
+            try (FileChannel truncating = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncating.truncate(500);
+            }
+            assertEquals(400, ChannelUtils.transfer(slice, new StreamChannel(output, 0)));
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 500), output.toByteArray());
+    }
+
+    private static byte[] createContent(int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    /**
+     * A channel writing to a stream, which accepts no bytes at the first writes as a non-blocking channel.
+     */
+    private static class StreamChannel implements WritableByteChannel {
+        private final ByteArrayOutputStream output;
+        private int refusals;
+
+        StreamChannel(ByteArrayOutputStream output, int refusals) {
+            this.output = output;
+            this.refusals = refusals;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            if (refusals > 0) {
+                refusals--;
+                return 0;
+            }
+            final int length = src.remaining();
+            final byte[] bytes = new byte[length];
+            src.get(bytes);
+            output.write(bytes, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
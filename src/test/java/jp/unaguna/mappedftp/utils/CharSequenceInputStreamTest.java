@@ -0,0 +1,85 @@
+package jp.unaguna.mappedftp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CharSequenceInputStreamTest {
+    @Test
+    public void testRead() throws IOException {
+        final List<String> source = Arrays.asList("abc\r\n", "", "日本語\r\n", "🍣\r\n");
+
+        final InputStream inputStream = new CharSequenceInputStream(source.iterator(), StandardCharsets.UTF_8);
+
+        assertArrayEquals(String.join("", source).getBytes(StandardCharsets.UTF_8), readAll(inputStream));
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testRead__by_byte() throws IOException {
+        final InputStream inputStream = new CharSequenceInputStream(
+                Arrays.asList("ab", "日").iterator(), StandardCharsets.UTF_8);
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) >= 0) {
+            actual.write(b);
+        }
+
+        assertArrayEquals("ab日".getBytes(StandardCharsets.UTF_8), actual.toByteArray());
+    }
+
+    @Test
+    public void testRead__larger_than_buffer() throws IOException {
+        final List<String> source = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            source.add("ファイル" + i + "\r\n");
+        }
+        final StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longText.append("あ");
+        }
+        source.add(longText.toString());
+
+        final InputStream inputStream = new CharSequenceInputStream(source.iterator(), StandardCharsets.UTF_8);
+
+        assertArrayEquals(String.join("", source).getBytes(StandardCharsets.UTF_8), readAll(inputStream));
+    }
+
+    @Test
+    public void testRead__malformed() throws IOException {
+        // a lone surrogate is replaced instead of being carried to the next sequence
+        final InputStream inputStream = new CharSequenceInputStream(
+                Arrays.asList("a\uD83C", "b").iterator(), StandardCharsets.UTF_8);
+
+        assertEquals("a?b", new String(readAll(inputStream), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRead__empty() throws IOException {
+        final InputStream inputStream = new CharSequenceInputStream(
+                Collections.<String>emptyList().iterator(), StandardCharsets.UTF_8);
+
+        assertEquals(-1, inputStream.read());
+        assertEquals(-1, inputStream.read(new byte[4], 0, 4));
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int count;
+        while ((count = inputStream.read(buffer, 0, buffer.length)) >= 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        return outputStream.toByteArray();
+    }
+}